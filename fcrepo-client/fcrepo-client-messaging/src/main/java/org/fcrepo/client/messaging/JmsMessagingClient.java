@@ -11,11 +11,15 @@ import java.util.Properties;
 import javax.naming.Context;
 
 import javax.jms.Destination;
+import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
+import javax.jms.TextMessage;
 import javax.jms.Topic;
 
 import org.fcrepo.server.errors.MessagingException;
+import org.fcrepo.server.messaging.APIMMessage;
+import org.fcrepo.server.messaging.AtomAPIMMessage;
 import org.fcrepo.server.messaging.JMSManager;
 import org.fcrepo.server.messaging.JMSManager.DestinationType;
 import org.slf4j.Logger;
@@ -331,6 +335,32 @@ public class JmsMessagingClient implements MessagingClient, MessageListener {
         m_listener.onMessage(m_clientId, message);
     }
 
+    /**
+     * Reads the API-M notification in a message received by a
+     * MessagingListener. The Atom entry is read as it is streamed, without
+     * building a document model.
+     *
+     * @param message a message from the API-M topic or queue
+     * @return the API-M method call, or null if the message does not
+     *         hold an Atom entry.
+     * @throws MessagingException if the message text cannot be read.
+     */
+    public static APIMMessage getAPIMMessage(Message message)
+            throws MessagingException {
+        if (!(message instanceof TextMessage)) {
+            return null;
+        }
+        try {
+            return new AtomAPIMMessage(((TextMessage) message).getText());
+        } catch (JMSException e) {
+            throw new MessagingException(e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Message is not an API-M notification: "
+                    + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Starts the connection to the JMS Broker. Retries on failure.
      */
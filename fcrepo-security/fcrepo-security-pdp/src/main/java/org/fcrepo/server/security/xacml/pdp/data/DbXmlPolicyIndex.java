@@ -25,7 +25,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.sun.xacml.AbstractPolicy;
 import com.sun.xacml.EvaluationCtx;
+import com.sun.xacml.finder.PolicyFinder;
 
 import com.sleepycat.dbxml.XmlDocument;
 import com.sleepycat.dbxml.XmlDocumentConfig;
@@ -90,7 +92,8 @@ public class DbXmlPolicyIndex
      * EvaluationCtx)
      */
     @Override
-    public Map<String, byte[]> getPolicies(EvaluationCtx eval)
+    public Map<String, AbstractPolicy> getPolicies(EvaluationCtx eval,
+                                                   PolicyFinder policyFinder)
             throws PolicyIndexException {
         long a = 0;
         long b = 0;
@@ -180,7 +183,7 @@ public class DbXmlPolicyIndex
             log.debug("Total exec. time: " + total + "ns");
         }
 
-        return documents;
+        return parsePolicies(documents, policyFinder);
     }
 
     /**
@@ -267,6 +270,7 @@ public class DbXmlPolicyIndex
             log.debug("Adding document: " + docName);
             dbXmlManager.container.putDocument(doc,
                                                dbXmlManager.updateContext);
+            forgetParsedPolicy(docName);
             setLastUpdate(System.currentTimeMillis());
         } catch (XmlException xe) {
             if (xe.getErrorCode() == XmlException.UNIQUE_ERROR) {
@@ -296,6 +300,7 @@ public class DbXmlPolicyIndex
         DbXmlManager.writeLock.lock();
         try {
             dbXmlManager.container.deleteDocument(name, dbXmlManager.updateContext);
+            forgetParsedPolicy(name);
             setLastUpdate(System.currentTimeMillis());
         } catch (XmlException xe) {
             // safe delete - only warn if not found
@@ -513,6 +518,7 @@ public class DbXmlPolicyIndex
 
         // clear database dir
         res = deleteDirectory(dbDir);
+        forgetParsedPolicies();
 
         // and init will create a new database (by creating a new dbXmlManager)
         init();
@@ -26,7 +26,9 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import com.sun.xacml.AbstractPolicy;
 import com.sun.xacml.EvaluationCtx;
+import com.sun.xacml.finder.PolicyFinder;
 
 import com.sun.org.apache.xml.internal.serialize.OutputFormat;
 import com.sun.org.apache.xml.internal.serialize.XMLSerializer;
@@ -140,6 +142,7 @@ public class ExistPolicyIndex extends XPathPolicyIndex implements PolicyIndex {
 
             // add it
             m_collection.storeResource(res);
+            forgetParsedPolicy(name);
         } catch (XMLDBException e) {
             log.error("Error adding resource " + name + " " + e.getMessage(), e);
             throw new PolicyIndexException("Error adding resource " + name + " " + e.getMessage(), e);
@@ -154,6 +157,7 @@ public class ExistPolicyIndex extends XPathPolicyIndex implements PolicyIndex {
         try {
             writeLock.lock();
             deleteCollection();
+            forgetParsedPolicies();
         } finally {
             writeLock.unlock();
         }
@@ -185,6 +189,7 @@ public class ExistPolicyIndex extends XPathPolicyIndex implements PolicyIndex {
                 return false;
             }
             m_collection.removeResource(res);
+            forgetParsedPolicy(name);
         } catch (XMLDBException e) {
             log.error("Error deleting resource " + name + " " + e.getMessage(), e);
             throw new PolicyIndexException("Error deleting resource " + name + " " + e.getMessage(), e);
@@ -196,7 +201,8 @@ public class ExistPolicyIndex extends XPathPolicyIndex implements PolicyIndex {
 
 
     @Override
-    public Map<String, byte[]> getPolicies(EvaluationCtx eval)
+    public Map<String, AbstractPolicy> getPolicies(EvaluationCtx eval,
+                                                   PolicyFinder policyFinder)
     throws PolicyIndexException {
 
         Map<String, Set<AttributeBean>> attributeMap;
@@ -240,7 +246,7 @@ public class ExistPolicyIndex extends XPathPolicyIndex implements PolicyIndex {
             readLock.unlock();
         }
 
-        return documents;
+        return parsePolicies(documents, policyFinder);
 
 
     }
@@ -284,6 +290,7 @@ public class ExistPolicyIndex extends XPathPolicyIndex implements PolicyIndex {
 
             // update it
             m_collection.storeResource(res);
+            forgetParsedPolicy(name);
         } catch (XMLDBException e) {
             log.error("Error updating resource " + name + " " + e.getMessage(), e);
             throw new PolicyIndexException("Error updating resource " + name + " " + e.getMessage(), e);
@@ -19,15 +19,22 @@ package org.fcrepo.server.security.xacml.pdp.data;
 import java.io.File;
 import java.io.FileInputStream;
 
+import java.net.URISyntaxException;
+
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 
+import com.sun.xacml.AbstractPolicy;
 import com.sun.xacml.EvaluationCtx;
+import com.sun.xacml.finder.PolicyFinder;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -40,12 +47,20 @@ import org.fcrepo.common.MalformedPIDException;
 import org.fcrepo.common.PID;
 
 import org.fcrepo.server.security.xacml.pdp.MelcoePDP;
+import org.fcrepo.server.security.xacml.pdp.data.PolicyTargetIndex.PolicyTargets;
+import org.fcrepo.server.security.xacml.util.AttributeBean;
 import org.fcrepo.server.security.xacml.util.DataFileUtils;
 
 /**
  * Implements PolicyIndex for a filesystem policy index, cached in memory
  *
- * FIXME: there is no indexing; all policies will be returned by getPolicies()
+ * Policies are indexed in memory by the values in their targets (see
+ * PolicyTargetIndex), so getPolicies() returns only the policies whose targets
+ * could match the request, and those whose targets can't be indexed.
+ *
+ * The parsed and indexed policies are kept as a snapshot that is never
+ * modified; any change to the policies makes a new snapshot, which is built
+ * when it is next needed.
  *
  * @author nishen@melcoe.mq.edu.au
  */
@@ -63,6 +78,10 @@ implements PolicyIndex {
 
     // contains the cached policies.  one and only one of these
     private static Map<String, byte[]> policies = null;
+    // how each policy can be indexed by its target
+    private static final Map<String, PolicyTargets> policyTargets = new ConcurrentHashMap<String, PolicyTargets>();
+    // the parsed and indexed policies used by getPolicies(), or null if they have changed since
+    private static volatile Snapshot snapshot = null;
     // protects concurrent access to the policies (particularly the files in the cache directory)
     private static final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
     public static final Lock readLock = rwl.readLock();
@@ -70,15 +89,24 @@ implements PolicyIndex {
 
     protected FilePolicyIndex()
     throws PolicyIndexException {
-        super();
-        indexed = false; // this implementation returns all policies when queried - no indexing/filtering
+        this(MelcoePDP.PDP_HOME);
+    }
+
+    /**
+     * @param pdpHome the pdp directory that holds the configuration
+     * @throws PolicyIndexException
+     */
+    FilePolicyIndex(File pdpHome)
+    throws PolicyIndexException {
+        super(pdpHome);
+        indexed = true;
 
         logger.info("Starting FilePolicyIndex");
 
         dbFactory = DocumentBuilderFactory.newInstance();
         dbFactory.setNamespaceAware(true);
 
-        initConfig();
+        initConfig(pdpHome);
         loadPolicies(DB_HOME);
 
     }
@@ -89,13 +117,61 @@ implements PolicyIndex {
      * EvaluationCtx)
      */
     @Override
-    public Map<String, byte[]> getPolicies(EvaluationCtx eval)
+    public Map<String, AbstractPolicy> getPolicies(EvaluationCtx eval,
+                                                   PolicyFinder policyFinder)
     throws PolicyIndexException {
-        // no indexing, return everything
-        // return a copy, otherwise the map could change during evaluation if policies are added, deleted etc
+        Map<String, Set<AttributeBean>> attributeMap;
+        try {
+            attributeMap = getAttributeMap(eval);
+        } catch (URISyntaxException e) {
+            throw new PolicyIndexException("Error getting attribute map " + e.getMessage(), e);
+        }
+
+        // the snapshot is never modified, so it can't change during evaluation if policies are added, deleted etc
+        return getSnapshot(policyFinder).targetIndex.getPolicies(attributeMap);
+    }
+
+    private Snapshot getSnapshot(PolicyFinder policyFinder) throws PolicyIndexException {
+        Snapshot current = snapshot;
+        if (current != null && current.policyFinder == policyFinder) {
+            return current;
+        }
+
+        // writers wait for this, so the snapshot can't be stale when it's stored
         readLock.lock();
         try {
-            return new ConcurrentHashMap<String, byte[]>(policies);
+            Map<String, AbstractPolicy> parsed = parsePolicies(policies, policyFinder);
+            Map<String, PolicyTargets> targets = new HashMap<String, PolicyTargets>();
+            DocumentBuilder builder;
+            try {
+                builder = dbFactory.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new PolicyIndexException("Error creating document builder", e);
+            }
+            for (String name : parsed.keySet()) {
+                byte[] document = policies.get(name);
+                PolicyTargets target = policyTargets.get(name);
+                if (target == null || !target.isReadFrom(document)) {
+                    try {
+                        target = PolicyTargetIndex.readTargets(document, builder, indexMap);
+                        policyTargets.put(name, target);
+                    } catch (PolicyIndexException e) {
+                        // not indexed, so it will be a candidate for every request
+                        logger.warn("Could not index policy " + name + " by its target", e);
+                        continue;
+                    }
+                }
+                targets.put(name, target);
+            }
+
+            current = new Snapshot(policyFinder, new PolicyTargetIndex(parsed, targets));
+            if (logger.isDebugEnabled()) {
+                logger.debug("Indexed " + parsed.size() + " policies, of which "
+                             + current.targetIndex.getUnindexedCount()
+                             + " are candidates for every request");
+            }
+            snapshot = current;
+            return current;
         } finally {
             readLock.unlock();
         }
@@ -206,6 +282,7 @@ implements PolicyIndex {
         if (policies.put(name, document.getBytes()) != null) {
             throw new PolicyIndexException("Attempting to add policy " + name + " but it already exists");
         }
+        policiesChanged(name);
 
         try {
             logger.debug("Saving policy file in index: " + filename);
@@ -222,6 +299,7 @@ implements PolicyIndex {
         if (policies.remove(name) == null) {
             throw new PolicyIndexException("Attempting to delete non-existent policy " + name);
         }
+        policiesChanged(name);
 
         File policy = nameToFile(name);
 
@@ -241,6 +319,13 @@ implements PolicyIndex {
 
     }
 
+    // must be called with the write lock held
+    private static void policiesChanged(String name) {
+        forgetParsedPolicy(name);
+        policyTargets.remove(name);
+        snapshot = null;
+    }
+
 
     /*
      * (non-Javadoc)
@@ -288,6 +373,9 @@ implements PolicyIndex {
             }
             // clear the cache
             policies = new ConcurrentHashMap<String, byte[]>();
+            forgetParsedPolicies();
+            policyTargets.clear();
+            snapshot = null;
 
             return true;
         } finally {
@@ -303,7 +391,7 @@ implements PolicyIndex {
      *
      * @throws PolicyStoreException
      */
-    private void initConfig() throws PolicyIndexException {
+    private void initConfig(File pdpHome) throws PolicyIndexException {
         if (logger.isDebugEnabled()) {
             Runtime runtime = Runtime.getRuntime();
             logger.debug("Total memory: " + runtime.totalMemory() / 1024);
@@ -312,7 +400,7 @@ implements PolicyIndex {
         }
 
         try {
-            String home = MelcoePDP.PDP_HOME.getAbsolutePath();
+            String home = pdpHome.getAbsolutePath();
 
             String filename = home + "/conf/config-pdm-file.xml";
             File f = new File(filename);
@@ -334,7 +422,7 @@ implements PolicyIndex {
                 Node node = nodes.item(x);
                 if (node.getNodeName().equals("directory")) {
                     DB_HOME =
-                        MelcoePDP.PDP_HOME.getAbsolutePath()
+                        home
                         + node.getAttributes().getNamedItem("name")
                         .getNodeValue();
                     File db_home = new File(DB_HOME);
@@ -408,6 +496,19 @@ implements PolicyIndex {
         }
     }
 
+    /**
+     * The parsed and indexed policies, and the PolicyFinder they were parsed for.
+     */
+    private static class Snapshot {
+
+        private final PolicyFinder policyFinder;
 
+        private final PolicyTargetIndex targetIndex;
+
+        Snapshot(PolicyFinder policyFinder, PolicyTargetIndex targetIndex) {
+            this.policyFinder = policyFinder;
+            this.targetIndex = targetIndex;
+        }
+    }
 
 }
@@ -6,7 +6,9 @@ package org.fcrepo.server.security.xacml.pdp.data;
 
 import java.util.Map;
 
+import com.sun.xacml.AbstractPolicy;
 import com.sun.xacml.EvaluationCtx;
+import com.sun.xacml.finder.PolicyFinder;
 
 
 /**
@@ -41,12 +43,19 @@ public interface PolicyIndex {
      * 100%. This merely eliminates the need to match every policy, just the
      * most likely ones to apply.
      *
+     * The policies are returned already parsed; a policy is only parsed again
+     * when it has been added, updated or deleted. The map returned must not be
+     * modified.
+     *
      * @param eval
      *        the Evaluation Context from which to match policies against
-     * @return the List of potential policies
+     * @param policyFinder
+     *        the PolicyFinder to be used by policy sets
+     * @return the potential policies, by policy name
      * @throws PolicyIndexException
      */
-    Map<String, byte[]> getPolicies(EvaluationCtx eval)
+    Map<String, AbstractPolicy> getPolicies(EvaluationCtx eval,
+                                            PolicyFinder policyFinder)
             throws PolicyIndexException;
 
 
@@ -1,5 +1,6 @@
 package org.fcrepo.server.security.xacml.pdp.data;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -9,22 +10,28 @@ import java.net.URI;
 import java.net.URISyntaxException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import com.sun.xacml.AbstractPolicy;
 import com.sun.xacml.EvaluationCtx;
+import com.sun.xacml.ParsingException;
 import com.sun.xacml.attr.AttributeDesignator;
 import com.sun.xacml.attr.AttributeValue;
 import com.sun.xacml.attr.BagAttribute;
 import com.sun.xacml.cond.EvaluationResult;
+import com.sun.xacml.finder.PolicyFinder;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -36,6 +43,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.fcrepo.server.security.xacml.pdp.MelcoePDP;
+import org.fcrepo.server.security.xacml.pdp.finder.policy.PolicyReader;
 import org.fcrepo.server.security.xacml.util.AttributeBean;
 
 
@@ -44,6 +52,11 @@ import org.fcrepo.server.security.xacml.util.AttributeBean;
  *
  * Gets the index configuration common to all implementations.
  *
+ * Also keeps the parsed form of each policy, so that a policy is only parsed
+ * again when it changes. The parsed policies are shared by all instances, as
+ * the policies themselves are; implementations must call forgetParsedPolicy()
+ * whenever a policy is added, updated or deleted.
+ *
  * @author Stephen Bayliss
  * @version $Id$
  */
@@ -60,6 +73,15 @@ implements PolicyIndex {
 
     protected static final String METADATA_POLICY_NS = "metadata";
 
+    // parsed policies, by policy name
+    private static final Map<String, ParsedPolicy> parsedPolicies =
+        new ConcurrentHashMap<String, ParsedPolicy>();
+
+    // reads policies for parsePolicy(); created for the first PolicyFinder
+    private PolicyReader policyReader = null;
+
+    private PolicyFinder policyReaderFinder = null;
+
 
     // FIXME: migrate to Spring-based configuration
     // this path is relative to the pdp directory
@@ -77,7 +99,15 @@ implements PolicyIndex {
 
 
     protected PolicyIndexBase() throws PolicyIndexException {
-        initConfig();
+        this(MelcoePDP.PDP_HOME);
+    }
+
+    /**
+     * @param pdpHome the pdp directory that holds the configuration
+     * @throws PolicyIndexException
+     */
+    protected PolicyIndexBase(File pdpHome) throws PolicyIndexException {
+        initConfig(pdpHome);
 
     }
 
@@ -86,8 +116,8 @@ implements PolicyIndex {
      * configuration is a list of policy target attributes to index
      * @throws PolicyIndexException
      */
-    private void initConfig() throws PolicyIndexException {
-            String home = MelcoePDP.PDP_HOME.getAbsolutePath();
+    private void initConfig(File pdpHome) throws PolicyIndexException {
+            String home = pdpHome.getAbsolutePath();
 
             String filename = home + CONFIG_FILE;
             File f = new File(filename);
@@ -235,19 +265,17 @@ implements PolicyIndex {
                                 attributeBeans.put(attributeId, ab);
                             }
 
+                            // the value itself is always included, for policies that match it exactly
+                            ab.addValue(value.encode());
                             if (attributeId.equals(XACML_RESOURCE_ID)
                                     && value.encode().startsWith("/")) {
                                 String[] components =
                                         makeComponents(value.encode());
-                                if (components != null && components.length > 0) {
+                                if (components != null) {
                                     for (String c : components) {
                                         ab.addValue(c);
                                     }
-                                } else {
-                                    ab.addValue(value.encode());
                                 }
-                            } else {
-                                ab.addValue(value.encode());
                             }
                         }
                     }
@@ -371,6 +399,121 @@ implements PolicyIndex {
         return components.toArray(new String[components.size()]);
     }
 
+    /**
+     * Parses the policy documents, using the parsed policies that are already
+     * known where the documents have not changed. Policies that cannot be
+     * parsed are logged and left out.
+     *
+     * @param documents
+     *        policy documents, by policy name
+     * @param policyFinder
+     *        the PolicyFinder to be used by policy sets
+     * @return the parsed policies, by policy name
+     */
+    protected Map<String, AbstractPolicy> parsePolicies(Map<String, byte[]> documents,
+                                                        PolicyFinder policyFinder) {
+        Map<String, AbstractPolicy> policies =
+            new HashMap<String, AbstractPolicy>();
+        for (Map.Entry<String, byte[]> document : documents.entrySet()) {
+            String name = document.getKey();
+            try {
+                policies.put(name, parsePolicy(name,
+                                               document.getValue(),
+                                               policyFinder));
+            } catch (ParsingException pe) {
+                log.error("Error parsing policy: " + name + " ("
+                          + pe.getMessage() + ")");
+            }
+        }
+        return Collections.unmodifiableMap(policies);
+    }
+
+    /**
+     * Parses a single policy document, unless it has already been parsed.
+     *
+     * @param name
+     *        the name of the policy
+     * @param document
+     *        the policy document
+     * @param policyFinder
+     *        the PolicyFinder to be used by policy sets
+     * @return the parsed policy
+     * @throws ParsingException
+     */
+    protected AbstractPolicy parsePolicy(String name,
+                                         byte[] document,
+                                         PolicyFinder policyFinder)
+    throws ParsingException {
+        ParsedPolicy parsed = parsedPolicies.get(name);
+        if (parsed != null && parsed.isParsedFrom(document, policyFinder)) {
+            return parsed.policy;
+        }
 
+        if (log.isDebugEnabled()) {
+            log.debug("Parsing policy: " + name);
+        }
+        AbstractPolicy policy =
+            getPolicyReader(policyFinder)
+            .readPolicy(new ByteArrayInputStream(document));
+        parsedPolicies.put(name, new ParsedPolicy(document,
+                                                  policyFinder,
+                                                  policy));
+        return policy;
+    }
+
+    private synchronized PolicyReader getPolicyReader(PolicyFinder policyFinder) {
+        if (policyReader == null || policyReaderFinder != policyFinder) {
+            policyReader = new PolicyReader(policyFinder, null);
+            policyReaderFinder = policyFinder;
+        }
+        return policyReader;
+    }
+
+    /**
+     * Forgets the parsed form of a policy that has been added, updated or
+     * deleted.
+     *
+     * @param name
+     *        the name of the policy
+     */
+    protected static void forgetParsedPolicy(String name) {
+        parsedPolicies.remove(name);
+    }
+
+    /**
+     * Forgets the parsed form of all policies, when the index is cleared.
+     */
+    protected static void forgetParsedPolicies() {
+        parsedPolicies.clear();
+    }
+
+    /**
+     * A parsed policy, and the document it was parsed from. The document is
+     * kept so that a policy which changed without the index being told (or
+     * which was read just before a change) is never mistaken for the new one.
+     */
+    private static class ParsedPolicy {
+
+        private final byte[] document;
+
+        private final PolicyFinder policyFinder;
+
+        private final AbstractPolicy policy;
+
+        ParsedPolicy(byte[] document,
+                     PolicyFinder policyFinder,
+                     AbstractPolicy policy) {
+            this.document = document;
+            this.policyFinder = policyFinder;
+            this.policy = policy;
+        }
+
+        boolean isParsedFrom(byte[] otherDocument,
+                             PolicyFinder otherPolicyFinder) {
+            return policyFinder == otherPolicyFinder
+                   && (document == otherDocument || Arrays
+                           .equals(document, otherDocument));
+        }
+    }
 
 }
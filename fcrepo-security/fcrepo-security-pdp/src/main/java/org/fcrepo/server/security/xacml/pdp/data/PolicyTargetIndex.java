@@ -0,0 +1,303 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.security.xacml.pdp.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import com.sun.xacml.AbstractPolicy;
+import com.sun.xacml.attr.AttributeDesignator;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import org.xml.sax.SAXException;
+
+import org.fcrepo.server.security.xacml.util.AttributeBean;
+
+/**
+ * An in-memory index of policies by the attribute values in their targets.
+ *
+ * A target section (Subjects, Resources, Actions or Environments) can only
+ * match a request if one of its alternatives matches, and an alternative can
+ * only match if each of its matches does. So if every alternative in a
+ * section has an equality match on an indexed attribute, the policy can only
+ * match a request that has one of those attribute values. The policy is
+ * indexed by those values, for the first such section in the order Resources,
+ * Actions, Subjects, Environments. Policies with no such section (those with
+ * wildcard targets, or that use other match functions) are candidates for
+ * every request.
+ *
+ * The candidates still have to be matched against the request; the index just
+ * leaves out the policies that can't possibly match.
+ *
+ * @version $Id$
+ */
+class PolicyTargetIndex {
+
+    // the match functions that require the request to have the policy's value
+    private static final Set<String> EQUAL_FUNCTIONS =
+        new HashSet<String>(Arrays.asList(
+                "urn:oasis:names:tc:xacml:1.0:function:string-equal",
+                "urn:oasis:names:tc:xacml:1.0:function:anyURI-equal"));
+
+    // the target sections, in order of preference for indexing
+    private static final String[] SECTIONS =
+        new String[] {"Resource", "Action", "Subject", "Environment"};
+
+    // policies that can't be indexed by their targets
+    private final Map<String, AbstractPolicy> unindexed =
+        new HashMap<String, AbstractPolicy>();
+
+    // indexed policies: section attributes -> attribute id and value -> policies
+    private final Map<String, Map<String, Map<String, AbstractPolicy>>> indexed =
+        new HashMap<String, Map<String, Map<String, AbstractPolicy>>>();
+
+    /**
+     * Indexes the policies.
+     *
+     * @param policies
+     *        the parsed policies, by policy name
+     * @param targets
+     *        the targets of the policies, as read by readTargets()
+     */
+    PolicyTargetIndex(Map<String, AbstractPolicy> policies,
+                      Map<String, PolicyTargets> targets) {
+        for (Map.Entry<String, AbstractPolicy> entry : policies.entrySet()) {
+            String name = entry.getKey();
+            PolicyTargets policyTargets = targets.get(name);
+            if (policyTargets == null || policyTargets.section == null) {
+                unindexed.put(name, entry.getValue());
+                continue;
+            }
+
+            Map<String, Map<String, AbstractPolicy>> sectionIndex =
+                indexed.get(policyTargets.section);
+            if (sectionIndex == null) {
+                sectionIndex = new HashMap<String, Map<String, AbstractPolicy>>();
+                indexed.put(policyTargets.section, sectionIndex);
+            }
+            for (String key : policyTargets.keys) {
+                Map<String, AbstractPolicy> keyPolicies = sectionIndex.get(key);
+                if (keyPolicies == null) {
+                    keyPolicies = new HashMap<String, AbstractPolicy>();
+                    sectionIndex.put(key, keyPolicies);
+                }
+                keyPolicies.put(name, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Gets the policies whose targets could match the request.
+     *
+     * @param attributeMap
+     *        the indexed attributes of the request, as returned by
+     *        PolicyIndexBase.getAttributeMap()
+     * @return the candidate policies, by policy name
+     */
+    Map<String, AbstractPolicy> getPolicies(Map<String, Set<AttributeBean>> attributeMap) {
+        Map<String, AbstractPolicy> candidates =
+            new HashMap<String, AbstractPolicy>(unindexed);
+        for (Map.Entry<String, Map<String, Map<String, AbstractPolicy>>> section : indexed
+                .entrySet()) {
+            Set<AttributeBean> beans = attributeMap.get(section.getKey());
+            if (beans == null) {
+                continue;
+            }
+            for (AttributeBean bean : beans) {
+                for (String value : bean.getValues()) {
+                    Map<String, AbstractPolicy> keyPolicies =
+                        section.getValue().get(makeKey(bean.getId(), value));
+                    if (keyPolicies != null) {
+                        candidates.putAll(keyPolicies);
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableMap(candidates);
+    }
+
+    /**
+     * @return the number of policies that are candidates for every request
+     */
+    int getUnindexedCount() {
+        return unindexed.size();
+    }
+
+    /**
+     * Reads the target of a policy, to find how it can be indexed.
+     *
+     * @param document
+     *        the policy document
+     * @param builder
+     *        a namespace-aware DocumentBuilder
+     * @param indexMap
+     *        the indexed attributes and their types, by section
+     * @return the targets of the policy
+     * @throws PolicyIndexException
+     *         if the document can't be read
+     */
+    static PolicyTargets readTargets(byte[] document,
+                                     DocumentBuilder builder,
+                                     Map<String, Map<String, String>> indexMap)
+    throws PolicyIndexException {
+        Element root;
+        try {
+            root =
+                builder.parse(new ByteArrayInputStream(document))
+                .getDocumentElement();
+        } catch (SAXException e) {
+            throw new PolicyIndexException("Error parsing policy target", e);
+        } catch (IOException e) {
+            throw new PolicyIndexException("Error reading policy target", e);
+        }
+
+        List<Element> target = getChildren(root, "Target");
+        if (target.size() == 1) {
+            for (String section : SECTIONS) {
+                String sectionAttributes = section.toLowerCase() + "Attributes";
+                Set<String> keys =
+                    readSectionKeys(target.get(0),
+                                    section,
+                                    indexMap.get(sectionAttributes));
+                if (keys != null) {
+                    return new PolicyTargets(document, sectionAttributes, keys);
+                }
+            }
+        }
+        return new PolicyTargets(document, null, null);
+    }
+
+    /**
+     * Gets the values that a request must have one of, for the section to
+     * match; or null if the section may match without any of them.
+     */
+    private static Set<String> readSectionKeys(Element target,
+                                               String section,
+                                               Map<String, String> attributes) {
+        List<Element> sections = getChildren(target, section + "s");
+        if (attributes == null || attributes.isEmpty() || sections.size() != 1
+                || !getChildren(sections.get(0), "Any" + section).isEmpty()) {
+            return null;
+        }
+
+        List<Element> alternatives = getChildren(sections.get(0), section);
+        if (alternatives.isEmpty()) {
+            return null;
+        }
+
+        Set<String> keys = new HashSet<String>();
+        for (Element alternative : alternatives) {
+            String key = null;
+            for (Element match : getChildren(alternative, section + "Match")) {
+                key = readMatchKey(match, section, attributes);
+                if (key != null) {
+                    break;
+                }
+            }
+            if (key == null) {
+                // this alternative doesn't depend on an indexed value
+                return null;
+            }
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    /**
+     * Gets the attribute id and value that a request must have for the match
+     * to succeed, or null if it can't be indexed.
+     */
+    private static String readMatchKey(Element match,
+                                       String section,
+                                       Map<String, String> attributes) {
+        if (!EQUAL_FUNCTIONS.contains(match.getAttribute("MatchId"))) {
+            return null;
+        }
+
+        List<Element> values = getChildren(match, "AttributeValue");
+        List<Element> designators =
+            getChildren(match, section + "AttributeDesignator");
+        if (values.size() != 1 || designators.size() != 1) {
+            return null;
+        }
+
+        Element designator = designators.get(0);
+        String attributeId = designator.getAttribute("AttributeId");
+        String type = attributes.get(attributeId);
+        if (type == null || !type.equals(designator.getAttribute("DataType"))) {
+            return null;
+        }
+
+        // only the default subject category is in the request's attributes
+        String category = designator.getAttribute("SubjectCategory");
+        if (category.length() > 0
+                && !category.equals(AttributeDesignator.SUBJECT_CATEGORY_DEFAULT)) {
+            return null;
+        }
+
+        Node value = values.get(0).getFirstChild();
+        if (value == null || value.getNodeType() != Node.TEXT_NODE
+                || value.getNextSibling() != null) {
+            return null;
+        }
+        return makeKey(attributeId, value.getNodeValue());
+    }
+
+    private static List<Element> getChildren(Element parent, String localName) {
+        List<Element> children = new ArrayList<Element>();
+        for (Node child = parent.getFirstChild(); child != null; child =
+            child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE
+                    && localName.equals(child.getLocalName())) {
+                children.add((Element) child);
+            }
+        }
+        return children;
+    }
+
+    private static String makeKey(String attributeId, String value) {
+        return attributeId + " " + value;
+    }
+
+    /**
+     * How a policy can be indexed: the section whose values it is indexed by,
+     * and the values (with their attribute ids). If the section is null, the
+     * policy can't be indexed.
+     */
+    static class PolicyTargets {
+
+        private final byte[] document;
+
+        private final String section;
+
+        private final Set<String> keys;
+
+        PolicyTargets(byte[] document, String section, Set<String> keys) {
+            this.document = document;
+            this.section = section;
+            this.keys = keys;
+        }
+
+        /**
+         * @return true if these are the targets of this document
+         */
+        boolean isReadFrom(byte[] otherDocument) {
+            return document == otherDocument;
+        }
+    }
+}
@@ -18,8 +18,6 @@
 
 package org.fcrepo.server.security.xacml.pdp.finder.policy;
 
-import java.io.ByteArrayInputStream;
-
 import java.net.URI;
 import java.net.URISyntaxException;
 
@@ -31,7 +29,6 @@ import java.util.Map;
 import com.sun.xacml.AbstractPolicy;
 import com.sun.xacml.EvaluationCtx;
 import com.sun.xacml.MatchResult;
-import com.sun.xacml.ParsingException;
 import com.sun.xacml.PolicyMetaData;
 import com.sun.xacml.PolicySet;
 import com.sun.xacml.Target;
@@ -68,7 +65,7 @@ public class PolicyManager {
 
     private Target target = null;
 
-    private PolicyReader policyReader = null;
+    private PolicyFinder policyFinder = null;
 
     // the policy identifier for any policy sets we dynamically create
     private static final String PARENT_POLICY_ID =
@@ -113,7 +110,7 @@ public class PolicyManager {
             throw new PolicyIndexException("Error instantiating PolicyCombiningAlgorithm", e);
         }
 
-        policyReader = new PolicyReader(polFinder, null);
+        policyFinder = polFinder;
         parentPolicyId = new URI(PARENT_POLICY_ID);
 
         target =
@@ -144,8 +141,8 @@ public class PolicyManager {
      */
     public AbstractPolicy getPolicy(EvaluationCtx eval)
             throws TopLevelPolicyException, PolicyIndexException {
-        Map<String, byte[]> potentialPolicies =
-                policyIndex.getPolicies(eval);
+        Map<String, AbstractPolicy> potentialPolicies =
+                policyIndex.getPolicies(eval, policyFinder);
         logger.debug("Obtained policies: " + potentialPolicies.size());
 
         AbstractPolicy policy = matchPolicies(eval, potentialPolicies);
@@ -164,54 +161,48 @@ public class PolicyManager {
      * @param eval
      *        the Evaluation Context
      * @param policyList
-     *        the list of policies as a map with PolicyId as key and policy as a
-     *        byte array as the value
+     *        the list of policies as a map with PolicyId as key and the parsed
+     *        policy as the value
      * @return the Policy/PolicySet that applies to this EvaluationCtx
      * @throws {@link TopLevelPolicyException}
      */
     private AbstractPolicy matchPolicies(EvaluationCtx eval,
-                                         Map<String, byte[]> policyList)
+                                         Map<String, AbstractPolicy> policyList)
             throws TopLevelPolicyException {
         // setup a list of matching policies
         Map<String, AbstractPolicy> list =
                 new HashMap<String, AbstractPolicy>();
 
         // get an iterator over all the identifiers
-        for (String policyId : policyList.keySet()) {
-            try {
-                byte[] pol = policyList.get(policyId);
-                AbstractPolicy policy =
-                        policyReader.readPolicy(new ByteArrayInputStream(pol));
-
-                MatchResult match = policy.match(eval);
+        for (Map.Entry<String, AbstractPolicy> entry : policyList.entrySet()) {
+            String policyId = entry.getKey();
+            AbstractPolicy policy = entry.getValue();
 
-                int result = match.getResult();
-                if (result == MatchResult.INDETERMINATE) {
-                    throw new TopLevelPolicyException(match.getStatus());
-                }
+            MatchResult match = policy.match(eval);
 
-                // if we matched, we keep track of the matching policy...
-                if (result == MatchResult.MATCH) {
-                    // ...first checking if this is the first match and if
-                    // we automaticlly nest policies
-                    if (combiningAlg == null && list.size() > 0) {
-                        ArrayList<String> code = new ArrayList<String>();
-                        code.add(Status.STATUS_PROCESSING_ERROR);
-                        Status status =
-                                new Status(code, "too many applicable"
-                                        + " top-level policies");
-                        throw new TopLevelPolicyException(status);
-                    }
+            int result = match.getResult();
+            if (result == MatchResult.INDETERMINATE) {
+                throw new TopLevelPolicyException(match.getStatus());
+            }
 
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Matched policy: " + policyId);
-                    }
+            // if we matched, we keep track of the matching policy...
+            if (result == MatchResult.MATCH) {
+                // ...first checking if this is the first match and if
+                // we automaticlly nest policies
+                if (combiningAlg == null && list.size() > 0) {
+                    ArrayList<String> code = new ArrayList<String>();
+                    code.add(Status.STATUS_PROCESSING_ERROR);
+                    Status status =
+                            new Status(code, "too many applicable"
+                                    + " top-level policies");
+                    throw new TopLevelPolicyException(status);
+                }
 
-                    list.put(policyId, policy);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Matched policy: " + policyId);
                 }
-            } catch (ParsingException pe) {
-                logger.error("Error parsing policy: " + policyId + " ("
-                        + pe.getMessage() + ")");
+
+                list.put(policyId, policy);
             }
         }
 
@@ -28,6 +28,7 @@ import org.fcrepo.common.MalformedPIDException;
 import org.fcrepo.common.PID;
 
 import org.fcrepo.server.Server;
+import org.fcrepo.server.resourceIndex.RelationshipIndex;
 import org.fcrepo.server.resourceIndex.ResourceIndex;
 import org.fcrepo.server.security.xacml.MelcoeXacmlException;
 
@@ -148,6 +149,19 @@ public class RIRelationshipResolver
             logger.warn("Object cannot be null");
             return rels;
         }
+
+        RelationshipIndex index = RI.getRelationshipIndex();
+        if (index != null) {
+            String uri = getFedoraResourceURI(object);
+            if (relationship == null) {
+                return index.getInbound(uri);
+            }
+            Set<String> subjects = index.getSubjects(uri, relationship);
+            if (!subjects.isEmpty()) {
+                rels.put(relationship, subjects);
+            }
+            return rels;
+        }
         PredicateNode p;
         ObjectNode o;
         try {
@@ -359,6 +373,27 @@ public class RIRelationshipResolver
 
         String pidUri = getFedoraResourceURI(pid);
 
+        RelationshipIndex index = RI.getRelationshipIndex();
+        if (index != null) {
+            Set<String> parents = new HashSet<String>();
+            for (String rel : parentRelationships) {
+                parents.addAll(index.getObjects(pidUri, rel));
+            }
+            if (childRelationships != null) {
+                for (String rel : childRelationships) {
+                    parents.addAll(index.getSubjects(pidUri, rel));
+                }
+            }
+            for (String parent : parents) {
+                try {
+                    parentPIDs.add(new PID(parent).toString());
+                } catch (MalformedPIDException e) {
+                    logger.warn("parent/child relationship target is not a Fedora object" + parent);
+                }
+            }
+            return parentPIDs;
+        }
+
         // tuple query
         if (tupleLanguages.contains(ITQL) || tupleLanguages.contains(SPARQL)) {
             String query = "";
@@ -0,0 +1,261 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.security.xacml.pdp.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import com.sun.xacml.AbstractPolicy;
+import com.sun.xacml.BasicEvaluationCtx;
+import com.sun.xacml.EvaluationCtx;
+import com.sun.xacml.ctx.RequestCtx;
+import com.sun.xacml.ctx.Result;
+import com.sun.xacml.finder.PolicyFinder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.security.xacml.util.DataFileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for FilePolicyIndex: the policies it finds for a request, that the
+ * parsed policies are reused, and that adding, updating and deleting policies
+ * are seen by the next request.
+ *
+ * @version $Id$
+ */
+public class TestFilePolicyIndex {
+
+    private static final String STRING_TYPE =
+        "http://www.w3.org/2001/XMLSchema#string";
+
+    private static final String ANYURI_TYPE =
+        "http://www.w3.org/2001/XMLSchema#anyURI";
+
+    private static final String PID =
+        "urn:fedora:names:fedora:2.1:resource:object:pid";
+
+    private static final String ROLE =
+        "urn:fedora:names:fedora:2.1:subject:role";
+
+    private static final String RESOURCE_ID =
+        "urn:oasis:names:tc:xacml:1.0:resource:resource-id";
+
+    private File pdpHome;
+
+    private FilePolicyIndex index;
+
+    private PolicyFinder policyFinder;
+
+    @Before
+    public void setUp() throws Exception {
+        pdpHome = File.createTempFile("fedoraTestingPdp", null);
+        pdpHome.delete();
+        new File(pdpHome, "conf").mkdirs();
+        DataFileUtils.saveDocument(new File(pdpHome,
+                                            "conf/config-pdm-file.xml")
+                                           .getPath(),
+                                   ("<pdm-file><database>"
+                                    + "<directory name=\"/policy-db\"/>"
+                                    + "</database></pdm-file>").getBytes());
+        DataFileUtils.saveDocument(new File(pdpHome,
+                                            "conf/config-policy-index.xml")
+                                           .getPath(),
+                                   ("<policyIndex><indexMap>"
+                                    + "<subjectAttributes>"
+                                    + attribute(ROLE, STRING_TYPE)
+                                    + "</subjectAttributes>"
+                                    + "<resourceAttributes>"
+                                    + attribute(PID, STRING_TYPE)
+                                    + attribute(RESOURCE_ID, ANYURI_TYPE)
+                                    + "</resourceAttributes>"
+                                    + "<environmentAttributes/>"
+                                    + "</indexMap></policyIndex>")
+                                           .getBytes());
+
+        index = new FilePolicyIndex(pdpHome);
+        // the cached policies are shared, and may be from another directory
+        index.clear();
+        policyFinder = new PolicyFinder();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        index.clear();
+        new File(pdpHome, "policy-db").delete();
+        for (File file : new File(pdpHome, "conf").listFiles()) {
+            file.delete();
+        }
+        new File(pdpHome, "conf").delete();
+        pdpHome.delete();
+    }
+
+    @Test
+    public void testPoliciesAreFoundByTarget() throws Exception {
+        index.addPolicy("test:demo1", policy("Permit", pidTarget("demo:1")));
+        index.addPolicy("test:student", policy("Permit", roleTarget("student")));
+        index.addPolicy("test:any", policy("Permit", "<Target/>"));
+
+        assertPolicies(request("demo:1", "student"),
+                       "test:demo1",
+                       "test:student",
+                       "test:any");
+        assertPolicies(request("demo:2", "student"),
+                       "test:student",
+                       "test:any");
+        assertPolicies(request("demo:2", "teacher"), "test:any");
+    }
+
+    @Test
+    public void testAddIsSeenByTheNextRequest() throws Exception {
+        index.addPolicy("test:any", policy("Permit", "<Target/>"));
+        assertPolicies(request("demo:1", "student"), "test:any");
+
+        index.addPolicy("test:demo1", policy("Permit", pidTarget("demo:1")));
+        assertPolicies(request("demo:1", "student"),
+                       "test:any",
+                       "test:demo1");
+    }
+
+    @Test
+    public void testUpdateIsSeenByTheNextRequest() throws Exception {
+        index.addPolicy("test:policy", policy("Permit", pidTarget("demo:1")));
+        assertPolicies(request("demo:1", "student"), "test:policy");
+        assertPolicies(request("demo:2", "student"));
+
+        index.updatePolicy("test:policy", policy("Permit", pidTarget("demo:2")));
+        assertPolicies(request("demo:1", "student"));
+        assertPolicies(request("demo:2", "student"), "test:policy");
+
+        // from an indexed target to one that can't be indexed
+        index.updatePolicy("test:policy", policy("Permit", "<Target/>"));
+        assertPolicies(request("demo:1", "student"), "test:policy");
+    }
+
+    @Test
+    public void testDeleteIsSeenByTheNextRequest() throws Exception {
+        index.addPolicy("test:demo1", policy("Permit", pidTarget("demo:1")));
+        index.addPolicy("test:any", policy("Permit", "<Target/>"));
+        assertPolicies(request("demo:1", "student"),
+                       "test:demo1",
+                       "test:any");
+
+        index.deletePolicy("test:demo1");
+        assertPolicies(request("demo:1", "student"), "test:any");
+
+        index.deletePolicy("test:any");
+        assertPolicies(request("demo:1", "student"));
+    }
+
+    @Test
+    public void testParsedPoliciesAreReusedUntilChanged() throws Exception {
+        index.addPolicy("test:demo1", policy("Permit", pidTarget("demo:1")));
+        index.addPolicy("test:any", policy("Permit", "<Target/>"));
+        EvaluationCtx request = request("demo:1", "student");
+
+        Map<String, AbstractPolicy> first =
+            index.getPolicies(request, policyFinder);
+        Map<String, AbstractPolicy> second =
+            index.getPolicies(request, policyFinder);
+        assertSame(first.get("test:demo1"), second.get("test:demo1"));
+        assertSame(first.get("test:any"), second.get("test:any"));
+
+        // only the changed policy is parsed again
+        index.updatePolicy("test:demo1", policy("Deny", pidTarget("demo:1")));
+        Map<String, AbstractPolicy> third =
+            index.getPolicies(request, policyFinder);
+        assertNotSame(first.get("test:demo1"), third.get("test:demo1"));
+        assertSame(first.get("test:any"), third.get("test:any"));
+
+        // policies are parsed for the PolicyFinder that uses them
+        Map<String, AbstractPolicy> other =
+            index.getPolicies(request, new PolicyFinder());
+        assertNotSame(third.get("test:any"), other.get("test:any"));
+    }
+
+    @Test
+    public void testUpdateChangesTheNextDecision() throws Exception {
+        index.addPolicy("test:policy", policy("Permit", pidTarget("demo:1")));
+        EvaluationCtx request = request("demo:1", "student");
+        assertEquals(Result.DECISION_PERMIT, decide(request, "test:policy"));
+
+        index.updatePolicy("test:policy", policy("Deny", pidTarget("demo:1")));
+        assertEquals(Result.DECISION_DENY, decide(request, "test:policy"));
+
+        index.updatePolicy("test:policy", policy("Permit", pidTarget("demo:1")));
+        assertEquals(Result.DECISION_PERMIT, decide(request, "test:policy"));
+    }
+
+    private int decide(EvaluationCtx request, String name) throws Exception {
+        return index.getPolicies(request, policyFinder).get(name)
+                .evaluate(request).getDecision();
+    }
+
+    private void assertPolicies(EvaluationCtx request, String... names)
+            throws Exception {
+        Map<String, AbstractPolicy> policies =
+            index.getPolicies(request, policyFinder);
+        assertEquals(new HashSet<String>(Arrays.asList(names)),
+                     policies.keySet());
+    }
+
+    private static EvaluationCtx request(String pid, String role)
+            throws Exception {
+        String request =
+            "<Request xmlns=\"urn:oasis:names:tc:xacml:2.0:context:schema:os\">"
+            + "<Subject>" + requestAttribute(ROLE, STRING_TYPE, role)
+            + "</Subject><Resource>"
+            + requestAttribute(RESOURCE_ID, ANYURI_TYPE, "/" + pid)
+            + requestAttribute(PID, STRING_TYPE, pid)
+            + "</Resource><Action/><Environment/></Request>";
+        return new BasicEvaluationCtx(RequestCtx
+                .getInstance(new ByteArrayInputStream(request.getBytes("UTF-8"))));
+    }
+
+    private static String requestAttribute(String id, String type, String value) {
+        return "<Attribute AttributeId=\"" + id + "\" DataType=\"" + type
+                + "\"><AttributeValue>" + value
+                + "</AttributeValue></Attribute>";
+    }
+
+    private static String attribute(String name, String type) {
+        return "<attribute name=\"" + name + "\" type=\"" + type + "\"/>";
+    }
+
+    private static String policy(String effect, String target) {
+        return "<Policy xmlns=\"" + PolicyIndex.XACML20_POLICY_NS
+                + "\" PolicyId=\"test\" RuleCombiningAlgId="
+                + "\"urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:"
+                + "permit-overrides\">" + target + "<Rule RuleId=\"rule\" Effect=\""
+                + effect + "\"/></Policy>";
+    }
+
+    private static String pidTarget(String pid) {
+        return "<Target><Resources><Resource>"
+                + "<ResourceMatch MatchId=\"urn:oasis:names:tc:xacml:1.0:function:string-equal\">"
+                + "<AttributeValue DataType=\"" + STRING_TYPE + "\">" + pid
+                + "</AttributeValue><ResourceAttributeDesignator AttributeId=\""
+                + PID + "\" DataType=\"" + STRING_TYPE + "\"/>"
+                + "</ResourceMatch></Resource></Resources></Target>";
+    }
+
+    private static String roleTarget(String role) {
+        return "<Target><Subjects><Subject>"
+                + "<SubjectMatch MatchId=\"urn:oasis:names:tc:xacml:1.0:function:string-equal\">"
+                + "<AttributeValue DataType=\"" + STRING_TYPE + "\">" + role
+                + "</AttributeValue><SubjectAttributeDesignator AttributeId=\""
+                + ROLE + "\" DataType=\"" + STRING_TYPE + "\"/>"
+                + "</SubjectMatch></Subject></Subjects></Target>";
+    }
+}
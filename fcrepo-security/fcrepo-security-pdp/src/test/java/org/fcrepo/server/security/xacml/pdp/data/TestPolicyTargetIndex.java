@@ -0,0 +1,398 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.security.xacml.pdp.data;
+
+import java.io.ByteArrayInputStream;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import com.sun.xacml.AbstractPolicy;
+import com.sun.xacml.finder.PolicyFinder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.security.xacml.pdp.data.PolicyTargetIndex.PolicyTargets;
+import org.fcrepo.server.security.xacml.pdp.finder.policy.PolicyReader;
+import org.fcrepo.server.security.xacml.util.AttributeBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for PolicyTargetIndex: which policies are indexed by their targets,
+ * and which are candidates for a request.
+ *
+ * @version $Id$
+ */
+public class TestPolicyTargetIndex {
+
+    private static final String STRING_TYPE =
+        "http://www.w3.org/2001/XMLSchema#string";
+
+    private static final String ANYURI_TYPE =
+        "http://www.w3.org/2001/XMLSchema#anyURI";
+
+    private static final String STRING_EQUAL =
+        "urn:oasis:names:tc:xacml:1.0:function:string-equal";
+
+    private static final String ANYURI_EQUAL =
+        "urn:oasis:names:tc:xacml:1.0:function:anyURI-equal";
+
+    private static final String REGEXP_MATCH =
+        "urn:oasis:names:tc:xacml:1.0:function:regexp-string-match";
+
+    private static final String ROLE =
+        "urn:fedora:names:fedora:2.1:subject:role";
+
+    private static final String PID =
+        "urn:fedora:names:fedora:2.1:resource:object:pid";
+
+    private static final String RESOURCE_ID =
+        "urn:oasis:names:tc:xacml:1.0:resource:resource-id";
+
+    private static final String ACTION_ID =
+        "urn:fedora:names:fedora:2.1:action:id";
+
+    private static final String CODEBASE_CATEGORY =
+        "urn:oasis:names:tc:xacml:1.0:subject-category:codebase";
+
+    private Map<String, Map<String, String>> indexMap;
+
+    private DocumentBuilder builder;
+
+    private PolicyReader reader;
+
+    private Map<String, AbstractPolicy> policies;
+
+    private Map<String, PolicyTargets> targets;
+
+    @Before
+    public void setUp() throws Exception {
+        indexMap = new HashMap<String, Map<String, String>>();
+        indexMap.put("subjectAttributes", new HashMap<String, String>());
+        indexMap.put("resourceAttributes", new HashMap<String, String>());
+        indexMap.put("actionAttributes", new HashMap<String, String>());
+        indexMap.put("environmentAttributes", new HashMap<String, String>());
+        indexMap.get("subjectAttributes").put(ROLE, STRING_TYPE);
+        indexMap.get("resourceAttributes").put(PID, STRING_TYPE);
+        indexMap.get("resourceAttributes").put(RESOURCE_ID, ANYURI_TYPE);
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        builder = factory.newDocumentBuilder();
+        reader = new PolicyReader(new PolicyFinder(), null);
+
+        policies = new HashMap<String, AbstractPolicy>();
+        targets = new HashMap<String, PolicyTargets>();
+    }
+
+    @Test
+    public void testEqualMatchIsIndexed() throws Exception {
+        addPolicy("pid", resources(resource(match(STRING_EQUAL,
+                                                  "Resource",
+                                                  PID,
+                                                  STRING_TYPE,
+                                                  "demo:1"))));
+        PolicyTargetIndex index = new PolicyTargetIndex(policies, targets);
+
+        assertEquals(0, index.getUnindexedCount());
+        assertCandidates(index.getPolicies(request("resourceAttributes",
+                                                   PID,
+                                                   "demo:1")),
+                         "pid");
+        assertCandidates(index.getPolicies(request("resourceAttributes",
+                                                   PID,
+                                                   "demo:2")));
+    }
+
+    @Test
+    public void testWildcardTargetsAreCandidatesForEveryRequest()
+            throws Exception {
+        addPolicy("empty", "<Target/>");
+        addPolicy("any", "<Target><Resources><AnyResource/></Resources>"
+                + "<Actions><AnyAction/></Actions></Target>");
+        PolicyTargetIndex index = new PolicyTargetIndex(policies, targets);
+
+        assertEquals(2, index.getUnindexedCount());
+        assertCandidates(index.getPolicies(request("resourceAttributes",
+                                                   PID,
+                                                   "demo:1")),
+                         "empty",
+                         "any");
+    }
+
+    @Test
+    public void testRegexpMatchIsACandidateForEveryRequest()
+            throws Exception {
+        addPolicy("regexp", resources(resource(match(REGEXP_MATCH,
+                                                     "Resource",
+                                                     PID,
+                                                     STRING_TYPE,
+                                                     "demo:.*"))));
+        PolicyTargetIndex index = new PolicyTargetIndex(policies, targets);
+
+        assertEquals(1, index.getUnindexedCount());
+        assertCandidates(index.getPolicies(request("resourceAttributes",
+                                                   PID,
+                                                   "other:1")),
+                         "regexp");
+    }
+
+    @Test
+    public void testUnindexedAttributeIsACandidateForEveryRequest()
+            throws Exception {
+        addPolicy("action", "<Target><Actions>"
+                + action(match(STRING_EQUAL,
+                               "Action",
+                               ACTION_ID,
+                               STRING_TYPE,
+                               "read")) + "</Actions></Target>");
+        PolicyTargetIndex index = new PolicyTargetIndex(policies, targets);
+
+        assertEquals(1, index.getUnindexedCount());
+    }
+
+    @Test
+    public void testMultipleAlternatives() throws Exception {
+        addPolicy("both", resources(resource(match(STRING_EQUAL,
+                                                   "Resource",
+                                                   PID,
+                                                   STRING_TYPE,
+                                                   "demo:1"))
+                + resource(match(STRING_EQUAL,
+                                 "Resource",
+                                 PID,
+                                 STRING_TYPE,
+                                 "demo:2"))));
+        // one alternative doesn't depend on an indexed value
+        addPolicy("either", resources(resource(match(STRING_EQUAL,
+                                                     "Resource",
+                                                     PID,
+                                                     STRING_TYPE,
+                                                     "demo:3"))
+                + resource(match(REGEXP_MATCH,
+                                 "Resource",
+                                 PID,
+                                 STRING_TYPE,
+                                 "demo:.*"))));
+        PolicyTargetIndex index = new PolicyTargetIndex(policies, targets);
+
+        assertEquals(1, index.getUnindexedCount());
+        assertCandidates(index.getPolicies(request("resourceAttributes",
+                                                   PID,
+                                                   "demo:1")),
+                         "both",
+                         "either");
+        assertCandidates(index.getPolicies(request("resourceAttributes",
+                                                   PID,
+                                                   "demo:2")),
+                         "both",
+                         "either");
+        assertCandidates(index.getPolicies(request("resourceAttributes",
+                                                   PID,
+                                                   "demo:4")),
+                         "either");
+    }
+
+    @Test
+    public void testResourcesArePreferredToSubjects() throws Exception {
+        addPolicy("both", "<Target><Subjects>"
+                + subject(match(STRING_EQUAL,
+                                "Subject",
+                                ROLE,
+                                STRING_TYPE,
+                                "student")) + "</Subjects><Resources>"
+                + resource(match(STRING_EQUAL,
+                                 "Resource",
+                                 PID,
+                                 STRING_TYPE,
+                                 "demo:1")) + "</Resources></Target>");
+        PolicyTargetIndex index = new PolicyTargetIndex(policies, targets);
+
+        assertCandidates(index.getPolicies(request("resourceAttributes",
+                                                   PID,
+                                                   "demo:1")),
+                         "both");
+        assertCandidates(index.getPolicies(request("subjectAttributes",
+                                                   ROLE,
+                                                   "student")));
+    }
+
+    @Test
+    public void testDefaultSubjectCategory() throws Exception {
+        addPolicy("implicit", subjects(subject(match(STRING_EQUAL,
+                                                     "Subject",
+                                                     ROLE,
+                                                     STRING_TYPE,
+                                                     "student"))));
+        addPolicy("explicit",
+                  subjects(subject(categoryMatch("urn:oasis:names:tc:xacml:1.0:subject-category:access-subject",
+                                                 "student"))));
+        PolicyTargetIndex index = new PolicyTargetIndex(policies, targets);
+
+        assertEquals(0, index.getUnindexedCount());
+        assertCandidates(index.getPolicies(request("subjectAttributes",
+                                                   ROLE,
+                                                   "student")),
+                         "implicit",
+                         "explicit");
+        assertCandidates(index.getPolicies(request("subjectAttributes",
+                                                   ROLE,
+                                                   "teacher")));
+    }
+
+    @Test
+    public void testOtherSubjectCategoryIsACandidateForEveryRequest()
+            throws Exception {
+        addPolicy("codebase",
+                  subjects(subject(categoryMatch(CODEBASE_CATEGORY,
+                                                 "student"))));
+        PolicyTargetIndex index = new PolicyTargetIndex(policies, targets);
+
+        // the request's attributes only hold the default category
+        assertEquals(1, index.getUnindexedCount());
+        assertCandidates(index.getPolicies(request("subjectAttributes",
+                                                   ROLE,
+                                                   "teacher")),
+                         "codebase");
+    }
+
+    @Test
+    public void testResourceIdComponents() throws Exception {
+        addPolicy("children", resources(resource(match(ANYURI_EQUAL,
+                                                       "Resource",
+                                                       RESOURCE_ID,
+                                                       ANYURI_TYPE,
+                                                       "/res1/.*"))));
+        addPolicy("exact", resources(resource(match(ANYURI_EQUAL,
+                                                    "Resource",
+                                                    RESOURCE_ID,
+                                                    ANYURI_TYPE,
+                                                    "/res1/res2$"))));
+        addPolicy("other", resources(resource(match(ANYURI_EQUAL,
+                                                    "Resource",
+                                                    RESOURCE_ID,
+                                                    ANYURI_TYPE,
+                                                    "/res3/.*"))));
+        PolicyTargetIndex index = new PolicyTargetIndex(policies, targets);
+
+        assertCandidates(index.getPolicies(resourceIdRequest("/res1/res2")),
+                         "children",
+                         "exact");
+        assertCandidates(index.getPolicies(resourceIdRequest("/res1/res2/res4")),
+                         "children");
+        assertCandidates(index.getPolicies(resourceIdRequest("/res4")));
+    }
+
+    private void addPolicy(String name, String target) throws Exception {
+        byte[] document = policy(name, target).getBytes("UTF-8");
+        policies.put(name,
+                     reader.readPolicy(new ByteArrayInputStream(document)));
+        targets.put(name, PolicyTargetIndex.readTargets(document,
+                                                        builder,
+                                                        indexMap));
+    }
+
+    private static void assertCandidates(Map<String, AbstractPolicy> candidates,
+                                         String... names) {
+        assertEquals(new HashSet<String>(Arrays.asList(names)),
+                     candidates.keySet());
+        for (String name : names) {
+            assertTrue(candidates.get(name) != null);
+        }
+        assertFalse(candidates.containsValue(null));
+    }
+
+    private static Map<String, Set<AttributeBean>> request(String section,
+                                                           String attributeId,
+                                                           String value) {
+        Set<String> values = new HashSet<String>();
+        values.add(value);
+        return request(section, new AttributeBean(attributeId, null, values));
+    }
+
+    /**
+     * A request for a resource-id, which also has its components, as
+     * PolicyIndexBase.getAttributeMap() gives it.
+     */
+    private static Map<String, Set<AttributeBean>> resourceIdRequest(String resourceId) {
+        Set<String> values = new HashSet<String>();
+        values.add(resourceId);
+        values.addAll(Arrays.asList(PolicyIndexBase.makeComponents(resourceId)));
+        return request("resourceAttributes",
+                       new AttributeBean(RESOURCE_ID, ANYURI_TYPE, values));
+    }
+
+    private static Map<String, Set<AttributeBean>> request(String section,
+                                                           AttributeBean bean) {
+        Map<String, Set<AttributeBean>> attributeMap =
+            new HashMap<String, Set<AttributeBean>>();
+        for (String s : new String[] {"subjectAttributes",
+                "resourceAttributes", "actionAttributes",
+                "environmentAttributes"}) {
+            attributeMap.put(s, new HashSet<AttributeBean>());
+        }
+        attributeMap.get(section).add(bean);
+        return attributeMap;
+    }
+
+    private static String policy(String name, String target) {
+        return "<Policy xmlns=\"" + PolicyIndex.XACML20_POLICY_NS
+                + "\" PolicyId=\"" + name + "\" RuleCombiningAlgId="
+                + "\"urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:"
+                + "permit-overrides\">" + target
+                + "<Rule RuleId=\"permit\" Effect=\"Permit\"/></Policy>";
+    }
+
+    private static String subjects(String alternatives) {
+        return "<Target><Subjects>" + alternatives + "</Subjects></Target>";
+    }
+
+    private static String resources(String alternatives) {
+        return "<Target><Resources>" + alternatives + "</Resources></Target>";
+    }
+
+    private static String subject(String matches) {
+        return "<Subject>" + matches + "</Subject>";
+    }
+
+    private static String resource(String matches) {
+        return "<Resource>" + matches + "</Resource>";
+    }
+
+    private static String action(String matches) {
+        return "<Action>" + matches + "</Action>";
+    }
+
+    private static String match(String function,
+                                String section,
+                                String attributeId,
+                                String type,
+                                String value) {
+        return "<" + section + "Match MatchId=\"" + function + "\">"
+                + "<AttributeValue DataType=\"" + type + "\">" + value
+                + "</AttributeValue><" + section
+                + "AttributeDesignator AttributeId=\"" + attributeId
+                + "\" DataType=\"" + type + "\"/></" + section + "Match>";
+    }
+
+    private static String categoryMatch(String category, String role) {
+        return "<SubjectMatch MatchId=\"" + STRING_EQUAL + "\">"
+                + "<AttributeValue DataType=\"" + STRING_TYPE + "\">" + role
+                + "</AttributeValue><SubjectAttributeDesignator AttributeId=\""
+                + ROLE + "\" DataType=\"" + STRING_TYPE
+                + "\" SubjectCategory=\"" + category
+                + "\"/></SubjectMatch>";
+    }
+}
@@ -195,6 +195,10 @@ public class ObjectsFilter
             // - /objects/nextPID
         } else if (parts.length == 2 && parts[1].equals("nextPID")) {
             handlerName = Handlers.GETNEXTPID;
+            // - /objects/count (authorized as a search; counts aren't filtered)
+        } else if (parts.length == 2 && parts[1].equals("count")
+                && "GET".equals(method)) {
+            handlerName = Handlers.FINDOBJECTS;
             // - /objects/[pid]
         } else if (parts.length == 2) {
             if ("GET".equals(method)) {
@@ -5,6 +5,7 @@
 package org.fcrepo.server.access;
 
 import java.util.Date;
+import java.util.Map;
 
 import org.fcrepo.server.Context;
 import org.fcrepo.server.errors.ServerException;
@@ -125,6 +126,25 @@ public interface Access {
                                                String sessionToken)
             throws ServerException;
 
+    /**
+     * Counts the objects matching the given criteria, grouped by the values
+     * of a field.
+     * 
+     * @param context
+     *        the context of this request
+     * @param field
+     *        the field to group by: state, ownerId, cModel or cMonth
+     * @param query
+     *        the query
+     * @return the number of matching objects for each value of the field.
+     * @throws ServerException
+     *         If any type of error occurred fulfilling the request.
+     */
+    public Map<String, Long> countObjects(Context context,
+                                         String field,
+                                         FieldSearchQuery query)
+            throws ServerException;
+
     /**
      * Gets information that describes the repository.
      * 
@@ -706,6 +706,30 @@ public class DefaultAccess
         return m_manager.resumeFindObjects(context, sessionToken);
     }
 
+    /**
+     * <p>
+     * Counts the objects matching the given criteria, grouped by the values
+     * of a field. Requires the same authorization as findObjects.
+     * </p>
+     *
+     * @param context
+     *        the context of this request
+     * @param field
+     *        the field to group by
+     * @param query
+     *        the query
+     * @return the number of matching objects for each value of the field
+     * @throws ServerException
+     *         If any type of error occurred fulfilling the request.
+     */
+    public Map<String, Long> countObjects(Context context,
+                                         String field,
+                                         FieldSearchQuery query)
+            throws ServerException {
+        m_authorizationModule.enforceFindObjects(context);
+        return m_manager.countObjects(context, field, query);
+    }
+
     /**
      * <p>
      * Gets information that describes the repository.
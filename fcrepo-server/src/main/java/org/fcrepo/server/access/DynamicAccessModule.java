@@ -311,6 +311,15 @@ public class DynamicAccessModule
         return null;
     }
 
+    // FIXIT: What do these mean in this context...anything?
+    // Maybe these methods' exposure needs to be re-thought?
+    public Map<String, Long> countObjects(Context context,
+                                         String field,
+                                         FieldSearchQuery query)
+            throws ServerException {
+        return null;
+    }
+
     // FIXIT: What do these mean in this context...anything?
     // Maybe these methods' exposure needs to be re-thought?
     public RepositoryInfo describeRepository(Context context)
@@ -0,0 +1,458 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.access;
+
+import java.io.OutputStream;
+
+import java.security.SecureRandom;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.regex.Pattern;
+
+import org.jrdf.graph.Node;
+import org.jrdf.graph.Triple;
+
+import org.trippi.RDFFormat;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The open query results of paged risearch requests.
+ *
+ * <p>A paged query leaves its result open after the first page is written,
+ * under a random token given to the client. Each request for the next page
+ * continues reading the same result rather than running the query again.
+ * A result may only be continued by the user who ran the query. Results
+ * that are not read for a while are closed by a timer.
+ */
+class RISearchCursors {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(RISearchCursors.class);
+
+    /** Matches queries that already end with a limit or offset clause. */
+    private static final Pattern PAGED_QUERY =
+            Pattern.compile("(?is).*\\b(limit|offset)\\s+\\d+\\s*;?\\s*$");
+
+    /** Matches queries with an order by clause. */
+    private static final Pattern ORDERED_QUERY =
+            Pattern.compile("(?is).*\\border\\s+by\\b.*");
+
+    private final SecureRandom m_random = new SecureRandom();
+
+    private final Map<String, Cursor> m_cursors = new HashMap<String, Cursor>();
+
+    private final int m_maxCursors;
+
+    private final long m_idleTimeout;
+
+    private final Timer m_timer;
+
+    /**
+     * @param maxCursors the maximum number of results left open at once.
+     * @param idleTimeout how long a result is kept open without being read,
+     *        in milliseconds.
+     */
+    RISearchCursors(int maxCursors, long idleTimeout) {
+        m_maxCursors = maxCursors;
+        m_idleTimeout = idleTimeout;
+        // check often enough that no result is kept much longer
+        long period = Math.max(idleTimeout / 4, 1);
+        m_timer = new Timer("RISearchCursors", true);
+        m_timer.schedule(new TimerTask() {
+
+            @Override
+            public void run() {
+                expire();
+            }
+        }, period, period);
+    }
+
+    /**
+     * Keep the given result open until its next page is requested.
+     *
+     * @param owner the user who ran the query, or null if anonymous.
+     * @return the token identifying the result, or null if too many results
+     *         are already open.
+     */
+    String put(Cursor cursor, String owner) {
+        expire();
+        synchronized (this) {
+            if (m_cursors.size() >= m_maxCursors) {
+                return null;
+            }
+            String token;
+            do {
+                token = Long.toHexString(m_random.nextLong())
+                        + Long.toHexString(m_random.nextLong());
+            } while (m_cursors.containsKey(token));
+            cursor.m_owner = owner;
+            cursor.m_lastUsed = System.currentTimeMillis();
+            m_cursors.put(token, cursor);
+            return token;
+        }
+    }
+
+    /**
+     * Put back a result taken with <code>take</code>, under the same token.
+     */
+    synchronized void putBack(String token, Cursor cursor) {
+        cursor.m_lastUsed = System.currentTimeMillis();
+        m_cursors.put(token, cursor);
+    }
+
+    /**
+     * Remove and return the result with the given token, so that it is only
+     * read by one request at a time.
+     *
+     * @param owner the user continuing the query, or null if anonymous.
+     * @return the result, or null if the token is unknown, has expired, or
+     *         belongs to another user.
+     */
+    synchronized Cursor take(String token, String owner) {
+        Cursor cursor = m_cursors.get(token);
+        if (cursor == null
+                || (owner == null ? cursor.m_owner != null : !owner
+                        .equals(cursor.m_owner))) {
+            return null;
+        }
+        return m_cursors.remove(token);
+    }
+
+    /**
+     * Stop expiring results, and close every open result.
+     */
+    void closeAll() {
+        m_timer.cancel();
+        List<Cursor> open;
+        synchronized (this) {
+            open = new ArrayList<Cursor>(m_cursors.values());
+            m_cursors.clear();
+        }
+        for (Cursor cursor : open) {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Close the results that haven't been read within the idle timeout.
+     * Closing a result may wait for its query to stop, so it isn't done
+     * while holding the lock.
+     */
+    void expire() {
+        long cutoff = System.currentTimeMillis() - m_idleTimeout;
+        List<Cursor> expired = new ArrayList<Cursor>();
+        synchronized (this) {
+            Iterator<Cursor> iter = m_cursors.values().iterator();
+            while (iter.hasNext()) {
+                Cursor cursor = iter.next();
+                if (cursor.m_lastUsed < cutoff) {
+                    expired.add(cursor);
+                    iter.remove();
+                }
+            }
+        }
+        for (Cursor cursor : expired) {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Add the given limit and offset to a query, if the language has a
+     * syntax for them, the query doesn't already use it, and the query
+     * orders its results. Without an order, the triplestore may skip any
+     * rows for the offset, so the pages of separate requests could overlap.
+     *
+     * @return the query, or null if the offset can't be added to it.
+     */
+    static String pushDown(String lang, String query, int limit, int offset) {
+        if (lang == null || PAGED_QUERY.matcher(query).matches()
+                || !ORDERED_QUERY.matcher(query).matches()) {
+            return null;
+        }
+        String clause = (limit > 0 ? " limit " + limit : "")
+                + (offset > 0 ? " offset " + offset : "");
+        if (lang.equalsIgnoreCase("itql")) {
+            String trimmed = query.trim();
+            if (trimmed.endsWith(";")) {
+                trimmed = trimmed.substring(0, trimmed.length() - 1);
+            }
+            return trimmed + clause;
+        } else if (lang.equalsIgnoreCase("sparql")) {
+            return query.trim() + clause;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * An open query result, read in pages.
+     */
+    abstract static class Cursor {
+
+        private final RDFFormat m_format;
+
+        /** How many more rows may be read, or -1 for no limit. */
+        private long m_remaining;
+
+        private long m_lastUsed;
+
+        private String m_owner;
+
+        Cursor(RDFFormat format, int limit) {
+            m_format = format;
+            m_remaining = limit > 0 ? limit : -1;
+        }
+
+        RDFFormat getFormat() {
+            return m_format;
+        }
+
+        /**
+         * Discard the given number of rows, for an offset that couldn't be
+         * given to the triplestore.
+         */
+        void skip(int count) throws TrippiException {
+            for (int i = 0; i < count && hasNextRow(); i++) {
+                nextRow();
+            }
+        }
+
+        /**
+         * Tell whether there are rows left to read.
+         */
+        boolean hasMore() throws TrippiException {
+            return m_remaining != 0 && hasNextRow();
+        }
+
+        /**
+         * Read up to the given number of rows.
+         */
+        List<Object> nextPage(int size) throws TrippiException {
+            List<Object> page = new ArrayList<Object>();
+            while (page.size() < size && hasMore()) {
+                page.add(next());
+            }
+            return page;
+        }
+
+        /**
+         * Write the given rows, as read by <code>nextPage</code>.
+         */
+        void write(List<Object> page, OutputStream out)
+                throws TrippiException {
+            write(page.iterator(), out);
+        }
+
+        /**
+         * Write every remaining row as it is read.
+         */
+        void writeAll(OutputStream out) throws TrippiException {
+            write(new Iterator<Object>() {
+
+                public boolean hasNext() {
+                    try {
+                        return hasMore();
+                    } catch (TrippiException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                public Object next() {
+                    try {
+                        return Cursor.this.next();
+                    } catch (TrippiException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            }, out);
+        }
+
+        /**
+         * Close the result, which stops the query if it is still running.
+         */
+        void close() {
+            try {
+                closeResult();
+            } catch (TrippiException e) {
+                logger.warn("Error closing risearch result", e);
+            }
+        }
+
+        private Object next() throws TrippiException {
+            if (m_remaining > 0) {
+                m_remaining--;
+            }
+            return nextRow();
+        }
+
+        abstract boolean hasNextRow() throws TrippiException;
+
+        abstract Object nextRow() throws TrippiException;
+
+        abstract void write(Iterator<Object> rows, OutputStream out)
+                throws TrippiException;
+
+        abstract void closeResult() throws TrippiException;
+    }
+
+    /**
+     * The result of a tuple query.
+     */
+    static class TupleCursor
+            extends Cursor {
+
+        private final TupleIterator m_tuples;
+
+        private final String[] m_names;
+
+        TupleCursor(TupleIterator tuples, RDFFormat format, int limit)
+                throws TrippiException {
+            super(format, limit);
+            m_tuples = tuples;
+            m_names = tuples.names();
+        }
+
+        @Override
+        boolean hasNextRow() throws TrippiException {
+            return m_tuples.hasNext();
+        }
+
+        @Override
+        Object nextRow() throws TrippiException {
+            return m_tuples.next();
+        }
+
+        @Override
+        void write(final Iterator<Object> rows, OutputStream out)
+                throws TrippiException {
+            new TupleIterator() {
+
+                @Override
+                public String[] names() {
+                    return m_names;
+                }
+
+                @Override
+                public boolean hasNext() throws TrippiException {
+                    return hasNextOf(rows);
+                }
+
+                @SuppressWarnings("unchecked")
+                @Override
+                public Map<String, Node> next() throws TrippiException {
+                    return (Map<String, Node>) nextOf(rows);
+                }
+
+                @Override
+                public void close() {
+                }
+            }.toStream(out, getFormat());
+        }
+
+        @Override
+        void closeResult() throws TrippiException {
+            m_tuples.close();
+        }
+    }
+
+    /**
+     * The result of a triple query.
+     */
+    static class TripleCursor
+            extends Cursor {
+
+        private final TripleIterator m_triples;
+
+        private final Map<String, String> m_aliases;
+
+        TripleCursor(TripleIterator triples,
+                     Map<String, String> aliases,
+                     RDFFormat format,
+                     int limit) {
+            super(format, limit);
+            m_triples = triples;
+            m_aliases = aliases;
+        }
+
+        @Override
+        boolean hasNextRow() throws TrippiException {
+            return m_triples.hasNext();
+        }
+
+        @Override
+        Object nextRow() throws TrippiException {
+            return m_triples.next();
+        }
+
+        @Override
+        void write(final Iterator<Object> rows, OutputStream out)
+                throws TrippiException {
+            TripleIterator page = new TripleIterator() {
+
+                @Override
+                public boolean hasNext() throws TrippiException {
+                    return hasNextOf(rows);
+                }
+
+                @Override
+                public Triple next() throws TrippiException {
+                    return (Triple) nextOf(rows);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            page.setAliasMap(m_aliases);
+            page.toStream(out, getFormat());
+        }
+
+        @Override
+        void closeResult() throws TrippiException {
+            m_triples.close();
+        }
+    }
+
+    private static boolean hasNextOf(Iterator<Object> rows)
+            throws TrippiException {
+        try {
+            return rows.hasNext();
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static Object nextOf(Iterator<Object> rows) throws TrippiException {
+        try {
+            return rows.next();
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static RuntimeException unwrap(RuntimeException e)
+            throws TrippiException {
+        if (e.getCause() instanceof TrippiException) {
+            throw (TrippiException) e.getCause();
+        }
+        return e;
+    }
+
+}
@@ -5,11 +5,15 @@
 package org.fcrepo.server.access;
 
 import java.io.File;
+import java.io.OutputStream;
+
+import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.trippi.RDFFormat;
 import org.trippi.TriplestoreReader;
 import org.trippi.TriplestoreWriter;
 import org.trippi.server.TrippiServer;
@@ -20,8 +24,10 @@ import org.fcrepo.server.Context;
 import org.fcrepo.server.ReadOnlyContext;
 import org.fcrepo.server.Server;
 import org.fcrepo.server.errors.authorization.AuthzException;
+import org.fcrepo.server.errors.servletExceptionExtensions.BadRequest400Exception;
 import org.fcrepo.server.errors.servletExceptionExtensions.InternalError500Exception;
 import org.fcrepo.server.errors.servletExceptionExtensions.RootException;
+import org.fcrepo.server.errors.servletExceptionExtensions.Unavailable503Exception;
 import org.fcrepo.server.resourceIndex.ResourceIndex;
 import org.fcrepo.server.security.Authorization;
 import org.slf4j.Logger;
@@ -44,8 +50,44 @@ public class RISearchServlet
 
     private static final String ACTION_LABEL = "Resource Index Search";
 
+    /**
+     * The longest time a query will wait for the update given by its
+     * waitFor parameter, in milliseconds.
+     */
+    private static final long WAIT_FOR_TIMEOUT = 30000;
+
+    /**
+     * The response header giving the cursor to request the next page of a
+     * paged query with, if there are more results.
+     */
+    public static final String CURSOR_HEADER = "X-Fedora-RI-Cursor";
+
+    /**
+     * The most rows in one page of a paged query, which are held in memory
+     * while the page is written.
+     */
+    private static final int MAX_PAGE_SIZE = 100000;
+
+    /** The most paged query results that may be open at once. */
+    private static final int MAX_CURSORS = 100;
+
+    /**
+     * How long the result of a paged query is kept open for its next page
+     * to be requested, in milliseconds.
+     */
+    private static final long CURSOR_TIMEOUT = 300000;
+
+    /**
+     * The size of the response buffer, so results are sent to the client
+     * as they are serialized rather than gathered up first.
+     */
+    private static final int RESPONSE_BUFFER_SIZE = 16384;
+
     private Authorization m_authorization;
 
+    private final RISearchCursors m_cursors =
+            new RISearchCursors(MAX_CURSORS, CURSOR_TIMEOUT);
+
     @Override
     public TriplestoreReader getReader() throws ServletException {
         return getWriter();
@@ -91,14 +133,27 @@ public class RISearchServlet
                     + request.getParameter("distinct") + "\n" + "  format: "
                     + request.getParameter("format") + "\n" + "  flush: "
                     + request.getParameter("flush") + "\n" + "  dumbTypes: "
-                    + request.getParameter("dumbTypes") + "\n");
+                    + request.getParameter("dumbTypes") + "\n" + "  waitFor: "
+                    + request.getParameter("waitFor") + "\n" + "  offset: "
+                    + request.getParameter("offset") + "\n" + "  pageSize: "
+                    + request.getParameter("pageSize") + "\n" + "  cursor: "
+                    + request.getParameter("cursor") + "\n");
         }
         try {
             Context context =
                     ReadOnlyContext.getContext(Constants.HTTP_REQUEST.REST.uri,
                                                request);
             m_authorization.enforceRIFindObjects(context);
-            super.doGet(server, request, response);
+            String waitFor = request.getParameter("waitFor");
+            if (waitFor != null && waitFor.length() > 0) {
+                waitForUpdate(waitFor, request);
+            }
+            response.setBufferSize(RESPONSE_BUFFER_SIZE);
+            if (isPaged(request)) {
+                doPagedFind(request, response, context);
+            } else {
+                super.doGet(server, request, response);
+            }
         } catch (AuthzException e) {
             logger.error("Authorization failed for request: "
                     + request.getRequestURI() + " (actionLabel=" + ACTION_LABEL
@@ -107,6 +162,8 @@ public class RISearchServlet
                                                     request,
                                                     ACTION_LABEL,
                                                     new String[0]);
+        } catch (RootException e) {
+            throw e;
         } catch (Throwable th) {
             logger.error("Unexpected error servicing API-A request", th);
             throw new InternalError500Exception("",
@@ -118,6 +175,241 @@ public class RISearchServlet
         }
     }
 
+    /**
+     * Waits until the Resource Index update with the given sequence number
+     * (as returned in the X-Fedora-RI-Sequence header by API-M REST
+     * requests) is visible to queries.
+     */
+    private void waitForUpdate(String waitFor, HttpServletRequest request)
+            throws Exception {
+        long sequence;
+        try {
+            sequence = Long.parseLong(waitFor);
+        } catch (NumberFormatException e) {
+            throw new BadRequest400Exception(request,
+                                             "waitFor must be a number",
+                                             ACTION_LABEL,
+                                             "",
+                                             new String[0]);
+        }
+        ResourceIndex ri = (ResourceIndex) getWriter();
+        if (!ri.waitForUpdate(sequence, WAIT_FOR_TIMEOUT)) {
+            throw new Unavailable503Exception("Timed out waiting for "
+                    + "Resource Index update " + sequence, request,
+                    ACTION_LABEL, "", new String[0]);
+        }
+    }
+
+    /**
+     * Tells whether the request is a tuple or triple query using any of the
+     * offset, pageSize or cursor parameters, which are handled here rather
+     * than by Trippi.
+     */
+    private static boolean isPaged(HttpServletRequest request) {
+        if (hasParameter(request, "cursor")) {
+            return true;
+        }
+        String type = request.getParameter("type");
+        String format = request.getParameter("format");
+        return ("tuples".equals(type) || "triples".equals(type))
+                && !"count".equalsIgnoreCase(format)
+                && (hasParameter(request, "offset") || hasParameter(request,
+                                                                   "pageSize"));
+    }
+
+    /**
+     * Runs a query, or continues one given by the cursor parameter, and
+     * writes the next pageSize rows of its result. If more rows remain, the
+     * result is left open and a cursor for it is returned in the
+     * X-Fedora-RI-Cursor header. Without a pageSize, the whole result is
+     * written as it is read. The query is stopped if the client disconnects.
+     * A cursor can only be used by the user who ran its query.
+     */
+    private void doPagedFind(HttpServletRequest request,
+                             HttpServletResponse response,
+                             Context context) throws Exception {
+        int pageSize =
+                getInt(request, "pageSize", 0, MAX_PAGE_SIZE);
+        String owner = context.getSubjectValue(Constants.SUBJECT.LOGIN_ID.uri);
+        String token = request.getParameter("cursor");
+        RISearchCursors.Cursor cursor;
+        if (token != null && token.length() > 0) {
+            cursor = m_cursors.take(token, owner);
+            if (cursor == null) {
+                throw new BadRequest400Exception(request,
+                                                 "Unknown or expired cursor: "
+                                                         + token,
+                                                 ACTION_LABEL,
+                                                 "",
+                                                 new String[0]);
+            }
+        } else {
+            token = null;
+            cursor = openCursor(request);
+        }
+        boolean keepOpen = false;
+        try {
+            response.setContentType(cursor.getFormat().getMimeType()
+                    + "; charset=UTF-8");
+            OutputStream out = response.getOutputStream();
+            if (pageSize > 0) {
+                List<Object> page = cursor.nextPage(pageSize);
+                if (cursor.hasMore()) {
+                    if (token == null) {
+                        token = m_cursors.put(cursor, owner);
+                        if (token == null) {
+                            throw new Unavailable503Exception("Too many open "
+                                    + "risearch cursors", request,
+                                    ACTION_LABEL, "", new String[0]);
+                        }
+                    } else {
+                        m_cursors.putBack(token, cursor);
+                    }
+                    keepOpen = true;
+                    response.setHeader(CURSOR_HEADER, token);
+                }
+                cursor.write(page, out);
+            } else {
+                cursor.writeAll(out);
+            }
+            out.flush();
+        } catch (Exception e) {
+            if (keepOpen) {
+                // the client is gone, so nobody will ask for the next page
+                m_cursors.take(token, owner);
+                keepOpen = false;
+            }
+            throw e;
+        } finally {
+            if (!keepOpen) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the query given by the request. The limit and offset are added
+     * to the query when its language allows and it is ordered; otherwise
+     * the offset is skipped over here.
+     */
+    private RISearchCursors.Cursor openCursor(HttpServletRequest request)
+            throws Exception {
+        String type = request.getParameter("type");
+        String lang = request.getParameter("lang");
+        String query = request.getParameter("query");
+        String template = request.getParameter("template");
+        if (query == null || query.length() == 0) {
+            throw new BadRequest400Exception(request,
+                                             "query parameter is required",
+                                             ACTION_LABEL,
+                                             "",
+                                             new String[0]);
+        }
+        int limit = getInt(request, "limit", 0, Integer.MAX_VALUE);
+        int offset = getInt(request, "offset", 0, Integer.MAX_VALUE);
+        String distinctParam = request.getParameter("distinct");
+        boolean distinct =
+                "on".equalsIgnoreCase(distinctParam)
+                        || "true".equalsIgnoreCase(distinctParam);
+        String formatName = request.getParameter("format");
+        RDFFormat format;
+        if (formatName == null || formatName.length() == 0) {
+            format = "tuples".equals(type) ? RDFFormat.SPARQL
+                    : RDFFormat.RDF_XML;
+        } else {
+            format = RDFFormat.forName(formatName);
+        }
+
+        int skip = 0;
+        int queryLimit = limit;
+        if (offset > 0) {
+            String pushed =
+                    RISearchCursors.pushDown(lang, query, limit, offset);
+            if (pushed != null) {
+                query = pushed;
+                queryLimit = 0;
+            } else {
+                skip = offset;
+                // both may be as large as Integer.MAX_VALUE
+                queryLimit =
+                        limit > 0 ? (int) Math.min((long) limit + offset,
+                                                   Integer.MAX_VALUE) : 0;
+            }
+        }
+        if ("true".equalsIgnoreCase(request.getParameter("flush"))) {
+            getWriter().flushBuffer();
+        }
+
+        TriplestoreReader reader = getReader();
+        RISearchCursors.Cursor cursor;
+        if ("tuples".equals(type)) {
+            cursor =
+                    new RISearchCursors.TupleCursor(reader
+                            .findTuples(lang, query, queryLimit, distinct),
+                                                    format,
+                                                    limit);
+        } else if (template != null && template.length() > 0) {
+            cursor =
+                    new RISearchCursors.TripleCursor(reader
+                            .findTriples(lang,
+                                         query,
+                                         template,
+                                         queryLimit,
+                                         distinct), reader.getAliasMap(),
+                                                     format,
+                                                     limit);
+        } else {
+            cursor =
+                    new RISearchCursors.TripleCursor(reader
+                            .findTriples(lang, query, queryLimit, distinct),
+                                                     reader.getAliasMap(),
+                                                     format,
+                                                     limit);
+        }
+        try {
+            cursor.skip(skip);
+        } catch (Exception e) {
+            cursor.close();
+            throw e;
+        }
+        return cursor;
+    }
+
+    private static boolean hasParameter(HttpServletRequest request,
+                                        String name) {
+        String value = request.getParameter(name);
+        return value != null && value.length() > 0;
+    }
+
+    private static int getInt(HttpServletRequest request,
+                              String name,
+                              int defaultValue,
+                              int max) throws BadRequest400Exception {
+        String value = request.getParameter(name);
+        if (value == null || value.length() == 0) {
+            return defaultValue;
+        }
+        try {
+            int intValue = Integer.parseInt(value);
+            if (intValue >= 0 && intValue <= max) {
+                return intValue;
+            }
+        } catch (NumberFormatException e) {
+        }
+        throw new BadRequest400Exception(request,
+                                         name + " must be a number from 0 to "
+                                                 + max,
+                                         ACTION_LABEL,
+                                         "",
+                                         new String[0]);
+    }
+
+    @Override
+    public void destroy() {
+        m_cursors.closeAll();
+        super.destroy();
+    }
+
     @Override
     public boolean closeOnDestroy() {
         return false;
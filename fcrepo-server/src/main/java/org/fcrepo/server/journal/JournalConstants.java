@@ -39,6 +39,8 @@ public interface JournalConstants {
 
     String PARAMETER_JOURNAL_FILE_AGE_LIMIT = "journalFileAgeLimit";
 
+    String PARAMETER_JOURNAL_CONSUMER_THREADS = "journalConsumerThreads";
+
     // Acceptable values for server parameters.
     String VALUE_TRUE = "true";
 
@@ -61,6 +63,8 @@ public interface JournalConstants {
 
     String DEFAULT_AGE_LIMIT = "1D";
 
+    String DEFAULT_CONSUMER_THREADS = "1";
+
     // Strings for the XML document header of the Journal file
     String DOCUMENT_ENCODING = "UTF-8";
 
@@ -6,8 +6,10 @@ package org.fcrepo.server.journal;
 
 import java.util.Map;
 
+import org.fcrepo.server.errors.ModuleInitializationException;
 import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
 import org.fcrepo.server.journal.helpers.JournalHelper;
+import org.fcrepo.server.journal.helpers.ParameterHelper;
 import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
 import org.fcrepo.server.management.ManagementDelegate;
 import org.slf4j.Logger;
@@ -17,11 +19,16 @@ import org.slf4j.LoggerFactory;
 /**
  * Process the journal entries as a separate Thread, while the JournalConsumer
  * is blocking all calls from outside.
+ * <p>
+ * The entries are applied one at a time, unless the
+ * <code>journalConsumerThreads</code> parameter asks for more than one
+ * thread. Then they are applied by a {@link JournalEntryDispatcher}.
  *
  * @author Jim Blake
  */
 public class JournalConsumerThread
-        extends Thread {
+        extends Thread
+        implements JournalConstants {
 
     private static final Logger logger =
             LoggerFactory.getLogger(JournalConsumerThread.class);
@@ -32,8 +39,12 @@ public class JournalConsumerThread
 
     private final JournalRecoveryLog recoveryLog;
 
+    private final int threads;
+
     private ManagementDelegate delegate;
 
+    private JournalEntryDispatcher dispatcher;
+
     private boolean shutdown = false;
 
     /**
@@ -45,10 +56,28 @@ public class JournalConsumerThread
                                  String role,
                                  ServerInterface server,
                                  JournalReader reader,
-                                 JournalRecoveryLog recoveryLog) {
+                                 JournalRecoveryLog recoveryLog)
+            throws ModuleInitializationException {
         this.server = server;
         this.reader = reader;
         this.recoveryLog = recoveryLog;
+        threads = parseParametersForThreads(parameters, role);
+    }
+
+    private static int parseParametersForThreads(Map<String, String> parameters,
+                                                 String role)
+            throws ModuleInitializationException {
+        String value =
+                ParameterHelper
+                        .getOptionalStringParameter(parameters,
+                                                    PARAMETER_JOURNAL_CONSUMER_THREADS,
+                                                    DEFAULT_CONSUMER_THREADS);
+        if (!value.matches("[0-9]{1,4}") || Integer.parseInt(value) < 1) {
+            throw new ModuleInitializationException("'"
+                    + PARAMETER_JOURNAL_CONSUMER_THREADS
+                    + "' parameter must be a positive integer", role);
+        }
+        return Integer.parseInt(value);
     }
 
     /**
@@ -72,6 +101,16 @@ public class JournalConsumerThread
 
             recoveryLog.log("Start recovery.");
 
+            if (threads > 1) {
+                dispatcher =
+                        new JournalEntryDispatcher(threads,
+                                                   delegate,
+                                                   recoveryLog);
+                reader.setDispatcher(dispatcher);
+                recoveryLog.log("Applying journal entries on " + threads
+                        + " threads.");
+            }
+
             while (true) {
                 if (shutdown) {
                     break;
@@ -80,8 +119,15 @@ public class JournalConsumerThread
                 if (cje == null) {
                     break;
                 }
-                cje.invokeMethod(delegate, recoveryLog);
-                cje.close();
+                if (dispatcher == null) {
+                    cje.invokeMethod(delegate, recoveryLog);
+                    cje.close();
+                } else {
+                    dispatcher.dispatch(cje);
+                }
+            }
+            if (dispatcher != null) {
+                dispatcher.shutdown();
             }
             reader.shutdown();
 
@@ -100,6 +146,9 @@ public class JournalConsumerThread
             recoveryLog.log("PROBLEM: " + stackTrace);
             recoveryLog.log("Recovery terminated prematurely.");
         } finally {
+            if (dispatcher != null) {
+                dispatcher.stop();
+            }
             recoveryLog.shutdown();
         }
     }
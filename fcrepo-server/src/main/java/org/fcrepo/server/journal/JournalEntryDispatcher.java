@@ -0,0 +1,240 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.helpers.JournalHelper;
+import org.fcrepo.server.journal.managementmethods.ManagementMethod;
+import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
+import org.fcrepo.server.management.ManagementDelegate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies journal entries on a pool of worker threads, for the
+ * JournalConsumerThread.
+ * <p>
+ * Each entry that modifies a single object goes to the worker chosen by the
+ * PID of that object, so the entries for an object are applied in the order
+ * they were read, while the entries for other objects may be applied at the
+ * same time. An entry that may affect more than one object (like getNextPID
+ * or putTempStream) acts as a barrier: it waits until all entries before it
+ * have been applied, and is then applied alone, on the calling thread. So
+ * does an entry that involves other objects (see
+ * {@link ManagementMethod#involvesOtherObjects()}), such as an ingest, which
+ * may name content models ingested just before it.
+ * <p>
+ * Each entry is written to the recovery log with its identifier before it is
+ * applied, and again when it is complete, so after a crash the log shows
+ * exactly which entries were applied. If an entry fails, the entries that have
+ * not yet been started are discarded, and the failure is reported to the
+ * JournalConsumerThread.
+ */
+public class JournalEntryDispatcher {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(JournalEntryDispatcher.class);
+
+    /** How many entries may wait for each worker. */
+    private static final int QUEUE_SIZE = 50;
+
+    private final ManagementDelegate delegate;
+
+    private final JournalRecoveryLog recoveryLog;
+
+    private final Worker[] workers;
+
+    /** Entries that have been dispatched and not yet applied or discarded. */
+    private int pendingEntries = 0;
+
+    /** The first entry to fail, if any. */
+    private Throwable failure;
+
+    private volatile boolean stopped = false;
+
+    public JournalEntryDispatcher(int threads,
+                                  ManagementDelegate delegate,
+                                  JournalRecoveryLog recoveryLog) {
+        this.delegate = delegate;
+        this.recoveryLog = recoveryLog;
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Apply the entry, or give it to the appropriate worker. If the worker's
+     * queue is full, wait for room.
+     *
+     * @throws JournalException
+     *         if an earlier entry has failed.
+     */
+    public void dispatch(ConsumerJournalEntry journalEntry)
+            throws JournalException {
+        checkForFailure();
+
+        ManagementMethod method = journalEntry.getMethod();
+        String pid = method.getPid();
+        if (pid == null || method.involvesOtherObjects()) {
+            awaitAppliedEntries();
+            apply(journalEntry);
+            return;
+        }
+
+        synchronized (this) {
+            pendingEntries++;
+        }
+        Worker worker = workers[(pid.hashCode() & 0x7fffffff) % workers.length];
+        try {
+            worker.queue.put(journalEntry);
+        } catch (InterruptedException e) {
+            entryFinished(null);
+            journalEntry.close();
+            throw new JournalException("Interrupted while dispatching a journal entry",
+                                       e);
+        }
+    }
+
+    /**
+     * Wait until every entry that has been dispatched has been applied (or
+     * discarded, after a failure).
+     *
+     * @throws JournalException
+     *         if any entry has failed.
+     */
+    public synchronized void awaitAppliedEntries() throws JournalException {
+        while (pendingEntries > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new JournalException("Interrupted while waiting for journal entries",
+                                           e);
+            }
+        }
+        checkForFailure();
+    }
+
+    /**
+     * Wait for the dispatched entries to be applied, then stop the workers.
+     */
+    public void shutdown() throws JournalException {
+        try {
+            awaitAppliedEntries();
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Stop the workers. An entry that is being applied will be completed, but
+     * entries that have not been started are discarded.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private synchronized void checkForFailure() throws JournalException {
+        if (failure instanceof JournalException) {
+            throw (JournalException) failure;
+        } else if (failure != null) {
+            throw new JournalException("Failed to apply a journal entry",
+                                       failure);
+        }
+    }
+
+    private synchronized void entryFinished(Throwable problem) {
+        if (problem != null && failure == null) {
+            failure = problem;
+        }
+        pendingEntries--;
+        notifyAll();
+    }
+
+    private synchronized boolean hasFailed() {
+        return failure != null;
+    }
+
+    private void apply(ConsumerJournalEntry journalEntry)
+            throws JournalException {
+        try {
+            journalEntry.invokeMethod(delegate, recoveryLog);
+        } catch (JournalException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new JournalException(e);
+        } finally {
+            journalEntry.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JournalEntryDispatcher[threads=" + workers.length + "]";
+    }
+
+    /**
+     * Applies the entries from its queue, one at a time.
+     */
+    private class Worker
+            extends Thread {
+
+        private final BlockingQueue<ConsumerJournalEntry> queue =
+                new LinkedBlockingQueue<ConsumerJournalEntry>(QUEUE_SIZE);
+
+        Worker(int index) {
+            super("JournalEntryWorker-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                ConsumerJournalEntry journalEntry;
+                try {
+                    journalEntry = queue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    logger.warn("Thread was interrupted");
+                    continue;
+                }
+                if (journalEntry == null) {
+                    if (stopped) {
+                        return;
+                    }
+                    continue;
+                }
+
+                if (stopped || hasFailed()) {
+                    recoveryLog.log("Discarded: " + journalEntry.getMethodName()
+                            + ", " + journalEntry.getIdentifier());
+                    journalEntry.close();
+                    entryFinished(null);
+                    continue;
+                }
+
+                Throwable problem = null;
+                try {
+                    apply(journalEntry);
+                } catch (Throwable e) {
+                    /*
+                     * As in the JournalConsumerThread: there is no one else to
+                     * report this to, so catch everything.
+                     */
+                    logger.error("Error applying journal entry", e);
+                    recoveryLog.log("PROBLEM: "
+                            + JournalHelper.captureStackTrace(e));
+                    problem = e;
+                }
+                entryFinished(problem);
+            }
+        }
+    }
+
+}
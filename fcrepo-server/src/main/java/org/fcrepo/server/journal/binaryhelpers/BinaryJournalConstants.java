@@ -0,0 +1,66 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+/**
+ * Markers and type codes for the binary journal format.
+ * <p>
+ * A binary journal file consists of:
+ * <ul>
+ * <li>a header: the {@link #MAGIC} number, the {@link #FORMAT_VERSION}, the
+ * repository hash, and the time the file was begun;</li>
+ * <li>any number of entries, each introduced by {@link #RECORD_ENTRY};</li>
+ * <li>a trailer: {@link #RECORD_END}.</li>
+ * </ul>
+ * Strings are written as the length of their UTF-8 encoding, followed by the
+ * encoding itself (a length of -1 means null). Each multi-valued map of the
+ * context is written as its names, each followed by its values, and then a
+ * null name. Dates are written as milliseconds since the epoch. Stream
+ * arguments are written as their length in bytes, followed by the raw bytes.
+ * <p>
+ * Binary journal files may be compressed with GZIP as a whole.
+ * <p>
+ * Each binary journal file may have an index beside it, with the same name
+ * followed by {@link #INDEX_FILENAME_SUFFIX}. The index consists of the
+ * {@link #INDEX_MAGIC} number and the {@link #FORMAT_VERSION}; then, for each
+ * entry, {@link #RECORD_ENTRY}, the offset of the entry in the (uncompressed)
+ * journal, its time, its method name and the PID that it modifies (or null);
+ * and finally {@link #RECORD_END}. An index without the final record is not
+ * complete, and is not used.
+ */
+public interface BinaryJournalConstants {
+
+    /** The first four bytes of a binary journal file: "FJNL". */
+    int MAGIC = 0x464A4E4C;
+
+    int FORMAT_VERSION = 1;
+
+    /** The first four bytes of a journal index file: "FJIX". */
+    int INDEX_MAGIC = 0x464A4958;
+
+    /** Added to the name of a journal file to name its index. */
+    String INDEX_FILENAME_SUFFIX = ".index";
+
+    /** Introduces a journal entry. */
+    byte RECORD_ENTRY = 'E';
+
+    /** Marks the end of the journal file. */
+    byte RECORD_END = 'Z';
+
+    byte TYPE_NULL = 0;
+
+    byte TYPE_STRING = 1;
+
+    byte TYPE_STRINGARRAY = 2;
+
+    byte TYPE_INTEGER = 3;
+
+    byte TYPE_BOOLEAN = 4;
+
+    byte TYPE_DATE = 5;
+
+    byte TYPE_STREAM = 6;
+
+}
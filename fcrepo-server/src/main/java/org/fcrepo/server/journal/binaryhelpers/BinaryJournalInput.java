@@ -0,0 +1,421 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.Date;
+import java.util.zip.GZIPInputStream;
+
+import org.fcrepo.server.MultiValueMap;
+import org.fcrepo.server.journal.JournalConstants;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntryContext;
+import org.fcrepo.server.journal.helpers.JournalFileSection;
+import org.fcrepo.server.journal.helpers.JournalHelper;
+import org.fcrepo.server.journal.helpers.PasswordCipher;
+
+/**
+ * Reads journal entries in the binary journal format described in
+ * {@link BinaryJournalConstants}.
+ * <p>
+ * If the journal is read from an uncompressed file, stream arguments are not
+ * copied: each one is given as the {@link JournalFileSection} that holds it.
+ * Otherwise, each one is copied to a temp file.
+ */
+public class BinaryJournalInput
+        implements BinaryJournalConstants, JournalConstants {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** The first two bytes of a GZIP file. */
+    private static final int GZIP_MAGIC = 0x1f8b;
+
+    /**
+     * Open a journal file for reading. If the file is compressed, the stream
+     * will decompress it.
+     *
+     * @return a stream that supports {@link InputStream#mark(int)}, so it can
+     *         be passed to {@link #isBinaryJournal(InputStream)}.
+     */
+    public static InputStream openJournalFile(File file) throws IOException {
+        InputStream in =
+                new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            if (startsWith(in, GZIP_MAGIC, 2)) {
+                in = new BufferedInputStream(new GZIPInputStream(in),
+                                             BUFFER_SIZE);
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Is this file compressed with GZIP?
+     */
+    public static boolean isCompressedFile(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 2);
+        try {
+            return startsWith(in, GZIP_MAGIC, 2);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Does this stream hold a binary journal, rather than an XML journal? The
+     * stream is left where it was.
+     */
+    public static boolean isBinaryJournal(InputStream in) throws IOException {
+        return startsWith(in, MAGIC, 4);
+    }
+
+    private static boolean startsWith(InputStream in, int magic, int length)
+            throws IOException {
+        in.mark(length);
+        try {
+            int value = 0;
+            for (int i = 0; i < length; i++) {
+                int b = in.read();
+                if (b < 0) {
+                    return false;
+                }
+                value = value << 8 | b;
+            }
+            return value == magic;
+        } finally {
+            in.reset();
+        }
+    }
+
+    private final DataInputStream in;
+
+    /** Counts the bytes read, so we know where we are in the journal file. */
+    private final CountingInputStream counter;
+
+    /** Null unless stream arguments can be read from the file directly. */
+    private final File journalFile;
+
+    private String repositoryHash;
+
+    private Date date;
+
+    public BinaryJournalInput(InputStream stream) {
+        this(stream, null);
+    }
+
+    /**
+     * @param journalFile
+     *        the uncompressed journal file that the stream reads from the
+     *        beginning, or null. If it is given, stream arguments will be
+     *        read from the file directly, rather than copied.
+     */
+    public BinaryJournalInput(InputStream stream, File journalFile) {
+        counter = new CountingInputStream(stream);
+        in = new DataInputStream(counter);
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Read the header that begins the journal file. After this, the
+     * repository hash and the date are available.
+     */
+    public void readHeader() throws JournalException {
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new JournalException("Not a binary journal file");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new JournalException("Unsupported binary journal format version: "
+                        + version);
+            }
+            repositoryHash = readString();
+            date = new Date(in.readLong());
+        } catch (EOFException e) {
+            throw new JournalException("Binary journal file is incomplete", e);
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    /**
+     * The repository hash from the header, or null if it was not recorded.
+     */
+    public String getRepositoryHash() {
+        return repositoryHash;
+    }
+
+    /**
+     * The time from the header, when the journal file was begun.
+     */
+    public Date getDate() {
+        return date;
+    }
+
+    /**
+     * Read the next journal entry.
+     *
+     * @return the entry, or null if we have reached the end of the journal.
+     */
+    public ConsumerJournalEntry readEntry() throws JournalException {
+        try {
+            byte record = in.readByte();
+            if (record == RECORD_END) {
+                return null;
+            } else if (record != RECORD_ENTRY) {
+                throw new JournalException("Expecting a journal entry or the "
+                        + "end of the journal, but found record type "
+                        + record);
+            }
+
+            String methodName = readString();
+            ConsumerJournalEntry journalEntry =
+                    new ConsumerJournalEntry(methodName, readContext());
+            readArguments(journalEntry);
+            return journalEntry;
+        } catch (EOFException e) {
+            throw new JournalException("Binary journal file is incomplete", e);
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    /**
+     * How many bytes have been read so far? Before an entry is read, this is
+     * where it begins.
+     */
+    public long getPosition() {
+        return counter.getCount();
+    }
+
+    /**
+     * Skip ahead to the given position, such as the offset of an entry from
+     * the journal index.
+     */
+    public void skipTo(long position) throws JournalException {
+        long current = getPosition();
+        if (position < current) {
+            throw new JournalException("Can't skip back to position "
+                    + position + " from position " + current);
+        }
+        try {
+            skipFully(position - current);
+        } catch (EOFException e) {
+            throw new JournalException("Binary journal file is incomplete", e);
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    public void close() throws JournalException {
+        try {
+            in.close();
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    private JournalEntryContext readContext() throws IOException,
+            JournalException {
+        JournalEntryContext context = new JournalEntryContext();
+        Date now = new Date(in.readLong());
+        String passwordType = readString();
+        String passwordCipher = readString();
+        String key = JournalHelper.formatDate(now);
+
+        context.setNow(now);
+        context.setPassword(PasswordCipher.decipher(key,
+                                                    passwordCipher,
+                                                    passwordType));
+        context.setNoOp(in.readBoolean());
+        context.setEnvironmentAttributes(readMultiMap());
+        context.setSubjectAttributes(readMultiMap());
+        context.setActionAttributes(readMultiMap());
+        context.setResourceAttributes(readMultiMap());
+        context.setRecoveryAttributes(readMultiMap());
+        return context;
+    }
+
+    private MultiValueMap readMultiMap() throws IOException, JournalException {
+        MultiValueMap map = new MultiValueMap();
+        String name;
+        while ((name = readString()) != null) {
+            String[] values = readStringArray();
+            try {
+                map.set(name, values);
+            } catch (Exception e) {
+                // totally bogus Exception here.
+                throw new JournalException(e);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Null arguments are not added to the entry, just as they are not when
+     * reading an XML journal.
+     */
+    private void readArguments(ConsumerJournalEntry journalEntry)
+            throws IOException, JournalException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            String name = readString();
+            if (type == TYPE_NULL) {
+                continue;
+            } else if (type == TYPE_STRING) {
+                journalEntry.addArgument(name, readString());
+            } else if (type == TYPE_STRINGARRAY) {
+                journalEntry.addArgument(name, readStringArray());
+            } else if (type == TYPE_DATE) {
+                journalEntry.addArgument(name, new Date(in.readLong()));
+            } else if (type == TYPE_INTEGER) {
+                journalEntry.addArgument(name, Integer.valueOf(in.readInt()));
+            } else if (type == TYPE_BOOLEAN) {
+                journalEntry.addArgument(name, Boolean.valueOf(in
+                        .readBoolean()));
+            } else if (type == TYPE_STREAM) {
+                journalEntry.addArgument(name, readFile());
+            } else {
+                throw new JournalException("Unknown argument type: name='"
+                        + name + "', type=" + type + ", method='"
+                        + journalEntry.getMethodName() + "'");
+            }
+        }
+    }
+
+    private String[] readStringArray() throws IOException {
+        String[] values = new String[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readString();
+        }
+        return values;
+    }
+
+    private String readString() throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, DOCUMENT_ENCODING);
+    }
+
+    /**
+     * Copy a stream argument to a temp file, so it can be presented to the
+     * management method as an InputStream again. If we are reading the
+     * journal file directly, skip past the content instead, and refer to it.
+     */
+    private File readFile() throws IOException {
+        long remaining = in.readLong();
+        if (journalFile != null) {
+            File section =
+                    new JournalFileSection(journalFile,
+                                           counter.getCount(),
+                                           remaining);
+            skipFully(remaining);
+            return section;
+        }
+
+        File tempFile = JournalHelper.createTempFile();
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (remaining > 0) {
+                int count =
+                        in.read(buffer, 0, (int) Math.min(buffer.length,
+                                                          remaining));
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                out.write(buffer, 0, count);
+                remaining -= count;
+            }
+        } finally {
+            out.close();
+        }
+        return tempFile;
+    }
+
+    private void skipFully(long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                // skip() may not tell us about the end of the file.
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    /**
+     * Counts the bytes that are read or skipped.
+     */
+    private static class CountingInputStream
+            extends FilterInputStream {
+
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                count += skipped;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,262 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.fcrepo.server.MultiValueMap;
+import org.fcrepo.server.journal.JournalConstants;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.entry.JournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntryContext;
+import org.fcrepo.server.journal.helpers.JournalHelper;
+import org.fcrepo.server.journal.helpers.PasswordCipher;
+
+/**
+ * Writes journal entries in the binary journal format described in
+ * {@link BinaryJournalConstants}.
+ * <p>
+ * The context and arguments are the same as in the XML format, and the
+ * password is enciphered in the same way, but nothing needs to be escaped or
+ * Base64-encoded: stream arguments are copied into the journal as they are.
+ */
+public class BinaryJournalOutput
+        implements BinaryJournalConstants, JournalConstants {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final DataOutputStream out;
+
+    /** Counts the bytes written, so we know where each entry begins. */
+    private final CountingOutputStream counter;
+
+    public BinaryJournalOutput(OutputStream stream) {
+        counter =
+                new CountingOutputStream(new BufferedOutputStream(stream,
+                                                                  BUFFER_SIZE));
+        out = new DataOutputStream(counter);
+    }
+
+    /**
+     * How many bytes have been written so far? Before an entry is written,
+     * this is where it will begin.
+     */
+    public long getPosition() {
+        return counter.getCount();
+    }
+
+    /**
+     * Begin a new journal file.
+     */
+    public void writeHeader(String repositoryHash, Date currentDate)
+            throws JournalException {
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(repositoryHash);
+            out.writeLong(currentDate.getTime());
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    /**
+     * Write the method name, the context and the arguments of an entry.
+     */
+    public void writeEntry(JournalEntry journalEntry) throws JournalException {
+        try {
+            out.writeByte(RECORD_ENTRY);
+            writeString(journalEntry.getMethodName());
+            writeContext(journalEntry.getContext());
+            writeArguments(journalEntry.getArgumentsMap());
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    /**
+     * Mark the end of the journal file. Nothing may be written after this.
+     */
+    public void writeTrailer() throws JournalException {
+        try {
+            out.writeByte(RECORD_END);
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    public void flush() throws JournalException {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    public void close() throws JournalException {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    private void writeContext(JournalEntryContext context) throws IOException {
+        Date now = context.now();
+        String password = context.getPassword();
+        if (password == null) {
+            password = "";
+        }
+        String key = JournalHelper.formatDate(now);
+
+        out.writeLong(now.getTime());
+        writeString(PASSWORD_CIPHER_TYPE);
+        writeString(PasswordCipher.encipher(key, password));
+        out.writeBoolean(context.getNoOp());
+        writeMultiMap(context.getEnvironmentAttributes());
+        writeMultiMap(context.getSubjectAttributes());
+        writeMultiMap(context.getActionAttributes());
+        writeMultiMap(context.getResourceAttributes());
+        writeMultiMap(context.getRecoveryAttributes());
+    }
+
+    /**
+     * Write each name in the map with its values, and then a null name.
+     */
+    private void writeMultiMap(MultiValueMap map) throws IOException {
+        for (Iterator names = map.names(); names.hasNext();) {
+            String name = (String) names.next();
+            writeString(name);
+            writeStringArray(map.getStringArray(name));
+        }
+        writeString(null);
+    }
+
+    private void writeArguments(Map<String, Object> arguments)
+            throws IOException, JournalException {
+        out.writeInt(arguments.size());
+        for (Map.Entry<String, Object> argument : arguments.entrySet()) {
+            String name = argument.getKey();
+            Object value = argument.getValue();
+            if (value == null) {
+                out.writeByte(TYPE_NULL);
+                writeString(name);
+            } else if (value instanceof String) {
+                out.writeByte(TYPE_STRING);
+                writeString(name);
+                writeString((String) value);
+            } else if (value instanceof String[]) {
+                out.writeByte(TYPE_STRINGARRAY);
+                writeString(name);
+                writeStringArray((String[]) value);
+            } else if (value instanceof Date) {
+                out.writeByte(TYPE_DATE);
+                writeString(name);
+                out.writeLong(((Date) value).getTime());
+            } else if (value instanceof Integer) {
+                out.writeByte(TYPE_INTEGER);
+                writeString(name);
+                out.writeInt(((Integer) value).intValue());
+            } else if (value instanceof Boolean) {
+                out.writeByte(TYPE_BOOLEAN);
+                writeString(name);
+                out.writeBoolean(((Boolean) value).booleanValue());
+            } else if (value instanceof File) {
+                out.writeByte(TYPE_STREAM);
+                writeString(name);
+                writeFile((File) value);
+            } else {
+                throw new JournalException("Unknown argument type: name='"
+                        + name + "', type='" + value.getClass().getName()
+                        + "'");
+            }
+        }
+    }
+
+    private void writeStringArray(String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String value : values) {
+            writeString(value);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(DOCUMENT_ENCODING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Write the length of the file, and then its contents. If the file is
+     * shorter than its length said, the entry can't be completed, so complain.
+     */
+    private void writeFile(File file) throws IOException {
+        long length = file.length();
+        out.writeLong(length);
+
+        InputStream in = JournalHelper.openStreamArgument(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = length;
+            while (remaining > 0) {
+                int count =
+                        in.read(buffer, 0, (int) Math.min(buffer.length,
+                                                          remaining));
+                if (count < 0) {
+                    throw new IOException("Temp file '" + file.getPath()
+                            + "' is shorter than " + length + " bytes");
+                }
+                out.write(buffer, 0, count);
+                remaining -= count;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Counts the bytes that are written.
+     */
+    private static class CountingOutputStream
+            extends FilterOutputStream {
+
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+}
@@ -0,0 +1,251 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import javanet.staxutils.IndentingXMLEventWriter;
+
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.helpers.JournalHelper;
+import org.fcrepo.server.journal.xmlhelpers.AbstractXmlReader;
+import org.fcrepo.server.journal.xmlhelpers.JournalEntryXmlReader;
+import org.fcrepo.server.journal.xmlhelpers.JournalEntryXmlWriter;
+
+/**
+ * A command-line tool that converts a journal file from XML to the binary
+ * journal format, or from the binary format to XML.
+ * <p>
+ * The format of the input file is recognized from its contents, and the file
+ * is converted to the other format. The repository hash and the time stamp of
+ * the file are kept, so the converted file may be read in place of the
+ * original.
+ * <p>
+ * Usage: JournalConverter [-compress] inputFile outputFile
+ * <p>
+ * With <code>-compress</code>, the output file is compressed with GZIP.
+ */
+public class JournalConverter {
+
+    private static final String USAGE =
+            "Usage: JournalConverter [-compress] inputFile outputFile";
+
+    /**
+     * Convert a journal file to the other format.
+     *
+     * @return true if the input file was in the binary format, and was
+     *         converted to XML.
+     */
+    public static boolean convert(File inputFile,
+                                  File outputFile,
+                                  boolean compress) throws JournalException {
+        try {
+            InputStream in = BinaryJournalInput.openJournalFile(inputFile);
+            try {
+                OutputStream out = new FileOutputStream(outputFile);
+                try {
+                    GZIPOutputStream compressed = null;
+                    if (compress) {
+                        compressed = new GZIPOutputStream(out);
+                        out = compressed;
+                    }
+
+                    boolean binary = BinaryJournalInput.isBinaryJournal(in);
+                    if (binary) {
+                        convertBinaryToXml(in, out);
+                    } else {
+                        convertXmlToBinary(in, out);
+                    }
+
+                    if (compressed != null) {
+                        compressed.finish();
+                    }
+                    return binary;
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new JournalException(e);
+        } catch (XMLStreamException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    private static void convertBinaryToXml(InputStream in, OutputStream out)
+            throws JournalException, XMLStreamException {
+        BinaryJournalInput input = new BinaryJournalInput(in);
+        input.readHeader();
+
+        Writer writer = new OutputStreamWriter(out);
+        XMLEventWriter xmlWriter =
+                new IndentingXMLEventWriter(XMLOutputFactory.newInstance()
+                        .createXMLEventWriter(writer));
+        JournalEntryXmlWriter output = new JournalEntryXmlWriter();
+        output.writeDocumentHeader(xmlWriter,
+                                   input.getRepositoryHash(),
+                                   input.getDate());
+
+        ConsumerJournalEntry journalEntry;
+        while ((journalEntry = input.readEntry()) != null) {
+            try {
+                output.writeJournalEntry(journalEntry, xmlWriter);
+            } finally {
+                journalEntry.close();
+            }
+        }
+
+        output.writeDocumentTrailer(xmlWriter);
+        xmlWriter.close();
+    }
+
+    private static void convertXmlToBinary(InputStream in, OutputStream out)
+            throws JournalException, XMLStreamException {
+        XMLEventReader xmlReader =
+                XMLInputFactory.newInstance()
+                        .createXMLEventReader(new InputStreamReader(in));
+        XmlJournalReader input = new XmlJournalReader(xmlReader);
+        input.readHeader();
+
+        BinaryJournalOutput output = new BinaryJournalOutput(out);
+        output.writeHeader(input.getRepositoryHash(), input.getDate());
+
+        ConsumerJournalEntry journalEntry;
+        while ((journalEntry = input.readJournalEntry()) != null) {
+            try {
+                output.writeEntry(journalEntry);
+            } finally {
+                journalEntry.close();
+            }
+        }
+
+        output.writeTrailer();
+        output.flush();
+        xmlReader.close();
+    }
+
+    public static void main(String[] args) {
+        boolean compress = false;
+        int first = 0;
+        if (args.length > 0 && args[0].equals("-compress")) {
+            compress = true;
+            first = 1;
+        }
+        if (args.length - first != 2) {
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+
+        File inputFile = new File(args[first]);
+        File outputFile = new File(args[first + 1]);
+        try {
+            boolean binary = convert(inputFile, outputFile, compress);
+            System.out.println("Converted '" + inputFile.getPath() + "' to "
+                    + (binary ? "XML" : "binary") + " in '"
+                    + outputFile.getPath() + "'");
+        } catch (JournalException e) {
+            System.out.println("JournalConverter failed: ");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads an XML journal document, without the server that a
+     * {@link org.fcrepo.server.journal.JournalReader} needs.
+     */
+    private static class XmlJournalReader
+            extends AbstractXmlReader {
+
+        private final XMLEventReader xmlReader;
+
+        private final JournalEntryXmlReader entryReader =
+                new JournalEntryXmlReader();
+
+        private String repositoryHash;
+
+        private Date date;
+
+        XmlJournalReader(XMLEventReader xmlReader) {
+            this.xmlReader = xmlReader;
+        }
+
+        /**
+         * Advance past the document header to the first JournalEntry, noting
+         * the repository hash and the time stamp.
+         */
+        void readHeader() throws XMLStreamException, JournalException {
+            XMLEvent event = xmlReader.nextEvent();
+            if (!event.isStartDocument()) {
+                throw new JournalException("Expecting XML document header, but event was '"
+                        + event + "'");
+            }
+
+            event = xmlReader.nextTag();
+            if (!isStartTagEvent(event, QNAME_TAG_JOURNAL)) {
+                throw new JournalException("Expecting FedoraJournal start tag, but event was '"
+                        + event + "'");
+            }
+
+            StartElement start = event.asStartElement();
+            repositoryHash =
+                    getOptionalAttributeValue(start, QNAME_ATTR_REPOSITORY_HASH);
+            String timestamp =
+                    getOptionalAttributeValue(start, QNAME_ATTR_TIMESTAMP);
+            date =
+                    timestamp == null ? new Date() : JournalHelper
+                            .parseDate(timestamp);
+        }
+
+        String getRepositoryHash() {
+            return repositoryHash;
+        }
+
+        Date getDate() {
+            return date;
+        }
+
+        /**
+         * Read the next JournalEntry, or return null at the end of the
+         * journal.
+         */
+        ConsumerJournalEntry readJournalEntry() throws JournalException,
+                XMLStreamException {
+            advancePastWhitespace(xmlReader);
+            XMLEvent next = xmlReader.peek();
+            if (isStartTagEvent(next, QNAME_TAG_JOURNAL_ENTRY)) {
+                return entryReader.readJournalEntry(xmlReader);
+            } else if (isEndTagEvent(next, QNAME_TAG_JOURNAL)) {
+                return null;
+            } else {
+                throw getNotNextMemberOrEndOfGroupException(QNAME_TAG_JOURNAL,
+                                                            QNAME_TAG_JOURNAL_ENTRY,
+                                                            next);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,259 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.fcrepo.server.journal.JournalConstants;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.helpers.FileMovingUtil;
+import org.fcrepo.server.journal.helpers.JournalEntryFilter;
+import org.fcrepo.server.journal.helpers.JournalHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The index of a binary journal file: where each entry begins, when it was
+ * written, and what it modifies. With the index, a reader can skip straight
+ * to the entries it wants, without parsing the ones before them.
+ * <p>
+ * The index is kept in a file beside the journal file, as described in
+ * {@link BinaryJournalConstants}. It is only a help: if the index is missing
+ * or incomplete, the journal file must be read from the beginning.
+ */
+public class JournalIndex
+        implements BinaryJournalConstants, JournalConstants {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(JournalIndex.class);
+
+    private final List<Entry> entries;
+
+    private JournalIndex(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * The name of the index for this journal file.
+     */
+    public static File getIndexFile(File journalFile) {
+        return new File(journalFile.getParentFile(), journalFile.getName()
+                + INDEX_FILENAME_SUFFIX);
+    }
+
+    /**
+     * Is this the name of a journal index, rather than a journal file?
+     */
+    public static boolean isIndexFile(File file) {
+        return file.getName().endsWith(INDEX_FILENAME_SUFFIX);
+    }
+
+    /**
+     * Read the index of this journal file.
+     *
+     * @return the index, or null if there is no complete index.
+     */
+    public static JournalIndex readIndex(File journalFile) {
+        File indexFile = getIndexFile(journalFile);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in =
+                    new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                if (in.readInt() != INDEX_MAGIC
+                        || in.readInt() != FORMAT_VERSION) {
+                    logger.warn("Not a journal index: '" + indexFile.getPath()
+                            + "'");
+                    return null;
+                }
+
+                List<Entry> entries = new ArrayList<Entry>();
+                while (true) {
+                    byte record = in.readByte();
+                    if (record == RECORD_END) {
+                        return new JournalIndex(entries);
+                    } else if (record != RECORD_ENTRY) {
+                        logger.warn("Journal index is damaged: '"
+                                + indexFile.getPath() + "'");
+                        return null;
+                    }
+                    long offset = in.readLong();
+                    Date time = new Date(in.readLong());
+                    String methodName = readString(in);
+                    String pid = readString(in);
+                    entries.add(new Entry(offset, time, methodName, pid));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (EOFException e) {
+            logger.debug("Journal index is incomplete: '" + indexFile.getPath()
+                    + "'");
+            return null;
+        } catch (IOException e) {
+            logger.warn("Failed to read journal index: '"
+                    + indexFile.getPath() + "'", e);
+            return null;
+        }
+    }
+
+    /**
+     * Read a binary journal file, and write its index. This allows journal
+     * files that were written without an index (or whose index was lost) to
+     * be searched.
+     */
+    public static JournalIndex createIndex(File journalFile)
+            throws JournalException {
+        File indexFile = getIndexFile(journalFile);
+        File tempFile =
+                new File(indexFile.getParentFile(), "_" + indexFile.getName());
+        List<Entry> entries = new ArrayList<Entry>();
+        try {
+            InputStream in = BinaryJournalInput.openJournalFile(journalFile);
+            try {
+                if (!BinaryJournalInput.isBinaryJournal(in)) {
+                    throw new JournalException("Only binary journal files "
+                            + "can be indexed: '" + journalFile.getPath() + "'");
+                }
+                File uncompressedFile =
+                        BinaryJournalInput.isCompressedFile(journalFile) ? null
+                                : journalFile;
+                BinaryJournalInput input =
+                        new BinaryJournalInput(in, uncompressedFile);
+                input.readHeader();
+
+                JournalIndexOutput output =
+                        new JournalIndexOutput(new FileOutputStream(tempFile));
+                try {
+                    while (true) {
+                        long offset = input.getPosition();
+                        ConsumerJournalEntry journalEntry = input.readEntry();
+                        if (journalEntry == null) {
+                            break;
+                        }
+                        try {
+                            output.writeEntry(offset, journalEntry);
+                            entries.add(new Entry(offset, journalEntry));
+                        } finally {
+                            journalEntry.close();
+                        }
+                    }
+                    output.writeTrailer();
+                } finally {
+                    output.close();
+                }
+            } finally {
+                in.close();
+            }
+            FileMovingUtil.move(tempFile, indexFile);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw new JournalException(e);
+        } catch (JournalException e) {
+            tempFile.delete();
+            throw e;
+        }
+        return new JournalIndex(entries);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, DOCUMENT_ENCODING);
+    }
+
+    /**
+     * All of the entries, in the order they appear in the journal file.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * The entries that the filter chooses, in the order they appear in the
+     * journal file.
+     */
+    public List<Entry> getEntries(JournalEntryFilter filter) {
+        List<Entry> chosen = new ArrayList<Entry>();
+        for (Entry entry : entries) {
+            if (filter.accepts(entry.getTime(), entry.getPid())) {
+                chosen.add(entry);
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * What the index knows about a single journal entry.
+     */
+    public static class Entry {
+
+        private final long offset;
+
+        private final Date time;
+
+        private final String methodName;
+
+        private final String pid;
+
+        Entry(long offset, Date time, String methodName, String pid) {
+            this.offset = offset;
+            this.time = time;
+            this.methodName = methodName;
+            this.pid = pid;
+        }
+
+        Entry(long offset, ConsumerJournalEntry journalEntry) {
+            this(offset,
+                 journalEntry.getContext().now(),
+                 journalEntry.getMethodName(),
+                 journalEntry.getMethod().getPid());
+        }
+
+        /** Where the entry begins in the (uncompressed) journal file. */
+        public long getOffset() {
+            return offset;
+        }
+
+        public Date getTime() {
+            return time;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        /** The PID that the entry modifies, or null if not a single one. */
+        public String getPid() {
+            return pid;
+        }
+
+        @Override
+        public String toString() {
+            return offset + " " + JournalHelper.formatDate(time) + " "
+                    + methodName + (pid == null ? "" : " " + pid);
+        }
+    }
+}
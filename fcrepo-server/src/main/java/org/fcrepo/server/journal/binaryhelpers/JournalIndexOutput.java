@@ -0,0 +1,87 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.fcrepo.server.journal.JournalConstants;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.entry.JournalEntry;
+
+/**
+ * Writes the index of a binary journal file, as described in
+ * {@link BinaryJournalConstants}.
+ */
+public class JournalIndexOutput
+        implements BinaryJournalConstants, JournalConstants {
+
+    private final DataOutputStream out;
+
+    public JournalIndexOutput(OutputStream stream) throws JournalException {
+        out = new DataOutputStream(new BufferedOutputStream(stream));
+        try {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    /**
+     * Record an entry that begins at this offset in the journal.
+     */
+    public void writeEntry(long offset, JournalEntry journalEntry)
+            throws JournalException {
+        try {
+            out.writeByte(RECORD_ENTRY);
+            out.writeLong(offset);
+            out.writeLong(journalEntry.getContext().now().getTime());
+            writeString(journalEntry.getMethodName());
+            writeString(journalEntry.getMethod().getPid());
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    /**
+     * Mark the index as complete. Nothing may be written after this.
+     */
+    public void writeTrailer() throws JournalException {
+        try {
+            out.writeByte(RECORD_END);
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    public void flush() throws JournalException {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    public void close() throws JournalException {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(DOCUMENT_ENCODING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import java.io.File;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.helpers.JournalEntryFilter;
+import org.fcrepo.server.journal.helpers.JournalHelper;
+
+/**
+ * A command-line tool that lists the entries of binary journal files, using
+ * their indexes. A file that has no index is read, and its index is written.
+ * <p>
+ * Usage: JournalIndexer [-from date] [-until date] [-pid pid]... file...
+ * <p>
+ * The options choose which entries are listed, just as the
+ * <code>replayFrom</code>, <code>replayUntil</code> and
+ * <code>replayPids</code> parameters of the MultiFileJournalReader choose
+ * which entries are replayed. For each entry, the offset, time, method and PID
+ * are listed.
+ */
+public class JournalIndexer {
+
+    private static final String USAGE =
+            "Usage: JournalIndexer [-from date] [-until date] [-pid pid]... file...";
+
+    /**
+     * Read the index of the journal file, or create it if there is none.
+     */
+    public static JournalIndex getIndex(File journalFile)
+            throws JournalException {
+        JournalIndex index = JournalIndex.readIndex(journalFile);
+        if (index == null) {
+            index = JournalIndex.createIndex(journalFile);
+        }
+        return index;
+    }
+
+    public static void main(String[] args) {
+        Date from = null;
+        Date until = null;
+        Set<String> pids = null;
+        int first = 0;
+        try {
+            while (first < args.length && args[first].startsWith("-")) {
+                if (first + 1 >= args.length) {
+                    usage();
+                }
+                String option = args[first];
+                String value = args[first + 1];
+                if (option.equals("-from")) {
+                    from = JournalHelper.parseDate(value);
+                } else if (option.equals("-until")) {
+                    until = JournalHelper.parseDate(value);
+                } else if (option.equals("-pid")) {
+                    if (pids == null) {
+                        pids = new HashSet<String>();
+                    }
+                    pids.add(value);
+                } else {
+                    usage();
+                }
+                first += 2;
+            }
+        } catch (JournalException e) {
+            System.out.println("Invalid date: " + e.getMessage());
+            usage();
+        }
+        if (first >= args.length) {
+            usage();
+        }
+
+        JournalEntryFilter filter = new JournalEntryFilter(from, until, pids);
+        try {
+            for (int i = first; i < args.length; i++) {
+                File journalFile = new File(args[i]);
+                System.out.println(journalFile.getPath() + ":");
+                for (JournalIndex.Entry entry : getIndex(journalFile)
+                        .getEntries(filter)) {
+                    System.out.println("  " + entry);
+                }
+            }
+        } catch (JournalException e) {
+            System.out.println("JournalIndexer failed: ");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.out.println(USAGE);
+        System.exit(1);
+    }
+}
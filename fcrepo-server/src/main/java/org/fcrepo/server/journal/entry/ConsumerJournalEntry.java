@@ -32,7 +32,8 @@ public class ConsumerJournalEntry
             throws ServerException, JournalException {
         recoveryLog.log(this);
         super.getMethod().invoke(delegate);
-        recoveryLog.log("Call complete:" + super.getMethodName());
+        recoveryLog.log("Call complete:" + super.getMethodName() + ", "
+                + identifier);
     }
 
     public void setIdentifier(String identifier) {
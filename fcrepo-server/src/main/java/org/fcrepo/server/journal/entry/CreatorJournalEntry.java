@@ -33,34 +33,44 @@ public class CreatorJournalEntry
     /**
      * Process the management method:
      * <ul>
+     * <li>Copy any stream arguments that don't come from local files, before
+     * taking the journal lock, so a slow client doesn't hold up the other
+     * Management methods.</li>
      * <li>Check the operating mode - if we are in
      * {@link JournalOperatingMode#READ_ONLY Read-Only} mode, this check will
      * throw an exception.</li>
      * <li>Prepare the writer in case we need to initialize a new file with a
      * repository hash.</li>
      * <li>Invoke the method on the ManagementDelegate.</li>
+     * <li>Finish copying any stream arguments that the method did not read to
+     * the end.</li>
      * <li>Write the full journal entry, including any context changes from the
      * Management method.</li>
      * </ul>
-     * These operations occur within a synchronized block. We must be sure that
-     * any pending operations are complete before we get the repository hash, so
-     * we are confident that the hash accurately reflects the state of the
-     * repository. Since all API-M operations go through this synchronized
-     * block, we can be confident that the previous one had completed before the
-     * current one started.
+     * All but the first of these operations occur within a synchronized block.
+     * We must be sure that any pending operations are complete before we get
+     * the repository hash, so we are confident that the hash accurately
+     * reflects the state of the repository. Since all API-M operations go
+     * through this synchronized block, we can be confident that the previous
+     * one had completed before the current one started.
      * <p>
-     * There might be a way to enforce the synchronization at a lower level,
-     * thus increasing throughput, but we haven't explored it yet.
+     * Once the entry is written, we leave the synchronized block before
+     * waiting for the writer to commit it, so a writer that commits entries
+     * in groups can store several of them at once.
      */
     public Object invokeMethod(ManagementDelegate delegate, JournalWriter writer)
             throws ServerException, JournalException {
+        Object result;
+        copyRemoteStreamArguments();
         synchronized (JournalWriter.SYNCHRONIZER) {
             JournalOperatingMode.enforceCurrentMode();
             writer.prepareToWriteJournalEntry();
-            Object result = super.getMethod().invoke(delegate);
+            result = super.getMethod().invoke(delegate);
+            completeStreamArguments();
             writer.writeJournalEntry(this);
-            return result;
         }
+        writer.waitForCommit();
+        return result;
     }
 
     /**
@@ -4,19 +4,24 @@
  */
 package org.fcrepo.server.journal.entry;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.fcrepo.server.journal.JournalException;
 import org.fcrepo.server.journal.helpers.JournalHelper;
+import org.fcrepo.server.journal.helpers.TeeInputStream;
 import org.fcrepo.server.journal.managementmethods.ManagementMethod;
+import org.fcrepo.server.utilities.StreamUtility;
 
 
 /**
@@ -25,6 +30,14 @@ import org.fcrepo.server.journal.managementmethods.ManagementMethod;
  * At this level, a JournalEntry is a method name, a method adapter, and a map
  * of arguments.
  * <p>
+ * An InputStream argument is kept in a temp file. A stream from a local file
+ * is not copied there until it is read: the first time it is asked for, the
+ * stream is copied to the temp file as it is read. Any other stream (an
+ * upload from a client, perhaps) may be slow to read, so
+ * {@link #copyRemoteStreamArguments()} copies it before the journal is
+ * locked. Call {@link #completeStreamArguments()} to be sure that the temp
+ * files are complete.
+ * <p>
  * NOTE: when finished with the JournalEntry, call close(). This will release
  * any temporary files associated with the entry.
  * 
@@ -43,6 +56,14 @@ public abstract class JournalEntry {
 
     private final JournalEntryContext context;
 
+    /**
+     * Stream arguments that are not yet completely copied to their temp
+     * files: either the original stream, or a TeeInputStream that is copying
+     * it as it is read.
+     */
+    private final Map<String, InputStream> uncopiedStreams =
+            new HashMap<String, InputStream>();
+
     protected JournalEntry(String methodName, JournalEntryContext context) {
         this.methodName = methodName;
         this.context = context;
@@ -64,8 +85,21 @@ public abstract class JournalEntry {
         return methodName;
     }
 
+    /**
+     * The temp files for stream arguments are completed before the map is
+     * returned.
+     *
+     * @throws IllegalStateException
+     *         if a stream argument can't be copied to its temp file.
+     */
     public Map<String, Object> getArgumentsMap() {
         checkOpen();
+        try {
+            completeStreamArguments();
+        } catch (JournalException e) {
+            throw new IllegalStateException("Failed to copy a stream argument",
+                                            e);
+        }
         return new LinkedHashMap<String, Object>(arguments);
     }
 
@@ -85,25 +119,88 @@ public abstract class JournalEntry {
     }
 
     /**
-     * If handed an InputStream as an argument, copy it to a temp file and store
-     * that File in the arguments map instead. If the InputStream is null, store
-     * null in the arguments map.
+     * If handed an InputStream as an argument, store a temp file in the
+     * arguments map instead. The stream will be copied to the temp file when
+     * it is read, or when the arguments are completed. If the InputStream is
+     * null, store null in the arguments map.
      */
     public void addArgument(String key, InputStream stream)
             throws JournalException {
         checkOpen();
+        uncopiedStreams.remove(key);
         if (stream == null) {
             arguments.put(key, null);
         } else {
             try {
-                File tempFile = JournalHelper.copyToTempFile(stream);
+                File tempFile = JournalHelper.createTempFile();
                 arguments.put(key, tempFile);
+                uncopiedStreams.put(key, stream);
             } catch (IOException e) {
                 throw new JournalException(e);
             }
         }
     }
 
+    /**
+     * Copy the stream arguments that don't come from local files to their temp
+     * files now. Such a stream may be as slow as the client that sends it, so
+     * it must not be read while holding the journal lock: that would hold up
+     * every other journaled Management method.
+     */
+    public void copyRemoteStreamArguments() throws JournalException {
+        checkOpen();
+        try {
+            Iterator<Map.Entry<String, InputStream>> uncopied =
+                    uncopiedStreams.entrySet().iterator();
+            while (uncopied.hasNext()) {
+                Map.Entry<String, InputStream> entry = uncopied.next();
+                InputStream stream = entry.getValue();
+                if (!(stream instanceof TeeInputStream)
+                        && !(stream instanceof FileInputStream)) {
+                    uncopied.remove();
+                    File file = (File) arguments.get(entry.getKey());
+                    StreamUtility.pipeStream(stream,
+                                             new FileOutputStream(file),
+                                             4096);
+                }
+            }
+        } catch (IOException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    /**
+     * Finish copying any stream arguments to their temp files: whatever has
+     * not been read is copied now. This must be done before the arguments are
+     * written to the journal.
+     */
+    public void completeStreamArguments() throws JournalException {
+        checkOpen();
+        if (uncopiedStreams.isEmpty()) {
+            // Nothing to change, so it is safe to share the entry among
+            // threads once it is complete.
+            return;
+        }
+        try {
+            for (Map.Entry<String, InputStream> uncopied : uncopiedStreams
+                    .entrySet()) {
+                InputStream stream = uncopied.getValue();
+                if (stream instanceof TeeInputStream) {
+                    stream.close();
+                } else {
+                    File file = (File) arguments.get(uncopied.getKey());
+                    StreamUtility.pipeStream(stream,
+                                             new FileOutputStream(file),
+                                             4096);
+                }
+            }
+        } catch (IOException e) {
+            throw new JournalException(e);
+        } finally {
+            uncopiedStreams.clear();
+        }
+    }
+
     // convenience method for setting values into the Context recovery space.
     public void setRecoveryValue(String attribute, String value) {
         checkOpen();
@@ -148,18 +245,31 @@ public abstract class JournalEntry {
      * If they ask for an InputStream argument, get the File from the arguments
      * map and create an InputStream on that file. If the value from the map is
      * null, return null.
+     * <p>
+     * If the argument has not been copied to the File yet, return a stream
+     * that copies it as it is read, so the caller needn't wait for the copy.
      */
     public InputStream getStreamArgument(String name) throws JournalException {
         checkOpen();
         File file = (File) arguments.get(name);
         if (file == null) {
             return null;
-        } else {
-            try {
-                return new FileInputStream(file);
-            } catch (FileNotFoundException e) {
-                throw new JournalException(e);
+        }
+        try {
+            InputStream uncopied = uncopiedStreams.get(name);
+            if (uncopied != null && !(uncopied instanceof TeeInputStream)) {
+                TeeInputStream tee =
+                        new TeeInputStream(uncopied,
+                                           new BufferedOutputStream(new FileOutputStream(file)));
+                uncopiedStreams.put(name, tee);
+                return tee;
+            } else if (uncopied != null) {
+                // Asked for again while the first copy is being read.
+                completeStreamArguments();
             }
+            return JournalHelper.openStreamArgument(file);
+        } catch (IOException e) {
+            throw new JournalException(e);
         }
     }
 
@@ -172,6 +282,19 @@ public abstract class JournalEntry {
 
         open = false;
 
+        for (InputStream uncopied : uncopiedStreams.values()) {
+            try {
+                if (uncopied instanceof TeeInputStream) {
+                    ((TeeInputStream) uncopied).abandon();
+                } else {
+                    uncopied.close();
+                }
+            } catch (IOException e) {
+                // the stream is no longer needed, so carry on.
+            }
+        }
+        uncopiedStreams.clear();
+
         for (Object arg : arguments.values()) {
             if (arg instanceof File) {
                 File file = (File) arg;
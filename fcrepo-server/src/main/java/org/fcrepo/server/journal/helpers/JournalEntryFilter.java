@@ -0,0 +1,135 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.helpers;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.entry.JournalEntry;
+
+/**
+ * Chooses which journal entries to replay: those within a window of time,
+ * those for a chosen set of objects, or both.
+ * <p>
+ * An entry that does not modify a single object (like getNextPID) is chosen
+ * whatever the set of objects, since it may affect any of them. Only the time
+ * window applies to it.
+ */
+public class JournalEntryFilter {
+
+    /** A filter that chooses every entry. */
+    public static final JournalEntryFilter ALL_ENTRIES =
+            new JournalEntryFilter(null, null, null);
+
+    /** Entries before this time are not chosen. May be null. */
+    private final Date from;
+
+    /** Entries at or after this time are not chosen. May be null. */
+    private final Date until;
+
+    /** If not null, only entries for these PIDs are chosen. */
+    private final Set<String> pids;
+
+    public JournalEntryFilter(Date from, Date until, Set<String> pids) {
+        this.from = from;
+        this.until = until;
+        this.pids = pids == null ? null : new HashSet<String>(pids);
+    }
+
+    /**
+     * Create a filter from the parameters, if any are present.
+     *
+     * @param fromParameter
+     *        the name of the parameter that holds the start of the time
+     *        window, in the journal's date format.
+     * @param untilParameter
+     *        the name of the parameter that holds the end of the time window.
+     * @param pidsParameter
+     *        the name of the parameter that holds the chosen PIDs, separated
+     *        by commas or spaces.
+     */
+    public static JournalEntryFilter parseParameters(Map<String, String> parameters,
+                                                     String fromParameter,
+                                                     String untilParameter,
+                                                     String pidsParameter)
+            throws JournalException {
+        Date from = parseDateParameter(parameters, fromParameter);
+        Date until = parseDateParameter(parameters, untilParameter);
+
+        Set<String> pids = null;
+        String pidsString = parameters.get(pidsParameter);
+        if (pidsString != null) {
+            pids = new HashSet<String>();
+            for (String pid : pidsString.split("[,\\s]+")) {
+                if (pid.length() > 0) {
+                    pids.add(pid);
+                }
+            }
+        }
+
+        if (from == null && until == null && pids == null) {
+            return ALL_ENTRIES;
+        }
+        return new JournalEntryFilter(from, until, pids);
+    }
+
+    private static Date parseDateParameter(Map<String, String> parameters,
+                                           String parameterName)
+            throws JournalException {
+        String dateString = parameters.get(parameterName);
+        if (dateString == null) {
+            return null;
+        }
+        try {
+            return JournalHelper.parseDate(dateString);
+        } catch (JournalException e) {
+            throw new JournalException("Parameter '" + parameterName
+                    + "' must be a date like '"
+                    + JournalHelper.formatDate(new Date()) + "'", e);
+        }
+    }
+
+    /**
+     * Does this filter choose every entry?
+     */
+    public boolean isAllEntries() {
+        return from == null && until == null && pids == null;
+    }
+
+    /**
+     * Is an entry with this time and PID chosen?
+     *
+     * @param pid
+     *        the PID of the object that the entry modifies, or null if it
+     *        does not modify a single object.
+     */
+    public boolean accepts(Date time, String pid) {
+        if (from != null && time.before(from)) {
+            return false;
+        }
+        if (until != null && !time.before(until)) {
+            return false;
+        }
+        return pids == null || pid == null || pids.contains(pid);
+    }
+
+    public boolean accepts(JournalEntry journalEntry) {
+        return accepts(journalEntry.getContext().now(), journalEntry
+                .getMethod().getPid());
+    }
+
+    @Override
+    public String toString() {
+        return "JournalEntryFilter[from=" + formatDate(from) + ", until="
+                + formatDate(until) + ", pids=" + pids + "]";
+    }
+
+    private static String formatDate(Date date) {
+        return date == null ? null : JournalHelper.formatDate(date);
+    }
+}
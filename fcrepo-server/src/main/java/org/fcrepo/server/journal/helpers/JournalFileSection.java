@@ -0,0 +1,129 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.helpers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Subclass of File that stands for a section of a journal file.
+ * <p>
+ * When a stream argument is stored in a binary journal file without
+ * compression, its content is there as it was written, so the reader can hand
+ * out this section of the journal file, instead of copying it to a temp file.
+ * Use {@link JournalHelper#openStreamArgument(File)} to read it; reading it as
+ * a plain File would read the whole journal file.
+ * <p>
+ * The section is only valid while the journal file is in place, so the entry
+ * that holds it must be used before the journal file is archived.
+ */
+public class JournalFileSection
+        extends File {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long offset;
+
+    private final long length;
+
+    public JournalFileSection(File journalFile, long offset, long length) {
+        super(journalFile.getPath());
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * The length of the section, not of the journal file.
+     */
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Open the journal file, positioned at the start of the section, and read
+     * no further than the end of it.
+     */
+    public InputStream openStream() throws IOException {
+        FileInputStream in = new FileInputStream(this);
+        try {
+            in.getChannel().position(offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new SectionInputStream(in, length);
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + "[offset=" + offset + ", length=" + length
+                + "]";
+    }
+
+    /**
+     * Stops at the end of the section.
+     */
+    private static class SectionInputStream
+            extends FilterInputStream {
+
+        private long remaining;
+
+        SectionInputStream(InputStream in, long length) {
+            super(in);
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = super.read(b, off, (int) Math.min(len, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            if (skipped > 0) {
+                remaining -= skipped;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
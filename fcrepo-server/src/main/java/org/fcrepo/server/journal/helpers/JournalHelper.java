@@ -5,6 +5,7 @@
 package org.fcrepo.server.journal.helpers;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -51,6 +52,19 @@ public class JournalHelper
         return tempFile;
     }
 
+    /**
+     * Open a File that was stored as a stream argument. If it is a section of
+     * a journal file, read only that section.
+     */
+    public static InputStream openStreamArgument(File file)
+            throws FileNotFoundException, IOException {
+        if (file instanceof JournalFileSection) {
+            return ((JournalFileSection) file).openStream();
+        } else {
+            return new FileInputStream(file);
+        }
+    }
+
     /**
      * Create a temporary file. The "File" object that we return is really an
      * instance of "JournalTempFile", so we can detect it later in isTempFile().
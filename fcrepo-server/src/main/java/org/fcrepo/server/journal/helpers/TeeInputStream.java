@@ -0,0 +1,121 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.helpers;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An InputStream that copies everything it reads to an OutputStream.
+ * <p>
+ * This lets the management delegate read a stream argument while the journal
+ * keeps its own copy, so the argument need not be copied before the delegate
+ * can start. When the stream is closed, whatever the reader did not read is
+ * copied also, so the copy is always complete.
+ */
+public class TeeInputStream
+        extends FilterInputStream {
+
+    private final OutputStream copy;
+
+    private boolean closed = false;
+
+    public TeeInputStream(InputStream in, OutputStream copy) {
+        super(in);
+        this.copy = copy;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            copy.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        if (count > 0) {
+            copy.write(b, off, count);
+        }
+        return count;
+    }
+
+    /**
+     * Skipped bytes must still be copied, so read them.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[4096];
+        long skipped = 0;
+        while (skipped < n) {
+            int count =
+                    read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (count < 0) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Copy the rest of the stream, and close both streams.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            byte[] buffer = new byte[4096];
+            while (read(buffer, 0, buffer.length) >= 0) {
+                // keep copying until the end of the stream.
+            }
+        } finally {
+            try {
+                copy.close();
+            } finally {
+                super.close();
+            }
+        }
+    }
+
+    /**
+     * Close both streams without copying the rest. The copy is incomplete,
+     * and should be discarded.
+     */
+    public void abandon() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            copy.close();
+        } finally {
+            super.close();
+        }
+    }
+
+}
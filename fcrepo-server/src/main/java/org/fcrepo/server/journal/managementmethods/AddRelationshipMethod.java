@@ -36,4 +36,12 @@ public class AddRelationshipMethod
         return added;
     }
 
+    /**
+     * The relationship may name another object.
+     */
+    @Override
+    public boolean involvesOtherObjects() {
+        return true;
+    }
+
 }
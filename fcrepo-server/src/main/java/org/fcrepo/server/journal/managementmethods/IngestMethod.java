@@ -42,4 +42,28 @@ public class IngestMethod
         return pid;
     }
 
+    /**
+     * If the PID was not given (or was "new"), it was assigned by the leading
+     * server, and recorded in the context.
+     */
+    @Override
+    public String getPid() {
+        String pid = parent.getStringArgument(ARGUMENT_NAME_NEW_PID);
+        if (pid == null || pid.length() == 0 || pid.equals("new")) {
+            pid =
+                    parent.getContext()
+                            .getRecoveryValue(Constants.RECOVERY.PID.uri);
+        }
+        return pid;
+    }
+
+    /**
+     * The new object may name any other object, or be one that other objects
+     * name.
+     */
+    @Override
+    public boolean involvesOtherObjects() {
+        return true;
+    }
+
 }
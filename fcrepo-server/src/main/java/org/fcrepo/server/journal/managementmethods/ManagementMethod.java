@@ -4,6 +4,11 @@
  */
 package org.fcrepo.server.journal.managementmethods;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.fcrepo.common.Constants;
 import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.journal.JournalConstants;
 import org.fcrepo.server.journal.JournalException;
@@ -27,6 +32,20 @@ import org.fcrepo.server.management.ManagementDelegate;
 public abstract class ManagementMethod
         implements JournalConstants {
 
+    /**
+     * The datastreams that are read when other objects are changed or
+     * indexed: the relationships that name an object's content models and
+     * the objects it depends on, and the definitions held by content model,
+     * service definition and service deployment objects.
+     */
+    private static final Set<String> SHARED_DATASTREAMS =
+            new HashSet<String>(Arrays.asList("RELS-EXT",
+                                              "DS-COMPOSITE-MODEL",
+                                              "ONTOLOGY",
+                                              "METHODMAP",
+                                              "DSINPUTSPEC",
+                                              "WSDL"));
+
     /**
      * Get an instance of the proper class, based on the method name.
      */
@@ -70,6 +89,42 @@ public abstract class ManagementMethod
         this.parent = parent;
     }
 
+    /**
+     * The PID of the one object that this method modifies, or null if it may
+     * modify more than one object, or none. Methods for different objects may
+     * be applied in parallel, but a method without a PID must be applied when
+     * nothing else is.
+     * <p>
+     * By default, this is the PID argument, without any "info:fedora/" prefix
+     * or datastream ID that it may have (as the subject of a relationship).
+     */
+    public String getPid() {
+        String pid = parent.getStringArgument(ARGUMENT_NAME_PID);
+        if (pid != null && pid.startsWith(Constants.FEDORA.uri)) {
+            pid = pid.substring(Constants.FEDORA.uri.length());
+            int slash = pid.indexOf('/');
+            if (slash >= 0) {
+                pid = pid.substring(0, slash);
+            }
+        }
+        return pid;
+    }
+
+    /**
+     * Whether applying this method may depend on other objects, or change
+     * what is read from its object when other objects are applied. Such a
+     * method must be applied when nothing else is, even though it has a PID,
+     * so that (for instance) an object is not ingested before the content
+     * model it names.
+     * <p>
+     * By default, this is true for changes to the datastreams that other
+     * objects are validated, indexed or served with, including RELS-EXT.
+     */
+    public boolean involvesOtherObjects() {
+        String dsId = parent.getStringArgument(ARGUMENT_NAME_DS_ID);
+        return dsId != null && SHARED_DATASTREAMS.contains(dsId);
+    }
+
     /**
      * Each concrete sub-class should use this method to pull the necessary
      * arguments from the map of the parent JournalEntry, call the appropriate
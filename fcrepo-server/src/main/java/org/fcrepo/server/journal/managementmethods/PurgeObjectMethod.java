@@ -28,4 +28,12 @@ public class PurgeObjectMethod
                 .getStringArgument(ARGUMENT_NAME_LOG_MESSAGE));
     }
 
+    /**
+     * Other objects may name the purged object.
+     */
+    @Override
+    public boolean involvesOtherObjects() {
+        return true;
+    }
+
 }
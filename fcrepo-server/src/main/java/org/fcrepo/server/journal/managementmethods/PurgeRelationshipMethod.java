@@ -32,4 +32,12 @@ public class PurgeRelationshipMethod
                 .getStringArgument(ARGUMENT_NAME_DATATYPE));
     }
 
+    /**
+     * The relationship may name another object.
+     */
+    @Override
+    public boolean involvesOtherObjects() {
+        return true;
+    }
+
 }
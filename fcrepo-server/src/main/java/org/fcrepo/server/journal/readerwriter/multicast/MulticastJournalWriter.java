@@ -7,8 +7,10 @@ package org.fcrepo.server.journal.readerwriter.multicast;
 
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -20,6 +22,7 @@ import org.fcrepo.server.journal.JournalOperatingMode;
 import org.fcrepo.server.journal.JournalWriter;
 import org.fcrepo.server.journal.ServerInterface;
 import org.fcrepo.server.journal.entry.CreatorJournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntry;
 import org.fcrepo.server.journal.helpers.JournalHelper;
 import org.fcrepo.server.journal.helpers.ParameterHelper;
 import org.fcrepo.server.journal.readerwriter.multicast.request.CloseFileRequest;
@@ -27,6 +30,7 @@ import org.fcrepo.server.journal.readerwriter.multicast.request.OpenFileRequest;
 import org.fcrepo.server.journal.readerwriter.multicast.request.ShutdownRequest;
 import org.fcrepo.server.journal.readerwriter.multicast.request.TransportRequest;
 import org.fcrepo.server.journal.readerwriter.multicast.request.WriteEntryRequest;
+import org.fcrepo.server.journal.readerwriter.multicast.request.WriteSavedEntryRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +44,22 @@ import static org.fcrepo.server.journal.readerwriter.multicast.Transport.State.S
  * {@link JournalWriter.SYNCHRONIZER}, as is the {@link #closeFile() closeFile}
  * method. This means that an asynchronous call by the timer task will not
  * interrupt a synchronous operation already in progress, or vice versa.
+ * <p>
+ * Each Transport has a thread of its own, so a request is delivered to all of
+ * the Transports at once, and the slowest Transport sets the pace, rather than
+ * the sum of them all. The writer waits for each Transport to finish with the
+ * request, except:
+ * <ul>
+ * <li>If the <code>crucialTransportTimeout</code> parameter is set, a crucial
+ * Transport that takes longer than that many milliseconds is treated as if it
+ * had failed.</li>
+ * <li>A non-crucial Transport with a <code>queueSize</code> parameter is not
+ * waited for. Up to that many requests may wait for it, and the writer waits
+ * only when its queue is full. Since the journal entry may be closed before
+ * such a Transport gets to it, the entry is saved to a temp file first.</li>
+ * </ul>
+ * The statistics for each Transport are available from
+ * {@link #getTransportStatistics()}, and are logged at shutdown.
  *
  * @author jblake
  */
@@ -68,6 +88,19 @@ public class MulticastJournalWriter
      */
     public static final String CRUCIAL_PARAMETER_KEY = "crucial";
 
+    /**
+     * Optional parameter for a non-crucial transport: how many requests may
+     * wait for it. If not set, the writer waits for each request.
+     */
+    public static final String QUEUE_SIZE_PARAMETER_KEY = "queueSize";
+
+    /**
+     * Optional parameter: how long (in milliseconds) to wait for a crucial
+     * transport before treating it as a failure - 0 means no limit.
+     */
+    public static final String PARAMETER_CRUCIAL_TRANSPORT_TIMEOUT =
+            "crucialTransportTimeout";
+
     /**
      * Every Transport needs these types of arguments for its constructor.
      */
@@ -89,6 +122,18 @@ public class MulticastJournalWriter
     /** Map of the transports, keyed by transport name. */
     private final Map<String, Transport> transports;
 
+    /** The queue that delivers requests to each transport, by name. */
+    private final Map<String, TransportQueue> transportQueues;
+
+    /**
+     * How many transports may still be writing an entry after we stop waiting
+     * for them? These get a saved copy of the entry.
+     */
+    private final int savedEntryTransports;
+
+    /** Milliseconds to wait for a crucial transport - 0 means no limit */
+    private final long crucialTimeout;
+
     /** Current state of the writer and the transports. */
     private Transport.State state = FILE_CLOSED;
 
@@ -115,6 +160,9 @@ public class MulticastJournalWriter
         transportParameters = parseTransportParameters(parameters);
         checkTransportParametersForValidity();
         transports = createTransports();
+        transportQueues = createTransportQueues();
+        crucialTimeout = parseCrucialTimeout(parameters);
+        savedEntryTransports = countSavedEntryTransports();
 
         sizeEstimator = new JournalEntrySizeEstimator(this);
     }
@@ -179,6 +227,7 @@ public class MulticastJournalWriter
         checkAllTransportsHaveClassnames();
         checkAllTransportsHaveCrucialFlags();
         checkAtLeastOneCrucialTransport();
+        checkQueuedTransportsAreNotCrucial();
         logger.info("Journal transport parameters validated.");
     }
 
@@ -213,6 +262,20 @@ public class MulticastJournalWriter
         }
     }
 
+    private void checkQueuedTransportsAreNotCrucial() throws JournalException {
+        for (String transportName : transportParameters.keySet()) {
+            Map<String, String> thisTransportMap =
+                    transportParameters.get(transportName);
+            if (thisTransportMap.containsKey(QUEUE_SIZE_PARAMETER_KEY)
+                    && Boolean.parseBoolean(thisTransportMap
+                            .get(CRUCIAL_PARAMETER_KEY))) {
+                throw new JournalException("Transport '" + transportName
+                        + "' is crucial, so it may not have a '"
+                        + QUEUE_SIZE_PARAMETER_KEY + "' parameter");
+            }
+        }
+    }
+
     private void checkAtLeastOneCrucialTransport() throws JournalException {
         for (String transportName : transportParameters.keySet()) {
             Map<String, String> thisTransportMap =
@@ -249,10 +312,94 @@ public class MulticastJournalWriter
         return result;
     }
 
+    private Map<String, TransportQueue> createTransportQueues()
+            throws JournalException {
+        Map<String, TransportQueue> result =
+                new LinkedHashMap<String, TransportQueue>();
+        for (String transportName : transports.keySet()) {
+            String queueSizeString =
+                    transportParameters.get(transportName)
+                            .get(QUEUE_SIZE_PARAMETER_KEY);
+            int queueSize = 0;
+            if (queueSizeString != null) {
+                try {
+                    queueSize = Integer.parseInt(queueSizeString);
+                } catch (NumberFormatException e) {
+                    queueSize = -1;
+                }
+                if (queueSize < 0) {
+                    throw new JournalException("Parameter '"
+                            + QUEUE_SIZE_PARAMETER_KEY + "' for transport '"
+                            + transportName
+                            + "' must be a non-negative integer");
+                }
+            }
+            result.put(transportName,
+                       new TransportQueue(transportName, transports
+                               .get(transportName), queueSize));
+        }
+        return result;
+    }
+
+    private int countSavedEntryTransports() {
+        int count = 0;
+        for (TransportQueue queue : transportQueues.values()) {
+            if (usesSavedEntry(queue)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Queued transports aren't waited for at all, and a crucial transport
+     * that misses the timeout goes on writing after the entry is closed.
+     */
+    private boolean usesSavedEntry(TransportQueue queue) {
+        return queue.isQueued()
+                || crucialTimeout > 0 && queue.getTransport().isCrucial();
+    }
+
+    private long parseCrucialTimeout(Map<String, String> parameters)
+            throws JournalException {
+        String timeoutString =
+                ParameterHelper
+                        .getOptionalStringParameter(parameters,
+                                                    PARAMETER_CRUCIAL_TRANSPORT_TIMEOUT,
+                                                    "0");
+        try {
+            long timeout = Long.parseLong(timeoutString);
+            if (timeout >= 0) {
+                return timeout;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the exception.
+        }
+        throw new JournalException("Parameter '"
+                + PARAMETER_CRUCIAL_TRANSPORT_TIMEOUT
+                + "' must be a non-negative integer number of milliseconds, "
+                + "or 0 to indicate no time limit");
+    }
+
     Map<String, Transport> getTransports() {
         return transports;
     }
 
+    /**
+     * How has each Transport kept up with the requests sent to it?
+     *
+     * @return the statistics, keyed by transport name.
+     */
+    public Map<String, TransportStatistics> getTransportStatistics() {
+        Map<String, TransportStatistics> result =
+                new LinkedHashMap<String, TransportStatistics>();
+        for (String transportName : transportQueues.keySet()) {
+            result.put(transportName, transportQueues.get(transportName)
+                    .getStatistics());
+        }
+        return result;
+    }
+
     /**
      * <p>
      * Get ready to write a journal entry, insuring that we have an open file.
@@ -289,9 +436,8 @@ public class MulticastJournalWriter
      * Write a journal entry.
      * </p>
      * <p>
-     * If we are shutdown, ignore this request. Otherwise, get an output stream
-     * from each Transport in turn, and write the entry. If this puts the file
-     * size over the limit, close them.
+     * If we are shutdown, ignore this request. Otherwise, have each Transport
+     * write the entry. If this puts the file size over the limit, close them.
      * </p>
      *
      * @see org.fcrepo.server.journal.JournalWriter#writeJournalEntry(org.fcrepo.server.journal.entry.CreatorJournalEntry)
@@ -304,7 +450,21 @@ public class MulticastJournalWriter
                 return;
             }
             logger.debug("Writing journal entry.");
-            sendRequestToAllTransports(new WriteEntryRequest(this, journalEntry));
+            TransportRequest request =
+                    new WriteEntryRequest(this, journalEntry);
+            TransportRequest savedRequest = null;
+            if (savedEntryTransports > 0) {
+                try {
+                    savedRequest =
+                            new WriteSavedEntryRequest(this,
+                                                       journalEntry,
+                                                       savedEntryTransports);
+                } catch (JournalException e) {
+                    logger.error("Failed to save a journal entry for the "
+                            + "queued or timed Journal Transports", e);
+                }
+            }
+            sendRequestToAllTransports(request, savedRequest);
             currentSize += sizeEstimator.estimateSize(journalEntry);
 
             if (state == FILE_OPEN) {
@@ -319,7 +479,8 @@ public class MulticastJournalWriter
      * </p>
      * <p>
      * If the Transports still have files open, close them. Then stop responding
-     * to requests.
+     * to requests. Wait for any queued Transports to catch up before their
+     * threads are stopped.
      * </p>
      *
      * @see org.fcrepo.server.journal.JournalWriter#shutdown()
@@ -337,6 +498,13 @@ public class MulticastJournalWriter
             logger.debug("Shutting down.");
             sendRequestToAllTransports(new ShutdownRequest());
             state = SHUTDOWN;
+
+            for (String transportName : transportQueues.keySet()) {
+                TransportQueue queue = transportQueues.get(transportName);
+                queue.stop(crucialTimeout);
+                logger.info("Journal Transport '" + transportName + "': "
+                        + queue.getStatistics());
+            }
         }
     }
 
@@ -438,7 +606,7 @@ public class MulticastJournalWriter
 
     /** make this public, so the TransportRequest class can call it. */
     @Override
-    public void writeJournalEntry(CreatorJournalEntry journalEntry,
+    public void writeJournalEntry(JournalEntry journalEntry,
                                   XMLEventWriter writer)
             throws JournalException {
         super.writeJournalEntry(journalEntry, writer);
@@ -465,19 +633,34 @@ public class MulticastJournalWriter
         super.writeDocumentTrailer(writer);
     }
 
+    /**
+     * Send a request for some operation to the Transports.
+     */
+    private void sendRequestToAllTransports(TransportRequest request)
+            throws JournalException {
+        sendRequestToAllTransports(request, request);
+    }
+
     /**
      * Send a request for some operation to the Transports. Send it to all of
-     * them, even if one or more throws an Exception. Report any exceptions when
-     * all Transports have been attempted.
+     * them at once, and wait for those that are not queued. Report any
+     * exceptions when all of those Transports have finished.
+     * <p>
+     * If the saved request is missing, the queued Transports miss it, and
+     * that counts as a failure. The crucial Transports have the live request
+     * instead, and we wait for them without a time limit, since they must
+     * finish with the entry before it is closed.
      *
      * @param request
-     *        the request object
-     * @param args
-     *        the arguments to be passed to the request object
+     *        the request for the Transports that we wait for.
+     * @param savedRequest
+     *        the request for the Transports that may still be using it after
+     *        we stop waiting, or null if it could not be created.
      * @throws JournalException
      *         if there were any crucial problems.
      */
-    private void sendRequestToAllTransports(TransportRequest request)
+    private void sendRequestToAllTransports(TransportRequest request,
+                                            TransportRequest savedRequest)
             throws JournalException {
         Map<String, JournalException> crucialExceptions =
                 new LinkedHashMap<String, JournalException>();
@@ -485,18 +668,29 @@ public class MulticastJournalWriter
                 new LinkedHashMap<String, JournalException>();
 
         /*
-         * Send the request to all transports, accumulating any Exceptions as we
-         * go. That way, we increase the likeihood that at least one Transport
-         * succeeded in the request.
+         * Send the request to all transports before waiting for any of them.
          */
-        for (String transportName : transports.keySet()) {
-            Transport transport = transports.get(transportName);
+        Map<String, TransportQueue.Delivery> deliveries =
+                new LinkedHashMap<String, TransportQueue.Delivery>();
+        Set<String> untimedTransports = new HashSet<String>();
+        for (String transportName : transportQueues.keySet()) {
+            TransportQueue queue = transportQueues.get(transportName);
+            TransportRequest thisRequest =
+                    usesSavedEntry(queue) ? savedRequest : request;
+            if (thisRequest == null) {
+                if (queue.isQueued()) {
+                    queue.recordFailure();
+                    continue;
+                }
+                thisRequest = request;
+                untimedTransports.add(transportName);
+            }
+            logger.debug("Sending " + thisRequest.getClass().getSimpleName()
+                    + " to transport '" + transportName + "'");
             try {
-                logger.debug("Sending " + request.getClass().getSimpleName()
-                        + " to transport '" + transportName + "'");
-                request.performRequest(transport);
+                deliveries.put(transportName, queue.send(thisRequest));
             } catch (JournalException e) {
-                if (transport.isCrucial()) {
+                if (queue.getTransport().isCrucial()) {
                     crucialExceptions.put(transportName, e);
                 } else {
                     nonCrucialExceptions.put(transportName, e);
@@ -504,6 +698,51 @@ public class MulticastJournalWriter
             }
         }
 
+        /*
+         * Wait for the transports that aren't queued, accumulating any
+         * Exceptions as we go. Problems in the queued transports are reported
+         * by their queues.
+         */
+        long deadline = System.currentTimeMillis() + crucialTimeout;
+        for (String transportName : deliveries.keySet()) {
+            TransportQueue queue = transportQueues.get(transportName);
+            if (queue.isQueued()) {
+                continue;
+            }
+            boolean crucial = queue.getTransport().isCrucial();
+            TransportQueue.Delivery delivery = deliveries.get(transportName);
+
+            JournalException problem;
+            try {
+                long timeout = 0;
+                if (crucial && crucialTimeout > 0
+                        && !untimedTransports.contains(transportName)) {
+                    timeout =
+                            Math.max(deadline - System.currentTimeMillis(),
+                                     1);
+                }
+                if (delivery.await(timeout)) {
+                    problem = delivery.getProblem();
+                } else {
+                    problem =
+                            new JournalException("Transport did not finish "
+                                    + request.getClass().getSimpleName()
+                                    + " within " + crucialTimeout
+                                    + " milliseconds");
+                }
+            } catch (JournalException e) {
+                problem = e;
+            }
+
+            if (problem == null) {
+                continue;
+            } else if (crucial) {
+                crucialExceptions.put(transportName, problem);
+            } else {
+                nonCrucialExceptions.put(transportName, problem);
+            }
+        }
+
         /*
          * Report the Exceptions. Report the non-crucial ones first, in case the
          * Server decides to take some definitive action on a crucial Exception.
@@ -0,0 +1,237 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.journal.readerwriter.multicast;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.readerwriter.multicast.request.TransportRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers requests to a single {@link Transport}, on a thread of its own, in
+ * the order they were sent.
+ * <p>
+ * If the queue size is 0, the sender is expected to wait for each request to
+ * be delivered, and to report any problem. Otherwise, the sender need not
+ * wait: up to that many requests may be waiting for the Transport, and
+ * problems are reported here. When the queue is full, the sender waits for
+ * room, so a slow Transport can't fall behind without limit.
+ */
+class TransportQueue {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(TransportQueue.class);
+
+    /** Tells the delivery thread to stop. */
+    private static final Delivery STOP = new Delivery(null);
+
+    private final String transportName;
+
+    private final Transport transport;
+
+    private final int queueSize;
+
+    private final BlockingQueue<Delivery> queue;
+
+    private final Thread deliveryThread;
+
+    private long delivered;
+
+    private long failed;
+
+    private long totalLag;
+
+    private long maxLag;
+
+    TransportQueue(String transportName, Transport transport, int queueSize) {
+        this.transportName = transportName;
+        this.transport = transport;
+        this.queueSize = queueSize;
+        queue = new LinkedBlockingQueue<Delivery>(Math.max(queueSize, 1));
+
+        deliveryThread = new Thread(new Runnable() {
+
+            public void run() {
+                deliverRequests();
+            }
+        }, "JournalTransport-" + transportName);
+        deliveryThread.setDaemon(true);
+        deliveryThread.start();
+    }
+
+    Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Is the sender free to go on without waiting for each request?
+     */
+    boolean isQueued() {
+        return queueSize > 0;
+    }
+
+    /**
+     * Put the request in the queue, waiting for room if necessary.
+     */
+    Delivery send(TransportRequest request) throws JournalException {
+        Delivery delivery = new Delivery(request);
+        try {
+            if (!queue.offer(delivery)) {
+                logger.warn("Journal Transport '" + transportName
+                        + "' is falling behind; waiting for room in its queue.");
+                queue.put(delivery);
+            }
+        } catch (InterruptedException e) {
+            throw new JournalException("Interrupted while sending a request to Journal Transport '"
+                                               + transportName + "'",
+                                       e);
+        }
+        return delivery;
+    }
+
+    /**
+     * Stop the delivery thread when the requests in the queue have been
+     * delivered, and wait for it.
+     *
+     * @param timeout
+     *        the longest time to wait, in milliseconds, or 0 to wait for as
+     *        long as it takes.
+     */
+    void stop(long timeout) throws JournalException {
+        try {
+            queue.put(STOP);
+            deliveryThread.join(timeout);
+        } catch (InterruptedException e) {
+            throw new JournalException("Interrupted while stopping Journal Transport '"
+                                               + transportName + "'",
+                                       e);
+        }
+    }
+
+    synchronized TransportStatistics getStatistics() {
+        return new TransportStatistics(delivered,
+                                       failed,
+                                       queue.size(),
+                                       delivered == 0 ? 0 : totalLag
+                                               / delivered,
+                                       maxLag);
+    }
+
+    private void deliverRequests() {
+        while (true) {
+            Delivery delivery;
+            try {
+                delivery = queue.take();
+            } catch (InterruptedException e) {
+                logger.warn("Thread was interrupted");
+                continue;
+            }
+            if (delivery == STOP) {
+                return;
+            }
+
+            JournalException problem = null;
+            try {
+                delivery.request.performRequest(transport);
+            } catch (JournalException e) {
+                problem = e;
+            } catch (RuntimeException e) {
+                problem = new JournalException(e);
+            }
+            recordDelivery(delivery, problem);
+
+            if (problem != null && isQueued()) {
+                logger.error("Exception thrown from non-crucial Journal Transport: '"
+                                     + transportName + "'",
+                             problem);
+            }
+            delivery.finish(problem);
+        }
+    }
+
+    /**
+     * Count a request that failed before it could be sent to the Transport.
+     */
+    synchronized void recordFailure() {
+        failed++;
+    }
+
+    private synchronized void recordDelivery(Delivery delivery,
+                                             JournalException problem) {
+        long lag = System.currentTimeMillis() - delivery.sent;
+        delivered++;
+        if (problem != null) {
+            failed++;
+        }
+        totalLag += lag;
+        maxLag = Math.max(maxLag, lag);
+    }
+
+    @Override
+    public String toString() {
+        return "TransportQueue[" + transportName + ", queueSize=" + queueSize
+                + "]";
+    }
+
+    /**
+     * A request that has been sent to the Transport, and whether it has been
+     * delivered.
+     */
+    static class Delivery {
+
+        private final TransportRequest request;
+
+        private final long sent = System.currentTimeMillis();
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile JournalException problem;
+
+        Delivery(TransportRequest request) {
+            this.request = request;
+        }
+
+        private void finish(JournalException problem) {
+            this.problem = problem;
+            done.countDown();
+        }
+
+        /**
+         * Wait for the request to be delivered.
+         *
+         * @param timeout
+         *        the longest time to wait, in milliseconds, or 0 to wait for
+         *        as long as it takes.
+         * @return true if the request was delivered, whether it succeeded or
+         *         not.
+         */
+        boolean await(long timeout) throws JournalException {
+            try {
+                if (timeout <= 0) {
+                    done.await();
+                    return true;
+                } else {
+                    return done.await(timeout, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                throw new JournalException("Interrupted while waiting for a Journal Transport",
+                                           e);
+            }
+        }
+
+        /**
+         * If the request failed, this is why.
+         */
+        JournalException getProblem() {
+            return problem;
+        }
+    }
+}
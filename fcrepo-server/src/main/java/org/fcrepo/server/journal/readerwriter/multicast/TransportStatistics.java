@@ -0,0 +1,71 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.journal.readerwriter.multicast;
+
+/**
+ * How a single Transport has kept up with the requests sent to it. The lag of a
+ * request is the time from when it was sent to when the Transport finished
+ * with it, including any time it spent waiting in the queue.
+ */
+public class TransportStatistics {
+
+    private final long delivered;
+
+    private final long failed;
+
+    private final int pending;
+
+    private final long averageLag;
+
+    private final long maxLag;
+
+    public TransportStatistics(long delivered,
+                               long failed,
+                               int pending,
+                               long averageLag,
+                               long maxLag) {
+        this.delivered = delivered;
+        this.failed = failed;
+        this.pending = pending;
+        this.averageLag = averageLag;
+        this.maxLag = maxLag;
+    }
+
+    /** How many requests have been delivered, successfully or not? */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * How many requests failed? This includes any that could not be prepared
+     * for the Transport, and so were never delivered.
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /** How many requests are waiting in the queue? */
+    public int getPending() {
+        return pending;
+    }
+
+    /** The average lag, in milliseconds. */
+    public long getAverageLag() {
+        return averageLag;
+    }
+
+    /** The longest lag, in milliseconds. */
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    @Override
+    public String toString() {
+        return "delivered=" + delivered + ", failed=" + failed + ", pending="
+                + pending + ", averageLag=" + averageLag + "(msec), maxLag="
+                + maxLag + "(msec)";
+    }
+}
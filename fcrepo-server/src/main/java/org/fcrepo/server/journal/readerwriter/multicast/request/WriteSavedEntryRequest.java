@@ -0,0 +1,112 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+
+package org.fcrepo.server.journal.readerwriter.multicast.request;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import org.fcrepo.server.journal.JournalConstants;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.entry.CreatorJournalEntry;
+import org.fcrepo.server.journal.helpers.JournalHelper;
+import org.fcrepo.server.journal.readerwriter.multicast.MulticastJournalWriter;
+import org.fcrepo.server.journal.readerwriter.multicast.Transport;
+
+/**
+ * TransportRequest that writes a journalEntry to Transports that may not get
+ * to it until after the journalEntry has been closed.
+ * <p>
+ * The entry is written to a temp file when the request is created, and copied
+ * from there to each Transport. When each of the Transports has had the
+ * request, the temp file is deleted.
+ */
+public class WriteSavedEntryRequest
+        extends TransportRequest
+        implements JournalConstants {
+
+    private final File savedEntry;
+
+    private int transportsRemaining;
+
+    /**
+     * @param transports
+     *        how many Transports the request will be sent to.
+     */
+    public WriteSavedEntryRequest(MulticastJournalWriter journalWriter,
+                                  CreatorJournalEntry journalEntry,
+                                  int transports)
+            throws JournalException {
+        transportsRemaining = transports;
+        try {
+            savedEntry = JournalHelper.createTempFile();
+            Writer out =
+                    new OutputStreamWriter(new FileOutputStream(savedEntry),
+                                           DOCUMENT_ENCODING);
+            try {
+                XMLEventWriter xmlWriter =
+                        XMLOutputFactory.newInstance().createXMLEventWriter(out);
+                journalWriter.writeJournalEntry(journalEntry, xmlWriter);
+                xmlWriter.close();
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new JournalException(e);
+        } catch (XMLStreamException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    @Override
+    public void performRequest(Transport transport) throws JournalException {
+        try {
+            XMLEventWriter writer = transport.getWriter();
+            Reader in =
+                    new InputStreamReader(new FileInputStream(savedEntry),
+                                          DOCUMENT_ENCODING);
+            try {
+                XMLEventReader reader =
+                        XMLInputFactory.newInstance().createXMLEventReader(in);
+                while (reader.hasNext()) {
+                    XMLEvent event = reader.nextEvent();
+                    if (!event.isStartDocument() && !event.isEndDocument()) {
+                        writer.add(event);
+                    }
+                }
+                reader.close();
+                writer.flush();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new JournalException(e);
+        } catch (XMLStreamException e) {
+            throw new JournalException(e);
+        } finally {
+            transportFinished();
+        }
+    }
+
+    private synchronized void transportFinished() {
+        transportsRemaining--;
+        if (transportsRemaining <= 0) {
+            savedEntry.delete();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.readerwriter.multifile;
+
+import java.io.File;
+
+/**
+ * Tells a following reader when it is worth listing the journal directory.
+ * <p>
+ * The leading server creates each journal file in the journal directory and
+ * renames it when it is complete, and either of those changes the time stamp
+ * of the directory. So instead of listing the directory at every polling
+ * interval, the reader checks the time stamp at a much shorter interval, and
+ * lists the directory only when it has changed. This brings the reader to a
+ * new journal file soon after it appears, for the cost of a single file
+ * attribute lookup.
+ * <p>
+ * Some file systems don't keep the time stamp of a directory, or keep it only
+ * to the nearest second or two, and network file systems may cache it. So the
+ * directory is listed again whenever the time stamp is too close to the last
+ * listing to be trusted, and in any case at each polling interval.
+ */
+class JournalDirectoryWatcher {
+
+    /**
+     * The coarsest resolution of a directory time stamp that we expect to
+     * find.
+     */
+    private static final long TIMESTAMP_RESOLUTION = 2000;
+
+    private final File journalDirectory;
+
+    private final long checkIntervalMillis;
+
+    private final long pollingIntervalMillis;
+
+    /** The time stamp of the directory at the last listing. */
+    private long lastModified = -1;
+
+    /** When we last listed the directory. */
+    private long lastListing = 0;
+
+    /**
+     * @param checkIntervalMillis
+     *        how often to check the time stamp of the directory. If zero, the
+     *        time stamp is not checked, and the directory is listed at each
+     *        polling interval.
+     * @param pollingIntervalMillis
+     *        the longest time between listings.
+     */
+    JournalDirectoryWatcher(File journalDirectory,
+                            long checkIntervalMillis,
+                            long pollingIntervalMillis) {
+        this.journalDirectory = journalDirectory;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.pollingIntervalMillis = pollingIntervalMillis;
+    }
+
+    /**
+     * How long should the reader wait before asking again?
+     */
+    long getWaitInterval() {
+        if (checkIntervalMillis > 0
+                && checkIntervalMillis < pollingIntervalMillis) {
+            return checkIntervalMillis;
+        } else {
+            return pollingIntervalMillis;
+        }
+    }
+
+    /**
+     * Has the directory changed since the last listing, or might it have? If
+     * this returns true, the reader is expected to list the directory.
+     */
+    boolean shouldListDirectory() {
+        long now = System.currentTimeMillis();
+        long modified = journalDirectory.lastModified();
+
+        boolean shouldList;
+        if (now - lastListing >= pollingIntervalMillis) {
+            shouldList = true;
+        } else if (checkIntervalMillis <= 0 || modified == 0L) {
+            // Not checking, or no time stamp: wait for the polling interval.
+            shouldList = false;
+        } else {
+            shouldList =
+                    modified != lastModified
+                            || lastListing - modified < TIMESTAMP_RESOLUTION;
+        }
+
+        if (shouldList) {
+            lastModified = modified;
+            lastListing = now;
+        }
+        return shouldList;
+    }
+
+    /**
+     * Make sure that the directory is listed at the next check, whether it
+     * has changed or not.
+     */
+    void listAtNextCheck() {
+        lastListing = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "checkInterval=" + checkIntervalMillis + ", pollingInterval="
+                + pollingIntervalMillis;
+    }
+}
@@ -5,20 +5,28 @@
 package org.fcrepo.server.journal.readerwriter.multifile;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 
 import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.binaryhelpers.BinaryJournalInput;
+import org.fcrepo.server.journal.binaryhelpers.JournalIndex;
 import org.fcrepo.server.journal.helpers.FileMovingUtil;
 
 
 /**
  * Encapsulate the information that goes with consuming a Journal file.
+ * <p>
+ * The file may be XML or in the binary journal format, and may be compressed
+ * with GZIP; we look at the start of the file to see which.
+ * <p>
+ * If the file has an index, the index goes to the archive with it.
  * 
  * @author Jim Blake
  */
@@ -26,10 +34,15 @@ class JournalInputFile {
 
     private final File file;
 
-    private final FileReader fileReader;
+    /** Null if the file is in the binary format. */
+    private final Reader fileReader;
 
+    /** Null if the file is in the binary format. */
     private final XMLEventReader xmlReader;
 
+    /** Null if the file is XML. */
+    private final BinaryJournalInput binaryInput;
+
     public JournalInputFile(File file)
             throws JournalException {
         if (!file.isFile()) {
@@ -43,10 +56,23 @@ class JournalInputFile {
 
         try {
             this.file = file;
-            XMLInputFactory factory = XMLInputFactory.newInstance();
-            fileReader = new FileReader(file);
-            xmlReader = factory.createXMLEventReader(fileReader);
-        } catch (FileNotFoundException e) {
+            InputStream fileStream = BinaryJournalInput.openJournalFile(file);
+            if (BinaryJournalInput.isBinaryJournal(fileStream)) {
+                fileReader = null;
+                xmlReader = null;
+                // Stream arguments in an uncompressed file may be read in
+                // place.
+                File journalFile =
+                        BinaryJournalInput.isCompressedFile(file) ? null
+                                : file;
+                binaryInput = new BinaryJournalInput(fileStream, journalFile);
+            } else {
+                XMLInputFactory factory = XMLInputFactory.newInstance();
+                fileReader = new InputStreamReader(fileStream);
+                xmlReader = factory.createXMLEventReader(fileReader);
+                binaryInput = null;
+            }
+        } catch (IOException e) {
             throw new JournalException(e);
         } catch (XMLStreamException e) {
             throw new JournalException(e);
@@ -57,13 +83,21 @@ class JournalInputFile {
         return file.getPath();
     }
 
+    public File getFile() {
+        return file;
+    }
+
     /**
      * When we have processed the file, move it to the archive directory.
      */
     public void closeAndRename(File archiveDirectory) throws JournalException {
         try {
-            xmlReader.close();
-            fileReader.close();
+            if (binaryInput != null) {
+                binaryInput.close();
+            } else {
+                xmlReader.close();
+                fileReader.close();
+            }
             File archiveFile = new File(archiveDirectory, file.getName());
 
             /*
@@ -80,6 +114,18 @@ class JournalInputFile {
                         + file.getPath() + "' to '" + archiveFile.getPath()
                         + "'", e);
             }
+
+            File indexFile = JournalIndex.getIndexFile(file);
+            if (indexFile.exists()) {
+                File archiveIndexFile = JournalIndex.getIndexFile(archiveFile);
+                try {
+                    FileMovingUtil.move(indexFile, archiveIndexFile);
+                } catch (IOException e) {
+                    throw new JournalException("Failed to rename file from '"
+                            + indexFile.getPath() + "' to '"
+                            + archiveIndexFile.getPath() + "'", e);
+                }
+            }
         } catch (XMLStreamException e) {
             throw new JournalException(e);
         } catch (IOException e) {
@@ -87,8 +133,26 @@ class JournalInputFile {
         }
     }
 
+    /**
+     * Is the file in the binary format, rather than XML?
+     */
+    public boolean isBinary() {
+        return binaryInput != null;
+    }
+
+    /**
+     * The reader for an XML file, or null if the file is in the binary
+     * format.
+     */
     public XMLEventReader getReader() {
         return xmlReader;
     }
 
+    /**
+     * The input for a file in the binary format, or null if the file is XML.
+     */
+    public BinaryJournalInput getBinaryInput() {
+        return binaryInput;
+    }
+
 }
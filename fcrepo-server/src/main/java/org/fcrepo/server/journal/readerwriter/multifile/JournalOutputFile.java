@@ -5,12 +5,17 @@
 package org.fcrepo.server.journal.readerwriter.multifile;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 import java.util.Date;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.stream.FactoryConfigurationError;
 import javax.xml.stream.XMLEventWriter;
@@ -21,8 +26,14 @@ import javanet.staxutils.IndentingXMLEventWriter;
 
 import org.fcrepo.server.journal.JournalException;
 import org.fcrepo.server.journal.JournalWriter;
+import org.fcrepo.server.journal.binaryhelpers.BinaryJournalOutput;
+import org.fcrepo.server.journal.binaryhelpers.JournalIndex;
+import org.fcrepo.server.journal.binaryhelpers.JournalIndexOutput;
+import org.fcrepo.server.journal.entry.JournalEntry;
 import org.fcrepo.server.journal.helpers.FileMovingUtil;
 import org.fcrepo.server.journal.helpers.JournalHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -34,12 +45,30 @@ import org.fcrepo.server.journal.helpers.JournalHelper;
  * problems. Any other operations on the file or on its
  * <code>XMLEventWriter</code> should also be synchronized against the
  * {@link JournalWriter#SYNCHRONIZER}.
+ * <p>
+ * If group commit is used, a commit thread forces the entries written to the
+ * file onto the disk. It waits briefly after an entry is written, so that it
+ * can commit later entries along with it, and commits as soon as enough
+ * entries are waiting. Closing the file commits any entries that remain.
+ * <p>
+ * The file is written either as XML or in the binary journal format. If it is
+ * to be compressed, it is written uncompressed while it is open, so each
+ * entry can be flushed (and committed) as it is written, and compressed when
+ * it is closed.
+ * <p>
+ * A binary file is indexed as it is written. The index is written under a
+ * temporary name as well, and is renamed just before the file, so a reader
+ * that finds the file will find its index. Since the index is only a help to
+ * readers, a failure to write it is logged, and the index is abandoned.
  * 
  * @author Jim Blake
  */
 class JournalOutputFile
         implements MultiFileJournalConstants {
 
+    private static final Logger logger =
+            LoggerFactory.getLogger(JournalOutputFile.class);
+
     /** A "dummy" file instance that is already closed. */
     public static final JournalOutputFile DUMMY_FILE = new JournalOutputFile();
 
@@ -52,10 +81,29 @@ class JournalOutputFile
     /** The name of the file while it is being written. */
     private final File tempFile;
 
-    private final FileWriter fileWriter;
+    private final FileOutputStream fileStream;
 
+    /** Null if the file is written in the binary format. */
+    private final Writer fileWriter;
+
+    /** Null if the file is written in the binary format. */
     private final XMLEventWriter xmlWriter;
 
+    /** Null if the file is written as XML. */
+    private final BinaryJournalOutput binaryOutput;
+
+    /** The name of the index after it is complete. */
+    private final File indexFile;
+
+    /** The name of the index while it is being written. */
+    private final File indexTempFile;
+
+    /** Null if the file is written as XML, or the index was abandoned. */
+    private JournalIndexOutput indexOutput;
+
+    /** Compress the file when it is closed? */
+    private final boolean compress;
+
     /** If the file is larger than this (in bytes), close it. */
     private final long sizeLimit;
 
@@ -65,6 +113,32 @@ class JournalOutputFile
     /** Is this file still open? */
     private boolean open = true;
 
+    /** Commits entries in groups, or null if group commit is not used. */
+    private final CommitThread commitThread;
+
+    /** Guards the counts of entries written and committed. */
+    private final Object commitLock = new Object();
+
+    /** How many entries have been written to the file. */
+    private long entriesWritten;
+
+    /** How many of the entries written are known to be on the disk. */
+    private long entriesCommitted;
+
+    /** Set once the file is closed, so there is nothing left to commit. */
+    private boolean commitsFinished;
+
+    /** Set if the commit thread was unable to commit the entries. */
+    private JournalException commitFailure;
+
+    /**
+     * Guards the file stream between the commit thread, which forces it to
+     * disk, and {@link #close()}.
+     */
+    private final Object streamLock = new Object();
+
+    private boolean streamClosed;
+
     /**
      * This private constructor creates a "dummy" file that is closed to start
      * with.
@@ -73,32 +147,76 @@ class JournalOutputFile
         sizeLimit = 0;
         file = null;
         tempFile = null;
+        fileStream = null;
         fileWriter = null;
         xmlWriter = null;
+        binaryOutput = null;
+        indexFile = null;
+        indexTempFile = null;
+        compress = false;
         parent = null;
         timer = null;
+        commitThread = null;
         open = false;
     }
 
     /**
      * Open the file, initialize all of the fields, write the document header,
      * and set the timer.
+     * 
+     * @param groupCommitSize
+     *        if positive, start a commit thread that commits up to this many
+     *        entries at once. Otherwise, entries are not forced to the disk
+     *        until the file is closed.
+     * @param groupCommitDelay
+     *        how long the commit thread waits (in milliseconds) for more
+     *        entries before committing.
+     * @param binaryFormat
+     *        write the binary journal format, rather than XML.
+     * @param compress
+     *        compress the file with GZIP when it is closed.
      */
     JournalOutputFile(MultiFileJournalWriter parent,
                       String filenamePrefix,
                       File journalDirectory,
                       long sizeLimit,
-                      long ageLimit)
+                      long ageLimit,
+                      int groupCommitSize,
+                      long groupCommitDelay,
+                      boolean binaryFormat,
+                      boolean compress)
             throws JournalException {
         try {
             this.parent = parent;
             this.sizeLimit = sizeLimit;
+            this.compress = compress;
             file = createFilename(filenamePrefix, journalDirectory);
             tempFile = createTempFilename(file, journalDirectory);
-            fileWriter = createTempFile(tempFile);
-            xmlWriter = createXmlEventWriter(fileWriter);
-            this.parent.getDocumentHeader(xmlWriter);
+            fileStream = createTempFile(tempFile);
+            if (binaryFormat) {
+                fileWriter = null;
+                xmlWriter = null;
+                binaryOutput = new BinaryJournalOutput(fileStream);
+                this.parent.getDocumentHeader(binaryOutput);
+                indexFile = JournalIndex.getIndexFile(file);
+                indexTempFile = JournalIndex.getIndexFile(tempFile);
+                indexOutput = createIndexOutput(indexTempFile);
+            } else {
+                fileWriter = new OutputStreamWriter(fileStream);
+                xmlWriter = createXmlEventWriter(fileWriter);
+                binaryOutput = null;
+                indexFile = null;
+                indexTempFile = null;
+                this.parent.getDocumentHeader(xmlWriter);
+            }
             timer = createTimer(ageLimit);
+            if (groupCommitSize > 0) {
+                commitThread =
+                        new CommitThread(groupCommitSize, groupCommitDelay);
+                commitThread.start();
+            } else {
+                commitThread = null;
+            }
         } catch (IOException e) {
             throw new JournalException(e);
         } catch (XMLStreamException e) {
@@ -137,21 +255,39 @@ class JournalOutputFile
     /**
      * Create and open the temporary file.
      */
-    private FileWriter createTempFile(File tempfile) throws IOException,
+    private FileOutputStream createTempFile(File tempfile) throws IOException,
             JournalException {
         boolean created = tempfile.createNewFile();
         if (!created) {
             throw new JournalException("Unable to create file '"
                     + tempfile.getPath() + "'.");
         }
-        return new FileWriter(tempfile);
+        return new FileOutputStream(tempfile);
+    }
+
+    /**
+     * Create the index, or log the failure and go on without one.
+     */
+    private JournalIndexOutput createIndexOutput(File indexTempFile) {
+        try {
+            return new JournalIndexOutput(new FileOutputStream(indexTempFile));
+        } catch (IOException e) {
+            logger.warn("Failed to create journal index '"
+                    + indexTempFile.getPath() + "'", e);
+            return null;
+        } catch (JournalException e) {
+            logger.warn("Failed to create journal index '"
+                    + indexTempFile.getPath() + "'", e);
+            indexTempFile.delete();
+            return null;
+        }
     }
 
     /**
      * Create an XMLEventWriter for this file. Make it a pretty, indenting
      * writer.
      */
-    private XMLEventWriter createXmlEventWriter(FileWriter fileWriter)
+    private XMLEventWriter createXmlEventWriter(Writer fileWriter)
             throws FactoryConfigurationError, XMLStreamException {
         XMLOutputFactory factory = XMLOutputFactory.newInstance();
         return new IndentingXMLEventWriter(factory
@@ -183,6 +319,114 @@ class JournalOutputFile
         return xmlWriter;
     }
 
+    /**
+     * Get the BinaryJournalOutput that we can write the JournalEvents to, if
+     * the file is written in the binary format. NOTE: any operations against
+     * this output should be synchronized on the
+     * {@link JournalWriter#SYNCHRONIZER}.
+     */
+    public BinaryJournalOutput getBinaryOutput() {
+        return binaryOutput;
+    }
+
+    /**
+     * Add an entry to the index, if the file is indexed. This should be
+     * synchronized on the {@link JournalWriter#SYNCHRONIZER}, with the writing
+     * of the entry.
+     * 
+     * @param offset
+     *        where the entry begins in the file.
+     */
+    void indexEntry(long offset, JournalEntry journalEntry) {
+        if (indexOutput == null) {
+            return;
+        }
+        try {
+            indexOutput.writeEntry(offset, journalEntry);
+            indexOutput.flush();
+        } catch (JournalException e) {
+            abandonIndex(e);
+        }
+    }
+
+    /**
+     * Something went wrong with the index, so stop writing it and remove it.
+     * Readers will have to read the file without it.
+     */
+    private void abandonIndex(JournalException e) {
+        logger.warn("Abandoning journal index '" + indexTempFile.getPath()
+                + "'", e);
+        try {
+            indexOutput.close();
+        } catch (JournalException e2) {
+            // the index is no use anyway.
+        }
+        indexOutput = null;
+        indexTempFile.delete();
+    }
+
+    /**
+     * Complete the index and give it its permanent name, if the file is
+     * indexed.
+     */
+    private void closeIndex() {
+        if (indexOutput == null) {
+            return;
+        }
+        try {
+            indexOutput.writeTrailer();
+            indexOutput.close();
+            indexOutput = null;
+            FileMovingUtil.move(indexTempFile, indexFile);
+        } catch (JournalException e) {
+            abandonIndex(e);
+        } catch (IOException e) {
+            logger.warn("Failed to rename journal index from '"
+                    + indexTempFile.getPath() + "' to '" + indexFile.getPath()
+                    + "'", e);
+            indexTempFile.delete();
+        }
+    }
+
+    /**
+     * Note that an entry has been written to the file and flushed, so the
+     * commit thread can commit it. This should be synchronized on the
+     * {@link JournalWriter#SYNCHRONIZER}, with the writing of the entry.
+     * 
+     * @return the number of the entry, to pass to {@link #waitForCommit(long)}.
+     */
+    long entryWritten() {
+        synchronized (commitLock) {
+            entriesWritten++;
+            commitLock.notifyAll();
+            return entriesWritten;
+        }
+    }
+
+    /**
+     * Wait until the commit thread (or closing the file) has forced the given
+     * entry to the disk. Don't call this while synchronized on the
+     * {@link JournalWriter#SYNCHRONIZER}, or no other entries can be written
+     * to join the group.
+     */
+    void waitForCommit(long entry) throws JournalException {
+        synchronized (commitLock) {
+            while (entriesCommitted < entry && commitFailure == null) {
+                try {
+                    commitLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new JournalException("Interrupted while waiting "
+                            + "for journal entry to be committed", e);
+                }
+            }
+            if (entriesCommitted < entry) {
+                throw new JournalException("Failed to commit journal entry to '"
+                        + tempFile.getPath() + "'", commitFailure);
+            }
+        }
+    }
+
     /**
      * Check the size limit and see whether the file is big enough to close. We
      * could also check the age limit here, but we trust the timer to handle
@@ -222,10 +466,35 @@ class JournalOutputFile
             }
 
             try {
-                parent.getDocumentTrailer(xmlWriter);
-                xmlWriter.close();
-                fileWriter.close();
+                if (binaryOutput != null) {
+                    binaryOutput.writeTrailer();
+                    synchronized (streamLock) {
+                        binaryOutput.flush();
+                        if (commitThread != null) {
+                            fileStream.getFD().sync();
+                        }
+                        streamClosed = true;
+                        binaryOutput.close();
+                    }
+                } else {
+                    parent.getDocumentTrailer(xmlWriter);
+                    xmlWriter.close();
+                    synchronized (streamLock) {
+                        fileWriter.flush();
+                        if (commitThread != null) {
+                            fileStream.getFD().sync();
+                        }
+                        streamClosed = true;
+                        fileWriter.close();
+                    }
+                }
+                synchronized (commitLock) {
+                    entriesCommitted = entriesWritten;
+                    commitsFinished = true;
+                    commitLock.notifyAll();
+                }
                 timer.cancel();
+                closeIndex();
 
                 /*
                  * java.io.File.renameTo() has a known bug when working across
@@ -234,12 +503,17 @@ class JournalOutputFile
                  * instead of this call: tempFile.renameTo(file); We use the
                  * following line, and check for exception...
                  */
+                File finishedFile = compress ? compressTempFile() : tempFile;
                 try {
-                    FileMovingUtil.move(tempFile, file);
+                    FileMovingUtil.move(finishedFile, file);
                 } catch (IOException e) {
                     throw new JournalException("Failed to rename file from '"
-                            + tempFile.getPath() + "' to '" + file.getPath()
-                            + "'", e);
+                            + finishedFile.getPath() + "' to '"
+                            + file.getPath() + "'", e);
+                }
+                if (compress && !tempFile.delete()) {
+                    throw new JournalException("Failed to delete file '"
+                            + tempFile.getPath() + "'");
                 }
 
                 open = false;
@@ -251,6 +525,118 @@ class JournalOutputFile
         }
     }
 
+    /**
+     * Write a compressed copy of the temporary file, under another temporary
+     * name. If entries are being committed, commit the copy as well before it
+     * replaces the original.
+     */
+    private File compressTempFile() throws IOException {
+        File compressedFile =
+                new File(tempFile.getParentFile(), tempFile.getName() + ".gz");
+        InputStream in = new FileInputStream(tempFile);
+        try {
+            FileOutputStream compressedStream =
+                    new FileOutputStream(compressedFile);
+            try {
+                GZIPOutputStream out = new GZIPOutputStream(compressedStream);
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+                out.finish();
+                if (commitThread != null) {
+                    compressedStream.getFD().sync();
+                }
+            } finally {
+                compressedStream.close();
+            }
+        } finally {
+            in.close();
+        }
+        return compressedFile;
+    }
+
+    /**
+     * Forces entries to the disk, several at a time, until the file is closed.
+     */
+    private final class CommitThread
+            extends Thread {
+
+        private final int groupCommitSize;
+
+        private final long groupCommitDelay;
+
+        CommitThread(int groupCommitSize, long groupCommitDelay) {
+            super("JournalCommitter-" + file.getName());
+            this.groupCommitSize = groupCommitSize;
+            this.groupCommitDelay = groupCommitDelay;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (commitNextGroup()) {
+                    // keep committing until the file is closed.
+                }
+            } catch (IOException e) {
+                synchronized (commitLock) {
+                    commitFailure = new JournalException(e);
+                    commitLock.notifyAll();
+                }
+            } catch (InterruptedException e) {
+                synchronized (commitLock) {
+                    commitFailure = new JournalException(e);
+                    commitLock.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Wait for entries to be written, then for the group to fill or the
+         * delay to pass, and commit the entries written so far.
+         * 
+         * @return false if the file was closed instead.
+         */
+        private boolean commitNextGroup() throws IOException,
+                InterruptedException {
+            long group;
+            synchronized (commitLock) {
+                while (entriesWritten == entriesCommitted && !commitsFinished) {
+                    commitLock.wait();
+                }
+                long deadline = System.currentTimeMillis() + groupCommitDelay;
+                long remaining = groupCommitDelay;
+                while (entriesWritten - entriesCommitted < groupCommitSize
+                        && !commitsFinished && remaining > 0) {
+                    commitLock.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (commitsFinished) {
+                    return false;
+                }
+                group = entriesWritten;
+            }
+
+            // entries are flushed as they are written, so this includes them.
+            synchronized (streamLock) {
+                if (streamClosed) {
+                    return false;
+                }
+                fileStream.getFD().sync();
+            }
+
+            synchronized (commitLock) {
+                if (group > entriesCommitted) {
+                    entriesCommitted = group;
+                }
+                commitLock.notifyAll();
+            }
+            return true;
+        }
+    }
+
     /**
      * When the timer goes off, close the file.
      */
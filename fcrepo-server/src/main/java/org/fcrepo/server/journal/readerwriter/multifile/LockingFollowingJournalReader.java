@@ -9,8 +9,11 @@ import java.io.IOException;
 
 import java.util.Map;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.fcrepo.server.journal.JournalException;
 import org.fcrepo.server.journal.ServerInterface;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
 import org.fcrepo.server.journal.helpers.ParameterHelper;
 import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
 
@@ -28,6 +31,10 @@ import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
  * for the lock request. If the request has been removed, the lock acceptance
  * will be removed also, and the reader will process the next Journal file, if
  * one is found.
+ * <p>
+ * As with the MultiFileFollowingJournalReader, the journal directory isn't
+ * listed unless its time stamp shows that it may have changed, and how far
+ * the reader is behind the leading server is published through JMX.
  * 
  * @author Jim Blake
  */
@@ -37,6 +44,11 @@ public class LockingFollowingJournalReader
     /** How many milliseconds between polls? */
     private final long pollingIntervalMillis;
 
+    /** Is it worth looking for the next journal file? */
+    private final JournalDirectoryWatcher watcher;
+
+    private final ReplicationMonitor monitor = new ReplicationMonitor();
+
     /**
      * The name of the file that signals a request to go quiescent after the
      * current journal file.
@@ -81,13 +93,33 @@ public class LockingFollowingJournalReader
                         .getOptionalBooleanParameter(parameters,
                                                      PARAMETER_PAUSE_BEFORE_POLLING,
                                                      false);
+        watcher =
+                new JournalDirectoryWatcher(getJournalDirectory(),
+                                            MultiFileJournalHelper
+                                                    .parseParametersForCheckInterval(parameters),
+                                            pollingIntervalMillis);
+        monitor.register();
+    }
+
+    /**
+     * Note the age of each entry as it is read.
+     */
+    @Override
+    public synchronized ConsumerJournalEntry readJournalEntry()
+            throws JournalException, XMLStreamException {
+        ConsumerJournalEntry journalEntry = super.readJournalEntry();
+        if (journalEntry != null) {
+            monitor.entryRead(journalEntry.getContext().now());
+        }
+        return journalEntry;
     }
 
     /**
      * Process the locking mechanism. If we are not locked, we should look for
-     * another journal file to process. Ask for a new file, using the superclass
-     * method, but if none is found, wait for a while and repeat. This will
-     * continue until we get a server shutdown signal.
+     * another journal file to process. If the journal directory may have
+     * changed, ask for a new file, using the superclass method, but if none is
+     * found, wait for a while and repeat. This will continue until we get a
+     * server shutdown signal.
      */
     @Override
     protected synchronized JournalInputFile openNextFile()
@@ -103,15 +135,16 @@ public class LockingFollowingJournalReader
                 }
             }
 
-            if (!locked) {
+            if (!locked && watcher.shouldListDirectory()) {
                 JournalInputFile nextFile = super.openNextFile();
+                monitor.directoryListed(nextFile == null);
                 if (nextFile != null) {
                     return nextFile;
                 }
             }
 
             try {
-                wait(pollingIntervalMillis);
+                wait(watcher.getWaitInterval());
             } catch (InterruptedException e) {
                 // no special action on interrupt.
             }
@@ -124,6 +157,9 @@ public class LockingFollowingJournalReader
      */
     @Override
     public synchronized void shutdown() throws JournalException {
+        if (open) {
+            monitor.unregister();
+        }
         super.shutdown();
         notifyAll();
     }
@@ -162,6 +198,8 @@ public class LockingFollowingJournalReader
         } else if (wasLocked && !locked) {
             recoveryLog.log("Lock request removed: "
                     + lockRequestedFile.getPath());
+            // Files may have arrived while we were locked.
+            watcher.listAtNextCheck();
         }
 
         wasLocked = locked;
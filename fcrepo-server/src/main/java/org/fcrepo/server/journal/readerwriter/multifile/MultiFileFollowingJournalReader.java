@@ -6,8 +6,11 @@ package org.fcrepo.server.journal.readerwriter.multifile;
 
 import java.util.Map;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.fcrepo.server.journal.JournalException;
 import org.fcrepo.server.journal.ServerInterface;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
 import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
 
 
@@ -16,7 +19,11 @@ import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
  * leading server is using a {@link MultiFileJournalWriter}, or the equivalent.
  * <p>
  * The recovery is never complete, as the reader continues to poll for
- * recently-created files, until the server shuts down.
+ * recently-created files, until the server shuts down. Between polls, the
+ * reader watches the time stamp of the journal directory, so it will find a
+ * new file soon after it appears (see {@link JournalDirectoryWatcher}). How
+ * far the reader is behind the leading server is published through JMX (see
+ * {@link ReplicationMonitor}).
  * <p>
  * This class should likely be superceded by
  * {@link LockingFollowingJournalReader}.
@@ -26,10 +33,13 @@ import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
 public class MultiFileFollowingJournalReader
         extends MultiFileJournalReader {
 
-    private final long pollingIntervalMillis;
+    private final JournalDirectoryWatcher watcher;
+
+    private final ReplicationMonitor monitor = new ReplicationMonitor();
 
     /**
-     * Do the super-class constructor, and then find the polling interval.
+     * Do the super-class constructor, and then find the polling and checking
+     * intervals.
      */
     public MultiFileFollowingJournalReader(Map<String, String> parameters,
                                            String role,
@@ -37,26 +47,47 @@ public class MultiFileFollowingJournalReader
                                            ServerInterface server)
             throws JournalException {
         super(parameters, role, recoveryLog, server);
-        pollingIntervalMillis =
-                MultiFileJournalHelper
-                        .parseParametersForPollingInterval(parameters);
+        watcher =
+                new JournalDirectoryWatcher(getJournalDirectory(),
+                                            MultiFileJournalHelper
+                                                    .parseParametersForCheckInterval(parameters),
+                                            MultiFileJournalHelper
+                                                    .parseParametersForPollingInterval(parameters));
+        monitor.register();
+    }
+
+    /**
+     * Note the age of each entry as it is read.
+     */
+    @Override
+    public synchronized ConsumerJournalEntry readJournalEntry()
+            throws JournalException, XMLStreamException {
+        ConsumerJournalEntry journalEntry = super.readJournalEntry();
+        if (journalEntry != null) {
+            monitor.entryRead(journalEntry.getContext().now());
+        }
+        return journalEntry;
     }
 
     /**
      * Ask for a new file, using the superclass method, but if none is found,
-     * wait for a while and ask again. This will continue until we get a server
-     * shutdown signal.
+     * wait for a while and ask again. Don't ask unless the journal directory
+     * may have changed. This will continue until we get a server shutdown
+     * signal.
      */
     @Override
     protected synchronized JournalInputFile openNextFile()
             throws JournalException {
         while (open) {
-            JournalInputFile nextFile = super.openNextFile();
-            if (nextFile != null) {
-                return nextFile;
+            if (watcher.shouldListDirectory()) {
+                JournalInputFile nextFile = super.openNextFile();
+                monitor.directoryListed(nextFile == null);
+                if (nextFile != null) {
+                    return nextFile;
+                }
             }
             try {
-                wait(pollingIntervalMillis);
+                wait(watcher.getWaitInterval());
             } catch (InterruptedException e) {
                 // no special action on interrupt.
             }
@@ -69,7 +100,15 @@ public class MultiFileFollowingJournalReader
      */
     @Override
     public synchronized void shutdown() throws JournalException {
+        if (open) {
+            monitor.unregister();
+        }
         super.shutdown();
         notifyAll();
     }
+
+    @Override
+    public String toString() {
+        return super.toString() + ", " + watcher;
+    }
 }
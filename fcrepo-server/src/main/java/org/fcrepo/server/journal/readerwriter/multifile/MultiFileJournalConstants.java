@@ -22,6 +22,12 @@ public interface MultiFileJournalConstants {
     /** Used by following readers */
     String DEFAULT_FOLLOW_POLLING_INTERVAL = "3";
 
+    /** Used by following readers */
+    String PARAMETER_FOLLOW_CHECK_INTERVAL = "followCheckInterval";
+
+    /** Used by following readers */
+    String DEFAULT_FOLLOW_CHECK_INTERVAL = "250";
+
     /** Used by locking readers like {@link LockingFollowingJournalReader} */
     String PARAMETER_LOCK_REQUESTED_FILENAME = "lockRequestedFilename";
 
@@ -30,4 +36,40 @@ public interface MultiFileJournalConstants {
 
     /** Used by locking readers like {@link LockingFollowingJournalReader} */
     String PARAMETER_PAUSE_BEFORE_POLLING = "pauseBeforePolling";
+
+    /** Used by {@link MultiFileJournalWriter} */
+    String PARAMETER_GROUP_COMMIT = "groupCommit";
+
+    /** Used by {@link MultiFileJournalWriter} */
+    String PARAMETER_GROUP_COMMIT_SIZE = "groupCommitSize";
+
+    /** Used by {@link MultiFileJournalWriter} */
+    String DEFAULT_GROUP_COMMIT_SIZE = "100";
+
+    /** Used by {@link MultiFileJournalWriter} */
+    String PARAMETER_GROUP_COMMIT_DELAY = "groupCommitDelay";
+
+    /** Used by {@link MultiFileJournalWriter} */
+    String DEFAULT_GROUP_COMMIT_DELAY = "5";
+
+    /** Used by {@link MultiFileJournalWriter} */
+    String PARAMETER_JOURNAL_FORMAT = "journalFormat";
+
+    /** Used by {@link MultiFileJournalWriter} */
+    String VALUE_JOURNAL_FORMAT_XML = "xml";
+
+    /** Used by {@link MultiFileJournalWriter} */
+    String VALUE_JOURNAL_FORMAT_BINARY = "binary";
+
+    /** Used by {@link MultiFileJournalWriter} */
+    String PARAMETER_COMPRESS_JOURNAL_FILES = "compressJournalFiles";
+
+    /** Used by {@link MultiFileJournalReader} */
+    String PARAMETER_REPLAY_FROM = "replayFrom";
+
+    /** Used by {@link MultiFileJournalReader} */
+    String PARAMETER_REPLAY_UNTIL = "replayUntil";
+
+    /** Used by {@link MultiFileJournalReader} */
+    String PARAMETER_REPLAY_PIDS = "replayPids";
 }
@@ -15,6 +15,7 @@ import java.util.regex.Pattern;
 
 import org.fcrepo.server.journal.JournalConstants;
 import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.binaryhelpers.JournalIndex;
 
 
 /**
@@ -72,6 +73,81 @@ public class MultiFileJournalHelper
         return interval;
     }
 
+    /**
+     * Find how often (in milliseconds) a following reader checks whether the
+     * journal directory has changed, between polls. Zero means that it
+     * doesn't check, and only polls.
+     */
+    static long parseParametersForCheckInterval(Map<String, String> parameters)
+            throws JournalException {
+        return parseNonNegativeNumber(parameters,
+                                      PARAMETER_FOLLOW_CHECK_INTERVAL,
+                                      DEFAULT_FOLLOW_CHECK_INTERVAL);
+    }
+
+    /**
+     * Find the largest number of entries that will be committed together when
+     * group commit is used.
+     */
+    static int parseParametersForGroupCommitSize(Map<String, String> parameters)
+            throws JournalException {
+        long size =
+                parseNonNegativeNumber(parameters,
+                                       PARAMETER_GROUP_COMMIT_SIZE,
+                                       DEFAULT_GROUP_COMMIT_SIZE);
+        if (size < 1 || size > Integer.MAX_VALUE) {
+            throw new JournalException("Parameter '"
+                    + PARAMETER_GROUP_COMMIT_SIZE
+                    + "' must be a positive integer");
+        }
+        return (int) size;
+    }
+
+    /**
+     * Find how long (in milliseconds) an entry may wait to be committed
+     * together with later entries when group commit is used.
+     */
+    static long parseParametersForGroupCommitDelay(Map<String, String> parameters)
+            throws JournalException {
+        return parseNonNegativeNumber(parameters,
+                                      PARAMETER_GROUP_COMMIT_DELAY,
+                                      DEFAULT_GROUP_COMMIT_DELAY);
+    }
+
+    /**
+     * Find whether journal files should be written in the binary format,
+     * rather than XML.
+     */
+    static boolean parseParametersForBinaryFormat(Map<String, String> parameters)
+            throws JournalException {
+        String format = parameters.get(PARAMETER_JOURNAL_FORMAT);
+        if (format == null || format.equals(VALUE_JOURNAL_FORMAT_XML)) {
+            return false;
+        } else if (format.equals(VALUE_JOURNAL_FORMAT_BINARY)) {
+            return true;
+        } else {
+            throw new JournalException("Parameter '"
+                    + PARAMETER_JOURNAL_FORMAT + "' must be '"
+                    + VALUE_JOURNAL_FORMAT_XML + "'(default) or '"
+                    + VALUE_JOURNAL_FORMAT_BINARY + "'");
+        }
+    }
+
+    private static long parseNonNegativeNumber(Map<String, String> parameters,
+                                               String parameterName,
+                                               String defaultValue)
+            throws JournalException {
+        String value = parameters.get(parameterName);
+        if (value == null) {
+            value = defaultValue;
+        }
+        if (!value.matches("[0-9]{1,18}")) {
+            throw new JournalException("Parameter '" + parameterName
+                    + "' must be a non-negative integer");
+        }
+        return Long.parseLong(value);
+    }
+
     /**
      * Get the Journal Files that exist the Journal Directory, sorted by name.
      */
@@ -84,7 +160,8 @@ public class MultiFileJournalHelper
     }
 
     /**
-     * Allows us to search a directory for files that match the prefix.
+     * Allows us to search a directory for files that match the prefix. The
+     * index of a journal file matches as well, but it is not a journal file.
      */
     private static class JournalFileFilter
             implements FileFilter {
@@ -97,7 +174,8 @@ public class MultiFileJournalHelper
 
         public boolean accept(File file) {
             String filename = file.getName();
-            return filename.startsWith(filenamePrefix);
+            return filename.startsWith(filenamePrefix)
+                    && !JournalIndex.isIndexFile(file);
         }
     }
 
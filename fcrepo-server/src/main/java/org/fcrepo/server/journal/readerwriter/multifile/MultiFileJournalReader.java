@@ -6,6 +6,8 @@ package org.fcrepo.server.journal.readerwriter.multifile;
 
 import java.io.File;
 
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import javax.xml.stream.XMLEventReader;
@@ -17,7 +19,11 @@ import javax.xml.stream.events.XMLEvent;
 import org.fcrepo.server.journal.JournalException;
 import org.fcrepo.server.journal.JournalReader;
 import org.fcrepo.server.journal.ServerInterface;
+import org.fcrepo.server.journal.binaryhelpers.BinaryJournalInput;
+import org.fcrepo.server.journal.binaryhelpers.JournalIndex;
 import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.helpers.JournalEntryFilter;
+import org.fcrepo.server.journal.helpers.JournalHelper;
 import org.fcrepo.server.journal.helpers.ParameterHelper;
 import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
 
@@ -28,6 +34,19 @@ import org.fcrepo.server.journal.recoverylog.JournalRecoveryLog;
  * <p>
  * The recovery is complete when the all of the files in the journal directory
  * have been processed and moved to the archive directory.
+ * <p>
+ * Each file may be XML or in the binary journal format, compressed or not, as
+ * written by the {@link MultiFileJournalWriter}.
+ * <p>
+ * To replay only part of the journal, set <code>replayFrom</code> and/or
+ * <code>replayUntil</code> to the times (in the journal's date format) of the
+ * first entry to replay and of the first entry not to replay, and/or set
+ * <code>replayPids</code> to the PIDs of the objects whose entries should be
+ * replayed. Entries that don't modify a single object are replayed whatever
+ * the PIDs. Where a binary journal file has an index, the reader skips
+ * straight to the chosen entries; otherwise, it reads each entry to see
+ * whether it is chosen. Either way, the files are archived when they have
+ * been read.
  * 
  * @author Jim Blake
  */
@@ -48,6 +67,22 @@ public class MultiFileJournalReader
 
     protected boolean open = true;
 
+    /**
+     * When the current file is in the binary format, we must read the next
+     * entry to know whether there is one. This holds it until it is asked
+     * for.
+     */
+    private ConsumerJournalEntry nextBinaryEntry;
+
+    /** Which entries to replay. */
+    private final JournalEntryFilter filter;
+
+    /**
+     * The chosen entries in the current file, if it has an index that we are
+     * using. Otherwise, null.
+     */
+    private Iterator<JournalIndex.Entry> chosenEntries;
+
     public MultiFileJournalReader(Map<String, String> parameters,
                                   String role,
                                   JournalRecoveryLog recoveryLog,
@@ -65,6 +100,14 @@ public class MultiFileJournalReader
         filenamePrefix =
                 ParameterHelper.parseParametersForFilenamePrefix(parameters);
         checkDirectoriesAreDifferent();
+        filter =
+                JournalEntryFilter.parseParameters(parameters,
+                                                   PARAMETER_REPLAY_FROM,
+                                                   PARAMETER_REPLAY_UNTIL,
+                                                   PARAMETER_REPLAY_PIDS);
+        if (!filter.isAllEntries()) {
+            recoveryLog.log("Replaying only the entries chosen by " + filter);
+        }
     }
 
     private void checkDirectoriesAreDifferent() throws JournalException {
@@ -88,19 +131,42 @@ public class MultiFileJournalReader
 
     /*
      * Advance to the next tag. If its end of file, close and get next file. If
-     * null, return a null entry.
+     * null, return a null entry. Pass over any entries that were not chosen.
      */
     @Override
     public synchronized ConsumerJournalEntry readJournalEntry()
             throws JournalException, XMLStreamException {
-        if (!open) {
-            return null;
-        }
+        while (true) {
+            if (!open) {
+                return null;
+            }
 
-        scanThroughFilesForNextJournalEntry();
+            scanThroughFilesForNextJournalEntry();
 
-        if (currentFile == null) {
-            return null;
+            if (currentFile == null) {
+                return null;
+            }
+            ConsumerJournalEntry journalEntry = readCurrentJournalEntry();
+            if (filter.accepts(journalEntry)) {
+                return journalEntry;
+            }
+            journalEntry.close();
+        }
+    }
+
+    /**
+     * Read the entry that the current file is positioned at.
+     */
+    private ConsumerJournalEntry readCurrentJournalEntry()
+            throws JournalException, XMLStreamException {
+        if (currentFile.isBinary()) {
+            ConsumerJournalEntry journalEntry = nextBinaryEntry;
+            nextBinaryEntry = null;
+            journalEntry.setIdentifier("file='" + currentFile.getFilename()
+                    + "', entry='"
+                    + JournalHelper.formatDate(journalEntry.getContext().now())
+                    + "'");
+            return journalEntry;
         } else {
             String identifier = peekAtJournalEntryIdentifier(currentFile);
             ConsumerJournalEntry journalEntry =
@@ -144,7 +210,15 @@ public class MultiFileJournalReader
     private void scanThroughFilesForNextJournalEntry() throws JournalException {
         try {
             while (true) {
-                if (currentFile != null) {
+                if (currentFile != null && currentFile.isBinary()) {
+                    // Read the next entry, if the file contains any more.
+                    nextBinaryEntry = readNextBinaryEntry();
+                    if (nextBinaryEntry != null) {
+                        return;
+                    } else {
+                        closeCurrentFile();
+                    }
+                } else if (currentFile != null) {
                     // Check to see whether the current file contains any more
                     // entries. 
                     advancePastWhitespace(currentFile.getReader());
@@ -176,13 +250,29 @@ public class MultiFileJournalReader
                 }
 
                 // A new file needs to be advanced before using.
-                advanceIntoFile(currentFile.getReader());
+                advanceIntoFile(currentFile);
             }
         } catch (XMLStreamException e) {
             throw new JournalException(e);
         }
     }
 
+    /**
+     * Read the next entry from a binary file. If we are using the index, skip
+     * to the next chosen entry, or to the end of the file.
+     */
+    private ConsumerJournalEntry readNextBinaryEntry() throws JournalException {
+        BinaryJournalInput input = currentFile.getBinaryInput();
+        if (chosenEntries == null) {
+            return input.readEntry();
+        } else if (chosenEntries.hasNext()) {
+            input.skipTo(chosenEntries.next().getOffset());
+            return input.readEntry();
+        } else {
+            return null;
+        }
+    }
+
     /**
      * Look in the directory for files that match the prefix. If there are none,
      * leave with currentFile still null. If we find one, advance into it.
@@ -206,8 +296,19 @@ public class MultiFileJournalReader
     /**
      * Advance past the document header to the first JournalEntry.
      */
-    private void advanceIntoFile(XMLEventReader reader)
+    private void advanceIntoFile(JournalInputFile file)
             throws XMLStreamException, JournalException {
+        if (file.isBinary()) {
+            BinaryJournalInput input = file.getBinaryInput();
+            input.readHeader();
+            checkRepositoryHash(input.getRepositoryHash());
+            if (!filter.isAllEntries()) {
+                useIndex(file);
+            }
+            return;
+        }
+
+        XMLEventReader reader = file.getReader();
         XMLEvent event = reader.nextEvent();
         if (!event.isStartDocument()) {
             throw new JournalException("Expecting XML document header, but event was '"
@@ -226,8 +327,27 @@ public class MultiFileJournalReader
         checkRepositoryHash(hash);
     }
 
+    /**
+     * If the file has an index, find the chosen entries from it.
+     */
+    private void useIndex(JournalInputFile file) {
+        JournalIndex index = JournalIndex.readIndex(file.getFile());
+        if (index == null) {
+            recoveryLog.log("No index for journal file: '"
+                    + file.getFilename() + "'; reading every entry.");
+            return;
+        }
+        List<JournalIndex.Entry> chosen = index.getEntries(filter);
+        recoveryLog.log("Using index for journal file: '"
+                + file.getFilename() + "'; " + chosen.size() + " of "
+                + index.getEntries().size() + " entries chosen.");
+        chosenEntries = chosen.iterator();
+    }
+
     private void closeCurrentFile() throws JournalException {
+        chosenEntries = null;
         if (currentFile != null) {
+            awaitDispatchedEntries();
             recoveryLog.log("Closing journal file: '"
                     + currentFile.getFilename() + "'");
             currentFile.closeAndRename(archiveDirectory);
@@ -235,11 +355,16 @@ public class MultiFileJournalReader
         }
     }
 
+    protected File getJournalDirectory() {
+        return journalDirectory;
+    }
+
     @Override
     public String toString() {
         return super.toString() + ", journalDirectory='" + journalDirectory
                 + "', archiveDirectory='" + archiveDirectory
-                + "', filenamePrefix='" + filenamePrefix + "'";
+                + "', filenamePrefix='" + filenamePrefix + "', filter="
+                + filter;
 
     }
 
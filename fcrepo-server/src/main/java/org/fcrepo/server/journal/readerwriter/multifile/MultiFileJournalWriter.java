@@ -15,6 +15,7 @@ import javax.xml.stream.XMLStreamException;
 import org.fcrepo.server.journal.JournalException;
 import org.fcrepo.server.journal.JournalWriter;
 import org.fcrepo.server.journal.ServerInterface;
+import org.fcrepo.server.journal.binaryhelpers.BinaryJournalOutput;
 import org.fcrepo.server.journal.entry.CreatorJournalEntry;
 import org.fcrepo.server.journal.helpers.JournalHelper;
 import org.fcrepo.server.journal.helpers.ParameterHelper;
@@ -24,6 +25,26 @@ import org.fcrepo.server.journal.helpers.ParameterHelper;
  * An implementation of JournalWriter that writes a series of Journal files to a
  * specified directory. New files are begun when the current file becomes too
  * large or too old.
+ * <p>
+ * If the <code>groupCommit</code> parameter is "true", each entry is also
+ * forced to the disk before the Management method returns. Rather than do
+ * this for every entry in turn, a commit thread forces the entries from
+ * several concurrent callers at once. It commits when
+ * <code>groupCommitSize</code> entries (default 100) are waiting, or
+ * <code>groupCommitDelay</code> milliseconds (default 5) after the first of
+ * them was written. The callers wait for the commit outside the
+ * {@link JournalWriter#SYNCHRONIZER}, so later entries can be written
+ * meanwhile.
+ * <p>
+ * If the <code>journalFormat</code> parameter is "binary", the files are
+ * written in the binary journal format instead of XML. If the
+ * <code>compressJournalFiles</code> parameter is "true", each file is
+ * compressed with GZIP when it is closed. The {@link MultiFileJournalReader}
+ * recognizes either format, compressed or not.
+ * <p>
+ * Each binary journal file gets an index beside it (see
+ * {@link org.fcrepo.server.journal.binaryhelpers.JournalIndex}), so a reader
+ * can skip to the entries it wants.
  * 
  * @author Jim Blake
  */
@@ -43,6 +64,22 @@ public class MultiFileJournalWriter
     /** number of milliseconds before we start a new file - 0 means no limit */
     private final long ageLimit;
 
+    /** most entries committed at once - 0 means group commit is not used */
+    private final int groupCommitSize;
+
+    /** number of milliseconds an entry may wait for others to commit with */
+    private final long groupCommitDelay;
+
+    /** write the binary journal format, rather than XML */
+    private final boolean binaryFormat;
+
+    /** compress each journal file when it is closed */
+    private final boolean compress;
+
+    /** the entry each thread last wrote, until it waits for the commit. */
+    private final ThreadLocal<PendingCommit> pendingCommit =
+            new ThreadLocal<PendingCommit>();
+
     /** the current journal file - start with a dummy that is already closed. */
     private JournalOutputFile currentJournal = JournalOutputFile.DUMMY_FILE;
 
@@ -64,6 +101,27 @@ public class MultiFileJournalWriter
                 ParameterHelper.parseParametersForFilenamePrefix(parameters);
         sizeLimit = ParameterHelper.parseParametersForSizeLimit(parameters);
         ageLimit = ParameterHelper.parseParametersForAgeLimit(parameters);
+        if (ParameterHelper.getOptionalBooleanParameter(parameters,
+                                                        PARAMETER_GROUP_COMMIT,
+                                                        false)) {
+            groupCommitSize =
+                    MultiFileJournalHelper
+                            .parseParametersForGroupCommitSize(parameters);
+            groupCommitDelay =
+                    MultiFileJournalHelper
+                            .parseParametersForGroupCommitDelay(parameters);
+        } else {
+            groupCommitSize = 0;
+            groupCommitDelay = 0;
+        }
+        binaryFormat =
+                MultiFileJournalHelper
+                        .parseParametersForBinaryFormat(parameters);
+        compress =
+                ParameterHelper
+                        .getOptionalBooleanParameter(parameters,
+                                                     PARAMETER_COMPRESS_JOURNAL_FILES,
+                                                     false);
 
         checkForPotentialFilenameConflict();
     }
@@ -109,7 +167,11 @@ public class MultiFileJournalWriter
                                               filenamePrefix,
                                               journalDirectory,
                                               sizeLimit,
-                                              ageLimit);
+                                              ageLimit,
+                                              groupCommitSize,
+                                              groupCommitDelay,
+                                              binaryFormat,
+                                              compress);
             }
         }
     }
@@ -117,17 +179,35 @@ public class MultiFileJournalWriter
     /**
      * We've prepared for the entry, so just write it, but remember to
      * synchronize on the file, so we don't get an asynchronous close while
-     * we're writing. After writing the entry, flush the file.
+     * we're writing. After writing the entry, flush the file. If we are using
+     * group commit, note the entry, so {@link #waitForCommit()} can wait for
+     * it.
      */
     @Override
     public void writeJournalEntry(CreatorJournalEntry journalEntry)
             throws JournalException {
+        pendingCommit.remove();
         if (open) {
             try {
                 synchronized (JournalWriter.SYNCHRONIZER) {
-                    XMLEventWriter xmlWriter = currentJournal.getXmlWriter();
-                    super.writeJournalEntry(journalEntry, xmlWriter);
-                    xmlWriter.flush();
+                    if (binaryFormat) {
+                        BinaryJournalOutput binaryOutput =
+                                currentJournal.getBinaryOutput();
+                        long offset = binaryOutput.getPosition();
+                        binaryOutput.writeEntry(journalEntry);
+                        binaryOutput.flush();
+                        currentJournal.indexEntry(offset, journalEntry);
+                    } else {
+                        XMLEventWriter xmlWriter =
+                                currentJournal.getXmlWriter();
+                        super.writeJournalEntry(journalEntry, xmlWriter);
+                        xmlWriter.flush();
+                    }
+                    if (groupCommitSize > 0) {
+                        pendingCommit.set(new PendingCommit(currentJournal,
+                                                            currentJournal
+                                                                    .entryWritten()));
+                    }
                     currentJournal.closeIfAppropriate();
                 }
             } catch (XMLStreamException e) {
@@ -136,6 +216,19 @@ public class MultiFileJournalWriter
         }
     }
 
+    /**
+     * If we are using group commit, wait for the commit thread to force this
+     * thread's entry to the disk.
+     */
+    @Override
+    public void waitForCommit() throws JournalException {
+        PendingCommit pending = pendingCommit.get();
+        if (pending != null) {
+            pendingCommit.remove();
+            pending.file.waitForCommit(pending.entry);
+        }
+    }
+
     /**
      * Close the current journal file.
      */
@@ -154,6 +247,15 @@ public class MultiFileJournalWriter
         super.writeDocumentHeader(xmlWriter);
     }
 
+    /**
+     * A convenience method so the JournalOutputFile can request its own
+     * header, in the binary format.
+     */
+    void getDocumentHeader(BinaryJournalOutput binaryOutput)
+            throws JournalException {
+        binaryOutput.writeHeader(getRepositoryHash(), new Date());
+    }
+
     /**
      * A convenience method so the JournalOutputFile can request its own
      * trailer.
@@ -169,7 +271,25 @@ public class MultiFileJournalWriter
     public String toString() {
         return super.toString() + ", journalDirectory='" + journalDirectory
                 + "', filenamePrefix='" + filenamePrefix + "', sizeLimit="
-                + sizeLimit + "(bytes), ageLimit=" + ageLimit + "(msec)";
+                + sizeLimit + "(bytes), ageLimit=" + ageLimit + "(msec)"
+                + ", groupCommitSize=" + groupCommitSize
+                + ", groupCommitDelay=" + groupCommitDelay + "(msec)"
+                + ", binaryFormat=" + binaryFormat + ", compress=" + compress;
+    }
+
+    /**
+     * An entry that was written to a file, but may not be committed yet.
+     */
+    private static class PendingCommit {
+
+        final JournalOutputFile file;
+
+        final long entry;
+
+        PendingCommit(JournalOutputFile file, long entry) {
+            this.file = file;
+            this.entry = entry;
+        }
     }
 
 }
@@ -0,0 +1,101 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.readerwriter.multifile;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.Date;
+
+import javax.management.ObjectName;
+
+import org.fcrepo.server.journal.helpers.JournalHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of how far a following journal reader is behind the leading
+ * server, and makes it available through JMX.
+ */
+public class ReplicationMonitor
+        implements ReplicationMonitorMBean {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(ReplicationMonitor.class);
+
+    static final String MBEAN_NAME = "org.fcrepo.server:type=JournalFollower";
+
+    private long replicationLag;
+
+    private long entriesRead;
+
+    private long directoryListings;
+
+    private Date lastEntryDate;
+
+    /**
+     * A journal entry has been read. Its context holds the time when the
+     * leading server wrote it.
+     */
+    synchronized void entryRead(Date written) {
+        entriesRead++;
+        lastEntryDate = written;
+        replicationLag =
+                Math.max(0L, System.currentTimeMillis() - written.getTime());
+    }
+
+    /**
+     * The journal directory has been listed.
+     *
+     * @param caughtUp
+     *        true if there were no journal files waiting.
+     */
+    synchronized void directoryListed(boolean caughtUp) {
+        directoryListings++;
+        if (caughtUp) {
+            replicationLag = 0L;
+        }
+    }
+
+    public synchronized long getReplicationLag() {
+        return replicationLag;
+    }
+
+    public synchronized long getEntriesRead() {
+        return entriesRead;
+    }
+
+    public synchronized long getDirectoryListings() {
+        return directoryListings;
+    }
+
+    public synchronized String getLastEntryTimestamp() {
+        return lastEntryDate == null ? null : JournalHelper
+                .formatDate(lastEntryDate);
+    }
+
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName(MBEAN_NAME));
+        } catch (Exception e) {
+            logger.warn("Unable to register journal follower with JMX", e);
+        }
+    }
+
+    void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .unregisterMBean(new ObjectName(MBEAN_NAME));
+        } catch (Exception e) {
+            logger.debug("Unable to unregister journal follower", e);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "replicationLag=" + replicationLag + ", entriesRead="
+                + entriesRead + ", directoryListings=" + directoryListings;
+    }
+}
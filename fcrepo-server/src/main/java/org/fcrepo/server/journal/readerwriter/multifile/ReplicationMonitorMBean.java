@@ -0,0 +1,28 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.readerwriter.multifile;
+
+/**
+ * Management interface of a following journal reader.
+ */
+public interface ReplicationMonitorMBean {
+
+    /**
+     * How far (in milliseconds) this server is behind the leading server: the
+     * age of the most recent journal entry when it was read, or zero if there
+     * were no more journal files waiting.
+     */
+    public long getReplicationLag();
+
+    /** The number of journal entries read since the server started. */
+    public long getEntriesRead();
+
+    /** The number of times the journal directory has been listed. */
+    public long getDirectoryListings();
+
+    /** The time stamp of the most recent journal entry read, or null. */
+    public String getLastEntryTimestamp();
+
+}
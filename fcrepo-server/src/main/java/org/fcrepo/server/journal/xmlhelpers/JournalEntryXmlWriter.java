@@ -0,0 +1,226 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.xmlhelpers;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Date;
+import java.util.Map;
+
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+
+import org.fcrepo.common.Constants;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.entry.JournalEntry;
+import org.fcrepo.server.journal.helpers.EncodingBase64InputStream;
+import org.fcrepo.server.journal.helpers.JournalHelper;
+
+
+/**
+ * Writes the Journal document: the header, the JournalEntry tags, and the
+ * trailer. The JournalWriter classes use this, and so does the
+ * JournalConverter, which has no server to write for.
+ */
+public class JournalEntryXmlWriter
+        extends AbstractXmlWriter {
+
+    /**
+     * Start a Journal document, with the repository hash and the date.
+     */
+    public void writeDocumentHeader(XMLEventWriter writer,
+                                    String repositoryHash,
+                                    Date currentDate)
+            throws JournalException {
+        try {
+            putStartDocument(writer);
+            putStartTag(writer, QNAME_TAG_JOURNAL);
+            putAttribute(writer, QNAME_ATTR_REPOSITORY_HASH, repositoryHash);
+            putAttribute(writer, QNAME_ATTR_TIMESTAMP, JournalHelper
+                    .formatDate(currentDate));
+        } catch (XMLStreamException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    /**
+     * Finish a Journal document.
+     */
+    public void writeDocumentTrailer(XMLEventWriter writer)
+            throws JournalException {
+        try {
+            putEndDocument(writer);
+        } catch (XMLStreamException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    /**
+     * Format a JournalEntry object and write a JournalEntry tag to the journal.
+     */
+    public void writeJournalEntry(JournalEntry journalEntry,
+                                  XMLEventWriter writer)
+            throws JournalException {
+        try {
+            writeJournaEntryStartTag(journalEntry, writer);
+
+            new ContextXmlWriter().writeContext(journalEntry.getContext(),
+                                                writer);
+
+            writeArguments(journalEntry.getArgumentsMap(), writer);
+
+            putEndTag(writer, QNAME_TAG_JOURNAL_ENTRY);
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new JournalException(e);
+        }
+    }
+
+    private void writeJournaEntryStartTag(JournalEntry journalEntry,
+                                          XMLEventWriter writer)
+            throws XMLStreamException {
+        putStartTag(writer, QNAME_TAG_JOURNAL_ENTRY);
+        putAttribute(writer, QNAME_ATTR_METHOD, journalEntry.getMethodName());
+        putAttribute(writer, QNAME_ATTR_TIMESTAMP, JournalHelper
+                .formatDate(journalEntry.getContext().now()));
+
+        String[] clientIpArray =
+                journalEntry
+                        .getContext()
+                        .getEnvironmentValues(Constants.HTTP_REQUEST.CLIENT_IP_ADDRESS.uri);
+        if (clientIpArray != null && clientIpArray.length > 0) {
+            putAttribute(writer, QNAME_ATTR_CLIENT_IP, clientIpArray[0]);
+        }
+
+        String[] loginIdArray =
+                journalEntry.getContext()
+                        .getSubjectValues(Constants.SUBJECT.LOGIN_ID.uri);
+        if (loginIdArray != null && loginIdArray.length > 0) {
+            putAttribute(writer, QNAME_ATTR_LOGIN_ID, loginIdArray[0]);
+        }
+    }
+
+    private void writeArguments(Map<String, Object> arguments,
+                                XMLEventWriter writer)
+            throws XMLStreamException, JournalException {
+        for (String key : arguments.keySet()) {
+            Object value = arguments.get(key);
+            if (value == null) {
+                writeNullArgument(key, writer);
+            } else if (value instanceof String) {
+                writeStringArgument(key, (String) value, writer);
+            } else if (value instanceof String[]) {
+                writeStringArrayArgument(key, (String[]) value, writer);
+            } else if (value instanceof Date) {
+                writeDateArgument(key, (Date) value, writer);
+            } else if (value instanceof Integer) {
+                writeIntegerArgument(key, (Integer) value, writer);
+            } else if (value instanceof Boolean) {
+                writeBooleanArgument(key, (Boolean) value, writer);
+            } else if (value instanceof File) {
+                writeFileArgument(key, (File) value, writer);
+            } else {
+                throw new JournalException("Unknown argument type: name='"
+                        + key + "', type='" + value.getClass().getName() + "'");
+            }
+        }
+    }
+
+    private void writeNullArgument(String key, XMLEventWriter writer)
+            throws XMLStreamException {
+        putStartTag(writer, QNAME_TAG_ARGUMENT);
+        putAttribute(writer, QNAME_ATTR_NAME, key);
+        putAttribute(writer, QNAME_ATTR_TYPE, ARGUMENT_TYPE_NULL);
+        putEndTag(writer, QNAME_TAG_ARGUMENT);
+    }
+
+    private void writeStringArgument(String key,
+                                     String value,
+                                     XMLEventWriter writer)
+            throws XMLStreamException {
+        putStartTag(writer, QNAME_TAG_ARGUMENT);
+        putAttribute(writer, QNAME_ATTR_NAME, key);
+        putAttribute(writer, QNAME_ATTR_TYPE, ARGUMENT_TYPE_STRING);
+        putCharacters(writer, value);
+        putEndTag(writer, QNAME_TAG_ARGUMENT);
+    }
+
+    private void writeDateArgument(String key, Date date, XMLEventWriter writer)
+            throws XMLStreamException {
+        putStartTag(writer, QNAME_TAG_ARGUMENT);
+        putAttribute(writer, QNAME_ATTR_NAME, key);
+        putAttribute(writer, QNAME_ATTR_TYPE, ARGUMENT_TYPE_DATE);
+        putCharacters(writer, JournalHelper.formatDate(date));
+        putEndTag(writer, QNAME_TAG_ARGUMENT);
+    }
+
+    private void writeIntegerArgument(String key,
+                                      Integer value,
+                                      XMLEventWriter writer)
+            throws XMLStreamException {
+        putStartTag(writer, QNAME_TAG_ARGUMENT);
+        putAttribute(writer, QNAME_ATTR_NAME, key);
+        putAttribute(writer, QNAME_ATTR_TYPE, ARGUMENT_TYPE_INTEGER);
+        putCharacters(writer, value.toString());
+        putEndTag(writer, QNAME_TAG_ARGUMENT);
+    }
+
+    private void writeBooleanArgument(String key,
+                                      Boolean value,
+                                      XMLEventWriter writer)
+            throws XMLStreamException {
+        putStartTag(writer, QNAME_TAG_ARGUMENT);
+        putAttribute(writer, QNAME_ATTR_NAME, key);
+        putAttribute(writer, QNAME_ATTR_TYPE, ARGUMENT_TYPE_BOOLEAN);
+        putCharacters(writer, value.toString());
+        putEndTag(writer, QNAME_TAG_ARGUMENT);
+    }
+
+    private void writeStringArrayArgument(String key,
+                                          String[] value,
+                                          XMLEventWriter writer)
+            throws XMLStreamException {
+        putStartTag(writer, QNAME_TAG_ARGUMENT);
+        putAttribute(writer, QNAME_ATTR_NAME, key);
+        putAttribute(writer, QNAME_ATTR_TYPE, ARGUMENT_TYPE_STRINGARRAY);
+
+        for (String element : value) {
+            putStartTag(writer, QNAME_TAG_ARRAYELEMENT);
+            putCharacters(writer, element);
+            putEndTag(writer, QNAME_TAG_ARRAYELEMENT);
+        }
+
+        putEndTag(writer, QNAME_TAG_ARGUMENT);
+
+    }
+
+    /**
+     * An InputStream argument must be written as a Base64-encoded String. It is
+     * read from the temp file in segments. Each segment is encoded and written
+     * to the XML writer as a series of character events.
+     */
+    private void writeFileArgument(String key, File file, XMLEventWriter writer)
+            throws XMLStreamException, JournalException {
+        try {
+            putStartTag(writer, QNAME_TAG_ARGUMENT);
+            putAttribute(writer, QNAME_ATTR_NAME, key);
+            putAttribute(writer, QNAME_ATTR_TYPE, ARGUMENT_TYPE_STREAM);
+
+            EncodingBase64InputStream encoder =
+                    new EncodingBase64InputStream(new BufferedInputStream(JournalHelper
+                            .openStreamArgument(file)));
+            String encodedChunk;
+            while (null != (encodedChunk = encoder.read(1000))) {
+                putCharacters(writer, encodedChunk);
+            }
+            encoder.close();
+            putEndTag(writer, QNAME_TAG_ARGUMENT);
+        } catch (IOException e) {
+            throw new JournalException("IO Exception on temp file", e);
+        }
+    }
+}
@@ -6,10 +6,6 @@ package org.fcrepo.server.messaging;
 
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.io.Writer;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Array;
@@ -18,15 +14,8 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
 import java.util.UUID;
 
-import org.apache.abdera.Abdera;
-import org.apache.abdera.model.Category;
-import org.apache.abdera.model.Document;
-import org.apache.abdera.model.Entry;
-import org.apache.abdera.parser.Parser;
-
 import org.dom4j.DocumentException;
 
 import org.trippi.RDFFormat;
@@ -85,10 +74,6 @@ public class AtomAPIMMessage
     private static final Logger logger =
             LoggerFactory.getLogger(AtomAPIMMessage.class);
 
-    private final Abdera abdera = new Abdera();
-
-    private final static String TYPES_NS = Constants.TYPES.uri;
-
     private final static String TYPES_PREFIX = "fedora-types";
 
     private final static String versionPredicate = Constants.VIEW.VERSION.uri;
@@ -117,7 +102,7 @@ public class AtomAPIMMessage
 
     private final Object returnVal;
 
-    private final Entry entry;
+    private final AtomEntry entry;
 
     public AtomAPIMMessage(FedoraMethod method, String fedoraBaseUrl, String serverVersion, String format)
             throws MessagingException {
@@ -148,10 +133,7 @@ public class AtomAPIMMessage
             author = "unknown";
         }
 
-        entry = abdera.getFactory().newEntry();
-        entry.declareNS(Constants.XML_XSD.uri, "xsd");
-        entry.declareNS(TYPES_NS, TYPES_PREFIX);
-
+        entry = new AtomEntry();
         setEntryId();
         setUpdated();
         setAuthor();
@@ -168,20 +150,25 @@ public class AtomAPIMMessage
             entry.addCategory(formatPredicate, format, null);
     }
 
+    /**
+     * Read an API-M message from its Atom entry.
+     *
+     * @throws IllegalArgumentException if the text isn't a well-formed Atom
+     *         entry.
+     */
     public AtomAPIMMessage(String messageText) {
-        Parser parser = abdera.getParser();
-        Document<Entry> entryDoc = parser.parse(new StringReader(messageText));
-        entry = entryDoc.getRoot();
+        entry = AtomEntry.parse(messageText);
         methodName = entry.getTitle();
-        date = entry.getUpdated();
-        author = entry.getAuthor().getName();
-        fedoraBaseUrl = entry.getAuthor().getUri().toString();
+        date = entry.getUpdated() == null ? null : DateUtility
+                .parseDateLoose(entry.getUpdated());
+        author = entry.getAuthorName();
+        fedoraBaseUrl = entry.getAuthorUri();
 
         pid = entry.getSummary();
         returnVal = entry.getContent();
 
-        serverVersion = getCategoryTerm(versionPredicate);
-        format = getCategoryTerm(formatPredicate);
+        serverVersion = entry.getCategoryTerm(versionPredicate);
+        format = entry.getCategoryTerm(formatPredicate);
     }
 
     private void setEntryId() {
@@ -193,7 +180,7 @@ public class AtomAPIMMessage
      * if it was available. Set the author:uri to fedoraBaseUrl.
      */
     private void setAuthor() {
-        entry.addAuthor(author, null, fedoraBaseUrl);
+        entry.setAuthor(author, fedoraBaseUrl);
     }
 
     private void setTitle() {
@@ -201,7 +188,7 @@ public class AtomAPIMMessage
     }
 
     private void setUpdated() {
-        entry.setUpdated(date);
+        entry.setUpdated(DateUtility.convertDateToString(date));
     }
 
     private void addMethodParameters() {
@@ -277,14 +264,7 @@ public class AtomAPIMMessage
      */
     @Override
     public String toString() {
-        Writer sWriter = new StringWriter();
-
-        try {
-            entry.writeTo(abdera.getWriterFactory().getWriter("prettyxml"), sWriter);
-        } catch (IOException e) {
-            logger.error(e.getMessage());
-        }
-        return sWriter.toString();
+        return entry.toXML();
     }
 
     /**
@@ -388,19 +368,4 @@ public class AtomAPIMMessage
         }
         return sb.toString();
     }
-
-    /**
-     * Get the first atom:category term that matches the provided scheme.
-     *
-     * @param scheme
-     * @return the term or null if no match.
-     */
-    private String getCategoryTerm(String scheme) {
-        List<Category> categories = entry.getCategories(scheme);
-        if (categories.isEmpty()) {
-            return null;
-        } else {
-            return categories.get(0).getTerm();
-        }
-    }
 }
@@ -0,0 +1,390 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+import java.io.StringReader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.fcrepo.common.Constants;
+
+/**
+ * The Atom entry of an API-M message, written and read without building an
+ * object model.
+ * <p>
+ * Entries are written exactly as Abdera's "prettyxml" writer wrote them for
+ * API-M messages before: each element on its own line and indented by two
+ * spaces, in the order the elements were first set. As with Abdera, setting
+ * the title, summary or content to null writes an empty element, while
+ * setting the id or update date to null leaves it out. Only the elements
+ * used by API-M messages are read; others are skipped.
+ */
+class AtomEntry {
+
+    private static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+
+    private static final String ENTRY_START =
+            "<entry xmlns=\"" + ATOM_NS + "\" xmlns:xsd=\""
+                    + Constants.XML_XSD.uri + "\" xmlns:fedora-types=\""
+                    + Constants.TYPES.uri + "\">\n";
+
+    private static final String ENTRY_END = "</entry>";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY =
+            XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING,
+                                      Boolean.TRUE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD,
+                                      Boolean.FALSE);
+    }
+
+    private String m_id;
+
+    private String m_updated;
+
+    private String m_authorName;
+
+    private String m_authorUri;
+
+    private String m_title;
+
+    private String m_summary;
+
+    private String m_content;
+
+    /**
+     * The elements in the order they were first set, by name. Categories
+     * are held here as name, term, scheme, label.
+     */
+    private final List<String[]> m_elements = new ArrayList<String[]>();
+
+    AtomEntry() {
+    }
+
+    /**
+     * Read an entry.
+     *
+     * @throws IllegalArgumentException if the text isn't a well-formed Atom
+     *         entry.
+     */
+    static AtomEntry parse(String text) {
+        AtomEntry entry = new AtomEntry();
+        XMLStreamReader reader = null;
+        try {
+            reader =
+                    XML_INPUT_FACTORY
+                            .createXMLStreamReader(new StringReader(text));
+            reader.nextTag();
+            if (!isAtom(reader, "entry")) {
+                throw new IllegalArgumentException("Not an Atom entry: "
+                        + reader.getName());
+            }
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (!ATOM_NS.equals(reader.getNamespaceURI())) {
+                    skip(reader);
+                } else if (name.equals("id")) {
+                    entry.setId(reader.getElementText());
+                } else if (name.equals("updated")) {
+                    entry.setUpdated(reader.getElementText().trim());
+                } else if (name.equals("title")) {
+                    entry.setTitle(reader.getElementText());
+                } else if (name.equals("summary")) {
+                    entry.setSummary(reader.getElementText());
+                } else if (name.equals("content")) {
+                    entry.setContent(reader.getElementText());
+                } else if (name.equals("category")) {
+                    entry.addCategory(reader.getAttributeValue(null, "scheme"),
+                                      reader.getAttributeValue(null, "term"),
+                                      reader.getAttributeValue(null, "label"));
+                    skip(reader);
+                } else if (name.equals("author")) {
+                    String authorName = null;
+                    String authorUri = null;
+                    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                        if (isAtom(reader, "name")) {
+                            authorName = reader.getElementText();
+                        } else if (isAtom(reader, "uri")) {
+                            authorUri = reader.getElementText().trim();
+                        } else {
+                            skip(reader);
+                        }
+                    }
+                    entry.setAuthor(authorName, authorUri);
+                } else {
+                    skip(reader);
+                }
+            }
+            return entry;
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Error reading Atom entry: "
+                    + e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @param id the id, or null to leave it out.
+     */
+    void setId(String id) {
+        m_id = id;
+        setElement("id", id != null);
+    }
+
+    String getId() {
+        return m_id;
+    }
+
+    /**
+     * @param updated the date, in the form written by
+     *        <code>DateUtility.convertDateToString</code>, or null to leave
+     *        it out.
+     */
+    void setUpdated(String updated) {
+        m_updated = updated;
+        setElement("updated", updated != null);
+    }
+
+    String getUpdated() {
+        return m_updated;
+    }
+
+    /**
+     * Set the author. An author is written even if both the name and the
+     * uri are null.
+     */
+    void setAuthor(String name, String uri) {
+        m_authorName = name;
+        m_authorUri = uri;
+        setElement("author", true);
+    }
+
+    String getAuthorName() {
+        return m_authorName;
+    }
+
+    String getAuthorUri() {
+        return m_authorUri;
+    }
+
+    void setTitle(String title) {
+        m_title = title;
+        setElement("title", true);
+    }
+
+    String getTitle() {
+        return m_title;
+    }
+
+    void setSummary(String summary) {
+        m_summary = summary;
+        setElement("summary", true);
+    }
+
+    String getSummary() {
+        return m_summary;
+    }
+
+    void setContent(String content) {
+        m_content = content;
+        setElement("content", true);
+    }
+
+    String getContent() {
+        return m_content;
+    }
+
+    /**
+     * Add a category after the elements set so far.
+     *
+     * @param label the label, or null for none.
+     */
+    void addCategory(String scheme, String term, String label) {
+        m_elements.add(new String[] {"category", term, scheme, label});
+    }
+
+    /**
+     * Get the first category term with the given scheme.
+     *
+     * @return the term or null if no category has the scheme.
+     */
+    String getCategoryTerm(String scheme) {
+        for (String[] element : m_elements) {
+            if (element[0].equals("category") && scheme.equals(element[2])) {
+                return element[1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Write the entry.
+     */
+    String toXML() {
+        StringBuilder out = new StringBuilder(1024);
+        out.append(ENTRY_START);
+        for (String[] element : m_elements) {
+            String name = element[0];
+            if (name.equals("category")) {
+                out.append("  <category");
+                appendAttribute(out, "term", element[1]);
+                appendAttribute(out, "scheme", element[2]);
+                appendAttribute(out, "label", element[3]);
+                out.append("></category>\n");
+            } else if (name.equals("id")) {
+                appendElement(out, "<id>", m_id, "</id>\n");
+            } else if (name.equals("updated")) {
+                appendElement(out, "<updated>", m_updated, "</updated>\n");
+            } else if (name.equals("author")) {
+                appendAuthor(out);
+            } else if (name.equals("title")) {
+                appendElement(out,
+                              "<title type=\"text\">",
+                              m_title,
+                              "</title>\n");
+            } else if (name.equals("summary")) {
+                appendElement(out,
+                              "<summary type=\"text\">",
+                              m_summary,
+                              "</summary>\n");
+            } else if (name.equals("content")) {
+                appendElement(out,
+                              "<content type=\"text\">",
+                              m_content,
+                              "</content>\n");
+            }
+        }
+        if (m_elements.isEmpty()) {
+            // an entry without elements is closed on the same line
+            out.setLength(out.length() - 1);
+        }
+        out.append(ENTRY_END);
+        return out.toString();
+    }
+
+    /**
+     * Add an element to those to be written, or remove it, keeping the
+     * position of an element that is set again.
+     */
+    private void setElement(String name, boolean present) {
+        for (int i = 0; i < m_elements.size(); i++) {
+            if (m_elements.get(i)[0].equals(name)) {
+                if (!present) {
+                    m_elements.remove(i);
+                }
+                return;
+            }
+        }
+        if (present) {
+            m_elements.add(new String[] {name});
+        }
+    }
+
+    private void appendAuthor(StringBuilder out) {
+        if (m_authorName == null && m_authorUri == null) {
+            out.append("  <author></author>\n");
+            return;
+        }
+        out.append("  <author>\n");
+        if (m_authorName != null) {
+            out.append("  ");
+            appendElement(out, "<name>", m_authorName, "</name>\n");
+        }
+        if (m_authorUri != null) {
+            out.append("  ");
+            appendElement(out, "<uri>", m_authorUri, "</uri>\n");
+        }
+        out.append("  </author>\n");
+    }
+
+    /**
+     * Append a child element of the entry, empty if the text is null.
+     */
+    private static void appendElement(StringBuilder out,
+                                      String startTag,
+                                      String text,
+                                      String endTag) {
+        out.append("  ").append(startTag);
+        if (text != null) {
+            appendEscaped(out, text, false);
+        }
+        out.append(endTag);
+    }
+
+    private static void appendAttribute(StringBuilder out,
+                                        String name,
+                                        String value) {
+        if (value != null) {
+            out.append(' ').append(name).append("=\"");
+            appendEscaped(out, value, true);
+            out.append('"');
+        }
+    }
+
+    private static void appendEscaped(StringBuilder out,
+                                      String value,
+                                      boolean attribute) {
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            String entity;
+            switch (value.charAt(i)) {
+                case '&':
+                    entity = "&amp;";
+                    break;
+                case '<':
+                    entity = "&lt;";
+                    break;
+                case '>':
+                    entity = "&gt;";
+                    break;
+                case '"':
+                    entity = attribute ? "&quot;" : null;
+                    break;
+                default:
+                    entity = null;
+            }
+            if (entity != null) {
+                out.append(value, start, i).append(entity);
+                start = i + 1;
+            }
+        }
+        out.append(value, start, value.length());
+    }
+
+    private static boolean isAtom(XMLStreamReader reader, String localName) {
+        return ATOM_NS.equals(reader.getNamespaceURI())
+                && localName.equals(reader.getLocalName());
+    }
+
+    /**
+     * Skip past the end of the current element.
+     */
+    private static void skip(XMLStreamReader reader)
+            throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+import java.util.Date;
+import java.util.UUID;
+
+import org.fcrepo.common.Constants;
+import org.fcrepo.utilities.DateUtility;
+
+/**
+ * Representation of several API-M method calls that changed one object, as
+ * an Atom entry.
+ * <ul>
+ * <li>atom:title is "objectChanged".</li>
+ * <li>atom:summary is the PID of the object.</li>
+ * <li>Each method invoked has an atom:category, in the order invoked, with
+ * the scheme "fedora-types:methodName", the method name as the term, and
+ * the label "xsd:string".</li>
+ * <li>atom:content is a comma-separated list of the methods invoked.</li>
+ * <li>atom:updated and atom:author are those of the last method.</li>
+ * </ul>
+ * The server version and message format categories are as in
+ * {@link AtomAPIMMessage}.
+ */
+public class AtomObjectChangedMessage
+        implements APIMMessage {
+
+    private final static String METHOD_SCHEME = "fedora-types:methodName";
+
+    private final static String versionPredicate = Constants.VIEW.VERSION.uri;
+
+    private final static String formatPredicate = "http://www.fedora.info/definitions/1/0/types/formatURI";
+
+    private final String fedoraBaseUrl;
+
+    private final String serverVersion;
+
+    private final String format;
+
+    private final String pid;
+
+    private final Date date;
+
+    private final AtomEntry entry;
+
+    public AtomObjectChangedMessage(CoalescedMethod method,
+                                    String fedoraBaseUrl,
+                                    String serverVersion,
+                                    String format) {
+        this.fedoraBaseUrl = fedoraBaseUrl;
+        this.serverVersion = serverVersion;
+        this.format = format;
+        pid = method.getPID().toString();
+        date = method.getDate() == null ? new Date() : method.getDate();
+        String author = "unknown";
+        if (method.getContext() != null) {
+            author =
+                    method.getContext()
+                            .getSubjectValue(Constants.SUBJECT.LOGIN_ID.uri);
+        }
+
+        entry = new AtomEntry();
+        entry.setId("urn:uuid:" + UUID.randomUUID().toString());
+        entry.setUpdated(DateUtility.convertDateToString(date));
+        entry.setAuthor(author, fedoraBaseUrl);
+        entry.setTitle(CoalescedMethod.NAME);
+
+        StringBuilder methods = new StringBuilder();
+        for (FedoraMethod invoked : method.getMethods()) {
+            entry.addCategory(METHOD_SCHEME, invoked.getName(), "xsd:string");
+            if (methods.length() > 0) {
+                methods.append(", ");
+            }
+            methods.append(invoked.getName());
+        }
+        entry.setSummary(pid);
+        entry.setContent(methods.toString());
+
+        if (serverVersion != null && !serverVersion.equals(""))
+            entry.addCategory(versionPredicate, serverVersion, null);
+        if (format != null && !format.equals(""))
+            entry.addCategory(formatPredicate, format, null);
+    }
+
+    /**
+     * Serialization of the message as an Atom entry. {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return entry.toXML();
+    }
+
+    public String getBaseUrl() {
+        return fedoraBaseUrl;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getMethodName() {
+        return CoalescedMethod.NAME;
+    }
+
+    public String getPID() {
+        return pid;
+    }
+
+    public String getServerVersion() {
+        return serverVersion;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+}
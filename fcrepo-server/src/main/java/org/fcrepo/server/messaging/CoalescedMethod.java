@@ -0,0 +1,81 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.fcrepo.common.PID;
+import org.fcrepo.server.Context;
+
+/**
+ * Several API-M methods that changed the same object, notified as one
+ * {@value #NAME} message.
+ *
+ * @see NotificationCoalescer
+ * @see AtomObjectChangedMessage
+ */
+public class CoalescedMethod
+        extends FedoraMethod {
+
+    /** The method name given to coalesced notifications. */
+    public static final String NAME = "objectChanged";
+
+    private final List<FedoraMethod> methods;
+
+    private final PID pid;
+
+    /**
+     * @param pid the object the methods changed.
+     * @param methods the methods, in the order they were invoked.
+     */
+    public CoalescedMethod(PID pid, List<FedoraMethod> methods) {
+        super(last(methods).getMethod(),
+              last(methods).getParameters(),
+              last(methods).getReturnValue());
+        this.pid = pid;
+        this.methods =
+                Collections.unmodifiableList(new ArrayList<FedoraMethod>(methods));
+    }
+
+    /**
+     * @return the methods, in the order they were invoked.
+     */
+    public List<FedoraMethod> getMethods() {
+        return methods;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public PID getPID() {
+        return pid;
+    }
+
+    /**
+     * @return the <code>Context</code> of the last method.
+     */
+    @Override
+    public Context getContext() {
+        return last(methods).getContext();
+    }
+
+    /**
+     * @return the <code>Date</code> of the last method.
+     */
+    @Override
+    public Date getDate() {
+        return last(methods).getDate();
+    }
+
+    private static FedoraMethod last(List<FedoraMethod> methods) {
+        return methods.get(methods.size() - 1);
+    }
+}
@@ -14,6 +14,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
@@ -74,6 +76,13 @@ public class JMSManager {
     protected Hashtable<String, JMSDestination> jmsDestinations =
             new Hashtable<String, JMSDestination>();
 
+    // Idle sessions for sending, by transacted flag and acknowledgement mode
+    private final Map<String, BlockingQueue<PooledSession>> idleSessions =
+            new HashMap<String, BlockingQueue<PooledSession>>();
+
+    // The most idle sessions kept open for each mode
+    private int maxIdleSessions = 10;
+
     // Durable topic consumers
     protected Map<String, MessageConsumer> durableSubscriptions =
             new HashMap<String, MessageConsumer>();
@@ -222,6 +231,8 @@ public class JMSManager {
         }
 
         jmsDest = new JMSDestination(destination, session, null, null);
+        jmsDest.transacted = fTransacted;
+        jmsDest.ackMode = ackMode;
 
         jmsDestinations.put(name, jmsDest);
 
@@ -488,14 +499,14 @@ public class JMSManager {
     public void send(String destName, Message msg) throws MessagingException {
         JMSDestination jmsDest = getJMSDestination(destName);
 
-        // Make sure we have a message producer created for this destination
-        setupProducer(jmsDest);
-
-        // Send the message for this destination
+        // Send the message on a pooled session, committing it at once if
+        // the destination is transacted
+        PooledSession pooled = borrowSession(jmsDest);
         try {
-            jmsDest.producer.send(msg);
-        } catch (JMSException e) {
-            throw new MessagingException(e.getMessage(), e);
+            pooled.send(jmsDest.destination, msg);
+            pooled.commit();
+        } finally {
+            returnSession(pooled);
         }
 
         if(logger.isDebugEnabled()) {
@@ -507,14 +518,11 @@ public class JMSManager {
      * Allows the caller to send a Message object to a destination
      */
     public void send(Destination dest, Message msg) throws MessagingException {
+        PooledSession pooled = borrowSession(false, Session.AUTO_ACKNOWLEDGE);
         try {
-            Session s =
-                    connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            MessageProducer p = s.createProducer(dest);
-            p.send(msg);
-            s.close();
-        } catch (JMSException e) {
-            throw new MessagingException(e.getMessage(), e);
+            pooled.send(dest, msg);
+        } finally {
+            returnSession(pooled);
         }
 
         if(logger.isDebugEnabled()) {
@@ -529,15 +537,20 @@ public class JMSManager {
             throws MessagingException {
         JMSDestination jmsDest = getJMSDestination(destName);
 
-        // Make sure we have a message producer created for this destination
-        setupProducer(jmsDest);
-
-        // Send the message for this destination
+        // Send the message on a pooled session, committing it at once if
+        // the destination is transacted
+        PooledSession pooled = borrowSession(jmsDest);
         try {
-            Message msg = createJMSMessage(obj, jmsDest.session);
-            jmsDest.producer.send(msg);
-        } catch (JMSException e) {
-            throw new MessagingException(e.getMessage(), e);
+            Message msg;
+            try {
+                msg = createJMSMessage(obj, pooled.getSession());
+            } catch (JMSException e) {
+                throw new MessagingException(e.getMessage(), e);
+            }
+            pooled.send(jmsDest.destination, msg);
+            pooled.commit();
+        } finally {
+            returnSession(pooled);
         }
 
         if(logger.isDebugEnabled()) {
@@ -553,6 +566,92 @@ public class JMSManager {
         this.send(destName, (Serializable) messageText);
     }
 
+    /**
+     * Borrows a session for sending to the named destination, with the
+     * destination's transacted flag and acknowledgement mode. The session
+     * is used only by the borrower until it is returned with
+     * {@link #returnSession(PooledSession)}, so concurrent senders don't
+     * share a session or create one per message.
+     *
+     * @param destName
+     * @return a session, which must be returned when no longer needed
+     * @throws MessagingException
+     */
+    public PooledSession borrowSession(String destName)
+            throws MessagingException {
+        return borrowSession(getJMSDestination(destName));
+    }
+
+    /**
+     * Borrows a session for sending with the given transacted flag and
+     * acknowledgement mode.
+     *
+     * @see JMSManager#borrowSession(String)
+     */
+    public PooledSession borrowSession(boolean transacted, int ackMode)
+            throws MessagingException {
+        PooledSession pooled = getIdleSessions(transacted, ackMode).poll();
+        if (pooled != null) {
+            return pooled;
+        }
+        try {
+            Session session = connection.createSession(transacted, ackMode);
+            return new PooledSession(session, session.createProducer(null),
+                                     transacted, ackMode);
+        } catch (JMSException e) {
+            throw new MessagingException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns a borrowed session to the pool. Any messages sent on a
+     * transacted session and not committed are rolled back. Sessions which
+     * have failed, or are not needed to keep the pool at its maximum size,
+     * are closed.
+     *
+     * @param pooled
+     */
+    public void returnSession(PooledSession pooled) {
+        if (!pooled.broken && connected) {
+            try {
+                if (pooled.uncommitted) {
+                    pooled.session.rollback();
+                    pooled.uncommitted = false;
+                }
+                if (getIdleSessions(pooled.transacted, pooled.ackMode)
+                        .offer(pooled)) {
+                    return;
+                }
+            } catch (JMSException e) {
+                logger.debug("Closing broken pooled session", e);
+            }
+        }
+        try {
+            pooled.session.close();
+        } catch (JMSException e) {
+            logger.debug("Error closing pooled session", e);
+        }
+    }
+
+    /**
+     * @return the most idle sessions kept open for each combination of
+     *         transacted flag and acknowledgement mode
+     */
+    public int getMaxIdleSessions() {
+        return maxIdleSessions;
+    }
+
+    /**
+     * Sets the most idle sessions kept open for each combination of
+     * transacted flag and acknowledgement mode. This only applies to pools
+     * created after it is set.
+     *
+     * @param maxIdleSessions
+     */
+    public void setMaxIdleSessions(int maxIdleSessions) {
+        this.maxIdleSessions = maxIdleSessions;
+    }
+
     /**
      * Stops producers and consumers on a given destination.
      * This has no effect on durable subscriptions.
@@ -662,9 +761,12 @@ public class JMSManager {
         try {
             // Closing a connection also closes all sessions, producers,
             // and consumers established over that connection
+            connected = false;
+            synchronized (idleSessions) {
+                idleSessions.clear();
+            }
             connection.stop();
             connection.close();
-            connected = false;
             logger.debug("Connection closed.");
         } catch (JMSException e) {
             logger.debug("Error closing Connection.");
@@ -672,48 +774,59 @@ public class JMSManager {
         }
     }
 
+    // Messages are created on a pooled session rather than the
+    // destination's session, which may be in use by a consumer.
+
     public MapMessage createMapMessage(String destName)
             throws MessagingException {
-        JMSDestination jmsDest = getJMSDestination(destName);
+        PooledSession pooled = borrowSession(destName);
         try {
-            return jmsDest.session.createMapMessage();
+            return pooled.getSession().createMapMessage();
         } catch (JMSException e) {
             throw new MessagingException(e.getMessage(), e);
+        } finally {
+            returnSession(pooled);
         }
     }
 
     public TextMessage createTextMessage(String destName, String text)
             throws MessagingException {
-        JMSDestination jmsDest = getJMSDestination(destName);
+        PooledSession pooled = borrowSession(destName);
         try {
-            TextMessage message = jmsDest.session.createTextMessage();
+            TextMessage message = pooled.getSession().createTextMessage();
             message.setText(text);
             return message;
         } catch (JMSException e) {
             throw new MessagingException(e.getMessage(), e);
+        } finally {
+            returnSession(pooled);
         }
     }
 
     public ObjectMessage createObjectMessage(String destName,
                                              Serializable object)
             throws MessagingException {
-        JMSDestination jmsDest = getJMSDestination(destName);
+        PooledSession pooled = borrowSession(destName);
         try {
-            ObjectMessage message = jmsDest.session.createObjectMessage();
+            ObjectMessage message = pooled.getSession().createObjectMessage();
             message.setObject(object);
             return message;
         } catch (JMSException e) {
             throw new MessagingException(e.getMessage(), e);
+        } finally {
+            returnSession(pooled);
         }
     }
 
     public BytesMessage createBytesMessage(String destName)
             throws MessagingException {
-        JMSDestination jmsDest = getJMSDestination(destName);
+        PooledSession pooled = borrowSession(destName);
         try {
-            return jmsDest.session.createBytesMessage();
+            return pooled.getSession().createBytesMessage();
         } catch (JMSException e) {
             throw new MessagingException(e.getMessage(), e);
+        } finally {
+            returnSession(pooled);
         }
     }
 
@@ -838,6 +951,26 @@ public class JMSManager {
         return jmsDest;
     }
 
+    protected PooledSession borrowSession(JMSDestination jmsDest)
+            throws MessagingException {
+        return borrowSession(jmsDest.transacted, jmsDest.ackMode);
+    }
+
+    private BlockingQueue<PooledSession> getIdleSessions(boolean transacted,
+                                                         int ackMode) {
+        String key = transacted + ":" + ackMode;
+        synchronized (idleSessions) {
+            BlockingQueue<PooledSession> idle = idleSessions.get(key);
+            if (idle == null) {
+                idle =
+                        new LinkedBlockingQueue<PooledSession>(Math
+                                .max(1, maxIdleSessions));
+                idleSessions.put(key, idle);
+            }
+            return idle;
+        }
+    }
+
     protected void setupProducer(JMSDestination jmsDest)
             throws MessagingException {
         if (jmsDest.producer != null) return;
@@ -985,6 +1118,10 @@ public class JMSManager {
 
         MessageConsumer consumer = null;
 
+        boolean transacted = false;
+
+        int ackMode = Session.AUTO_ACKNOWLEDGE;
+
         public JMSDestination(Destination destination,
                               Session session,
                               MessageProducer producer,
@@ -995,4 +1132,70 @@ public class JMSManager {
             this.consumer = consumer;
         }
     }
+
+    /**
+     * A session, with a producer for any destination, borrowed from the
+     * pool with {@link JMSManager#borrowSession(String)}.
+     */
+    public static class PooledSession {
+
+        private final Session session;
+
+        private final MessageProducer producer;
+
+        private final boolean transacted;
+
+        private final int ackMode;
+
+        private boolean broken = false;
+
+        private boolean uncommitted = false;
+
+        PooledSession(Session session,
+                      MessageProducer producer,
+                      boolean transacted,
+                      int ackMode) {
+            this.session = session;
+            this.producer = producer;
+            this.transacted = transacted;
+            this.ackMode = ackMode;
+        }
+
+        /**
+         * @return the session, for creating messages
+         */
+        public Session getSession() {
+            return session;
+        }
+
+        /**
+         * Sends a message to the given destination.
+         */
+        public void send(Destination dest, Message msg)
+                throws MessagingException {
+            try {
+                producer.send(dest, msg);
+                uncommitted = transacted;
+            } catch (JMSException e) {
+                broken = true;
+                throw new MessagingException(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Commits the messages sent so far, if the session is transacted.
+         */
+        public void commit() throws MessagingException {
+            if (!transacted) {
+                return;
+            }
+            try {
+                session.commit();
+                uncommitted = false;
+            } catch (JMSException e) {
+                broken = true;
+                throw new MessagingException(e.getMessage(), e);
+            }
+        }
+    }
 }
@@ -0,0 +1,808 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.fcrepo.server.errors.MessagingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local, append-only store of API-M messages waiting to be delivered.
+ * <p>
+ * Messages are rendered and written to the outbox by the thread making the
+ * API-M call, so they survive the broker being unavailable and the server
+ * stopping. A single relay thread reads them back in order and delivers
+ * them, retrying with exponential backoff while delivery fails. After each
+ * batch is delivered, the position reached is recorded, and files that
+ * have been completely delivered are deleted.
+ * <p>
+ * If a batch still fails after the maximum number of attempts, its messages
+ * are delivered one at a time. A message that keeps failing while the one
+ * after it can be delivered is moved to <code>outbox.dead</code>, in the
+ * same format as the outbox files, so that it does not hold up the rest.
+ * While no message can be delivered, as when the broker is down, they are
+ * retried indefinitely.
+ * <p>
+ * Delivery is at least once: a message may be delivered again after a
+ * crash between its delivery and the recording of the position.
+ * <p>
+ * The outbox is a directory of segment files, <code>outbox-N.log</code>,
+ * each a sequence of records holding the payload length, a CRC-32 of the
+ * payload, and the payload. A record cut short by a crash fails its check
+ * and is discarded when the outbox is next opened; a record that fails its
+ * check anywhere else is skipped, up to the next valid record. The delivered
+ * position is kept in <code>outbox.ack</code>.
+ */
+public class MessageOutbox
+        implements MessageOutboxMBean {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(MessageOutbox.class);
+
+    private static final String SEGMENT_PREFIX = "outbox-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String ACK_FILE = "outbox.ack";
+
+    private static final String DEAD_LETTER_FILE = "outbox.dead";
+
+    /** The length of the header before each record's payload. */
+    private static final int HEADER_LENGTH = 8;
+
+    /** The first delay before retrying a failed delivery, in milliseconds. */
+    private static final long INITIAL_RETRY_INTERVAL = 250;
+
+    private final File m_dir;
+
+    private final MessagingImpl m_messaging;
+
+    private final long m_segmentSize;
+
+    private final boolean m_sync;
+
+    private final int m_batchSize;
+
+    private final int m_maxAttempts;
+
+    private final long m_maxRetryInterval;
+
+    // Guarded by this
+
+    private RandomAccessFile m_writeFile;
+
+    private long m_writeSegment;
+
+    private long m_writePosition;
+
+    private boolean m_closed;
+
+    private boolean m_aborted;
+
+    // Used only by the relay thread, once the outbox is open
+
+    private RandomAccessFile m_readFile;
+
+    private long m_readSegment;
+
+    private long m_readPosition;
+
+    private long m_ackSegment;
+
+    private Thread m_relay;
+
+    private final AtomicLong m_pending = new AtomicLong();
+
+    private final AtomicLong m_delivered = new AtomicLong();
+
+    private final AtomicLong m_failedAttempts = new AtomicLong();
+
+    private final AtomicLong m_deadLettered = new AtomicLong();
+
+    private final AtomicLong m_unreadable = new AtomicLong();
+
+    private volatile String m_lastError;
+
+    /**
+     * @param dir the directory holding the outbox files.
+     * @param messaging renders and delivers the messages.
+     * @param segmentSize the size at which a new file is started, in bytes.
+     * @param sync whether to force each message to disk before
+     *        <code>append</code> returns.
+     * @param batchSize the most messages delivered at once.
+     * @param maxAttempts the number of failed attempts to deliver a batch,
+     *        or a single message, before trying the messages after it.
+     * @param maxRetryInterval the longest delay between delivery attempts,
+     *        in milliseconds.
+     */
+    public MessageOutbox(File dir,
+                         MessagingImpl messaging,
+                         long segmentSize,
+                         boolean sync,
+                         int batchSize,
+                         int maxAttempts,
+                         long maxRetryInterval) {
+        m_dir = dir;
+        m_messaging = messaging;
+        m_segmentSize = segmentSize;
+        m_sync = sync;
+        m_batchSize = Math.max(1, batchSize);
+        m_maxAttempts = Math.max(1, maxAttempts);
+        m_maxRetryInterval = Math.max(INITIAL_RETRY_INTERVAL, maxRetryInterval);
+    }
+
+    /**
+     * Recover any messages left undelivered, and start delivering.
+     */
+    public synchronized void open() throws MessagingException {
+        try {
+            if (!m_dir.isDirectory() && !m_dir.mkdirs()) {
+                throw new IOException("Unable to create " + m_dir);
+            }
+            long[] ack = readAck();
+            m_ackSegment = ack[0];
+            m_readSegment = ack[0];
+            m_readPosition = ack[1];
+            deleteSegmentsBefore(m_ackSegment);
+
+            // Count what is left to deliver, and find where to append
+            m_writeSegment = m_ackSegment;
+            long[] segments = listSegments();
+            if (segments.length > 0) {
+                m_writeSegment = Math.max(m_writeSegment,
+                                          segments[segments.length - 1]);
+            }
+            long pending = 0;
+            for (long segment = m_ackSegment; segment <= m_writeSegment; segment++) {
+                File file = getSegmentFile(segment);
+                if (!file.exists()) {
+                    continue;
+                }
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    long start = segment == m_ackSegment ? m_readPosition : 0;
+                    long end = start;
+                    while (end < raf.length()) {
+                        if (readRecord(raf, end, raf.length()) != null) {
+                            end = raf.getFilePointer();
+                            pending++;
+                        } else {
+                            // skipped when read, unless nothing valid follows
+                            long next = findRecord(raf, end + 1, raf.length());
+                            if (next < 0) {
+                                break;
+                            }
+                            end = next;
+                        }
+                    }
+                    if (segment == m_writeSegment) {
+                        m_writePosition = Math.max(end, start);
+                    }
+                } finally {
+                    raf.close();
+                }
+            }
+            m_pending.set(pending);
+            if (m_writeSegment == m_readSegment
+                    && m_writePosition < m_readPosition) {
+                // the delivered part of the segment is missing; start anew
+                m_writeSegment++;
+                m_writePosition = 0;
+            }
+
+            m_writeFile = new RandomAccessFile(getSegmentFile(m_writeSegment), "rw");
+            if (m_writeFile.length() > m_writePosition) {
+                logger.warn("Discarding incomplete message at the end of "
+                        + getSegmentFile(m_writeSegment));
+                m_writeFile.setLength(m_writePosition);
+            }
+        } catch (IOException e) {
+            throw new MessagingException("Unable to open message outbox in "
+                    + m_dir, e);
+        }
+        if (m_pending.get() > 0) {
+            logger.info("Delivering " + m_pending.get()
+                    + " messages left in the outbox");
+        }
+
+        m_relay = new Thread("MessageOutboxRelay") {
+
+            @Override
+            public void run() {
+                relay();
+            }
+        };
+        m_relay.setDaemon(true);
+        m_relay.start();
+    }
+
+    /**
+     * Write the messages for the given method to the outbox, to be
+     * delivered by the relay thread.
+     */
+    public void append(FedoraMethod method) throws MessagingException {
+        List<PendingMessage> messages = m_messaging.toMessages(method);
+        if (messages.isEmpty()) {
+            return;
+        }
+        byte[] records;
+        try {
+            records = encode(messages);
+        } catch (IOException e) {
+            throw new MessagingException("Unable to encode message", e);
+        }
+        synchronized (this) {
+            if (m_closed) {
+                throw new MessagingException("Message outbox is closed");
+            }
+            try {
+                m_writeFile.seek(m_writePosition);
+                m_writeFile.write(records);
+                if (m_sync) {
+                    m_writeFile.getChannel().force(false);
+                }
+                m_writePosition += records.length;
+                if (m_writePosition >= m_segmentSize) {
+                    m_writeFile.close();
+                    m_writeSegment++;
+                    m_writePosition = 0;
+                    m_writeFile =
+                            new RandomAccessFile(getSegmentFile(m_writeSegment),
+                                                 "rw");
+                }
+            } catch (IOException e) {
+                throw new MessagingException("Unable to write to message outbox",
+                                             e);
+            }
+            m_pending.addAndGet(messages.size());
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stop accepting messages, and wait up to the given time for those in
+     * the outbox to be delivered. Any left are delivered when the outbox is
+     * next opened.
+     */
+    public void close(long timeout) {
+        synchronized (this) {
+            if (m_closed || m_relay == null) {
+                return;
+            }
+            m_closed = true;
+            notifyAll();
+        }
+        try {
+            m_relay.join(Math.max(1, timeout));
+            if (m_relay.isAlive()) {
+                synchronized (this) {
+                    m_aborted = true;
+                    notifyAll();
+                }
+                m_relay.interrupt();
+                m_relay.join(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closeQuietly(m_writeFile);
+        }
+        if (m_pending.get() > 0) {
+            logger.info("Closed message outbox with " + m_pending.get()
+                    + " messages undelivered");
+        }
+    }
+
+    ///////////
+    // Relay //
+    ///////////
+
+    private void relay() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (!hasUnread() && !m_closed) {
+                        wait();
+                    }
+                    if (m_aborted || !hasUnread()) {
+                        return;
+                    }
+                }
+                List<PendingMessage> batch;
+                try {
+                    batch = readBatch();
+                } catch (IOException e) {
+                    m_lastError = e.getMessage();
+                    logger.error("Unable to read from the message outbox; "
+                            + "will retry", e);
+                    if (!pause(m_maxRetryInterval)) {
+                        return;
+                    }
+                    continue;
+                }
+                if (batch.isEmpty()) {
+                    if (m_readSegment > m_ackSegment) {
+                        // moved on to the next file, so the last can go
+                        ack();
+                    }
+                    continue;
+                }
+                if (!deliverBatch(batch)) {
+                    return;
+                }
+                ack();
+            }
+        } catch (InterruptedException e) {
+            // closing
+        } catch (RuntimeException e) {
+            m_lastError = e.getMessage();
+            logger.error("Message outbox relay stopped; undelivered messages "
+                    + "will be retried at the next startup", e);
+        } finally {
+            closeQuietly(m_readFile);
+        }
+    }
+
+    /**
+     * Deliver the batch, retrying while it fails. After the maximum number
+     * of attempts, the messages are delivered one at a time instead.
+     *
+     * @return false if the outbox was closed first.
+     */
+    private boolean deliverBatch(List<PendingMessage> batch)
+            throws InterruptedException {
+        long retryInterval = INITIAL_RETRY_INTERVAL;
+        for (int attempts = 1; !deliver(batch); attempts++) {
+            if (attempts >= m_maxAttempts) {
+                return deliverEach(batch);
+            }
+            if (!pause(retryInterval)) {
+                return false;
+            }
+            retryInterval = Math.min(retryInterval * 2, m_maxRetryInterval);
+        }
+        m_pending.addAndGet(-batch.size());
+        m_delivered.addAndGet(batch.size());
+        return true;
+    }
+
+    /**
+     * Deliver the messages one at a time, in order. A message that has
+     * failed the maximum number of times is moved to the dead-letter file if
+     * the message after it can be delivered; if not, the broker is taken to
+     * be unavailable and the message is retried. Messages read to find the
+     * one after the last are added to the batch.
+     *
+     * @return false if the outbox was closed first.
+     */
+    private boolean deliverEach(List<PendingMessage> batch)
+            throws InterruptedException {
+        long retryInterval = INITIAL_RETRY_INTERVAL;
+        int failures = 0;
+        int i = 0;
+        while (i < batch.size()) {
+            PendingMessage message = batch.get(i);
+            if (deliver(Collections.singletonList(message))) {
+                m_pending.decrementAndGet();
+                m_delivered.incrementAndGet();
+                i++;
+                failures = 0;
+                retryInterval = INITIAL_RETRY_INTERVAL;
+                continue;
+            }
+            if (++failures >= m_maxAttempts) {
+                if (i + 1 == batch.size()) {
+                    try {
+                        batch.addAll(readBatch());
+                    } catch (IOException e) {
+                        m_lastError = e.getMessage();
+                        logger.error("Unable to read from the message outbox",
+                                     e);
+                    }
+                }
+                if (i + 1 < batch.size()
+                        && deliver(Collections.singletonList(batch.get(i + 1)))) {
+                    deadLetter(message);
+                    m_pending.addAndGet(-2);
+                    m_delivered.incrementAndGet();
+                    i += 2;
+                    failures = 0;
+                    retryInterval = INITIAL_RETRY_INTERVAL;
+                    continue;
+                }
+            }
+            if (!pause(retryInterval)) {
+                return false;
+            }
+            retryInterval = Math.min(retryInterval * 2, m_maxRetryInterval);
+        }
+        return true;
+    }
+
+    private boolean deliver(List<PendingMessage> batch) {
+        try {
+            m_messaging.send(batch);
+            return true;
+        } catch (Throwable th) {
+            m_lastError = th.getMessage();
+            if (m_failedAttempts.incrementAndGet() % 100 == 1) {
+                logger.warn("Unable to deliver messages from the outbox; "
+                        + "will retry", th);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Wait before retrying, unless the outbox is being closed.
+     *
+     * @return false if the outbox was closed without waiting for delivery.
+     */
+    private synchronized boolean pause(long interval)
+            throws InterruptedException {
+        if (!m_aborted) {
+            wait(interval);
+        }
+        return !m_aborted;
+    }
+
+    /**
+     * Append a message that can't be delivered to the dead-letter file.
+     */
+    private void deadLetter(PendingMessage message) {
+        File file = new File(m_dir, DEAD_LETTER_FILE);
+        m_deadLettered.incrementAndGet();
+        logger.error("Unable to deliver the " + message.methodName
+                + " message for " + message.pid + " to " + message.destName
+                + " after " + m_maxAttempts + " attempts (" + m_lastError
+                + "); moving it to " + file);
+        try {
+            FileOutputStream out = new FileOutputStream(file, true);
+            try {
+                out.write(encode(Collections.singletonList(message)));
+                out.getChannel().force(false);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            logger.error("Unable to write to " + file + "; discarding "
+                    + "message: " + message.text, e);
+        }
+    }
+
+    /**
+     * Record the read position as delivered. Failing that, the messages
+     * are delivered again after a restart.
+     */
+    private void ack() {
+        try {
+            writeAck(m_readSegment, m_readPosition);
+        } catch (IOException e) {
+            m_lastError = e.getMessage();
+            logger.error("Unable to record the delivered position in the "
+                    + "message outbox", e);
+        }
+    }
+
+    private synchronized boolean hasUnread() {
+        return m_readSegment < m_writeSegment
+                || m_readPosition < m_writePosition;
+    }
+
+    /**
+     * Read the next messages, up to the batch size, moving the read
+     * position past them. If reading fails, the read position is left
+     * unchanged.
+     */
+    private List<PendingMessage> readBatch() throws IOException {
+        long segment = m_readSegment;
+        long position = m_readPosition;
+        try {
+            return readMessages();
+        } catch (IOException e) {
+            closeQuietly(m_readFile);
+            m_readFile = null;
+            m_readSegment = segment;
+            m_readPosition = position;
+            throw e;
+        }
+    }
+
+    private List<PendingMessage> readMessages() throws IOException {
+        List<PendingMessage> batch = new ArrayList<PendingMessage>();
+        while (batch.size() < m_batchSize) {
+            long writeSegment;
+            long writePosition;
+            synchronized (this) {
+                writeSegment = m_writeSegment;
+                writePosition = m_writePosition;
+            }
+            if (m_readSegment == writeSegment && m_readPosition >= writePosition) {
+                break;
+            }
+            if (m_readFile == null) {
+                File file = getSegmentFile(m_readSegment);
+                if (!file.exists() && m_readSegment < writeSegment) {
+                    m_readSegment++;
+                    m_readPosition = 0;
+                    continue;
+                }
+                m_readFile = new RandomAccessFile(file, "r");
+            }
+            long end = m_readSegment == writeSegment
+                    ? writePosition : m_readFile.length();
+            PendingMessage message = readRecord(m_readFile, m_readPosition, end);
+            if (message != null) {
+                batch.add(message);
+                m_readPosition = m_readFile.getFilePointer();
+            } else if (m_readPosition >= end) {
+                // finished with this segment
+                closeQuietly(m_readFile);
+                m_readFile = null;
+                m_readSegment++;
+                m_readPosition = 0;
+            } else {
+                skipUnreadable(end);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Move the read position past an unreadable record, to the next valid
+     * record before the given end, or to the end if there is none.
+     */
+    private void skipUnreadable(long end) throws IOException {
+        long next = findRecord(m_readFile, m_readPosition + 1, end);
+        if (next < 0) {
+            next = end;
+        }
+        m_unreadable.incrementAndGet();
+        m_lastError = "Unreadable message in " + getSegmentFile(m_readSegment)
+                + " at " + m_readPosition;
+        logger.error(m_lastError + "; skipping " + (next - m_readPosition)
+                + " bytes");
+        m_readPosition = next;
+    }
+
+    /**
+     * Record that everything before the given position has been delivered.
+     */
+    private void writeAck(long segment, long position) throws IOException {
+        File tmp = new File(m_dir, ACK_FILE + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write((segment + " " + position).getBytes("UTF-8"));
+            out.getChannel().force(false);
+        } finally {
+            out.close();
+        }
+        File ack = new File(m_dir, ACK_FILE);
+        if (!tmp.renameTo(ack)) {
+            ack.delete();
+            if (!tmp.renameTo(ack)) {
+                throw new IOException("Unable to rename " + tmp + " to " + ack);
+            }
+        }
+        if (segment > m_ackSegment) {
+            deleteSegmentsBefore(segment);
+            m_ackSegment = segment;
+        }
+    }
+
+    private long[] readAck() throws IOException {
+        File ack = new File(m_dir, ACK_FILE);
+        if (!ack.exists()) {
+            long[] segments = listSegments();
+            return new long[] {segments.length > 0 ? segments[0] : 1, 0};
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(ack));
+        try {
+            byte[] bytes = new byte[(int) ack.length()];
+            in.readFully(bytes);
+            String[] parts = new String(bytes, "UTF-8").trim().split(" ");
+            return new long[] {Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid " + ack + ": " + e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+    /////////////////
+    // File format //
+    /////////////////
+
+    private static byte[] encode(List<PendingMessage> messages)
+            throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        for (PendingMessage message : messages) {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream pout = new DataOutputStream(payload);
+            pout.writeUTF(message.destName);
+            pout.writeUTF(message.methodName);
+            pout.writeBoolean(message.pid != null);
+            if (message.pid != null) {
+                pout.writeUTF(message.pid);
+            }
+            byte[] text = message.text.getBytes("UTF-8");
+            pout.writeInt(text.length);
+            pout.write(text);
+            pout.flush();
+
+            byte[] bytes = payload.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            out.writeInt(bytes.length);
+            out.writeInt((int) crc.getValue());
+            out.write(bytes);
+        }
+        out.flush();
+        return records.toByteArray();
+    }
+
+    /**
+     * Read the record at the given position, leaving the file pointer after
+     * it.
+     *
+     * @return the message, or null if there is no complete, valid record
+     *         between the position and the end.
+     */
+    private static PendingMessage readRecord(RandomAccessFile file,
+                                             long position,
+                                             long end) throws IOException {
+        if (end - position < HEADER_LENGTH) {
+            return null;
+        }
+        file.seek(position);
+        int length = file.readInt();
+        int checksum = file.readInt();
+        if (length < 0 || end - position - HEADER_LENGTH < length) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        file.readFully(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            String destName = in.readUTF();
+            String methodName = in.readUTF();
+            String pid = in.readBoolean() ? in.readUTF() : null;
+            int textLength = in.readInt();
+            if (textLength < 0 || textLength > in.available()) {
+                return null;
+            }
+            byte[] text = new byte[textLength];
+            in.readFully(text);
+            return new PendingMessage(destName,
+                                      methodName,
+                                      pid,
+                                      new String(text, "UTF-8"));
+        } catch (IOException e) {
+            // a payload that passed its check by chance
+            return null;
+        }
+    }
+
+    /**
+     * Find the first valid record starting between the given position and
+     * the end.
+     *
+     * @return its position, or -1 if there is none.
+     */
+    private static long findRecord(RandomAccessFile file,
+                                   long position,
+                                   long end) throws IOException {
+        for (long p = position; end - p >= HEADER_LENGTH; p++) {
+            if (readRecord(file, p, end) != null) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    private File getSegmentFile(long segment) {
+        return new File(m_dir, SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+    }
+
+    private long[] listSegments() {
+        String[] names = m_dir.list(new FilenameFilter() {
+
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX)
+                        && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        List<Long> segments = new ArrayList<Long>();
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    segments.add(Long.valueOf(name.substring(SEGMENT_PREFIX
+                            .length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not ours
+                }
+            }
+        }
+        long[] sorted = new long[segments.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = segments.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private void deleteSegmentsBefore(long segment) {
+        for (long existing : listSegments()) {
+            if (existing < segment && !getSegmentFile(existing).delete()) {
+                logger.warn("Unable to delete " + getSegmentFile(existing));
+            }
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                logger.debug("Error closing outbox file", e);
+            }
+        }
+    }
+
+    ////////////////
+    // Statistics //
+    ////////////////
+
+    public long getPendingMessages() {
+        return m_pending.get();
+    }
+
+    public long getDeliveredMessages() {
+        return m_delivered.get();
+    }
+
+    public long getFailedAttempts() {
+        return m_failedAttempts.get();
+    }
+
+    public String getLastError() {
+        return m_lastError;
+    }
+
+    public long getDeadLetteredMessages() {
+        return m_deadLettered.get();
+    }
+
+    public long getUnreadableRecords() {
+        return m_unreadable.get();
+    }
+
+}
@@ -0,0 +1,33 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+/**
+ * Management interface of the API-M message outbox.
+ */
+public interface MessageOutboxMBean {
+
+    /** The number of messages written to the outbox and not yet delivered. */
+    public long getPendingMessages();
+
+    /** The number of messages delivered since the server started. */
+    public long getDeliveredMessages();
+
+    /** The number of failed attempts to deliver messages since the server started. */
+    public long getFailedAttempts();
+
+    /** The message of the most recent delivery failure, or null. */
+    public String getLastError();
+
+    /**
+     * The number of messages moved to the dead-letter file, because they
+     * could not be delivered while those after them could.
+     */
+    public long getDeadLetteredMessages();
+
+    /** The number of unreadable records skipped in the outbox files. */
+    public long getUnreadableRecords();
+
+}
@@ -4,6 +4,8 @@
  */
 package org.fcrepo.server.messaging;
 
+import java.util.List;
+
 import org.fcrepo.server.errors.MessagingException;
 
 /**
@@ -37,6 +39,16 @@ public interface Messaging {
      */
     public void send(FedoraMethod method) throws MessagingException;
 
+    /**
+     * Send messages representing each of the <code>FedoraMethod</code>s, in
+     * order. Where a destination is transacted, the messages sent to it are
+     * committed together.
+     *
+     * @param methods The methods to send.
+     * @throws MessagingException
+     */
+    public void send(List<FedoraMethod> methods) throws MessagingException;
+
     /**
      * Shutdown and/or close any resources and/or connections.
      *
@@ -4,10 +4,15 @@
  */
 package org.fcrepo.server.messaging;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.TextMessage;
 
@@ -15,6 +20,7 @@ import org.fcrepo.common.Constants;
 import org.fcrepo.server.Server;
 import org.fcrepo.server.errors.MessagingException;
 import org.fcrepo.server.management.Management;
+import org.fcrepo.server.messaging.JMSManager.PooledSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -70,16 +76,7 @@ public class MessagingImpl implements Messaging {
 
     public void send(String destName, FedoraMethod method, FedoraMessage message)
             throws MessagingException {
-        TextMessage jmsMessage = jmsMgr.createTextMessage(destName, message.toString());
-        try {
-            jmsMessage.setStringProperty("methodName", method.getName());
-            if(method.getPID() != null) {
-                jmsMessage.setStringProperty("pid", method.getPID().toString());
-            }
-        } catch(JMSException jmse) {
-            throw new MessagingException("Unable to set message properties.", jmse);
-        }
-        jmsMgr.send(destName, jmsMessage);
+        send(destName, Collections.singletonList(toMessage(destName, method, message.toString())));
     }
 
     /**
@@ -90,28 +87,126 @@ public class MessagingImpl implements Messaging {
      * {@inheritDoc}
      */
     public void send(FedoraMethod method) throws MessagingException {
-        if (Management.class == method.getMethod().getDeclaringClass()) {
-
-            APIMMessage message = new AtomAPIMMessage(method, fedoraBaseUrl, Server.VERSION, messageFormat);
-
-            String methodName = method.getName();
-            if (methodName.startsWith("ingest")
-                    || methodName.startsWith("add")
-                    || methodName.startsWith("modify")
-                    || methodName.startsWith("purge")
-                    || methodName.startsWith("set")) {
-                for (String destName : mdMap.get(MessageType.apimUpdate.toString())) {
-                    send(destName, method, message);
-                }
-            } else {
-                for (String destName : mdMap.get(MessageType.apimAccess.toString())) {
-                    send(destName, method, message);
-                }
+        for (PendingMessage message : toMessages(method)) {
+            send(message.destName, Collections.singletonList(message));
+        }
+    }
+
+    /**
+     * Send a message for each of the methods, as
+     * {@link #send(FedoraMethod)} does. The messages are created before any
+     * are sent; those for each destination are then sent in order on one
+     * pooled session, and committed together if the destination is
+     * transacted.
+     * {@inheritDoc}
+     */
+    public void send(List<FedoraMethod> methods) throws MessagingException {
+        List<PendingMessage> messages = new ArrayList<PendingMessage>();
+        for (FedoraMethod method : methods) {
+            messages.addAll(toMessages(method));
+        }
+        send(messages);
+    }
+
+    /**
+     * Send messages already rendered with {@link #toMessages(FedoraMethod)},
+     * keeping their order for each destination.
+     */
+    void send(Collection<PendingMessage> messages) throws MessagingException {
+        Map<String, List<PendingMessage>> byDest =
+                new LinkedHashMap<String, List<PendingMessage>>();
+        for (PendingMessage message : messages) {
+            List<PendingMessage> destMessages = byDest.get(message.destName);
+            if (destMessages == null) {
+                destMessages = new ArrayList<PendingMessage>();
+                byDest.put(message.destName, destMessages);
             }
+            destMessages.add(message);
+        }
+        for (Map.Entry<String, List<PendingMessage>> entry : byDest.entrySet()) {
+            send(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Render the messages to be sent for the given method, one for each of
+     * its destinations.
+     */
+    List<PendingMessage> toMessages(FedoraMethod method) throws MessagingException {
+        List<String> destNames;
+        String text;
+        if (method instanceof CoalescedMethod) {
+            // only methods that update the repository are coalesced
+            destNames = mdMap.get(MessageType.apimUpdate.toString());
+            text = new AtomObjectChangedMessage((CoalescedMethod) method, fedoraBaseUrl, Server.VERSION, messageFormat).toString();
         } else {
+            destNames = getDestinations(method);
+            if (destNames == null || destNames.isEmpty()) {
+                return Collections.emptyList();
+            }
+            text = new AtomAPIMMessage(method, fedoraBaseUrl, Server.VERSION, messageFormat).toString();
+        }
+        List<PendingMessage> messages = new ArrayList<PendingMessage>(destNames.size());
+        for (String destName : destNames) {
+            messages.add(toMessage(destName, method, text));
+        }
+        return messages;
+    }
+
+    private PendingMessage toMessage(String destName, FedoraMethod method, String text) {
+        String pid = method.getPID() == null ? null : method.getPID().toString();
+        return new PendingMessage(destName, method.getName(), pid, text);
+    }
+
+    /**
+     * Send the messages on a session borrowed from the pool, and commit them
+     * together if the destination is transacted.
+     */
+    private void send(String destName, List<PendingMessage> messages)
+            throws MessagingException {
+        Destination destination = jmsMgr.getDestination(destName);
+        PooledSession pooled = jmsMgr.borrowSession(destName);
+        try {
+            for (PendingMessage message : messages) {
+                TextMessage jmsMessage;
+                try {
+                    jmsMessage = pooled.getSession().createTextMessage(message.text);
+                    jmsMessage.setStringProperty("methodName", message.methodName);
+                    if(message.pid != null) {
+                        jmsMessage.setStringProperty("pid", message.pid);
+                    }
+                } catch(JMSException jmse) {
+                    throw new MessagingException("Unable to set message properties.", jmse);
+                }
+                pooled.send(destination, jmsMessage);
+            }
+            pooled.commit();
+        } finally {
+            jmsMgr.returnSession(pooled);
+        }
+    }
+
+    /**
+     * Get the destinations of messages for the given method.
+     *
+     * @return the destinations, or null if messages aren't sent for the method.
+     */
+    private List<String> getDestinations(FedoraMethod method) {
+        if (Management.class != method.getMethod().getDeclaringClass()) {
             if (logger.isDebugEnabled()) {
                 logger.debug("Silently dropping non-Management method: " + method.getName());
             }
+            return null;
+        }
+        String methodName = method.getName();
+        if (methodName.startsWith("ingest")
+                || methodName.startsWith("add")
+                || methodName.startsWith("modify")
+                || methodName.startsWith("purge")
+                || methodName.startsWith("set")) {
+            return mdMap.get(MessageType.apimUpdate.toString());
+        } else {
+            return mdMap.get(MessageType.apimAccess.toString());
         }
     }
 
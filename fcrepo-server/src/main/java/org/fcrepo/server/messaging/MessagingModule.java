@@ -6,6 +6,8 @@ package org.fcrepo.server.messaging;
 
 import java.io.File;
 
+import java.lang.management.ManagementFactory;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -13,6 +15,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import javax.management.ObjectName;
+
 import javax.naming.Context;
 
 import javax.jms.Session;
@@ -25,6 +29,7 @@ import org.fcrepo.server.errors.MessagingException;
 import org.fcrepo.server.errors.ModuleInitializationException;
 import org.fcrepo.server.errors.ModuleShutdownException;
 import org.fcrepo.server.messaging.JMSManager.DestinationType;
+import org.fcrepo.server.messaging.NotificationDispatcher.OverflowPolicy;
 import org.fcrepo.server.utilities.ServerUtility;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,9 +51,27 @@ public class MessagingModule
 
     private JMSManager jmsMgr;
 
+    private NotificationDispatcher dispatcher;
+
+    private MessageOutbox outbox;
+
+    private NotificationCoalescer coalescer;
+
     private static final String ACTIVEMQ_PREFIX =
             "org.apache.activemq.default.directory.prefix";
 
+    private static final String DISPATCHER_MBEAN =
+            "org.fcrepo.server:type=NotificationDispatcher";
+
+    private static final String OUTBOX_MBEAN =
+            "org.fcrepo.server:type=MessageOutbox";
+
+    /** The size at which a new outbox file is started. */
+    private static final long OUTBOX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /** How long to wait for queued notifications to be sent at shutdown. */
+    private static final long DISPATCHER_SHUTDOWN_TIMEOUT = 10000;
+
     public MessagingModule(Map<String, String> moduleParameters,
                            Server server,
                            String role)
@@ -80,17 +103,136 @@ public class MessagingModule
             throw new ModuleInitializationException(e.getMessage(), getRole());
         }
 
+        MessagingImpl impl;
         try {
             String fedoraBaseUrl = ServerUtility.getBaseURL("http");
-            msg =
+            impl =
                     new MessagingImpl(fedoraBaseUrl,
                                       createDestinations(),
                                       jmsMgr);
+            msg = impl;
         } catch (Exception e) {
             throw new ModuleInitializationException("Error connecting to JMS ",
                                                     getRole(),
                                                     e);
         }
+
+        if (getBoolean("outbox", false)) {
+            initOutbox(impl);
+        } else {
+            initDispatcher();
+        }
+
+        int window = getInt("notificationCoalesceWindow", 0, 0);
+        if (window > 0) {
+            coalescer =
+                    new NotificationCoalescer(new NotificationCoalescer.Target() {
+
+                        public void deliver(FedoraMethod method)
+                                throws MessagingException {
+                            publishNow(method);
+                        }
+                    }, window, getInt("notificationCoalesceMax", 50));
+        }
+    }
+
+    private void initDispatcher() throws ModuleInitializationException {
+        dispatcher =
+                new NotificationDispatcher(this,
+                                           getInt("notificationWorkers", 2),
+                                           getInt("notificationQueueSize", 1000),
+                                           getInt("notificationBatchSize", 10),
+                                           getOverflowPolicy());
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(dispatcher, new ObjectName(DISPATCHER_MBEAN));
+        } catch (Exception e) {
+            logger.warn("Unable to register notification dispatcher with JMX", e);
+        }
+    }
+
+    private void initOutbox(MessagingImpl impl)
+            throws ModuleInitializationException {
+        String dirName = getParameter("outboxDirectory");
+        if (dirName == null || dirName.length() == 0) {
+            dirName = "data" + File.separator + "outbox";
+        }
+        File dir = new File(dirName);
+        if (!dir.isAbsolute()) {
+            dir = new File(Constants.FEDORA_HOME, dirName);
+        }
+        outbox =
+                new MessageOutbox(dir,
+                                  impl,
+                                  OUTBOX_SEGMENT_SIZE,
+                                  getBoolean("outboxSync", true),
+                                  getInt("notificationBatchSize", 10),
+                                  getInt("outboxMaxAttempts", 10),
+                                  getInt("outboxMaxRetryInterval", 60000));
+        try {
+            outbox.open();
+        } catch (MessagingException e) {
+            throw new ModuleInitializationException(e.getMessage(),
+                                                    getRole(),
+                                                    e);
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(outbox, new ObjectName(OUTBOX_MBEAN));
+        } catch (Exception e) {
+            logger.warn("Unable to register message outbox with JMX", e);
+        }
+        logger.info("Delivering API-M messages through the outbox in " + dir);
+    }
+
+    /**
+     * Publish a notification of an API-M method. Depending on the
+     * configuration, it is first held to be coalesced with others for the
+     * same object, then either written to the outbox or queued to be sent.
+     * Does nothing if messaging is disabled.
+     * <p>
+     * A notification that is held is not written to the outbox until it is
+     * passed on, so it is lost if the server stops abruptly while holding
+     * it. Coalescing trades that durability for fewer messages.
+     *
+     * @param method The method to notify.
+     * @throws MessagingException if the notification can't be written to
+     *         the outbox.
+     */
+    public void publish(FedoraMethod method) throws MessagingException {
+        if (coalescer != null) {
+            coalescer.add(method);
+        } else {
+            publishNow(method);
+        }
+    }
+
+    private void publishNow(FedoraMethod method) throws MessagingException {
+        if (outbox != null) {
+            outbox.append(method);
+        } else if (dispatcher != null) {
+            dispatcher.dispatch(method);
+        }
+    }
+
+    /**
+     * Get the dispatcher that sends API-M notifications.
+     *
+     * @return the dispatcher, or null if messaging is disabled or
+     *         notifications go through the outbox.
+     */
+    public NotificationDispatcher getNotificationDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Get the outbox that API-M notifications are written to.
+     *
+     * @return the outbox, or null if messaging is disabled or the outbox
+     *         is not enabled.
+     */
+    public MessageOutbox getOutbox() {
+        return outbox;
     }
 
     @Override
@@ -118,6 +260,10 @@ public class MessagingModule
         msg.send(method);
     }
 
+    public void send(List<FedoraMethod> methods) throws MessagingException {
+        msg.send(methods);
+    }
+
     private Properties getJNDISettings() {
 
         String contextFactory = getParameter(Context.INITIAL_CONTEXT_FACTORY);
@@ -250,6 +396,52 @@ public class MessagingModule
         return dsConfig;
     }
 
+    private int getInt(String name, int defaultValue)
+            throws ModuleInitializationException {
+        return getInt(name, defaultValue, 1);
+    }
+
+    private int getInt(String name, int defaultValue, int minValue)
+            throws ModuleInitializationException {
+        String value = getParameter(name);
+        if (value == null || value.length() == 0) {
+            return defaultValue;
+        }
+        try {
+            int intValue = Integer.parseInt(value);
+            if (intValue < minValue) {
+                throw new ModuleInitializationException(name
+                        + " parameter must be at least " + minValue, getRole());
+            }
+            return intValue;
+        } catch (NumberFormatException e) {
+            throw new ModuleInitializationException(name
+                    + " parameter must be an integer", getRole());
+        }
+    }
+
+    private OverflowPolicy getOverflowPolicy()
+            throws ModuleInitializationException {
+        String value = getParameter("notificationOverflow");
+        if (value == null || value.length() == 0) {
+            return OverflowPolicy.BLOCK;
+        }
+        try {
+            return OverflowPolicy.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ModuleInitializationException("notificationOverflow "
+                    + "parameter must be block or discard", getRole());
+        }
+    }
+
+    private boolean getBoolean(String name, boolean defaultValue) {
+        String value = getParameter(name);
+        if (value == null || value.length() == 0) {
+            return defaultValue;
+        }
+        return value.equalsIgnoreCase("true");
+    }
+
     // Check to see if messaging is enabled
     private boolean enabled() {
         String enabled = getParameter("enabled");
@@ -258,6 +450,30 @@ public class MessagingModule
 
 
     public void close() throws MessagingException {
+        if (coalescer != null) {
+            coalescer.close();
+            coalescer = null;
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdown(DISPATCHER_SHUTDOWN_TIMEOUT);
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .unregisterMBean(new ObjectName(DISPATCHER_MBEAN));
+            } catch (Exception e) {
+                logger.debug("Unable to unregister notification dispatcher", e);
+            }
+            dispatcher = null;
+        }
+        if (outbox != null) {
+            outbox.close(DISPATCHER_SHUTDOWN_TIMEOUT);
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .unregisterMBean(new ObjectName(OUTBOX_MBEAN));
+            } catch (Exception e) {
+                logger.debug("Unable to unregister message outbox", e);
+            }
+            outbox = null;
+        }
         if (msg != null) {
             msg.close();
             msg = null;
@@ -0,0 +1,273 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.fcrepo.common.PID;
+import org.fcrepo.server.errors.MessagingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges notifications of API-M methods that change the same object within
+ * a window of time into one {@link CoalescedMethod}.
+ * <p>
+ * The window starts with the first change to an object, so no notification
+ * is held for longer than the window. A notification for a single change is
+ * passed on as it was. Notifications of methods that create or purge
+ * objects, that don't change anything, or that don't concern a single
+ * object are passed on immediately, after any held for the same object.
+ * <p>
+ * Notifications are passed on in the order they leave the coalescer, but
+ * never while holding the lock that guards the held notifications, so a
+ * slow target doesn't stop other threads from adding.
+ */
+public class NotificationCoalescer {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(NotificationCoalescer.class);
+
+    /**
+     * Where notifications go once they leave the coalescer.
+     */
+    public static interface Target {
+
+        public void deliver(FedoraMethod method) throws MessagingException;
+    }
+
+    private final Target m_target;
+
+    private final long m_window;
+
+    private final int m_maxMethods;
+
+    /** Held notifications by PID, oldest first. Guarded by itself. */
+    private final Map<PID, Held> m_held = new LinkedHashMap<PID, Held>();
+
+    /** Notifications due to be passed on, in order. Guarded by m_held. */
+    private final Queue<FedoraMethod> m_due = new LinkedList<FedoraMethod>();
+
+    /** Held while passing notifications on, so they go out in order. */
+    private final Object m_delivering = new Object();
+
+    private final Thread m_flusher;
+
+    private boolean m_closed;
+
+    private long m_received;
+
+    private long m_delivered;
+
+    /**
+     * @param target where to pass notifications on.
+     * @param window how long to hold changes to an object, in milliseconds.
+     * @param maxMethods the most changes merged into one notification.
+     */
+    public NotificationCoalescer(Target target, long window, int maxMethods) {
+        m_target = target;
+        m_window = window;
+        m_maxMethods = Math.max(2, maxMethods);
+        m_flusher = new Thread("NotificationCoalescer") {
+
+            @Override
+            public void run() {
+                flushExpired();
+            }
+        };
+        m_flusher.setDaemon(true);
+        m_flusher.start();
+    }
+
+    /**
+     * Hold or pass on the notification for the given method.
+     */
+    public void add(FedoraMethod method) throws MessagingException {
+        PID pid = getPID(method);
+        boolean due;
+        synchronized (m_held) {
+            m_received++;
+            if (pid == null || m_closed) {
+                m_due.add(method);
+            } else if (!isCoalescible(method.getName())) {
+                Held held = m_held.remove(pid);
+                if (held != null) {
+                    release(held);
+                }
+                m_due.add(method);
+            } else {
+                Held held = m_held.get(pid);
+                if (held == null) {
+                    held = new Held(pid, System.currentTimeMillis() + m_window);
+                    m_held.put(pid, held);
+                    m_held.notifyAll();
+                }
+                held.methods.add(method);
+                if (held.methods.size() >= m_maxMethods) {
+                    m_held.remove(pid);
+                    release(held);
+                }
+            }
+            due = !m_due.isEmpty();
+        }
+        if (due) {
+            deliverDue();
+        }
+    }
+
+    /**
+     * Pass on every held notification and stop holding new ones.
+     */
+    public void close() {
+        synchronized (m_held) {
+            m_closed = true;
+            m_held.notifyAll();
+        }
+        try {
+            m_flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info(toString());
+    }
+
+    /**
+     * Tell whether notifications of the named method may be merged with
+     * others: true for the methods that change an existing object.
+     */
+    static boolean isCoalescible(String methodName) {
+        return (methodName.startsWith("add")
+                || methodName.startsWith("modify")
+                || methodName.startsWith("set")
+                || methodName.startsWith("purge"))
+                && !methodName.equals("purgeObject");
+    }
+
+    @Override
+    public String toString() {
+        synchronized (m_held) {
+            return "Notifications: " + m_received + " received, "
+                    + m_delivered + " passed on, " + m_held.size()
+                    + " objects held";
+        }
+    }
+
+    private void flushExpired() {
+        while (true) {
+            boolean closed;
+            synchronized (m_held) {
+                long now = System.currentTimeMillis();
+                Iterator<Held> iter = m_held.values().iterator();
+                while (iter.hasNext()) {
+                    Held held = iter.next();
+                    if (held.deadline > now && !m_closed) {
+                        break;
+                    }
+                    iter.remove();
+                    release(held);
+                }
+                closed = m_closed;
+            }
+            try {
+                deliverDue();
+            } catch (Throwable th) {
+                logger.error("Unable to pass on held notifications", th);
+            }
+            if (closed) {
+                return;
+            }
+            synchronized (m_held) {
+                try {
+                    if (m_closed) {
+                        continue;
+                    } else if (m_held.isEmpty()) {
+                        m_held.wait();
+                    } else {
+                        long wait = m_held.values().iterator().next().deadline
+                                - System.currentTimeMillis();
+                        if (wait > 0) {
+                            m_held.wait(wait);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    m_closed = true;
+                }
+            }
+        }
+    }
+
+    // Called holding m_held; queues the notification for the held methods.
+    private void release(Held held) {
+        if (held.methods.size() == 1) {
+            m_due.add(held.methods.get(0));
+        } else {
+            m_due.add(new CoalescedMethod(held.pid, held.methods));
+        }
+    }
+
+    /**
+     * Pass on every notification that is due, in order. Called without
+     * holding m_held; one thread at a time passes them on. A notification
+     * that can't be passed on is not retried; the first such failure is
+     * thrown once the rest are passed on.
+     */
+    private void deliverDue() throws MessagingException {
+        MessagingException failure = null;
+        synchronized (m_delivering) {
+            while (true) {
+                FedoraMethod method;
+                synchronized (m_held) {
+                    method = m_due.poll();
+                    if (method == null) {
+                        break;
+                    }
+                    m_delivered++;
+                }
+                try {
+                    m_target.deliver(method);
+                } catch (MessagingException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        logger.error("Unable to pass on notification of "
+                                + method.getName(), e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static PID getPID(FedoraMethod method) {
+        try {
+            return method.getPID();
+        } catch (RuntimeException e) {
+            // not an object method
+            return null;
+        }
+    }
+
+    private static class Held {
+
+        private final PID pid;
+
+        private final long deadline;
+
+        private final List<FedoraMethod> methods = new ArrayList<FedoraMethod>();
+
+        Held(PID pid, long deadline) {
+            this.pid = pid;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fcrepo.common.PID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends API-M notifications from a fixed number of worker threads.
+ * <p>
+ * Each worker has a bounded queue. Notifications for the same object always
+ * go to the same worker, so they are sent in the order the methods were
+ * called. A worker sends whatever has accumulated in its queue, up to the
+ * batch size, with one call to {@link Messaging#send(List)}, which commits
+ * them as one transaction on transacted destinations.
+ * <p>
+ * When a queue is full, the caller either waits for room or the
+ * notification is discarded, depending on the overflow policy.
+ */
+public class NotificationDispatcher
+        implements NotificationDispatcherMBean {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(NotificationDispatcher.class);
+
+    /** What to do with a notification when its worker's queue is full. */
+    public static enum OverflowPolicy {
+        /** Wait for room in the queue. */
+        BLOCK,
+        /** Discard the notification. */
+        DISCARD;
+    }
+
+    /** How often idle workers check whether they have been shut down. */
+    private static final long POLL_INTERVAL = 500;
+
+    private final Messaging m_messaging;
+
+    private final Worker[] m_workers;
+
+    private final int m_queueCapacity;
+
+    private final int m_batchSize;
+
+    private final OverflowPolicy m_overflow;
+
+    private final AtomicInteger m_nextWorker = new AtomicInteger();
+
+    private final AtomicLong m_sent = new AtomicLong();
+
+    private final AtomicLong m_failed = new AtomicLong();
+
+    private final AtomicLong m_discarded = new AtomicLong();
+
+    private final AtomicLong m_batches = new AtomicLong();
+
+    private final AtomicLong m_totalLatency = new AtomicLong();
+
+    private final AtomicLong m_maxLatency = new AtomicLong();
+
+    private volatile boolean m_closed;
+
+    /**
+     * Create a dispatcher with two workers, room for 1000 notifications, and
+     * batches of up to 10, which waits for room when the queue is full.
+     */
+    public NotificationDispatcher(Messaging messaging) {
+        this(messaging, 2, 1000, 10, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param messaging where to send notifications.
+     * @param workers the number of worker threads.
+     * @param queueCapacity the maximum number of notifications waiting to be
+     *        sent, shared evenly between the workers.
+     * @param batchSize the maximum number of notifications sent at once.
+     * @param overflow what to do when a worker's queue is full.
+     */
+    public NotificationDispatcher(Messaging messaging,
+                                  int workers,
+                                  int queueCapacity,
+                                  int batchSize,
+                                  OverflowPolicy overflow) {
+        m_messaging = messaging;
+        m_batchSize = Math.max(1, batchSize);
+        m_overflow = overflow;
+        int workerCount = Math.max(1, workers);
+        int workerCapacity = Math.max(1, queueCapacity / workerCount);
+        m_queueCapacity = workerCapacity * workerCount;
+        m_workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            m_workers[i] = new Worker(i, workerCapacity);
+            m_workers[i].start();
+        }
+    }
+
+    /**
+     * Queue a notification for the given method.
+     *
+     * @return false if it was discarded because the dispatcher is shut down,
+     *         the calling thread was interrupted while waiting for room or,
+     *         with the DISCARD policy, the queue was full.
+     */
+    public boolean dispatch(FedoraMethod method) {
+        if (m_closed) {
+            m_discarded.incrementAndGet();
+            return false;
+        }
+        Notification notification = new Notification(method);
+        BlockingQueue<Notification> queue = getWorker(method).m_queue;
+        if (m_overflow == OverflowPolicy.BLOCK) {
+            try {
+                queue.put(notification);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else if (queue.offer(notification)) {
+            return true;
+        }
+        if (m_discarded.incrementAndGet() % 1000 == 1) {
+            logger.warn("Notification queue is full; discarded "
+                    + m_discarded.get() + " notifications so far");
+        }
+        return false;
+    }
+
+    /**
+     * Stop accepting notifications, and wait up to the given time for those
+     * already queued to be sent. Any still queued after that are dropped.
+     * With a timeout of zero, this returns at once and the queued
+     * notifications are still sent.
+     */
+    public void shutdown(long timeout) {
+        m_closed = true;
+        if (timeout <= 0) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        for (Worker worker : m_workers) {
+            try {
+                worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        int unsent = 0;
+        for (Worker worker : m_workers) {
+            if (worker.isAlive()) {
+                worker.interrupt();
+            }
+            unsent += worker.m_queue.size();
+        }
+        if (unsent > 0) {
+            logger.warn("Shut down with " + unsent + " notifications unsent");
+        }
+        logger.info(toString());
+    }
+
+    private Worker getWorker(FedoraMethod method) {
+        PID pid = null;
+        try {
+            pid = method.getPID();
+        } catch (RuntimeException e) {
+            // not an object method
+        }
+        int index;
+        if (pid == null) {
+            index = m_nextWorker.getAndIncrement();
+        } else {
+            index = pid.toString().hashCode();
+        }
+        return m_workers[(index & Integer.MAX_VALUE) % m_workers.length];
+    }
+
+    private void send(List<Notification> batch) {
+        List<FedoraMethod> methods = new ArrayList<FedoraMethod>(batch.size());
+        for (Notification notification : batch) {
+            methods.add(notification.m_method);
+        }
+        try {
+            m_messaging.send(methods);
+            m_sent.addAndGet(batch.size());
+            m_batches.incrementAndGet();
+        } catch (Throwable th) {
+            m_failed.addAndGet(batch.size());
+            logger.error("Unable to send " + batch.size() + " notifications",
+                         th);
+        }
+        long now = System.nanoTime();
+        for (Notification notification : batch) {
+            long latency =
+                    TimeUnit.NANOSECONDS.toMillis(now - notification.m_queued);
+            m_totalLatency.addAndGet(latency);
+            long max = m_maxLatency.get();
+            while (latency > max && !m_maxLatency.compareAndSet(max, latency)) {
+                max = m_maxLatency.get();
+            }
+        }
+    }
+
+    ////////////////
+    // Statistics //
+    ////////////////
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Worker worker : m_workers) {
+            depth += worker.m_queue.size();
+        }
+        return depth;
+    }
+
+    public int getQueueCapacity() {
+        return m_queueCapacity;
+    }
+
+    public long getSent() {
+        return m_sent.get();
+    }
+
+    public long getFailed() {
+        return m_failed.get();
+    }
+
+    public long getDiscarded() {
+        return m_discarded.get();
+    }
+
+    public long getBatches() {
+        return m_batches.get();
+    }
+
+    public double getAverageLatency() {
+        long done = m_sent.get() + m_failed.get();
+        return done == 0 ? 0 : (double) m_totalLatency.get() / done;
+    }
+
+    public long getMaxLatency() {
+        return m_maxLatency.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Notifications: " + getSent() + " sent in " + getBatches()
+                + " batches, " + getFailed() + " failed, " + getDiscarded()
+                + " discarded, " + getQueueDepth() + " queued, "
+                + String.format("%.1f", getAverageLatency())
+                + "ms average latency";
+    }
+
+    private static class Notification {
+
+        private final FedoraMethod m_method;
+
+        private final long m_queued = System.nanoTime();
+
+        Notification(FedoraMethod method) {
+            m_method = method;
+        }
+    }
+
+    private class Worker
+            extends Thread {
+
+        private final BlockingQueue<Notification> m_queue;
+
+        Worker(int index, int capacity) {
+            super("NotificationDispatcher-" + index);
+            setDaemon(true);
+            m_queue = new ArrayBlockingQueue<Notification>(capacity);
+        }
+
+        @Override
+        public void run() {
+            List<Notification> batch = new ArrayList<Notification>(m_batchSize);
+            while (true) {
+                Notification first;
+                try {
+                    first = m_queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (first == null) {
+                    if (m_closed) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                m_queue.drainTo(batch, m_batchSize - 1);
+                send(batch);
+                batch.clear();
+            }
+        }
+    }
+
+}
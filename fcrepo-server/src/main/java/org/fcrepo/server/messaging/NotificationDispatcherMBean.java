@@ -0,0 +1,36 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+/**
+ * Management interface of the API-M notification dispatcher.
+ */
+public interface NotificationDispatcherMBean {
+
+    /** The number of notifications waiting to be sent. */
+    public int getQueueDepth();
+
+    /** The maximum number of notifications that may wait to be sent. */
+    public int getQueueCapacity();
+
+    /** The number of notifications sent. */
+    public long getSent();
+
+    /** The number of notifications that could not be sent. */
+    public long getFailed();
+
+    /** The number of notifications discarded because the queue was full. */
+    public long getDiscarded();
+
+    /** The number of batches sent. */
+    public long getBatches();
+
+    /** The average time from an API-M call to its notification being sent, in milliseconds. */
+    public double getAverageLatency();
+
+    /** The longest time from an API-M call to its notification being sent, in milliseconds. */
+    public long getMaxLatency();
+
+}
@@ -9,12 +9,9 @@ import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 import org.fcrepo.common.Constants;
 import org.fcrepo.server.Server;
+import org.fcrepo.server.errors.MessagingException;
 import org.fcrepo.server.proxy.AbstractInvocationHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,10 +29,12 @@ public class NotificationInvocationHandler
     private static final Logger logger =
             LoggerFactory.getLogger(MessagingModule.class);
 
-    private Messaging messaging;
+    private MessagingModule messaging;
+    private NotificationDispatcher dispatcher;
     private boolean attemptedToLoad = false;
 
-    private final ExecutorService exec = Executors.newCachedThreadPool();
+    /** Whether this handler created the dispatcher, so must shut it down. */
+    private boolean ownsDispatcher = false;
 
     /**
      * Note: Setting of <code>messaging</code> does not take place in this
@@ -52,7 +51,8 @@ public class NotificationInvocationHandler
      */
     public NotificationInvocationHandler(Messaging messaging) {
         if (messaging != null) {
-            this.messaging = messaging;
+            dispatcher = new NotificationDispatcher(messaging);
+            ownsDispatcher = true;
             attemptedToLoad = true;
         }
     }
@@ -79,8 +79,18 @@ public class NotificationInvocationHandler
             attemptedToLoad = true;
         }
 
-        if (messaging != null && !exec.isShutdown()) {
-            exec.submit(new Notifier(method, args, returnValue));
+        if (messaging != null) {
+            // with the outbox enabled, the notification is written to disk
+            // before the call returns, unless it is held to be coalesced;
+            // held notifications are only in memory until they are passed on
+            try {
+                messaging.publish(new FedoraMethod(method, args, returnValue));
+            } catch (MessagingException e) {
+                logger.error("Unable to publish notification for "
+                        + method.getName(), e);
+            }
+        } else if (dispatcher != null) {
+            dispatcher.dispatch(new FedoraMethod(method, args, returnValue));
         }
 
         return returnValue;
@@ -88,24 +98,8 @@ public class NotificationInvocationHandler
 
     @Override
     public void close() {
-        exec.shutdown();
-    }
-
-    class Notifier implements Callable<Void> {
-        private final Method method;
-        private final Object[] args;
-        private final Object returnValue;
-
-        public Notifier(Method method, Object[] args, Object returnValue) {
-            this.method = method;
-            this.args = args;
-            this.returnValue = returnValue;
-        }
-
-        public Void call() throws Exception {
-            FedoraMethod fm = new FedoraMethod(method, args, returnValue);
-            messaging.send(fm);
-            return null;
+        if (ownsDispatcher) {
+            dispatcher.shutdown(0);
         }
     }
 }
@@ -0,0 +1,28 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+/**
+ * A rendered API-M message for one destination, with the JMS properties
+ * that identify the method it describes.
+ */
+class PendingMessage {
+
+    final String destName;
+
+    final String methodName;
+
+    /** The PID of the object the method acted on, or null. */
+    final String pid;
+
+    final String text;
+
+    PendingMessage(String destName, String methodName, String pid, String text) {
+        this.destName = destName;
+        this.methodName = methodName;
+        this.pid = pid;
+        this.text = text;
+    }
+}
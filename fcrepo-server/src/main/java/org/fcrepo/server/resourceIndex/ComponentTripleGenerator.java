@@ -0,0 +1,57 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.util.Set;
+
+import org.jrdf.graph.Triple;
+
+import org.fcrepo.server.errors.ResourceIndexException;
+import org.fcrepo.server.storage.DOReader;
+
+/**
+ * A <code>TripleGenerator</code> that can generate the triples of an object
+ * one component at a time: those implied by the object's properties, and
+ * those implied by each of its datastreams.
+ * <p>
+ * The triples of all components together must be the same as those returned
+ * by <code>getTriplesForObject</code>, and no triple may belong to more than
+ * one component. This allows the triples of a modified object to be updated
+ * by regenerating only its properties and the datastreams that changed.
+ * </p>
+ *
+ * @see ResourceIndex#modifyObject(DOReader, DOReader, Set)
+ */
+public interface ComponentTripleGenerator
+        extends TripleGenerator {
+
+    /**
+     * Get the triples implied by the object's properties, such as its label
+     * and state, that are not implied by any one datastream.
+     *
+     * @param reader
+     *        Current object from which to determine triples
+     * @return Set of triples implied by the object's properties.
+     * @throws ResourceIndexException
+     */
+    public Set<Triple> getTriplesForObjectProperties(DOReader reader)
+            throws ResourceIndexException;
+
+    /**
+     * Get the triples implied by the current version of the given
+     * datastream.
+     *
+     * @param reader
+     *        Current object from which to determine triples
+     * @param datastreamID
+     *        the ID of the datastream, which need not exist.
+     * @return Set of triples implied by the datastream.
+     * @throws ResourceIndexException
+     */
+    public Set<Triple> getTriplesForDatastream(DOReader reader,
+                                               String datastreamID)
+            throws ResourceIndexException;
+
+}
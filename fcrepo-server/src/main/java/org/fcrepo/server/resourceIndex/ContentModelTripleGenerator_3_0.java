@@ -19,7 +19,7 @@ import org.fcrepo.server.storage.DOReader;
  * @author Aaron Birkland
  */
 public class ContentModelTripleGenerator_3_0
-        implements TripleGenerator {
+        implements ComponentTripleGenerator {
 
     /**
      * {@inheritDoc}
@@ -30,4 +30,21 @@ public class ContentModelTripleGenerator_3_0
         return new HashSet<Triple>();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Triple> getTriplesForObjectProperties(DOReader reader)
+            throws ResourceIndexException {
+        return new HashSet<Triple>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Triple> getTriplesForDatastream(DOReader reader,
+                                               String datastreamID)
+            throws ResourceIndexException {
+        return new HashSet<Triple>();
+    }
+
 }
@@ -33,12 +33,23 @@ import org.fcrepo.server.utilities.DCFields;
 
 /**
  * Generates basic RDF triples for Fedora 3.0 objects.
+ * <p>
+ * Relationships about the object itself, including the implicit basic
+ * content model, belong to the RELS-EXT component; those about its
+ * datastreams belong to the RELS-INT component.
+ * </p>
  *
  * @author Chris Wilper
  */
 public class FedoraObjectTripleGenerator_3_0
         extends TripleGeneratorBase
-        implements Constants, TripleGenerator {
+        implements Constants, ComponentTripleGenerator {
+
+    private static final String DC_DS = "DC";
+
+    private static final String RELS_EXT_DS = "RELS-EXT";
+
+    private static final String RELS_INT_DS = "RELS-INT";
 
     /**
      * {@inheritDoc}
@@ -53,6 +64,54 @@ public class FedoraObjectTripleGenerator_3_0
         return set;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Triple> getTriplesForObjectProperties(DOReader reader)
+            throws ResourceIndexException {
+
+        Set<Triple> set = new HashSet<Triple>();
+
+        try {
+            addCoreObjectTriples(reader, getObjectURI(reader), set);
+        } catch (ResourceIndexException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ResourceIndexException("Error generating triples", e);
+        }
+
+        return set;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<Triple> getTriplesForDatastream(DOReader reader,
+                                               String datastreamID)
+            throws ResourceIndexException {
+
+        Set<Triple> set = new HashSet<Triple>();
+
+        try {
+            URIReference objURI = getObjectURI(reader);
+
+            Datastream ds = reader.GetDatastream(datastreamID, null);
+            if (ds != null) {
+                addDatastreamTriples(ds, objURI, set);
+            }
+            if (datastreamID.equals(RELS_EXT_DS)
+                    || datastreamID.equals(RELS_INT_DS)) {
+                addRelationshipTriples(reader, objURI, datastreamID, set);
+            }
+        } catch (ResourceIndexException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ResourceIndexException("Error generating triples", e);
+        }
+
+        return set;
+    }
+
     /**
      * Add the common core and datastream triples for the given object.
      */
@@ -61,20 +120,16 @@ public class FedoraObjectTripleGenerator_3_0
 
         try {
 
-            URIReference objURI = new SimpleURIReference(
-                    new URI(PID.toURI(reader.GetObjectPID())));
+            URIReference objURI = getObjectURI(reader);
 
             addCoreObjectTriples(reader, objURI, set);
 
             Datastream[] datastreams = reader.GetDatastreams(null, null);
             for (Datastream ds : datastreams) {
-                addCoreDatastreamTriples(ds, objURI, set);
-                if (ds.DatastreamID.equals("DC")) {
-                    addDCTriples(ds, objURI, set);
-                }
+                addDatastreamTriples(ds, objURI, set);
             }
 
-            addRelationshipTriples(reader, objURI, set);
+            addRelationshipTriples(reader, objURI, null, set);
 
             return objURI;
         } catch (ResourceIndexException e) {
@@ -84,6 +139,25 @@ public class FedoraObjectTripleGenerator_3_0
         }
     }
 
+    private static URIReference getObjectURI(DOReader reader)
+            throws Exception {
+        return new SimpleURIReference(
+                new URI(PID.toURI(reader.GetObjectPID())));
+    }
+
+    /**
+     * Add the triples implied by the given datastream itself: the core
+     * datastream triples and, for DC, the Dublin Core triples.
+     */
+    private void addDatastreamTriples(Datastream ds,
+                                      URIReference objURI,
+                                      Set<Triple> set) throws Exception {
+        addCoreDatastreamTriples(ds, objURI, set);
+        if (ds.DatastreamID.equals(DC_DS)) {
+            addDCTriples(ds, objURI, set);
+        }
+    }
+
     /**
      * For the given object, add the common core system metadata triples. This
      * will include:
@@ -167,13 +241,22 @@ public class FedoraObjectTripleGenerator_3_0
      * Adds all triples given by reader.getRelationships(null, null).
      * <p>
      * This includes everything in RELS-EXT and RELS-INT as well as the implicit
-     * basic content model assertion, if any.
+     * basic content model assertion, if any. If a relationships datastream ID
+     * is given, only the triples belonging to that datastream are added.
      */
     private void addRelationshipTriples(DOReader reader,
                                         URIReference objURI,
+                                        String relsDatastreamID,
                                         Set<Triple> set)
             throws Exception {
+        String objURIString = objURI.getURI().toString();
         for (RelationshipTuple tuple : reader.getRelationships()) {
+            if (relsDatastreamID != null) {
+                boolean aboutObject = tuple.subject.equals(objURIString);
+                if (aboutObject != relsDatastreamID.equals(RELS_EXT_DS)) {
+                    continue;
+                }
+            }
             ObjectNode oNode;
             if (tuple.isLiteral) {
                 if (tuple.datatype != null) {
@@ -4,8 +4,10 @@
  */
 package org.fcrepo.server.resourceIndex;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -27,11 +29,17 @@ import static org.fcrepo.common.Models.SERVICE_DEPLOYMENT_3_0;
  * {@link TripleGenerator} for that model. Returns the union of all triples
  * created by these generators.
  * </p>
+ * <p>
+ * Triples can also be generated per component, by the model generators that
+ * are {@link ComponentTripleGenerator}s. The triples of any other model
+ * generator are all attributed to the object's properties, so they are
+ * regenerated whenever the object changes.
+ * </p>
  *
  * @author Aaron Birkland
  */
 public class ModelBasedTripleGenerator
-        implements TripleGenerator {
+        implements ComponentTripleGenerator {
 
     /**
      * Map of model-specific triple generators. Right now, this is entirely
@@ -111,4 +119,63 @@ public class ModelBasedTripleGenerator
 
         return objectTriples;
     }
+
+    /**
+     * Gets the object property triples implied by the object's models,
+     * including all triples of model generators that can't generate triples
+     * per component.
+     */
+    public Set<Triple> getTriplesForObjectProperties(DOReader reader)
+            throws ResourceIndexException {
+
+        Set<Triple> objectTriples = new HashSet<Triple>();
+
+        for (TripleGenerator generator : getGenerators(reader)) {
+            if (generator instanceof ComponentTripleGenerator) {
+                objectTriples.addAll(((ComponentTripleGenerator) generator)
+                        .getTriplesForObjectProperties(reader));
+            } else {
+                objectTriples.addAll(generator.getTriplesForObject(reader));
+            }
+        }
+
+        return objectTriples;
+    }
+
+    /**
+     * Gets the triples implied by the given datastream, according to the
+     * object's models.
+     */
+    public Set<Triple> getTriplesForDatastream(DOReader reader,
+                                               String datastreamID)
+            throws ResourceIndexException {
+
+        Set<Triple> dsTriples = new HashSet<Triple>();
+
+        for (TripleGenerator generator : getGenerators(reader)) {
+            if (generator instanceof ComponentTripleGenerator) {
+                dsTriples.addAll(((ComponentTripleGenerator) generator)
+                        .getTriplesForDatastream(reader, datastreamID));
+            }
+        }
+
+        return dsTriples;
+    }
+
+    private List<TripleGenerator> getGenerators(DOReader reader)
+            throws ResourceIndexException {
+        List<TripleGenerator> generators = new ArrayList<TripleGenerator>();
+        try {
+            for (String model : reader.getContentModels()) {
+                TripleGenerator generator = m_generators.get(model);
+                if (generator != null) {
+                    generators.add(generator);
+                }
+            }
+        } catch (ServerException e) {
+            throw new ResourceIndexException("Could not read object's content model",
+                                             e);
+        }
+        return generators;
+    }
 }
@@ -0,0 +1,625 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jrdf.graph.Literal;
+import org.jrdf.graph.Node;
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of Resource Index query results.
+ *
+ * <p>Results are keyed by query type, language, normalized query text,
+ * limit and distinctness. They are cached before serialization, so one
+ * result serves every output format. Results with more than
+ * <code>maxResults</code> rows are not cached.
+ *
+ * <p>Each cached result depends on the URIs and literals mentioned in its
+ * query (with aliases and SPARQL prefixes expanded). When triples are added
+ * or deleted, every result depending on the subject, predicate or object of
+ * one of those triples is dropped. Results of queries that mention no URI
+ * or literal, or use a prefix that can't be expanded, are dropped on every
+ * change. Since this can't account for every way a query could match a
+ * triple it doesn't mention, results are also dropped once they are older
+ * than <code>maxAge</code>.
+ */
+public class QueryResultCache
+        implements QueryResultCacheMBean {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(QueryResultCache.class);
+
+    private static final Pattern PREFIX_DECLARATION =
+            Pattern.compile("(?i)\\bPREFIX\\s+([A-Za-z][\\w.-]*)?:\\s*<([^>]*)>");
+
+    private static final Pattern PREFIXED_NAME =
+            Pattern.compile("(?<![\\w$?.-])([A-Za-z][\\w.-]*)?:([\\w.-]*)");
+
+    /**
+     * Matches text ending where a URI names a graph or namespace rather than
+     * a resource.
+     */
+    private static final Pattern NOT_RESOURCE =
+            Pattern.compile("(?is).*(\\b(from|in|into|named|graph)|\\bPREFIX\\s+([A-Za-z][\\w.-]*)?:)\\s*$");
+
+    private final int m_maxSize;
+
+    private final int m_maxResults;
+
+    private final long m_maxAge;
+
+    private final Map<String, Result> m_entries;
+
+    /** The keys of the entries that depend on each URI or literal. */
+    private final Map<String, Set<String>> m_dependents =
+            new HashMap<String, Set<String>>();
+
+    /** The keys of the entries that depend on every triple. */
+    private final Set<String> m_global = new HashSet<String>();
+
+    private volatile Map<String, String> m_aliases =
+            Collections.emptyMap();
+
+    /** Incremented on each invalidation. */
+    private long m_generation;
+
+    private long m_hits;
+
+    private long m_misses;
+
+    private long m_evictions;
+
+    private long m_invalidations;
+
+    /**
+     * Create a cache.
+     *
+     * @param maxSize
+     *        the maximum number of results to cache.
+     * @param maxResults
+     *        the maximum number of rows (or triples) in a cached result.
+     * @param maxAge
+     *        the longest time a result is cached, in milliseconds, or 0 for
+     *        no limit.
+     */
+    public QueryResultCache(int maxSize, int maxResults, long maxAge) {
+        m_maxSize = maxSize;
+        m_maxResults = maxResults;
+        m_maxAge = maxAge;
+        m_entries = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                if (size() > m_maxSize) {
+                    unindex(eldest.getKey(), eldest.getValue());
+                    m_evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Set the aliases that may be used in place of URI prefixes in queries.
+     */
+    public void setAliasMap(Map<String, String> aliases) {
+        m_aliases = new HashMap<String, String>(aliases);
+    }
+
+    /**
+     * Get the key under which the result of the given query is cached.
+     *
+     * @param type
+     *        "tuples", or "triples" followed by the triple template, if any.
+     */
+    public static String getKey(String type,
+                                String lang,
+                                String query,
+                                int limit,
+                                boolean distinct) {
+        return type + '\u0000' + lang.toLowerCase() + '\u0000' + limit
+                + '\u0000' + distinct + '\u0000' + normalize(query);
+    }
+
+    /**
+     * Get the current generation, which must be passed to
+     * <code>cacheTuples</code> or <code>cacheTriples</code> along with the
+     * result of a query sent to the triplestore after this call.
+     */
+    public synchronized long getGeneration() {
+        return m_generation;
+    }
+
+    /**
+     * Get an iterator over the cached result of a tuple query, or null if
+     * it isn't cached.
+     */
+    public TupleIterator getTuples(String key) {
+        final Result entry = get(key);
+        if (entry == null) {
+            return null;
+        }
+        return new TupleIterator() {
+
+            private final Iterator<Map<String, Node>> m_rows =
+                    entry.tuples.iterator();
+
+            @Override
+            public String[] names() {
+                return entry.names;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return m_rows.hasNext();
+            }
+
+            @Override
+            public Map<String, Node> next() {
+                return m_rows.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Get an iterator over the cached result of a triple query, or null if
+     * it isn't cached.
+     */
+    public TripleIterator getTriples(String key) {
+        Result entry = get(key);
+        if (entry == null) {
+            return null;
+        }
+        final Iterator<Triple> triples = entry.triples.iterator();
+        return new TripleIterator() {
+
+            @Override
+            public boolean hasNext() {
+                return triples.hasNext();
+            }
+
+            @Override
+            public Triple next() {
+                return triples.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Read the given result of a tuple query and cache it, unless it is too
+     * large or the triples changed since <code>generation</code>.
+     *
+     * @return an iterator over the same result.
+     */
+    public TupleIterator cacheTuples(String key,
+                                     String query,
+                                     long generation,
+                                     final TupleIterator result)
+            throws TrippiException {
+        final String[] names = result.names();
+        final List<Map<String, Node>> rows =
+                new ArrayList<Map<String, Node>>();
+        while (rows.size() <= m_maxResults && result.hasNext()) {
+            rows.add(result.next());
+        }
+        if (rows.size() <= m_maxResults && !result.hasNext()) {
+            result.close();
+            put(key, query, generation, new Result(names, rows, null));
+        }
+        return new TupleIterator() {
+
+            private final Iterator<Map<String, Node>> m_rows =
+                    rows.iterator();
+
+            @Override
+            public String[] names() {
+                return names;
+            }
+
+            @Override
+            public boolean hasNext() throws TrippiException {
+                return m_rows.hasNext() || result.hasNext();
+            }
+
+            @Override
+            public Map<String, Node> next() throws TrippiException {
+                return m_rows.hasNext() ? m_rows.next() : result.next();
+            }
+
+            @Override
+            public void close() throws TrippiException {
+                result.close();
+            }
+        };
+    }
+
+    /**
+     * Read the given result of a triple query and cache it, unless it is
+     * too large or the triples changed since <code>generation</code>.
+     *
+     * @return an iterator over the same result.
+     */
+    public TripleIterator cacheTriples(String key,
+                                       String query,
+                                       long generation,
+                                       final TripleIterator result)
+            throws TrippiException {
+        final List<Triple> triples = new ArrayList<Triple>();
+        while (triples.size() <= m_maxResults && result.hasNext()) {
+            triples.add(result.next());
+        }
+        if (triples.size() <= m_maxResults && !result.hasNext()) {
+            result.close();
+            put(key, query, generation, new Result(null, null, triples));
+        }
+        final Iterator<Triple> cached = triples.iterator();
+        return new TripleIterator() {
+
+            @Override
+            public boolean hasNext() throws TrippiException {
+                return cached.hasNext() || result.hasNext();
+            }
+
+            @Override
+            public Triple next() throws TrippiException {
+                return cached.hasNext() ? cached.next() : result.next();
+            }
+
+            @Override
+            public void close() throws TrippiException {
+                result.close();
+            }
+        };
+    }
+
+    /**
+     * Drop the results that may depend on any of the given triples.
+     */
+    public synchronized void invalidate(Collection<Triple> triples) {
+        if (triples.isEmpty()) {
+            return;
+        }
+        m_generation++;
+        Set<String> keys = new HashSet<String>(m_global);
+        for (Triple triple : triples) {
+            addDependents(triple.getSubject(), keys);
+            addDependents(triple.getPredicate(), keys);
+            addDependents(triple.getObject(), keys);
+        }
+        for (String key : keys) {
+            Result entry = m_entries.remove(key);
+            if (entry != null) {
+                unindex(key, entry);
+                m_invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Drop every result, because triples changed in an unknown way.
+     */
+    public synchronized void invalidateAll() {
+        m_generation++;
+        m_invalidations += m_entries.size();
+        clearEntries();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void clear() {
+        m_generation++;
+        clearEntries();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized int getSize() {
+        return m_entries.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getMaxSize() {
+        return m_maxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getHits() {
+        return m_hits;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getMisses() {
+        return m_misses;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized double getHitRate() {
+        long total = m_hits + m_misses;
+        return total == 0 ? 0 : (double) m_hits / total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getEvictions() {
+        return m_evictions;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getInvalidations() {
+        return m_invalidations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RI query cache: " + m_entries.size() + " results, "
+                + m_hits + " hits, " + m_misses + " misses, " + m_evictions
+                + " evictions, " + m_invalidations + " invalidations";
+    }
+
+    private synchronized Result get(String key) {
+        Result entry = m_entries.get(key);
+        if (entry != null && m_maxAge > 0
+                && System.currentTimeMillis() - entry.created > m_maxAge) {
+            m_entries.remove(key);
+            unindex(key, entry);
+            m_evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            m_misses++;
+        } else {
+            m_hits++;
+        }
+        return entry;
+    }
+
+    private void put(String key, String query, long generation, Result entry) {
+        Set<String> dependencies = getDependencies(query, m_aliases);
+        synchronized (this) {
+            if (generation != m_generation) {
+                logger.debug("Not caching result; triples changed during "
+                        + "the query");
+                return;
+            }
+            Result old = m_entries.remove(key);
+            if (old != null) {
+                unindex(key, old);
+            }
+            entry.dependencies = dependencies;
+            if (dependencies == null) {
+                m_global.add(key);
+            } else {
+                for (String dependency : dependencies) {
+                    Set<String> keys = m_dependents.get(dependency);
+                    if (keys == null) {
+                        keys = new HashSet<String>();
+                        m_dependents.put(dependency, keys);
+                    }
+                    keys.add(key);
+                }
+            }
+            m_entries.put(key, entry);
+        }
+    }
+
+    private void unindex(String key, Result entry) {
+        if (entry.dependencies == null) {
+            m_global.remove(key);
+            return;
+        }
+        for (String dependency : entry.dependencies) {
+            Set<String> keys = m_dependents.get(dependency);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    m_dependents.remove(dependency);
+                }
+            }
+        }
+    }
+
+    private void clearEntries() {
+        m_entries.clear();
+        m_dependents.clear();
+        m_global.clear();
+    }
+
+    private void addDependents(Node node, Set<String> keys) {
+        String value;
+        if (node instanceof URIReference) {
+            value = ((URIReference) node).getURI().toString();
+        } else if (node instanceof Literal) {
+            value = ((Literal) node).getLexicalForm();
+        } else {
+            return;
+        }
+        Set<String> dependents = m_dependents.get(value);
+        if (dependents != null) {
+            keys.addAll(dependents);
+        }
+    }
+
+    /**
+     * Collapse runs of whitespace outside quoted strings.
+     */
+    static String normalize(String query) {
+        StringBuilder out = new StringBuilder(query.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && out.length() > 0) {
+                out.append(' ');
+            }
+            space = false;
+            out.append(c);
+            if (quote != 0) {
+                if (c == '\\' && i + 1 < query.length()) {
+                    out.append(query.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Get the URIs and literal values mentioned in the given query, or null
+     * if the result of the query may depend on any triple.
+     */
+    static Set<String> getDependencies(String query,
+                                       Map<String, String> aliases) {
+        Map<String, String> prefixes = new HashMap<String, String>(aliases);
+        Matcher declaration = PREFIX_DECLARATION.matcher(query);
+        while (declaration.find()) {
+            String prefix = declaration.group(1);
+            prefixes.put(prefix == null ? "" : prefix, declaration.group(2));
+        }
+
+        Set<String> dependencies = new HashSet<String>();
+        StringBuilder rest = new StringBuilder(query.length());
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (c == '\'' || c == '"') {
+                StringBuilder literal = new StringBuilder();
+                int j = i + 1;
+                while (j < query.length() && query.charAt(j) != c) {
+                    if (query.charAt(j) == '\\' && j + 1 < query.length()) {
+                        j++;
+                    }
+                    literal.append(query.charAt(j++));
+                }
+                dependencies.add(literal.toString());
+                rest.append(' ');
+                i = j + 1;
+            } else if (c == '<' && query.indexOf('>', i) > i
+                    && isURI(query.substring(i + 1, query.indexOf('>', i)))) {
+                int end = query.indexOf('>', i);
+                String uri = query.substring(i + 1, end);
+                if (!uri.startsWith("#")
+                        && !NOT_RESOURCE.matcher(rest).matches()) {
+                    dependencies.add(uri);
+                    String expanded = expand(uri, prefixes);
+                    if (expanded != null) {
+                        dependencies.add(expanded);
+                    }
+                }
+                rest.append(' ');
+                i = end + 1;
+            } else {
+                rest.append(c);
+                i++;
+            }
+        }
+
+        // prefixed names outside of angle brackets, as used in SPARQL
+        Matcher name = PREFIXED_NAME.matcher(rest);
+        while (name.find()) {
+            if (name.group(2).length() == 0) {
+                continue;
+            }
+            String expanded = expand(name.group(0), prefixes);
+            if (expanded == null) {
+                return null;
+            }
+            dependencies.add(expanded);
+        }
+        return dependencies.isEmpty() ? null : dependencies;
+    }
+
+    private static boolean isURI(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isWhitespace(value.charAt(i))) {
+                return false;
+            }
+        }
+        return value.length() > 0;
+    }
+
+    private static String expand(String name, Map<String, String> prefixes) {
+        int colon = name.indexOf(':');
+        if (colon < 0) {
+            return null;
+        }
+        String namespace = prefixes.get(name.substring(0, colon));
+        return namespace == null ? null : namespace
+                + name.substring(colon + 1);
+    }
+
+    private static class Result {
+
+        final long created = System.currentTimeMillis();
+
+        final String[] names;
+
+        final List<Map<String, Node>> tuples;
+
+        final List<Triple> triples;
+
+        Set<String> dependencies;
+
+        Result(String[] names,
+              List<Map<String, Node>> tuples,
+              List<Triple> triples) {
+            this.names = names;
+            this.tuples = tuples;
+            this.triples = triples;
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+/**
+ * Management interface of the Resource Index query result cache.
+ */
+public interface QueryResultCacheMBean {
+
+    /** The number of results currently cached. */
+    public int getSize();
+
+    /** The maximum number of results cached. */
+    public int getMaxSize();
+
+    /** The number of queries answered from the cache. */
+    public long getHits();
+
+    /** The number of cacheable queries sent to the triplestore. */
+    public long getMisses();
+
+    /** Hits as a fraction of all cacheable queries. */
+    public double getHitRate();
+
+    /** The number of results dropped to make room for others. */
+    public long getEvictions();
+
+    /** The number of results dropped because the triples changed. */
+    public long getInvalidations();
+
+    /** Drop every cached result. */
+    public void clear();
+
+}
@@ -0,0 +1,468 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+
+import org.fcrepo.server.storage.types.RelationshipTuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.fcrepo.common.Constants.DC;
+import static org.fcrepo.common.Constants.FEDORA;
+import static org.fcrepo.common.Constants.MODEL;
+import static org.fcrepo.common.Constants.OAI_DC;
+import static org.fcrepo.common.Constants.VIEW;
+
+/**
+ * An in-memory index of the RELS-EXT and RELS-INT relationships between
+ * resources, for answering single-hop and transitive relationship queries
+ * without a triplestore round trip.
+ *
+ * <p>Each resource URI and predicate is given an int id. For every
+ * resource, the index holds its outbound and inbound edges as packed
+ * (predicate, resource) pairs. Relationships to literals are not indexed.
+ *
+ * <p>The edges of an object are replaced as a whole by <code>update</code>
+ * whenever its relationships change. The index is initially loaded from the
+ * triplestore by <code>load</code>, which may run while updates are made:
+ * the triplestore's edges for objects updated during the load are skipped.
+ * Queries should not be made until <code>isReady</code> returns true.
+ */
+public class RelationshipIndex {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(RelationshipIndex.class);
+
+    private static final int[] NO_EDGES = new int[0];
+
+    /** The fedora-model predicates that may be used in RELS-EXT/RELS-INT. */
+    private static final Set<String> MODEL_RELATIONSHIPS =
+            new HashSet<String>(Arrays.asList(MODEL.HAS_SERVICE.uri,
+                                              MODEL.IS_CONTRACTOR_OF.uri,
+                                              MODEL.HAS_MODEL.uri,
+                                              MODEL.IS_DEPLOYMENT_OF.uri));
+
+    /** How many loaded triples are added each time the lock is taken. */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Integer> m_nodeIds =
+            new HashMap<String, Integer>();
+
+    private String[] m_nodes = new String[1024];
+
+    private final Map<String, Integer> m_predicateIds =
+            new HashMap<String, Integer>();
+
+    private final List<String> m_predicates = new ArrayList<String>();
+
+    /** Outbound (predicate, object) pairs of each node. */
+    private int[][] m_out = new int[1024][];
+
+    private int[] m_outSize = new int[1024];
+
+    /** Inbound (predicate, subject) pairs of each node. */
+    private int[][] m_in = new int[1024][];
+
+    private int[] m_inSize = new int[1024];
+
+    /** The nodes with outbound edges belonging to each object. */
+    private final Map<String, int[]> m_subjects = new HashMap<String, int[]>();
+
+    /** Objects updated while loading, whose loaded edges are skipped. */
+    private Set<String> m_updatedDuringLoad;
+
+    private long m_edgeCount;
+
+    private volatile boolean m_ready;
+
+    /**
+     * Tell whether the given predicate can be used in a RELS-EXT or
+     * RELS-INT relationship, and so should be indexed.
+     */
+    public static boolean isRelationship(String predicate) {
+        if (predicate.startsWith(MODEL.uri)) {
+            return MODEL_RELATIONSHIPS.contains(predicate);
+        }
+        return !predicate.startsWith(VIEW.uri) && !predicate.startsWith(DC.uri)
+                && !predicate.startsWith(OAI_DC.uri);
+    }
+
+    /**
+     * Load the relationships among the given triples, which are closed when
+     * done. The index is ready once this returns.
+     */
+    public void load(TripleIterator triples) throws TrippiException {
+        m_lock.writeLock().lock();
+        try {
+            m_updatedDuringLoad = new HashSet<String>();
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+        long start = System.currentTimeMillis();
+        List<Triple> batch = new ArrayList<Triple>(LOAD_BATCH_SIZE);
+        try {
+            while (triples.hasNext()) {
+                Triple triple = triples.next();
+                if (triple.getObject() instanceof URIReference
+                        && isRelationship(getURI(triple.getPredicate()))) {
+                    batch.add(triple);
+                    if (batch.size() == LOAD_BATCH_SIZE) {
+                        addLoaded(batch);
+                        batch.clear();
+                    }
+                }
+            }
+            addLoaded(batch);
+        } finally {
+            triples.close();
+            m_lock.writeLock().lock();
+            try {
+                m_updatedDuringLoad = null;
+            } finally {
+                m_lock.writeLock().unlock();
+            }
+        }
+        m_ready = true;
+        logger.info("Loaded " + getEdgeCount() + " relationships among "
+                + getNodeCount() + " resources in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Tell whether the index has been loaded.
+     */
+    public boolean isReady() {
+        return m_ready;
+    }
+
+    /**
+     * Replace the relationships of the given object. Relationships to
+     * literals are ignored.
+     */
+    public void update(String pid, Collection<RelationshipTuple> relationships) {
+        m_lock.writeLock().lock();
+        try {
+            if (m_updatedDuringLoad != null) {
+                m_updatedDuringLoad.add(pid);
+            }
+            removeEdges(pid);
+            for (RelationshipTuple tuple : relationships) {
+                if (!tuple.isLiteral) {
+                    addEdge(pid, tuple.subject, tuple.predicate, tuple.object);
+                }
+            }
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the relationships of the given object.
+     */
+    public void remove(String pid) {
+        update(pid, new ArrayList<RelationshipTuple>(0));
+    }
+
+    /**
+     * Get the resources the given resource is related to by the given
+     * predicate, or by any predicate if it is null.
+     */
+    public Set<String> getObjects(String subject, String predicate) {
+        return getNeighbours(subject, predicate, true);
+    }
+
+    /**
+     * Get the resources related to the given resource by the given
+     * predicate, or by any predicate if it is null.
+     */
+    public Set<String> getSubjects(String object, String predicate) {
+        return getNeighbours(object, predicate, false);
+    }
+
+    /**
+     * Get the resources related to the given resource, keyed by predicate.
+     */
+    public Map<String, Set<String>> getInbound(String object) {
+        Map<String, Set<String>> inbound = new HashMap<String, Set<String>>();
+        m_lock.readLock().lock();
+        try {
+            Integer node = m_nodeIds.get(object);
+            if (node != null) {
+                int[] edges = m_in[node];
+                for (int i = 0; i < m_inSize[node]; i += 2) {
+                    String predicate = m_predicates.get(edges[i]);
+                    Set<String> subjects = inbound.get(predicate);
+                    if (subjects == null) {
+                        subjects = new HashSet<String>();
+                        inbound.put(predicate, subjects);
+                    }
+                    subjects.add(m_nodes[edges[i + 1]]);
+                }
+            }
+        } finally {
+            m_lock.readLock().unlock();
+        }
+        return inbound;
+    }
+
+    /**
+     * Get every resource reachable from the given one by following any
+     * number of outbound edges with one of the given predicates, or inbound
+     * edges with one of the given inverse predicates. The starting resource
+     * is only included if it is part of a cycle.
+     */
+    public Set<String> getReachable(String start,
+                                    Collection<String> predicates,
+                                    Collection<String> inversePredicates) {
+        Set<String> reachable = new HashSet<String>();
+        m_lock.readLock().lock();
+        try {
+            Integer startNode = m_nodeIds.get(start);
+            if (startNode == null) {
+                return reachable;
+            }
+            Set<Integer> forward = getPredicateIds(predicates);
+            Set<Integer> inverse = getPredicateIds(inversePredicates);
+            Set<Integer> visited = new HashSet<Integer>();
+            int[] queue = new int[16];
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = startNode;
+            while (head < tail) {
+                int node = queue[head++];
+                for (int pass = 0; pass < 2; pass++) {
+                    int[] edges = pass == 0 ? m_out[node] : m_in[node];
+                    int size = pass == 0 ? m_outSize[node] : m_inSize[node];
+                    Set<Integer> follow = pass == 0 ? forward : inverse;
+                    for (int i = 0; i < size; i += 2) {
+                        if (follow.contains(edges[i])
+                                && visited.add(edges[i + 1])) {
+                            reachable.add(m_nodes[edges[i + 1]]);
+                            if (tail == queue.length) {
+                                queue = Arrays.copyOf(queue, tail * 2);
+                            }
+                            queue[tail++] = edges[i + 1];
+                        }
+                    }
+                }
+            }
+        } finally {
+            m_lock.readLock().unlock();
+        }
+        return reachable;
+    }
+
+    /**
+     * Get the number of resources in the index.
+     */
+    public int getNodeCount() {
+        m_lock.readLock().lock();
+        try {
+            return m_nodeIds.size();
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of relationships in the index.
+     */
+    public long getEdgeCount() {
+        m_lock.readLock().lock();
+        try {
+            return m_edgeCount;
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    private void addLoaded(List<Triple> triples) {
+        m_lock.writeLock().lock();
+        try {
+            for (Triple triple : triples) {
+                String subject = getURI(triple.getSubject());
+                String pid = getPID(subject);
+                if (pid != null && !m_updatedDuringLoad.contains(pid)) {
+                    addEdge(pid,
+                            subject,
+                            getURI(triple.getPredicate()),
+                            getURI(triple.getObject()));
+                }
+            }
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    private Set<String> getNeighbours(String uri,
+                                      String predicate,
+                                      boolean outbound) {
+        Set<String> neighbours = new HashSet<String>();
+        m_lock.readLock().lock();
+        try {
+            Integer node = m_nodeIds.get(uri);
+            int predicateId = -1;
+            if (predicate != null) {
+                Integer id = m_predicateIds.get(predicate);
+                if (id == null) {
+                    return neighbours;
+                }
+                predicateId = id;
+            }
+            if (node != null) {
+                int[] edges = outbound ? m_out[node] : m_in[node];
+                int size = outbound ? m_outSize[node] : m_inSize[node];
+                for (int i = 0; i < size; i += 2) {
+                    if (predicateId < 0 || edges[i] == predicateId) {
+                        neighbours.add(m_nodes[edges[i + 1]]);
+                    }
+                }
+            }
+        } finally {
+            m_lock.readLock().unlock();
+        }
+        return neighbours;
+    }
+
+    private Set<Integer> getPredicateIds(Collection<String> predicates) {
+        Set<Integer> ids = new HashSet<Integer>();
+        if (predicates != null) {
+            for (String predicate : predicates) {
+                Integer id = m_predicateIds.get(predicate);
+                if (id != null) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Add an edge from a subject belonging to the given object. The caller
+     * must hold the write lock.
+     */
+    private void addEdge(String pid,
+                         String subject,
+                         String predicate,
+                         String object) {
+        int s = getNodeId(subject);
+        int o = getNodeId(object);
+        Integer p = m_predicateIds.get(predicate);
+        if (p == null) {
+            p = m_predicates.size();
+            m_predicates.add(predicate);
+            m_predicateIds.put(predicate, p);
+        }
+        int[] subjects = m_subjects.get(pid);
+        if (subjects == null) {
+            m_subjects.put(pid, new int[] {s});
+        } else if (Arrays.binarySearch(subjects, s) < 0) {
+            subjects = Arrays.copyOf(subjects, subjects.length + 1);
+            subjects[subjects.length - 1] = s;
+            Arrays.sort(subjects);
+            m_subjects.put(pid, subjects);
+        }
+        m_out[s] = append(m_out[s], m_outSize[s], p, o);
+        m_outSize[s] += 2;
+        m_in[o] = append(m_in[o], m_inSize[o], p, s);
+        m_inSize[o] += 2;
+        m_edgeCount++;
+    }
+
+    /**
+     * Remove the edges from every subject belonging to the given object.
+     * The caller must hold the write lock.
+     */
+    private void removeEdges(String pid) {
+        int[] subjects = m_subjects.remove(pid);
+        if (subjects == null) {
+            return;
+        }
+        for (int s : subjects) {
+            int[] edges = m_out[s];
+            for (int i = 0; i < m_outSize[s]; i += 2) {
+                int o = edges[i + 1];
+                int[] in = m_in[o];
+                for (int j = 0; j < m_inSize[o]; j += 2) {
+                    if (in[j] == edges[i] && in[j + 1] == s) {
+                        // move the last pair into this one's place
+                        m_inSize[o] -= 2;
+                        in[j] = in[m_inSize[o]];
+                        in[j + 1] = in[m_inSize[o] + 1];
+                        break;
+                    }
+                }
+                m_edgeCount--;
+            }
+            m_out[s] = NO_EDGES;
+            m_outSize[s] = 0;
+        }
+    }
+
+    private int getNodeId(String uri) {
+        Integer id = m_nodeIds.get(uri);
+        if (id == null) {
+            id = m_nodeIds.size();
+            if (id == m_nodes.length) {
+                int capacity = id * 2;
+                m_nodes = Arrays.copyOf(m_nodes, capacity);
+                m_out = Arrays.copyOf(m_out, capacity);
+                m_outSize = Arrays.copyOf(m_outSize, capacity);
+                m_in = Arrays.copyOf(m_in, capacity);
+                m_inSize = Arrays.copyOf(m_inSize, capacity);
+            }
+            m_nodes[id] = uri;
+            m_out[id] = NO_EDGES;
+            m_in[id] = NO_EDGES;
+            m_nodeIds.put(uri, id);
+        }
+        return id;
+    }
+
+    private static int[] append(int[] edges, int size, int a, int b) {
+        if (size + 2 > edges.length) {
+            edges = Arrays.copyOf(edges, Math.max(4, edges.length * 2));
+        }
+        edges[size] = a;
+        edges[size + 1] = b;
+        return edges;
+    }
+
+    /**
+     * Get the PID of the object an info:fedora/ URI belongs to, or null if
+     * it isn't an object or datastream URI.
+     */
+    private static String getPID(String uri) {
+        if (!uri.startsWith(FEDORA.uri)) {
+            return null;
+        }
+        int slash = uri.indexOf('/', FEDORA.uri.length());
+        return slash < 0 ? uri.substring(FEDORA.uri.length()) : uri
+                .substring(FEDORA.uri.length(), slash);
+    }
+
+    private static String getURI(Object node) {
+        return ((URIReference) node).getURI().toString();
+    }
+
+}
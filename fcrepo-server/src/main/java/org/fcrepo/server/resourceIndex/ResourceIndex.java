@@ -6,6 +6,8 @@ package org.fcrepo.server.resourceIndex;
 
 import java.io.OutputStream;
 
+import java.util.Set;
+
 import org.trippi.RDFFormat;
 import org.trippi.TriplestoreWriter;
 
@@ -68,6 +70,25 @@ public interface ResourceIndex
     void modifyObject(DOReader oldReader, DOReader newReader)
             throws ResourceIndexException;
 
+    /**
+     * Updates any appropriate triples implied by a modified object, where
+     * only the object properties and the given datastreams may have changed.
+     * 
+     * @param oldReader
+     *        Pre-modification version of the oject.
+     * @param newReader
+     *        Post-modification version of the object.
+     * @param modifiedDatastreams
+     *        IDs of the datastreams that were added, modified or removed, or
+     *        null if not known.
+     * @throws ResourceIndexException
+     *         If the triples can't be updated for any reason.
+     */
+    void modifyObject(DOReader oldReader,
+                      DOReader newReader,
+                      Set<String> modifiedDatastreams)
+            throws ResourceIndexException;
+
     /**
      * Removes the triples implied by a given object from the ResourceIndex.
      * 
@@ -92,4 +113,38 @@ public interface ResourceIndex
     void export(OutputStream out, RDFFormat format)
             throws ResourceIndexException;
 
+    /**
+     * Gets the sequence number of the most recent object update. Passing it
+     * to <code>waitForUpdate</code> waits until the triples of that update,
+     * and of all updates before it, are visible to queries.
+     * 
+     * @return the sequence number, or 0 if updates are not queued.
+     */
+    long getUpdateSequence();
+
+    /**
+     * Waits until the object update with the given sequence number, and all
+     * updates before it, are visible to queries. If updates are not queued,
+     * returns immediately.
+     * 
+     * @param sequence
+     *        the sequence number, as returned by
+     *        <code>getUpdateSequence</code>.
+     * @param timeout
+     *        the maximum time to wait, in milliseconds.
+     * @return false if the timeout elapsed first.
+     * @throws InterruptedException
+     *         if the thread is interrupted while waiting.
+     */
+    boolean waitForUpdate(long sequence, long timeout)
+            throws InterruptedException;
+
+    /**
+     * Gets the in-memory index of relationships between resources, which
+     * reflects object updates as soon as they are made.
+     * 
+     * @return the index, or null if it is not enabled or not yet loaded.
+     */
+    RelationshipIndex getRelationshipIndex();
+
 }
@@ -4,11 +4,16 @@
  */
 package org.fcrepo.server.resourceIndex;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,8 +37,12 @@ import org.trippi.TriplestoreWriter;
 import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
 
+import org.fcrepo.common.Constants;
 import org.fcrepo.server.errors.ResourceIndexException;
+import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.storage.DOReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -44,6 +53,9 @@ import org.fcrepo.server.storage.DOReader;
 public class ResourceIndexImpl
         implements ResourceIndex {
 
+    private static final Logger logger =
+            LoggerFactory.getLogger(ResourceIndexImpl.class);
+
     /** Interface to the underlying triplestore. */
     private final TriplestoreConnector _connector;
 
@@ -62,6 +74,25 @@ public class ResourceIndexImpl
      */
     private final boolean _syncUpdates;
 
+    /**
+     * The queue all updates, including those made through the
+     * TriplestoreWriter methods, are written through, or null if they are
+     * written directly.
+     */
+    private final ResourceIndexUpdateQueue _queue;
+
+    /**
+     * How long to wait for space in the update queue before failing an
+     * object update, in milliseconds.
+     */
+    private static final long QUEUE_TIMEOUT = 60000;
+
+    /**
+     * The cache of query results to invalidate when triples are written, or
+     * null if there is none.
+     */
+    private volatile QueryResultCache _cache;
+
     ////////////////////
     // Initialization //
     ////////////////////
@@ -75,6 +106,56 @@ public class ResourceIndexImpl
         _generator = generator;
         _indexLevel = indexLevel;
         _syncUpdates = syncUpdates;
+        _queue = null;
+    }
+
+    /**
+     * Creates an instance that writes object updates through a
+     * <code>ResourceIndexUpdateQueue</code>, re-queueing any updates left in
+     * its log.
+     * 
+     * @param queueLog
+     *        the file queued updates are recorded in, or null if they should
+     *        only be kept in memory.
+     * @param queueCapacity
+     *        the maximum number of objects with queued updates.
+     * @param queueBatchSize
+     *        the maximum number of objects whose updates are written to the
+     *        triplestore at once.
+     * @param queueFlushInterval
+     *        the longest time, in milliseconds, updates wait for a batch to
+     *        fill before being written.
+     * @throws IOException
+     *         if the queue log can't be read or written.
+     */
+    public ResourceIndexImpl(TriplestoreConnector connector,
+                             TripleGenerator generator,
+                             int indexLevel,
+                             boolean syncUpdates,
+                             File queueLog,
+                             int queueCapacity,
+                             int queueBatchSize,
+                             long queueFlushInterval)
+            throws IOException {
+        _connector = connector;
+        _writer = _connector.getWriter();
+        _generator = generator;
+        _indexLevel = indexLevel;
+        _syncUpdates = syncUpdates;
+        _queue = new ResourceIndexUpdateQueue(new QueuedUpdateHandler(),
+                                              queueLog,
+                                              queueCapacity,
+                                              queueBatchSize,
+                                              queueFlushInterval);
+        _queue.start();
+    }
+
+    /**
+     * Sets the cache of query results that depend on the triples written by
+     * this instance.
+     */
+    public void setQueryResultCache(QueryResultCache cache) {
+        _cache = cache;
     }
 
     ///////////////////////////
@@ -93,7 +174,13 @@ public class ResourceIndexImpl
      */
     public void addObject(DOReader reader) throws ResourceIndexException {
         if (_indexLevel > INDEX_LEVEL_OFF) {
-            updateTriples(_generator.getTriplesForObject(reader), false);
+            if (_queue != null) {
+                queueUpdate(reader,
+                            Collections.<Triple> emptySet(),
+                            _generator.getTriplesForObject(reader));
+            } else {
+                updateTriples(_generator.getTriplesForObject(reader), false);
+            }
         }
     }
 
@@ -102,9 +189,48 @@ public class ResourceIndexImpl
      */
     public void modifyObject(DOReader oldReader, DOReader newReader)
             throws ResourceIndexException {
+        modifyObject(oldReader, newReader, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the generator is a <code>ComponentTripleGenerator</code> and the
+     * object's content models are unchanged, only the triples of the object
+     * properties and the modified datastreams are generated and compared.
+     * </p>
+     */
+    public void modifyObject(DOReader oldReader,
+                             DOReader newReader,
+                             Set<String> modifiedDatastreams)
+            throws ResourceIndexException {
         if (_indexLevel > INDEX_LEVEL_OFF) {
-            updateTripleDiffs(_generator.getTriplesForObject(oldReader),
-                              _generator.getTriplesForObject(newReader));
+            Set<Triple> existing;
+            Set<Triple> desired;
+            if (modifiedDatastreams != null
+                    && _generator instanceof ComponentTripleGenerator
+                    && sameContentModels(oldReader, newReader)) {
+                ComponentTripleGenerator generator =
+                        (ComponentTripleGenerator) _generator;
+                existing = getComponentTriples(generator,
+                                               oldReader,
+                                               modifiedDatastreams);
+                desired = getComponentTriples(generator,
+                                              newReader,
+                                              modifiedDatastreams);
+            } else {
+                existing = _generator.getTriplesForObject(oldReader);
+                desired = _generator.getTriplesForObject(newReader);
+            }
+            if (_queue != null) {
+                HashSet<Triple> obsoleteTriples = new HashSet<Triple>(existing);
+                obsoleteTriples.removeAll(desired);
+                HashSet<Triple> newTriples = new HashSet<Triple>(desired);
+                newTriples.removeAll(existing);
+                queueUpdate(newReader, obsoleteTriples, newTriples);
+            } else {
+                updateTripleDiffs(existing, desired);
+            }
         }
     }
 
@@ -113,7 +239,13 @@ public class ResourceIndexImpl
      */
     public void deleteObject(DOReader oldReader) throws ResourceIndexException {
         if (_indexLevel > INDEX_LEVEL_OFF) {
-            updateTriples(_generator.getTriplesForObject(oldReader), true);
+            if (_queue != null) {
+                queueUpdate(oldReader,
+                            _generator.getTriplesForObject(oldReader),
+                            Collections.<Triple> emptySet());
+            } else {
+                updateTriples(_generator.getTriplesForObject(oldReader), true);
+            }
         }
     }
 
@@ -122,19 +254,110 @@ public class ResourceIndexImpl
      */
     public void export(OutputStream out, RDFFormat format)
             throws ResourceIndexException {
+        TripleIterator it = null;
         try {
-            TripleIterator it = _writer.findTriples(null, null, null, 0);
+            it = _writer.findTriples(null, null, null, 0);
             it.setAliasMap(_writer.getAliasMap());
             it.toStream(out, format);
         } catch (TrippiException e) {
             throw new ResourceIndexException("Unable to export RI", e);
+        } finally {
+            // stops the query if writing failed part way
+            if (it != null) {
+                try {
+                    it.close();
+                } catch (TrippiException e) {
+                    logger.warn("Error closing RI export", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getUpdateSequence() {
+        if (_queue == null) {
+            return 0;
+        }
+        return _queue.getQueuedSequence();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean waitForUpdate(long sequence, long timeout)
+            throws InterruptedException {
+        if (_queue == null) {
+            return true;
         }
+        return _queue.waitFor(sequence, timeout);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The relationship index is maintained by ResourceIndexModule, so this
+     * always returns null.
+     */
+    public RelationshipIndex getRelationshipIndex() {
+        return null;
     }
 
     /////////////////////
     // Private Methods //
     /////////////////////
 
+    /**
+     * Gets the triples of the object properties and the given datastreams.
+     */
+    private static Set<Triple> getComponentTriples(ComponentTripleGenerator generator,
+                                                   DOReader reader,
+                                                   Set<String> datastreamIDs)
+            throws ResourceIndexException {
+        Set<Triple> triples =
+                new HashSet<Triple>(generator.getTriplesForObjectProperties(reader));
+        for (String dsID : datastreamIDs) {
+            triples.addAll(generator.getTriplesForDatastream(reader, dsID));
+        }
+        return triples;
+    }
+
+    /**
+     * Tells whether both versions of an object have the same content models,
+     * and so the same triple generators.
+     */
+    private static boolean sameContentModels(DOReader oldReader,
+                                             DOReader newReader)
+            throws ResourceIndexException {
+        try {
+            return new HashSet<String>(oldReader.getContentModels())
+                    .equals(new HashSet<String>(newReader.getContentModels()));
+        } catch (ServerException e) {
+            throw new ResourceIndexException("Could not read object's "
+                    + "content models", e);
+        }
+    }
+
+    /**
+     * Queues the given deletes and adds for the given object. If
+     * _syncUpdates is true, waits for them to be written before returning.
+     */
+    private void queueUpdate(DOReader reader,
+                             Set<Triple> deletes,
+                             Set<Triple> adds) throws ResourceIndexException {
+        String pid;
+        try {
+            pid = reader.GetObjectPID();
+        } catch (ServerException e) {
+            throw new ResourceIndexException("Unable to get object PID", e);
+        }
+        _queue.enqueue(pid, deletes, adds, QUEUE_TIMEOUT);
+        if (_syncUpdates) {
+            _queue.flush();
+        }
+    }
+
     /**
      * Applies the given adds or deletes to the triplestore. If _syncUpdates is
      * true, changes will be flushed before returning.
@@ -150,6 +373,133 @@ public class ResourceIndexImpl
         } catch (Exception e) {
             throw new ResourceIndexException("Error updating triples", e);
         }
+        invalidate(set);
+    }
+
+    /**
+     * Drops cached query results that may depend on the given triples.
+     */
+    private void invalidate(Collection<Triple> triples) {
+        QueryResultCache cache = _cache;
+        if (cache != null) {
+            cache.invalidate(triples);
+        }
+    }
+
+    /**
+     * Drops all cached query results, after triples were written that can't
+     * be examined.
+     */
+    private void invalidateAll() {
+        QueryResultCache cache = _cache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Adds the given triples to the triplestore in one batch. This is meant
+     * for loading a new index. If there is an update queue, the triples are
+     * queued like any other update.
+     */
+    public void loadTriples(List<Triple> triples, boolean flush)
+            throws ResourceIndexException {
+        if (_queue != null) {
+            queueTriples(triples, false, flush);
+            return;
+        }
+        List<Triple> localized = new ArrayList<Triple>(triples.size());
+        for (Triple triple : triples) {
+            localized.add(getLocalizedTriple(triple));
+        }
+        try {
+            _writer.add(localized, flush);
+        } catch (Exception e) {
+            throw new ResourceIndexException("Error loading triples", e);
+        }
+        invalidate(triples);
+    }
+
+    /**
+     * Queues the given triples as adds or deletes, one update per object they
+     * describe, so they are applied in order with the updates made by object
+     * modifications. If flush is true, waits for them to be written before
+     * returning.
+     */
+    private void queueTriples(Collection<Triple> triples,
+                              boolean delete,
+                              boolean flush) throws ResourceIndexException {
+        Map<String, Set<Triple>> triplesByPID =
+                new LinkedHashMap<String, Set<Triple>>();
+        for (Triple triple : triples) {
+            String pid = getPID(triple.getSubject());
+            Set<Triple> set = triplesByPID.get(pid);
+            if (set == null) {
+                set = new HashSet<Triple>();
+                triplesByPID.put(pid, set);
+            }
+            set.add(triple);
+        }
+        Set<Triple> none = Collections.emptySet();
+        for (Map.Entry<String, Set<Triple>> entry : triplesByPID.entrySet()) {
+            if (delete) {
+                _queue.enqueue(entry.getKey(), entry.getValue(), none,
+                               QUEUE_TIMEOUT);
+            } else {
+                _queue.enqueue(entry.getKey(), none, entry.getValue(),
+                               QUEUE_TIMEOUT);
+            }
+        }
+        if (flush) {
+            _queue.flush();
+        }
+    }
+
+    /**
+     * Same as queueTriples(Collection, boolean, boolean), but reports
+     * failures as a TrippiException, for the TriplestoreWriter methods.
+     */
+    private void queueWrite(Collection<Triple> triples,
+                            boolean delete,
+                            boolean flush) throws TrippiException {
+        try {
+            queueTriples(triples, delete, flush);
+        } catch (ResourceIndexException e) {
+            throw new TrippiException("Error queueing RI update", e);
+        }
+    }
+
+    /**
+     * Reads all the triples from the given iterator, closing it.
+     */
+    private static List<Triple> readAll(TripleIterator iter)
+            throws TrippiException {
+        List<Triple> triples = new ArrayList<Triple>();
+        try {
+            while (iter.hasNext()) {
+                triples.add(iter.next());
+            }
+        } finally {
+            iter.close();
+        }
+        return triples;
+    }
+
+    /**
+     * Gets the PID of the object a subject describes, or the subject itself
+     * if it isn't an info:fedora/ URI.
+     */
+    private static String getPID(SubjectNode subject) {
+        String uri = subject.toString();
+        if (subject instanceof URIReference) {
+            uri = ((URIReference) subject).getURI().toString();
+            if (uri.startsWith(Constants.FEDORA.uri)) {
+                int slash = uri.indexOf('/', Constants.FEDORA.uri.length());
+                return slash < 0 ? uri.substring(Constants.FEDORA.uri.length())
+                        : uri.substring(Constants.FEDORA.uri.length(), slash);
+            }
+        }
+        return uri;
     }
 
     /**
@@ -378,6 +728,13 @@ public class ResourceIndexImpl
      * {@inheritDoc}
      */
     public void close() throws TrippiException {
+        if (_queue != null) {
+            try {
+                _queue.close();
+            } catch (ResourceIndexException e) {
+                throw new TrippiException("Error closing RI update queue", e);
+            }
+        }
         _connector.close();
     }
 
@@ -390,7 +747,12 @@ public class ResourceIndexImpl
      */
     public void add(List<Triple> triples, boolean flush) throws IOException,
             TrippiException {
+        if (_queue != null) {
+            queueWrite(triples, false, flush);
+            return;
+        }
         _writer.add(triples, flush);
+        invalidate(triples);
     }
 
     /**
@@ -398,7 +760,12 @@ public class ResourceIndexImpl
      */
     public void add(TripleIterator triples, boolean flush) throws IOException,
             TrippiException {
+        if (_queue != null) {
+            queueWrite(readAll(triples), false, flush);
+            return;
+        }
         _writer.add(triples, flush);
+        invalidateAll();
     }
 
     /**
@@ -406,7 +773,12 @@ public class ResourceIndexImpl
      */
     public void add(Triple triple, boolean flush) throws IOException,
             TrippiException {
+        if (_queue != null) {
+            queueWrite(Collections.singleton(triple), false, flush);
+            return;
+        }
         _writer.add(triple, flush);
+        invalidate(Collections.singleton(triple));
     }
 
     /**
@@ -414,7 +786,12 @@ public class ResourceIndexImpl
      */
     public void delete(List<Triple> triples, boolean flush) throws IOException,
             TrippiException {
+        if (_queue != null) {
+            queueWrite(triples, true, flush);
+            return;
+        }
         _writer.delete(triples, flush);
+        invalidate(triples);
     }
 
     /**
@@ -422,7 +799,12 @@ public class ResourceIndexImpl
      */
     public void delete(TripleIterator triples, boolean flush)
             throws IOException, TrippiException {
+        if (_queue != null) {
+            queueWrite(readAll(triples), true, flush);
+            return;
+        }
         _writer.delete(triples, flush);
+        invalidateAll();
     }
 
     /**
@@ -430,13 +812,25 @@ public class ResourceIndexImpl
      */
     public void delete(Triple triple, boolean flush) throws IOException,
             TrippiException {
+        if (_queue != null) {
+            queueWrite(Collections.singleton(triple), true, flush);
+            return;
+        }
         _writer.delete(triple, flush);
+        invalidate(Collections.singleton(triple));
     }
 
     /**
      * {@inheritDoc}
      */
     public void flushBuffer() throws IOException, TrippiException {
+        if (_queue != null) {
+            try {
+                _queue.flush();
+            } catch (ResourceIndexException e) {
+                throw new TrippiException("Error flushing RI update queue", e);
+            }
+        }
         _writer.flushBuffer();
     }
 
@@ -467,4 +861,30 @@ public class ResourceIndexImpl
                                            updateType);
     }
 
+    /**
+     * Writes batches of queued updates to the triplestore, flushing after
+     * each batch.
+     */
+    private class QueuedUpdateHandler
+            implements ResourceIndexUpdateQueue.UpdateHandler {
+
+        public void applyUpdates(List<ResourceIndexUpdateQueue.Update> updates)
+                throws Exception {
+            for (ResourceIndexUpdateQueue.Update update : updates) {
+                if (!update.getDeletes().isEmpty()) {
+                    _writer.delete(getTripleIterator(update.getDeletes()),
+                                   false);
+                }
+                if (!update.getAdds().isEmpty()) {
+                    _writer.add(getTripleIterator(update.getAdds()), false);
+                }
+            }
+            _writer.flushBuffer();
+            for (ResourceIndexUpdateQueue.Update update : updates) {
+                invalidate(update.getDeletes());
+                invalidate(update.getAdds());
+            }
+        }
+    }
+
 }
@@ -4,13 +4,19 @@
  */
 package org.fcrepo.server.resourceIndex;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.lang.management.ManagementFactory;
+
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import javax.management.ObjectName;
 
 import org.jrdf.graph.ObjectNode;
 import org.jrdf.graph.PredicateNode;
@@ -32,6 +38,7 @@ import org.fcrepo.server.Server;
 import org.fcrepo.server.errors.ModuleInitializationException;
 import org.fcrepo.server.errors.ModuleShutdownException;
 import org.fcrepo.server.errors.ResourceIndexException;
+import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.storage.DOReader;
 import org.fcrepo.server.utilities.status.ServerState;
 import org.slf4j.Logger;
@@ -50,11 +57,29 @@ public class ResourceIndexModule
     private static final Logger logger =
         LoggerFactory.getLogger(ResourceIndexModule.class);
 
+    /** Where queued updates are logged by default, relative to FEDORA_HOME. */
+    private static final String DEFAULT_QUEUE_LOG =
+            "data/resourceIndex/updates.log";
+
+    /** The name the query result cache is registered under with JMX. */
+    private static final String QUERY_CACHE_MBEAN =
+            "org.fcrepo.server:type=ResourceIndexQueryCache";
+
     /**
      * The instance this module wraps.
      */
     private ResourceIndex _ri;
 
+    /**
+     * The cache of query results, or null if results aren't cached.
+     */
+    private QueryResultCache _cache;
+
+    /**
+     * The in-memory relationship index, or null if it isn't enabled.
+     */
+    private RelationshipIndex _relationshipIndex;
+
     /////////////////////////////////////
     // Initialization & Module Methods //
     /////////////////////////////////////
@@ -86,6 +111,31 @@ public class ResourceIndexModule
      * triple buffer before returning from object modification operations.
      * Specifying this as true will ensure that RI queries always reflect the
      * latest triples. </li>
+     * <li> queueCapacity (optional, default is 0)<br/> If greater than zero,
+     * object updates are queued and written to the triplestore in batches by
+     * a background thread, and this is the maximum number of objects that
+     * may have updates waiting. Each update is given a sequence number that
+     * can be used to wait for it to become visible to queries. </li>
+     * <li> queueBatchSize (optional, default is 100)<br/> The maximum number
+     * of objects whose queued updates are written at once. </li>
+     * <li> queueFlushInterval (optional, default is 100)<br/> The longest
+     * time, in milliseconds, that queued updates wait for a batch to fill
+     * before being written. </li>
+     * <li> queueLog (optional, default is data/resourceIndex/updates.log)<br/>
+     * The file in which queued updates are recorded until they are written,
+     * relative to FEDORA_HOME if not absolute. Updates left in it when the
+     * server stops are written when it next starts. </li>
+     * <li> queryCacheSize (optional, default is 0)<br/> If greater than zero,
+     * the maximum number of query results to cache. Cached results are
+     * dropped when triples they may depend on are written. </li>
+     * <li> queryCacheMaxResults (optional, default is 1000)<br/> The maximum
+     * number of tuples or triples in a cached result. </li>
+     * <li> queryCacheMaxAge (optional, default is 300000)<br/> The longest
+     * time, in milliseconds, a result is cached, or 0 for no limit. </li>
+     * <li> relationshipIndex (optional, default is false)<br/> Whether to
+     * keep an in-memory index of the RELS-EXT and RELS-INT relationships
+     * between resources, for fast parent and inbound relationship lookups.
+     * It is loaded from the triplestore in the background at startup. </li>
      * <li> alias:xyz (optional, uri)<br/> Any parameter starting with "alias:"
      * will be put into Trippi's alias map, and can be used for queries. For
      * example, alias:xyz with a value of urn:example:long:uri:x:y:z: will make
@@ -117,12 +167,54 @@ public class ResourceIndexModule
             TripleGenerator generator =
                 getServer().getBean(TripleGenerator.class.getName(), TripleGenerator.class);
 
-            _ri = new ResourceIndexImpl(connector,
-                                        generator,
-                                        level,
-                                        syncUpdates);
+            ResourceIndexImpl ri;
+            int queueCapacity = getInt("queueCapacity", 0);
+            if (queueCapacity > 0) {
+                String queueLog = getParameter("queueLog", true);
+                if (queueLog == null) {
+                    queueLog = new File(getServer().getHomeDir(),
+                                        DEFAULT_QUEUE_LOG).getPath();
+                }
+                logger.info("Queueing RI updates (capacity " + queueCapacity
+                        + ", log " + queueLog + ")");
+                ri = new ResourceIndexImpl(connector,
+                                           generator,
+                                           level,
+                                           syncUpdates,
+                                           new File(queueLog),
+                                           queueCapacity,
+                                           getInt("queueBatchSize", 100),
+                                           getInt("queueFlushInterval", 100));
+            } else {
+                ri = new ResourceIndexImpl(connector,
+                                           generator,
+                                           level,
+                                           syncUpdates);
+            }
+            _ri = ri;
+
+            int queryCacheSize = getInt("queryCacheSize", 0);
+            if (queryCacheSize > 0) {
+                if (!syncUpdates && queueCapacity == 0) {
+                    logger.warn("Cached RI query results may not reflect "
+                            + "buffered updates until they expire; set "
+                            + "syncUpdates or queueCapacity to avoid this");
+                }
+                _cache = new QueryResultCache(queryCacheSize,
+                                              getInt("queryCacheMaxResults",
+                                                     1000),
+                                              getInt("queryCacheMaxAge",
+                                                     300000));
+                ri.setQueryResultCache(_cache);
+                registerQueryCache();
+            }
             setAliasMap(getAliases());
 
+            if (getBoolean("relationshipIndex", false)) {
+                _relationshipIndex = new RelationshipIndex();
+                loadRelationshipIndex();
+            }
+
         } catch (Exception e) {
             throw new ModuleInitializationException("Error initializing RI",
                                                     getRole(),
@@ -130,6 +222,58 @@ public class ResourceIndexModule
         }
     }
 
+    private void registerQueryCache() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(_cache, new ObjectName(QUERY_CACHE_MBEAN));
+        } catch (Exception e) {
+            logger.warn("Unable to register RI query cache with JMX", e);
+        }
+    }
+
+    private void loadRelationshipIndex() {
+        Thread loader = new Thread("RelationshipIndexLoader") {
+
+            @Override
+            public void run() {
+                try {
+                    _relationshipIndex.load(_ri.findTriples(null,
+                                                            null,
+                                                            null,
+                                                            0));
+                } catch (Exception e) {
+                    logger.error("Unable to load relationship index; "
+                            + "relationships will be looked up in the "
+                            + "triplestore", e);
+                }
+            }
+        };
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Replaces the indexed relationships of the given object, if the
+     * relationship index is enabled and they may have changed.
+     */
+    private void updateRelationships(DOReader reader,
+                                     Set<String> modifiedDatastreams)
+            throws ResourceIndexException {
+        if (_relationshipIndex == null
+                || modifiedDatastreams != null
+                && !modifiedDatastreams.contains("RELS-EXT")
+                && !modifiedDatastreams.contains("RELS-INT")) {
+            return;
+        }
+        try {
+            _relationshipIndex.update(reader.GetObjectPID(),
+                                      reader.getRelationships());
+        } catch (ServerException e) {
+            throw new ResourceIndexException("Error indexing relationships of "
+                    + "object", e);
+        }
+    }
+
     private TriplestoreConnector getConnector(Parameterized datastore)
             throws Exception {
         if (datastore == null) {
@@ -190,6 +334,25 @@ public class ResourceIndexModule
         }
     }
 
+    private int getInt(String name, int defaultValue)
+            throws ModuleInitializationException {
+        String value = getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int intValue = Integer.parseInt(value);
+            if (intValue < 0) {
+                throw new ModuleInitializationException(name
+                        + " parameter must not be negative", getRole());
+            }
+            return intValue;
+        } catch (NumberFormatException e) {
+            throw new ModuleInitializationException(name
+                    + " parameter must be " + "an integer", getRole());
+        }
+    }
+
     private boolean getBoolean(String name, boolean defaultValue)
             throws ModuleInitializationException {
         String value = getParameter(name);
@@ -227,6 +390,15 @@ public class ResourceIndexModule
      */
     @Override
     public void shutdownModule() throws ModuleShutdownException {
+        if (_cache != null) {
+            logger.info(_cache.toString());
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .unregisterMBean(new ObjectName(QUERY_CACHE_MBEAN));
+            } catch (Exception e) {
+                logger.debug("Unable to unregister RI query cache", e);
+            }
+        }
         if (_ri != null) {
             try {
                 _ri.close();
@@ -258,6 +430,7 @@ public class ResourceIndexModule
      */
     public void addObject(DOReader reader) throws ResourceIndexException {
         _ri.addObject(reader);
+        updateRelationships(reader, null);
     }
 
     /**
@@ -266,6 +439,18 @@ public class ResourceIndexModule
     public void modifyObject(DOReader oldReader, DOReader newReader)
             throws ResourceIndexException {
         _ri.modifyObject(oldReader, newReader);
+        updateRelationships(newReader, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void modifyObject(DOReader oldReader,
+                             DOReader newReader,
+                             Set<String> modifiedDatastreams)
+            throws ResourceIndexException {
+        _ri.modifyObject(oldReader, newReader, modifiedDatastreams);
+        updateRelationships(newReader, modifiedDatastreams);
     }
 
     /**
@@ -273,6 +458,14 @@ public class ResourceIndexModule
      */
     public void deleteObject(DOReader oldReader) throws ResourceIndexException {
         _ri.deleteObject(oldReader);
+        if (_relationshipIndex != null) {
+            try {
+                _relationshipIndex.remove(oldReader.GetObjectPID());
+            } catch (ServerException e) {
+                throw new ResourceIndexException("Error removing indexed "
+                        + "relationships of object", e);
+            }
+        }
     }
 
     /**
@@ -283,6 +476,40 @@ public class ResourceIndexModule
         _ri.export(out, format);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public long getUpdateSequence() {
+        if (_ri == null) {
+            return 0;
+        } else {
+            return _ri.getUpdateSequence();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean waitForUpdate(long sequence, long timeout)
+            throws InterruptedException {
+        if (_ri == null) {
+            return true;
+        } else {
+            return _ri.waitForUpdate(sequence, timeout);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RelationshipIndex getRelationshipIndex() {
+        if (_relationshipIndex != null && _relationshipIndex.isReady()) {
+            return _relationshipIndex;
+        } else {
+            return null;
+        }
+    }
+
     ///////////////////////////////
     // TriplestoreReader methods //
     ///////////////////////////////
@@ -293,6 +520,9 @@ public class ResourceIndexModule
     public void setAliasMap(Map<String, String> aliasToPrefix)
             throws TrippiException {
         _ri.setAliasMap(aliasToPrefix);
+        if (_cache != null) {
+            _cache.setAliasMap(aliasToPrefix);
+        }
     }
 
     /**
@@ -309,7 +539,26 @@ public class ResourceIndexModule
                                     String tupleQuery,
                                     int limit,
                                     boolean distinct) throws TrippiException {
-        return _ri.findTuples(queryLang, tupleQuery, limit, distinct);
+        if (_cache == null) {
+            return _ri.findTuples(queryLang, tupleQuery, limit, distinct);
+        }
+        String key = QueryResultCache.getKey("tuples",
+                                             queryLang,
+                                             tupleQuery,
+                                             limit,
+                                             distinct);
+        TupleIterator tuples = _cache.getTuples(key);
+        if (tuples == null) {
+            long generation = _cache.getGeneration();
+            tuples = _cache.cacheTuples(key,
+                                        tupleQuery,
+                                        generation,
+                                        _ri.findTuples(queryLang,
+                                                       tupleQuery,
+                                                       limit,
+                                                       distinct));
+        }
+        return tuples;
     }
 
     /**
@@ -329,7 +578,27 @@ public class ResourceIndexModule
                                       String tripleQuery,
                                       int limit,
                                       boolean distinct) throws TrippiException {
-        return _ri.findTriples(queryLang, tripleQuery, limit, distinct);
+        if (_cache == null) {
+            return _ri.findTriples(queryLang, tripleQuery, limit, distinct);
+        }
+        String key = QueryResultCache.getKey("triples",
+                                             queryLang,
+                                             tripleQuery,
+                                             limit,
+                                             distinct);
+        TripleIterator triples = _cache.getTriples(key);
+        if (triples == null) {
+            long generation = _cache.getGeneration();
+            triples = _cache.cacheTriples(key,
+                                          tripleQuery,
+                                          generation,
+                                          _ri.findTriples(queryLang,
+                                                          tripleQuery,
+                                                          limit,
+                                                          distinct));
+        }
+        triples.setAliasMap(_ri.getAliasMap());
+        return triples;
     }
 
     /**
@@ -370,11 +639,32 @@ public class ResourceIndexModule
                                       String tripleTemplate,
                                       int limit,
                                       boolean distinct) throws TrippiException {
-        return _ri.findTriples(queryLang,
-                               tupleQuery,
-                               tripleTemplate,
-                               limit,
-                               distinct);
+        if (_cache == null) {
+            return _ri.findTriples(queryLang,
+                                   tupleQuery,
+                                   tripleTemplate,
+                                   limit,
+                                   distinct);
+        }
+        String key = QueryResultCache.getKey("triples\u0000" + tripleTemplate,
+                                             queryLang,
+                                             tupleQuery,
+                                             limit,
+                                             distinct);
+        TripleIterator triples = _cache.getTriples(key);
+        if (triples == null) {
+            long generation = _cache.getGeneration();
+            triples = _cache.cacheTriples(key,
+                                          tupleQuery,
+                                          generation,
+                                          _ri.findTriples(queryLang,
+                                                          tupleQuery,
+                                                          tripleTemplate,
+                                                          limit,
+                                                          distinct));
+        }
+        triples.setAliasMap(_ri.getAliasMap());
+        return triples;
     }
 
     /**
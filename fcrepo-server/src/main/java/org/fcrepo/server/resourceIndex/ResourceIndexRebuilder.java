@@ -9,12 +9,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Resource;
 
+import org.jrdf.graph.Triple;
+
 import org.trippi.TriplestoreConnector;
 import org.trippi.impl.mulgara.MulgaraConnector;
 
@@ -23,9 +28,10 @@ import org.fcrepo.server.config.ModuleConfiguration;
 import org.fcrepo.server.config.Parameter;
 import org.fcrepo.server.config.ServerConfiguration;
 import org.fcrepo.server.errors.ResourceIndexException;
+import org.fcrepo.server.storage.DOReader;
 import org.fcrepo.server.storage.SimpleDOReader;
 import org.fcrepo.server.storage.types.DigitalObject;
-import org.fcrepo.server.utilities.rebuild.Rebuilder;
+import org.fcrepo.server.utilities.rebuild.ConcurrentRebuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
@@ -36,9 +42,17 @@ import org.springframework.context.ApplicationContextAware;
 
 /**
  * A Rebuilder for the resource index.
+ *
+ * <p>By default, each object's triples are added to the triplestore as the
+ * object is rebuilt. If the <code>rebuild.ri.bulkLoad</code> system property
+ * is true, the triples generated by the rebuild workers are instead sorted
+ * on disk, and added to the triplestore in large sorted batches once every
+ * object has been added. The batches go through the triplestore's ordinary
+ * writer; no connector-specific bulk loader is used. Either way, the rebuild
+ * may be resumed.
  */
 public class ResourceIndexRebuilder
-        implements ApplicationContextAware, Rebuilder {
+        implements ApplicationContextAware, ConcurrentRebuilder {
 
     private static Logger logger = LoggerFactory.getLogger(ResourceIndexRebuilder.class.getName());
 
@@ -49,12 +63,48 @@ public class ResourceIndexRebuilder
 
     private ApplicationContext m_context;
 
-    private ResourceIndex m_ri;
+    private ResourceIndexImpl m_ri;
 
     private TriplestoreConnector m_conn;
 
     private TripleGenerator m_generator;
 
+    /**
+     * System property; if true, triples are sorted on disk and bulk-loaded
+     * at the end of the rebuild.
+     */
+    public static final String BULK_LOAD_PROPERTY = "rebuild.ri.bulkLoad";
+
+    /**
+     * System property giving the directory in which sorted triples are kept
+     * until they are loaded; defaults to a directory in java.io.tmpdir.
+     */
+    public static final String BULK_LOAD_DIR_PROPERTY = "rebuild.ri.bulkLoadDir";
+
+    /**
+     * System property giving the number of triples sorted in memory at once;
+     * defaults to 200000.
+     */
+    public static final String SORT_BUFFER_SIZE_PROPERTY =
+            "rebuild.ri.sortBufferSize";
+
+    /**
+     * System property giving the number of triples loaded (and flushed)
+     * together; defaults to 50000.
+     */
+    public static final String LOAD_BATCH_SIZE_PROPERTY =
+            "rebuild.ri.loadBatchSize";
+
+    /** Number of sorted runs merged at once. */
+    private static final int MERGE_FACTOR = 32;
+
+    /** Minimum time between progress reports, in milliseconds. */
+    private static final long REPORT_INTERVAL = 10000;
+
+    private int m_riLevel;
+
+    private TripleSorter m_sorter;
+
     public ResourceIndexRebuilder(){
 
     }
@@ -116,9 +166,19 @@ public class ResourceIndexRebuilder
      */
     public void start(Map<String, String> options)
     throws ResourceIndexException {
-        // validate options
+        init(false);
+    }
 
-        // do startup tasks
+    /**
+     * Continue an interrupted rebuild, keeping the existing triplestore and
+     * any triples already sorted for bulk loading.
+     */
+    public void resume(Map<String, String> options)
+            throws ResourceIndexException {
+        init(true);
+    }
+
+    private void init(boolean resume) throws ResourceIndexException {
 
         String levelValue;
         if (m_riConfig == null){ //must have been configured outside fcfg
@@ -135,30 +195,48 @@ public class ResourceIndexRebuilder
         else {
             levelValue = m_riConfig.getParameter("level",Parameter.class).getValue();
         }
-        int riLevel = Integer.parseInt(levelValue);
+        m_riLevel = Integer.parseInt(levelValue);
 
         Map<String, String> aliasMap = new HashMap<String, String>();
-        Iterator<Parameter> it = m_riConfig.getParameters(Parameter.class).iterator();
-        Parameter p;
-        while (it.hasNext()) {
-            p = it.next();
-            String pName = p.getName();
-            String[] parts = pName.split(":");
-            if (parts.length == 2 && parts[0].equals("alias")) {
-                aliasMap.put(parts[1], p.getValue(p.getIsFilePath()));
+        if (m_riConfig != null) {
+            Iterator<Parameter> it = m_riConfig.getParameters(Parameter.class).iterator();
+            Parameter p;
+            while (it.hasNext()) {
+                p = it.next();
+                String pName = p.getName();
+                String[] parts = pName.split(":");
+                if (parts.length == 2 && parts[0].equals("alias")) {
+                    aliasMap.put(parts[1], p.getValue(p.getIsFilePath()));
+                }
             }
         }
 
 
         System.out.println("Initializing triplestore interface...");
         try {
-            if (m_conn instanceof MulgaraConnector){
+            if (!resume && m_conn instanceof MulgaraConnector){
                 String path = m_conn.getConfiguration().get("path");
                 dropIndex(path);
             }
 
-            m_ri = new ResourceIndexImpl(m_conn, m_generator, riLevel, false);
+            m_ri = new ResourceIndexImpl(m_conn, m_generator, m_riLevel, false);
             m_ri.setAliasMap(aliasMap);
+
+            if (Boolean.getBoolean(BULK_LOAD_PROPERTY)) {
+                String dir = System.getProperty(BULK_LOAD_DIR_PROPERTY);
+                File sortDir =
+                        dir != null ? new File(dir)
+                                : new File(System.getProperty("java.io.tmpdir"),
+                                           "fedora-ri-rebuild");
+                System.out.println("Sorting triples for bulk load in "
+                        + sortDir.getPath());
+                m_sorter =
+                        new TripleSorter(sortDir,
+                                         Integer.getInteger(SORT_BUFFER_SIZE_PROPERTY,
+                                                            200000),
+                                         MERGE_FACTOR,
+                                         resume);
+            }
         } catch (Exception e) {
             logger.error("Failed to initialize new Resource Index",e);
             e.printStackTrace(System.err);
@@ -201,19 +279,109 @@ public class ResourceIndexRebuilder
      * @throws ResourceIndexException
      */
     public void addObject(DigitalObject obj) throws ResourceIndexException {
-        m_ri.addObject(new SimpleDOReader(null, null, null, null, null, obj));
+        if (m_riLevel <= ResourceIndex.INDEX_LEVEL_OFF) {
+            return;
+        }
+        // the triples are generated by the calling worker; only writing them
+        // to the shared triplestore writer is done one object at a time
+        DOReader reader = new SimpleDOReader(null, null, null, null, null, obj);
+        Set<Triple> triples = m_generator.getTriplesForObject(reader);
+        if (m_sorter == null) {
+            List<Triple> batch = new ArrayList<Triple>(triples);
+            synchronized (this) {
+                m_ri.loadTriples(batch, false);
+            }
+        } else {
+            try {
+                m_sorter.add(triples);
+            } catch (IOException e) {
+                throw new ResourceIndexException("Error sorting triples for "
+                        + "bulk load", e);
+            }
+        }
     }
 
     /**
-     * Free up any system resources associated with rebuilding.
+     * Make the triples of all objects added so far durable, either in the
+     * triplestore or on disk awaiting the bulk load.
+     */
+    public void flush() throws Exception {
+        if (m_sorter != null) {
+            m_sorter.flush();
+        } else {
+            synchronized (this) {
+                m_ri.flushBuffer();
+            }
+        }
+    }
+
+    /**
+     * Free up any system resources associated with rebuilding, first loading
+     * any sorted triples into the triplestore.
      */
     public void finish() throws Exception {
+        finish(true);
+    }
+
+    /**
+     * Free up any system resources associated with rebuilding. Sorted
+     * triples are loaded into the triplestore only if the rebuild completed;
+     * otherwise they are kept on disk for a resumed rebuild to load.
+     */
+    public void finish(boolean completed) throws Exception {
         if (m_ri != null) {
+            if (m_sorter != null) {
+                if (completed) {
+                    load();
+                } else {
+                    System.out.println("Rebuild did not complete; keeping "
+                            + m_sorter.getRunCount() + " sorted runs for "
+                            + "a resumed rebuild to load");
+                }
+            }
             m_ri.flushBuffer();
             m_ri.close();
         }
     }
 
+    /**
+     * Load the sorted triples into the triplestore in batches, then delete
+     * them.
+     */
+    private void load() throws Exception {
+        int batchSize =
+                Math.max(Integer.getInteger(LOAD_BATCH_SIZE_PROPERTY, 50000), 1);
+        System.out.println("Loading sorted triples into the Resource Index...");
+        long startTime = System.currentTimeMillis();
+        long lastReport = startTime;
+        long total = 0;
+        List<Triple> batch = new ArrayList<Triple>(batchSize);
+        TripleSorter.Reader triples = m_sorter.open();
+        try {
+            while (triples.hasNext()) {
+                batch.add(triples.next());
+                if (batch.size() == batchSize || !triples.hasNext()) {
+                    m_ri.loadTriples(batch, true);
+                    total += batch.size();
+                    batch.clear();
+                    long now = System.currentTimeMillis();
+                    if (now - lastReport >= REPORT_INTERVAL
+                            || !triples.hasNext()) {
+                        lastReport = now;
+                        long elapsed = Math.max(now - startTime, 1);
+                        System.out.println("Loaded " + total + " triples in "
+                                + (elapsed / 1000) + " seconds ("
+                                + (total * 1000L / elapsed)
+                                + " triples/second)");
+                    }
+                }
+            }
+        } finally {
+            triples.close();
+        }
+        m_sorter.clear();
+    }
+
     private boolean deleteDirectory(String directory) {
 
         boolean result = false;
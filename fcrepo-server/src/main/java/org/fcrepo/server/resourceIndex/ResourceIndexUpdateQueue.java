@@ -0,0 +1,741 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.net.URISyntaxException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.jrdf.graph.Triple;
+
+import org.fcrepo.server.errors.ResourceIndexException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded, durable queue of Resource Index updates, applied to the
+ * triplestore in batches by a background thread.
+ *
+ * <p>Each update is assigned a sequence number when it is queued. Updates
+ * to the same object that are waiting to be applied are merged, so that
+ * an object modified many times in quick succession is written once.
+ * Updates to an object are always applied in the order they were queued.
+ * The <i>applied sequence</i> is the highest sequence number such that it,
+ * and every update queued before it, is visible in the triplestore; callers
+ * can wait for it to reach the sequence number of an update they made.
+ *
+ * <p>If a log file is given, each update is appended to it before it is
+ * accepted, and <code>enqueue</code> returns once it has been forced to disk.
+ * Updates are appended while holding the queue's lock, but forced outside it,
+ * so that one call to <code>sync</code> commits the updates of every thread
+ * that appended one in the meantime. Updates found in the log at startup are
+ * queued again, so that those not applied before a shutdown or crash are
+ * not lost. The log begins with the highest sequence number issued when it
+ * was last rewritten, so that sequence numbers keep increasing across
+ * restarts, and is rewritten whenever the queue becomes empty.
+ *
+ * @see ResourceIndexImpl
+ */
+public class ResourceIndexUpdateQueue {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(ResourceIndexUpdateQueue.class);
+
+    /** Size beyond which the log is rewritten to hold only queued updates. */
+    private static final long MAX_LOG_LENGTH = 16 * 1024 * 1024;
+
+    /** The longest time to wait between attempts to apply a failed batch. */
+    private static final long MAX_RETRY_INTERVAL = 60000;
+
+    /**
+     * Applies batches of updates to the triplestore.
+     */
+    public interface UpdateHandler {
+
+        /**
+         * Apply the given updates, in order, and make them visible to
+         * queries before returning.
+         */
+        void applyUpdates(List<Update> updates) throws Exception;
+    }
+
+    private final UpdateHandler m_handler;
+
+    private final File m_logFile;
+
+    private final int m_capacity;
+
+    private final int m_batchSize;
+
+    private final long m_flushInterval;
+
+    /** Updates not yet being applied, by PID, in order of first sequence. */
+    private final LinkedHashMap<String, Update> m_pending =
+            new LinkedHashMap<String, Update>();
+
+    /** The batch currently being applied, in order of first sequence. */
+    private List<Update> m_inFlight = Collections.emptyList();
+
+    private long m_lastQueued;
+
+    private long m_applied;
+
+    /** The number of threads waiting for updates to be applied. */
+    private int m_waiters;
+
+    /** The error from the last attempt to apply a batch, if it failed. */
+    private Throwable m_failure;
+
+    private boolean m_closed;
+
+    private Thread m_flusher;
+
+    private FileOutputStream m_logOut;
+
+    private DataOutputStream m_log;
+
+    /** The highest sequence number whose update is known to be on disk. */
+    private long m_logSynced;
+
+    /**
+     * Held while forcing the log to disk, so that threads which append while
+     * another is forcing it are committed together by the next one.
+     */
+    private final Object m_syncLock = new Object();
+
+    /**
+     * Create a queue, re-queueing any updates found in the log.
+     *
+     * <p>Sequence numbers continue from the highest one recorded in the log,
+     * or start from zero if there is no log.
+     *
+     * @param handler
+     *        the handler that applies updates to the triplestore.
+     * @param logFile
+     *        the file in which queued updates are recorded, or null if they
+     *        should only be kept in memory.
+     * @param capacity
+     *        the maximum number of objects with queued updates.
+     * @param batchSize
+     *        the maximum number of objects to apply updates for at once.
+     * @param flushInterval
+     *        the longest time, in milliseconds, to wait for a batch to fill
+     *        before applying it.
+     */
+    public ResourceIndexUpdateQueue(UpdateHandler handler,
+                                    File logFile,
+                                    int capacity,
+                                    int batchSize,
+                                    long flushInterval)
+            throws IOException {
+        m_handler = handler;
+        m_logFile = logFile;
+        m_capacity = capacity;
+        m_batchSize = batchSize;
+        m_flushInterval = flushInterval;
+        m_lastQueued = 0;
+        if (logFile != null) {
+            if (logFile.exists()) {
+                replay(logFile);
+            } else if (logFile.getParentFile() != null) {
+                logFile.getParentFile().mkdirs();
+            }
+            // start a clean log, without any partly-written record
+            writeLog();
+        }
+        m_applied = computeApplied();
+    }
+
+    /**
+     * Start applying queued updates in the background.
+     */
+    public synchronized void start() {
+        if (m_flusher == null && !m_closed) {
+            m_flusher = new Thread(new Runnable() {
+
+                public void run() {
+                    runFlusher();
+                }
+            }, "ResourceIndexUpdateQueue");
+            m_flusher.setDaemon(true);
+            m_flusher.start();
+        }
+    }
+
+    /**
+     * Queue an update, waiting for space if the queue is full.
+     *
+     * @param pid
+     *        the PID of the object the triples belong to.
+     * @param deletes
+     *        triples to remove from the triplestore.
+     * @param adds
+     *        triples to add to the triplestore.
+     * @param timeout
+     *        the longest time, in milliseconds, to wait for space.
+     * @return the sequence number of the update.
+     * @throws ResourceIndexException
+     *         if the queue is closed, stays full, or the update cannot be
+     *         logged. An update that was appended to the log, but could not be
+     *         forced to disk, is still applied.
+     */
+    public long enqueue(String pid,
+                        Set<Triple> deletes,
+                        Set<Triple> adds,
+                        long timeout) throws ResourceIndexException {
+        long sequence = append(pid, deletes, adds, timeout);
+        if (m_logFile != null) {
+            syncLog(sequence);
+        }
+        return sequence;
+    }
+
+    /**
+     * Queue an update and write it to the log, without forcing it to disk.
+     */
+    private synchronized long append(String pid,
+                                     Set<Triple> deletes,
+                                     Set<Triple> adds,
+                                     long timeout)
+            throws ResourceIndexException {
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            while (!m_closed && !m_pending.containsKey(pid)
+                    && size() >= m_capacity) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new ResourceIndexException("Resource Index update "
+                            + "queue is full (" + m_capacity + " objects)");
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceIndexException("Interrupted while waiting "
+                    + "to queue Resource Index update", e);
+        }
+        if (m_closed) {
+            throw new ResourceIndexException("Resource Index update queue "
+                    + "is closed");
+        }
+        long sequence = m_lastQueued + 1;
+        if (m_log != null) {
+            try {
+                writeRecord(m_log, sequence, pid, deletes, adds);
+                m_log.flush();
+            } catch (IOException e) {
+                throw new ResourceIndexException("Unable to log Resource "
+                        + "Index update", e);
+            }
+        }
+        m_lastQueued = sequence;
+        merge(pid, sequence, deletes, adds);
+        if (m_pending.size() >= m_batchSize) {
+            notifyAll();
+        }
+        return sequence;
+    }
+
+    /**
+     * Force the log to disk, unless the update with the given sequence number
+     * is there already because another thread forced it, or the log was
+     * rewritten or closed since it was appended.
+     */
+    private void syncLog(long sequence) throws ResourceIndexException {
+        synchronized (m_syncLock) {
+            FileOutputStream logOut;
+            long appended;
+            synchronized (this) {
+                if (m_logSynced >= sequence) {
+                    return;
+                }
+                logOut = m_logOut;
+                appended = m_lastQueued;
+            }
+            try {
+                logOut.getFD().sync();
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (m_logSynced >= sequence) {
+                        return; // rewritten or closed while it was forced
+                    }
+                }
+                throw new ResourceIndexException("Unable to force Resource "
+                        + "Index update log to disk", e);
+            }
+            synchronized (this) {
+                m_logSynced = Math.max(m_logSynced, appended);
+            }
+        }
+    }
+
+    /**
+     * Get the sequence number of the most recently queued update.
+     */
+    public synchronized long getQueuedSequence() {
+        return m_lastQueued;
+    }
+
+    /**
+     * Get the highest sequence number such that it, and every update queued
+     * before it, has been applied.
+     */
+    public synchronized long getAppliedSequence() {
+        return m_applied;
+    }
+
+    /**
+     * Get the number of objects with updates queued or being applied.
+     */
+    public synchronized int size() {
+        return m_pending.size() + m_inFlight.size();
+    }
+
+    /**
+     * Wait until the update with the given sequence number, and every update
+     * queued before it, has been applied.
+     *
+     * <p>A sequence number higher than any issued so far is taken to have
+     * been issued before the server was restarted, and is satisfied
+     * immediately.
+     *
+     * @param timeout
+     *        the longest time to wait, in milliseconds.
+     * @return false if the timeout elapsed first.
+     */
+    public synchronized boolean waitFor(long sequence, long timeout)
+            throws InterruptedException {
+        if (sequence > m_lastQueued) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        m_waiters++;
+        notifyAll();
+        try {
+            while (m_applied < sequence) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        } finally {
+            m_waiters--;
+        }
+    }
+
+    /**
+     * Wait until every update queued so far has been applied.
+     *
+     * @throws ResourceIndexException
+     *         if the updates could not be applied.
+     */
+    public synchronized void flush() throws ResourceIndexException {
+        long sequence = m_lastQueued;
+        m_waiters++;
+        notifyAll();
+        try {
+            while (m_applied < sequence) {
+                if (m_failure != null) {
+                    throw new ResourceIndexException("Error applying queued "
+                            + "Resource Index updates", m_failure);
+                }
+                if (m_flusher == null || !m_flusher.isAlive()) {
+                    throw new ResourceIndexException("Resource Index update "
+                            + "queue is not running");
+                }
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceIndexException("Interrupted while waiting "
+                    + "for Resource Index updates", e);
+        } finally {
+            m_waiters--;
+        }
+    }
+
+    /**
+     * Stop accepting updates, apply those already queued, and close the log.
+     * Updates that cannot be applied remain in the log.
+     */
+    public void close() throws ResourceIndexException {
+        Thread flusher;
+        synchronized (this) {
+            m_closed = true;
+            notifyAll();
+            flusher = m_flusher;
+        }
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (m_log != null) {
+                try {
+                    m_log.flush();
+                    m_logOut.getFD().sync();
+                    m_logSynced = m_lastQueued;
+                    m_log.close();
+                } catch (IOException e) {
+                    throw new ResourceIndexException("Error closing Resource "
+                            + "Index update log", e);
+                } finally {
+                    m_log = null;
+                }
+            }
+            if (size() > 0) {
+                logger.warn(size() + " objects have Resource Index updates "
+                        + "that were not applied; they will be retried when "
+                        + "the server is next started");
+            }
+        }
+    }
+
+    //////////////////////
+    // Flusher thread   //
+    //////////////////////
+
+    private void runFlusher() {
+        int failures = 0;
+        while (true) {
+            List<Update> batch;
+            synchronized (this) {
+                if (m_inFlight.isEmpty()) {
+                    try {
+                        awaitBatch();
+                    } catch (InterruptedException e) {
+                        logger.warn("Resource Index update thread "
+                                + "interrupted; queued updates will not be "
+                                + "applied until restart");
+                        return;
+                    }
+                    if (m_pending.isEmpty()) {
+                        return; // closed, and nothing left to do
+                    }
+                    m_inFlight = takeBatch();
+                }
+                batch = m_inFlight;
+            }
+            try {
+                m_handler.applyUpdates(batch);
+            } catch (Throwable th) {
+                failures++;
+                long retryInterval =
+                        Math.min(MAX_RETRY_INTERVAL,
+                                 1000L << Math.min(failures - 1, 16));
+                logger.error("Error applying Resource Index updates for "
+                        + batch.size() + " objects (attempt " + failures
+                        + "); will retry in " + retryInterval + "ms", th);
+                synchronized (this) {
+                    m_failure = th;
+                    notifyAll();
+                    if (m_closed) {
+                        return;
+                    }
+                    try {
+                        wait(retryInterval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            failures = 0;
+            synchronized (this) {
+                m_inFlight = Collections.emptyList();
+                m_failure = null;
+                m_applied = computeApplied();
+                notifyAll();
+                try {
+                    if (m_log != null) {
+                        if (size() == 0
+                                || m_logOut.getChannel().size() > MAX_LOG_LENGTH) {
+                            writeLog();
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.warn("Unable to trim Resource Index update log", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until there is something to apply: a full batch, any updates once
+     * the flush interval has elapsed or someone is waiting, or the queue is
+     * closed. The caller must hold the lock.
+     */
+    private void awaitBatch() throws InterruptedException {
+        while (m_pending.isEmpty() && !m_closed) {
+            wait();
+        }
+        long deadline = System.currentTimeMillis() + m_flushInterval;
+        while (!m_closed && m_waiters == 0
+                && m_pending.size() < m_batchSize) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+    }
+
+    /**
+     * Remove the oldest pending updates, up to the batch size. The caller
+     * must hold the lock.
+     */
+    private List<Update> takeBatch() {
+        List<Update> batch =
+                new ArrayList<Update>(Math.min(m_batchSize, m_pending.size()));
+        Iterator<Update> iter = m_pending.values().iterator();
+        while (iter.hasNext() && batch.size() < m_batchSize) {
+            batch.add(iter.next());
+            iter.remove();
+        }
+        return batch;
+    }
+
+    /**
+     * The caller must hold the lock (or be the constructor).
+     */
+    private long computeApplied() {
+        long first = m_lastQueued + 1;
+        if (!m_inFlight.isEmpty()) {
+            first = m_inFlight.get(0).getFirstSequence();
+        }
+        if (!m_pending.isEmpty()) {
+            first = Math.min(first, m_pending.values().iterator().next()
+                    .getFirstSequence());
+        }
+        return first - 1;
+    }
+
+    private void merge(String pid,
+                       long sequence,
+                       Set<Triple> deletes,
+                       Set<Triple> adds) {
+        Update update = m_pending.get(pid);
+        if (update == null) {
+            m_pending.put(pid, new Update(pid, sequence, deletes, adds));
+        } else {
+            update.merge(sequence, deletes, adds);
+        }
+    }
+
+    //////////////////////
+    // Log              //
+    //////////////////////
+
+    /**
+     * Read the last sequence number issued and queue the updates recorded in
+     * the given log, stopping at the first incomplete or unreadable record.
+     */
+    private void replay(File logFile) throws IOException {
+        DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+        int count = 0;
+        try {
+            try {
+                m_lastQueued = in.readLong();
+            } catch (EOFException e) {
+                return; // nothing was ever logged
+            }
+            while (true) {
+                long sequence;
+                try {
+                    sequence = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                String pid = TripleSerializer.readString(in);
+                Set<Triple> deletes = readTriples(in);
+                Set<Triple> adds = readTriples(in);
+                merge(pid, sequence, deletes, adds);
+                m_lastQueued = Math.max(m_lastQueued, sequence);
+                count++;
+            }
+        } catch (EOFException e) {
+            logger.warn("Ignoring incomplete record at end of Resource Index "
+                    + "update log " + logFile.getPath());
+        } catch (URISyntaxException e) {
+            logger.warn("Ignoring unreadable record in Resource Index "
+                    + "update log " + logFile.getPath(), e);
+        } finally {
+            in.close();
+        }
+        if (count > 0) {
+            logger.info("Re-queued " + count + " Resource Index updates for "
+                    + m_pending.size() + " objects from "
+                    + logFile.getPath());
+        }
+    }
+
+    /**
+     * Replace the log with one containing the last sequence number issued
+     * and the updates still queued. The caller must hold the lock (or be the
+     * constructor).
+     */
+    private void writeLog() throws IOException {
+        if (m_log != null) {
+            m_log.close();
+            m_log = null;
+        }
+        File temp = new File(m_logFile.getPath() + ".tmp");
+        FileOutputStream tempOut = new FileOutputStream(temp);
+        DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(tempOut));
+        try {
+            out.writeLong(m_lastQueued);
+            for (Update update : m_inFlight) {
+                writeRecord(out, update);
+            }
+            for (Update update : m_pending.values()) {
+                writeRecord(out, update);
+            }
+            out.flush();
+            tempOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(m_logFile)) {
+            // some platforms will not rename over an existing file
+            m_logFile.delete();
+            if (!temp.renameTo(m_logFile)) {
+                throw new IOException("Unable to replace Resource Index "
+                        + "update log " + m_logFile.getPath());
+            }
+        }
+        m_logOut = new FileOutputStream(m_logFile, true);
+        m_log = new DataOutputStream(new BufferedOutputStream(m_logOut));
+        m_logSynced = m_lastQueued;
+    }
+
+    private static void writeRecord(DataOutputStream out, Update update)
+            throws IOException {
+        writeRecord(out,
+                    update.getLastSequence(),
+                    update.getPid(),
+                    update.getDeletes(),
+                    update.getAdds());
+    }
+
+    private static void writeRecord(DataOutputStream out,
+                                    long sequence,
+                                    String pid,
+                                    Set<Triple> deletes,
+                                    Set<Triple> adds) throws IOException {
+        out.writeLong(sequence);
+        TripleSerializer.writeString(out, pid);
+        writeTriples(out, deletes);
+        writeTriples(out, adds);
+    }
+
+    private static void writeTriples(DataOutputStream out, Set<Triple> triples)
+            throws IOException {
+        out.writeInt(triples.size());
+        for (Triple triple : triples) {
+            TripleSerializer.writeTriple(out, triple);
+        }
+    }
+
+    private static Set<Triple> readTriples(DataInputStream in)
+            throws IOException, URISyntaxException {
+        int count = in.readInt();
+        Set<Triple> triples = new HashSet<Triple>(count);
+        for (int i = 0; i < count; i++) {
+            triples.add(TripleSerializer.readTriple(in));
+        }
+        return triples;
+    }
+
+    //////////////////////
+    // Update           //
+    //////////////////////
+
+    /**
+     * The net change to the triples of one object, made by one or more
+     * queued updates.
+     */
+    public static class Update {
+
+        private final String m_pid;
+
+        private final long m_firstSequence;
+
+        private long m_lastSequence;
+
+        private final Set<Triple> m_deletes;
+
+        private final Set<Triple> m_adds;
+
+        Update(String pid,
+               long sequence,
+               Set<Triple> deletes,
+               Set<Triple> adds) {
+            m_pid = pid;
+            m_firstSequence = sequence;
+            m_lastSequence = sequence;
+            m_deletes = new HashSet<Triple>(deletes);
+            m_adds = new HashSet<Triple>(adds);
+        }
+
+        /**
+         * Combine a later update with this one. A triple added by one and
+         * deleted by the other ends up in whichever set came last.
+         */
+        void merge(long sequence, Set<Triple> deletes, Set<Triple> adds) {
+            m_adds.removeAll(deletes);
+            m_deletes.removeAll(adds);
+            m_deletes.addAll(deletes);
+            m_adds.addAll(adds);
+            m_lastSequence = sequence;
+        }
+
+        public String getPid() {
+            return m_pid;
+        }
+
+        public long getFirstSequence() {
+            return m_firstSequence;
+        }
+
+        public long getLastSequence() {
+            return m_lastSequence;
+        }
+
+        /**
+         * Get the triples to remove; these never overlap the triples to add.
+         */
+        public Set<Triple> getDeletes() {
+            return m_deletes;
+        }
+
+        public Set<Triple> getAdds() {
+            return m_adds;
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.jrdf.graph.Literal;
+import org.jrdf.graph.Node;
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+
+import org.fcrepo.common.rdf.SimpleLiteral;
+import org.fcrepo.common.rdf.SimpleTriple;
+import org.fcrepo.common.rdf.SimpleURIReference;
+
+/**
+ * Compact binary encoding of Resource Index triples, used by the files the
+ * Resource Index writes for its own purposes.
+ *
+ * <p>Subjects and predicates must be URIs; objects may be URIs or plain,
+ * language-tagged or typed literals.
+ */
+final class TripleSerializer {
+
+    private static final byte URI_NODE = 0;
+
+    private static final byte PLAIN_LITERAL = 1;
+
+    private static final byte LANGUAGE_LITERAL = 2;
+
+    private static final byte TYPED_LITERAL = 3;
+
+    private TripleSerializer() {
+    }
+
+    public static void writeTriple(DataOutputStream out, Triple triple)
+            throws IOException {
+        writeString(out, getURI(triple.getSubject()));
+        writeString(out, getURI(triple.getPredicate()));
+        ObjectNode object = triple.getObject();
+        if (object instanceof Literal) {
+            Literal literal = (Literal) object;
+            if (literal.getDatatypeURI() != null) {
+                out.writeByte(TYPED_LITERAL);
+                writeString(out, literal.getLexicalForm());
+                writeString(out, literal.getDatatypeURI().toString());
+            } else if (literal.getLanguage() != null) {
+                out.writeByte(LANGUAGE_LITERAL);
+                writeString(out, literal.getLexicalForm());
+                writeString(out, literal.getLanguage());
+            } else {
+                out.writeByte(PLAIN_LITERAL);
+                writeString(out, literal.getLexicalForm());
+            }
+        } else {
+            out.writeByte(URI_NODE);
+            writeString(out, getURI(object));
+        }
+    }
+
+    public static Triple readTriple(DataInputStream in) throws IOException,
+            URISyntaxException {
+        SimpleURIReference subject =
+                new SimpleURIReference(new URI(readString(in)));
+        SimpleURIReference predicate =
+                new SimpleURIReference(new URI(readString(in)));
+        ObjectNode object;
+        byte type = in.readByte();
+        if (type == URI_NODE) {
+            object = new SimpleURIReference(new URI(readString(in)));
+        } else if (type == PLAIN_LITERAL) {
+            object = new SimpleLiteral(readString(in));
+        } else if (type == LANGUAGE_LITERAL) {
+            object = new SimpleLiteral(readString(in), readString(in));
+        } else if (type == TYPED_LITERAL) {
+            object = new SimpleLiteral(readString(in), new URI(readString(in)));
+        } else {
+            throw new IOException("Unrecognized node type: " + type);
+        }
+        return new SimpleTriple(subject, predicate, object);
+    }
+
+    public static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static String getURI(Node node) throws IOException {
+        if (node instanceof URIReference) {
+            return ((URIReference) node).getURI().toString();
+        }
+        throw new IOException("Can't serialize triple; "
+                + node.getClass().getName() + " is not a URIReference");
+    }
+
+}
@@ -0,0 +1,499 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.net.URISyntaxException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.jrdf.graph.Literal;
+import org.jrdf.graph.Node;
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorts an arbitrarily large number of triples using files in a working
+ * directory, removing duplicates.
+ *
+ * <p>Triples are buffered in memory, then sorted and written to a
+ * <i>run</i> file whenever the buffer is full or <code>flush</code> is
+ * called. Once <code>mergeFactor</code> runs of the same size have been
+ * written, they are merged into a single larger run, so no triple is
+ * rewritten more than a logarithmic number of times. Triples are ordered by
+ * subject, then predicate, then object. Runs are sorted, written and merged
+ * without holding the sorter's lock, so threads adding triples only wait
+ * for each other while appending to the buffer.
+ *
+ * <p>Runs are written to a temporary file and renamed when complete, so a
+ * sorter created with <code>resume</code> set to true continues with every
+ * run that was flushed by an earlier one.
+ */
+public class TripleSorter {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(TripleSorter.class);
+
+    private static final String RUN_PREFIX = "run-";
+
+    private static final String RUN_SUFFIX = ".bin";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Orders triples by subject, predicate and object. */
+    public static final Comparator<Triple> TRIPLE_ORDER =
+            new Comparator<Triple>() {
+
+                public int compare(Triple a, Triple b) {
+                    int c = getKey(a.getSubject()).compareTo(getKey(b.getSubject()));
+                    if (c == 0) {
+                        c = getKey(a.getPredicate()).compareTo(getKey(b.getPredicate()));
+                        if (c == 0) {
+                            c = getKey(a.getObject()).compareTo(getKey(b.getObject()));
+                        }
+                    }
+                    return c;
+                }
+            };
+
+    private final File m_dir;
+
+    private final int m_bufferSize;
+
+    private final int m_mergeFactor;
+
+    /** Guarded by this. */
+    private List<Triple> m_buffer;
+
+    /**
+     * The complete runs at each level; runs at level n merge those at level
+     * n - 1. Guarded by this.
+     */
+    private final List<List<File>> m_levels = new ArrayList<List<File>>();
+
+    /** Guarded by this. */
+    private int m_nextRun;
+
+    /** The number of buffers being spilled. Guarded by this. */
+    private int m_spilling;
+
+    /**
+     * Create a sorter that keeps its runs in the given directory.
+     *
+     * @param dir
+     *        the working directory, created if necessary.
+     * @param bufferSize
+     *        the number of triples to sort in memory at once.
+     * @param mergeFactor
+     *        the number of runs merged at once; at least 2.
+     * @param resume
+     *        whether to keep the runs already in the directory. If false,
+     *        they are deleted.
+     */
+    public TripleSorter(File dir,
+                        int bufferSize,
+                        int mergeFactor,
+                        boolean resume)
+            throws IOException {
+        m_dir = dir;
+        m_bufferSize = Math.max(bufferSize, 1);
+        m_mergeFactor = Math.max(mergeFactor, 2);
+        m_buffer = newBuffer();
+        if (!m_dir.isDirectory() && !m_dir.mkdirs()) {
+            throw new IOException("Unable to create directory "
+                    + m_dir.getPath());
+        }
+        for (File file : m_dir.listFiles()) {
+            String name = file.getName();
+            if (!name.startsWith(RUN_PREFIX)) {
+                continue;
+            }
+            if (resume && name.endsWith(RUN_SUFFIX)) {
+                String[] parts =
+                        name.substring(RUN_PREFIX.length(),
+                                       name.length() - RUN_SUFFIX.length())
+                                .split("-");
+                try {
+                    int level = Integer.parseInt(parts[0]);
+                    m_nextRun =
+                            Math.max(m_nextRun, Integer.parseInt(parts[1]) + 1);
+                    getLevel(level).add(file);
+                    continue;
+                } catch (RuntimeException e) {
+                    logger.warn("Ignoring unrecognized file " + file.getPath());
+                }
+            }
+            file.delete();
+        }
+        if (resume) {
+            logger.info("Resuming with " + getRunCount() + " sorted runs in "
+                    + m_dir.getPath());
+        }
+    }
+
+    /**
+     * Add the given triples. This may be called by several threads at once.
+     */
+    public void add(Collection<Triple> triples) throws IOException {
+        List<Triple> full = null;
+        synchronized (this) {
+            m_buffer.addAll(triples);
+            if (m_buffer.size() >= m_bufferSize) {
+                full = takeBuffer();
+            }
+        }
+        if (full != null) {
+            spill(full);
+        }
+    }
+
+    /**
+     * Write any buffered triples to disk, so that they are kept by a sorter
+     * resumed from the same directory. When this returns, every triple added
+     * before it was called is in a complete run.
+     */
+    public void flush() throws IOException {
+        List<Triple> rest = null;
+        synchronized (this) {
+            if (!m_buffer.isEmpty()) {
+                rest = takeBuffer();
+            }
+        }
+        if (rest != null) {
+            spill(rest);
+        }
+        synchronized (this) {
+            while (m_spilling > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted waiting for runs to "
+                            + "be written");
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of runs on disk.
+     */
+    public synchronized int getRunCount() {
+        int count = 0;
+        for (List<File> runs : m_levels) {
+            count += runs.size();
+        }
+        return count;
+    }
+
+    /**
+     * Flush, then open a reader over all triples added so far, in order and
+     * without duplicates. The sorter must not be modified until the reader
+     * is closed.
+     */
+    public Reader open() throws IOException {
+        flush();
+        List<File> runs = new ArrayList<File>();
+        synchronized (this) {
+            for (List<File> level : m_levels) {
+                runs.addAll(level);
+            }
+        }
+        return new Reader(runs);
+    }
+
+    /**
+     * Delete all runs and discard any buffered triples.
+     */
+    public synchronized void clear() {
+        m_buffer = newBuffer();
+        for (List<File> runs : m_levels) {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+        m_levels.clear();
+        m_dir.delete();
+    }
+
+    // Called holding the lock; the caller must spill the buffer returned.
+    private List<Triple> takeBuffer() {
+        List<Triple> full = m_buffer;
+        m_buffer = newBuffer();
+        m_spilling++;
+        return full;
+    }
+
+    private List<Triple> newBuffer() {
+        return new ArrayList<Triple>(Math.min(m_bufferSize, 65536));
+    }
+
+    /**
+     * Sort the given triples into a new run, then merge runs as needed.
+     */
+    private void spill(List<Triple> triples) throws IOException {
+        try {
+            Collections.sort(triples, TRIPLE_ORDER);
+            RunWriter writer = new RunWriter(newRun(0));
+            Triple last = null;
+            for (Triple triple : triples) {
+                if (last == null || TRIPLE_ORDER.compare(last, triple) != 0) {
+                    writer.write(triple);
+                    last = triple;
+                }
+            }
+            File run = writer.close();
+            synchronized (this) {
+                getLevel(0).add(run);
+            }
+            merge();
+        } finally {
+            synchronized (this) {
+                m_spilling--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Merge the runs at each level that has enough of them.
+     */
+    private void merge() throws IOException {
+        for (int level = 0;; level++) {
+            List<File> runs;
+            File target;
+            synchronized (this) {
+                if (level >= m_levels.size()) {
+                    return;
+                }
+                List<File> complete = m_levels.get(level);
+                if (complete.size() < m_mergeFactor) {
+                    continue;
+                }
+                // the runs stay on disk until the merged run is complete
+                runs = new ArrayList<File>(complete);
+                complete.clear();
+                target = newRun(level + 1);
+            }
+            File run;
+            try {
+                RunWriter merged = new RunWriter(target);
+                Reader reader = new Reader(runs);
+                try {
+                    while (reader.hasNext()) {
+                        merged.write(reader.next());
+                    }
+                } finally {
+                    reader.close();
+                }
+                run = merged.close();
+            } catch (IOException e) {
+                synchronized (this) {
+                    m_levels.get(level).addAll(runs);
+                }
+                throw e;
+            }
+            synchronized (this) {
+                getLevel(level + 1).add(run);
+            }
+            for (File file : runs) {
+                file.delete();
+            }
+        }
+    }
+
+    private List<File> getLevel(int level) {
+        while (m_levels.size() <= level) {
+            m_levels.add(new ArrayList<File>());
+        }
+        return m_levels.get(level);
+    }
+
+    private synchronized File newRun(int level) {
+        return new File(m_dir, RUN_PREFIX + level + "-" + m_nextRun++
+                + RUN_SUFFIX);
+    }
+
+    private static String getKey(Node node) {
+        if (node instanceof Literal) {
+            Literal literal = (Literal) node;
+            if (literal.getDatatypeURI() != null) {
+                return "^" + literal.getLexicalForm() + '\u0000'
+                        + literal.getDatatypeURI();
+            } else if (literal.getLanguage() != null) {
+                return "@" + literal.getLexicalForm() + '\u0000'
+                        + literal.getLanguage();
+            } else {
+                return "\"" + literal.getLexicalForm();
+            }
+        } else if (node instanceof URIReference) {
+            return "<" + ((URIReference) node).getURI().toString();
+        }
+        return "_" + node.toString();
+    }
+
+    //////////////////////
+    // Reader           //
+    //////////////////////
+
+    /**
+     * Merges sorted runs, returning each distinct triple once.
+     */
+    public static class Reader {
+
+        private final PriorityQueue<RunReader> m_queue;
+
+        private final List<RunReader> m_readers = new ArrayList<RunReader>();
+
+        Reader(List<File> runs) throws IOException {
+            m_queue =
+                    new PriorityQueue<RunReader>(Math.max(runs.size(), 1),
+                                                 new Comparator<RunReader>() {
+
+                                                     public int compare(RunReader a,
+                                                                        RunReader b) {
+                                                         return TRIPLE_ORDER
+                                                                 .compare(a.m_next,
+                                                                          b.m_next);
+                                                     }
+                                                 });
+            try {
+                for (File run : runs) {
+                    RunReader reader = new RunReader(run);
+                    m_readers.add(reader);
+                    if (reader.m_next != null) {
+                        m_queue.add(reader);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        public boolean hasNext() {
+            return !m_queue.isEmpty();
+        }
+
+        public Triple next() throws IOException {
+            if (m_queue.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Triple triple = m_queue.peek().m_next;
+            // advance every run positioned at this triple
+            while (!m_queue.isEmpty()
+                    && TRIPLE_ORDER.compare(m_queue.peek().m_next, triple) == 0) {
+                RunReader reader = m_queue.poll();
+                reader.advance();
+                if (reader.m_next != null) {
+                    m_queue.add(reader);
+                }
+            }
+            return triple;
+        }
+
+        public void close() {
+            for (RunReader reader : m_readers) {
+                try {
+                    reader.m_in.close();
+                } catch (IOException e) {
+                    logger.warn("Error closing " + reader.m_run.getPath(), e);
+                }
+            }
+            m_queue.clear();
+        }
+    }
+
+    /**
+     * Writes a run to a temporary file, which is forced to disk and given
+     * its final name when the run is complete.
+     */
+    private static class RunWriter {
+
+        private final File m_run;
+
+        private final File m_temp;
+
+        private final FileOutputStream m_fileOut;
+
+        private final DataOutputStream m_out;
+
+        RunWriter(File run) throws IOException {
+            m_run = run;
+            m_temp = new File(run.getPath() + TEMP_SUFFIX);
+            m_fileOut = new FileOutputStream(m_temp);
+            m_out =
+                    new DataOutputStream(new BufferedOutputStream(m_fileOut,
+                                                                  65536));
+        }
+
+        void write(Triple triple) throws IOException {
+            m_out.writeBoolean(true);
+            TripleSerializer.writeTriple(m_out, triple);
+        }
+
+        File close() throws IOException {
+            try {
+                m_out.writeBoolean(false);
+                m_out.flush();
+                m_fileOut.getFD().sync();
+            } finally {
+                m_out.close();
+            }
+            if (!m_temp.renameTo(m_run)) {
+                throw new IOException("Unable to rename " + m_temp.getPath()
+                        + " to " + m_run.getPath());
+            }
+            return m_run;
+        }
+    }
+
+    private static class RunReader {
+
+        private final File m_run;
+
+        private final DataInputStream m_in;
+
+        private Triple m_next;
+
+        RunReader(File run) throws IOException {
+            m_run = run;
+            m_in =
+                    new DataInputStream(new BufferedInputStream(new FileInputStream(run),
+                                                                65536));
+            advance();
+        }
+
+        void advance() throws IOException {
+            if (m_in.readBoolean()) {
+                try {
+                    m_next = TripleSerializer.readTriple(m_in);
+                } catch (URISyntaxException e) {
+                    throw new IOException("Bad URI in " + m_run.getPath()
+                            + ": " + e.getMessage());
+                }
+            } else {
+                m_next = null;
+            }
+        }
+    }
+
+}
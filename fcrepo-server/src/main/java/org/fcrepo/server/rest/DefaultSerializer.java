@@ -573,6 +573,26 @@ public class DefaultSerializer {
         return xmlBuf.toString();
     }
 
+    String countsToXml(
+            String field,
+            Map<String, Long> counts) {
+        StringBuffer xmlBuf = new StringBuffer();
+
+        xmlBuf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xmlBuf.append("<objectCounts xmlns=\"http://www.fedora.info/definitions/1/0/types/\""
+                      + " field=\"" + enc(field) + "\">\n");
+        long total = 0;
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            xmlBuf.append("  <count value=\"" + enc(entry.getKey()) + "\">"
+                          + entry.getValue() + "</count>\n");
+            total += entry.getValue();
+        }
+        xmlBuf.append("  <total>" + total + "</total>\n");
+        xmlBuf.append("</objectCounts>\n");
+
+        return xmlBuf.toString();
+    }
+
     static private String join(
             List<DCField> l) {
         StringBuffer ret = new StringBuffer();
@@ -8,6 +8,7 @@ import java.io.CharArrayWriter;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -22,6 +23,7 @@ import javax.ws.rs.core.Response;
 
 import org.fcrepo.server.Context;
 import org.fcrepo.server.search.Condition;
+import org.fcrepo.server.search.FieldSearch;
 import org.fcrepo.server.search.FieldSearchQuery;
 import org.fcrepo.server.search.FieldSearchResult;
 
@@ -30,6 +32,7 @@ import org.fcrepo.server.search.FieldSearchResult;
  * Implement /objects REST API (search)
  *
  * GET /objects ? terms query sessionToken maxResults format
+ * GET /objects/count ? field terms query
  *
  * @author cuong.tran@yourmediashelf.com
  * @version $Id$
@@ -90,6 +93,48 @@ public class FedoraObjectSearchResource extends BaseRestResource {
         }
     }
 
+    /**
+     * Counts the objects matching a search, grouped by the values of one field
+     * (state, ownerId, cModel or cMonth). The search is given with the same
+     * <code>terms</code> or <code>query</code> syntax as for searchObjects; if
+     * neither is given, all objects are counted.
+     */
+    @Path("count")
+    @GET
+    @Produces(XML)
+    public Response countObjects(
+            @QueryParam("field")
+            String field,
+            @QueryParam("terms")
+            String terms,
+            @QueryParam("query")
+            String query) {
+
+        try {
+            Context context = getContext();
+            if (!isCountableField(field)) {
+                throw new IllegalArgumentException("The field parameter "
+                        + "must be one of state, ownerId, cModel or cMonth.");
+            }
+
+            FieldSearchQuery fsq;
+            if ((terms != null) && (terms.length() != 0)) {
+                fsq = new FieldSearchQuery(terms);
+            } else if ((query != null) && (query.length() != 0)) {
+                fsq = new FieldSearchQuery(Condition.getConditions(query));
+            } else {
+                fsq = new FieldSearchQuery("*");
+            }
+            Map<String, Long> counts =
+                    apiAService.countObjects(context, field, fsq);
+            String output = getSerializer(context).countsToXml(field, counts);
+
+            return Response.ok(output, TEXT_XML).build();
+        } catch (Exception ex) {
+            return handleException(ex);
+        }
+    }
+
     /**
      * Implements the "getNextPID" functionality of the Fedora Management LITE
      * (API-M-LITE) interface using a java servlet front end. The syntax defined
@@ -144,6 +189,15 @@ public class FedoraObjectSearchResource extends BaseRestResource {
         }
     }
 
+    private static boolean isCountableField(String field) {
+        for (String f : FieldSearch.COUNTABLE_FIELDS) {
+            if (f.equals(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static String[] getWantedFields(
             HttpServletRequest request) {
         List<String> fields = new ArrayList<String>();
@@ -0,0 +1,74 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.rest;
+
+import java.io.File;
+
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+
+import org.fcrepo.common.Constants;
+import org.fcrepo.server.Server;
+import org.fcrepo.server.resourceIndex.ResourceIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adds the Resource Index update sequence number to the response of each
+ * REST request that may have modified an object.
+ *
+ * <p>The number in the <code>X-Fedora-RI-Sequence</code> header is at least
+ * that of the request's own update, so passing it as the
+ * <code>waitFor</code> parameter of a subsequent risearch query ensures the
+ * query sees the change. The header is only added when the Resource Index
+ * queues updates.
+ *
+ * @see ResourceIndex#waitForUpdate(long, long)
+ */
+public class ResourceIndexSequenceFilter
+        implements ContainerResponseFilter {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(ResourceIndexSequenceFilter.class);
+
+    public static final String SEQUENCE_HEADER = "X-Fedora-RI-Sequence";
+
+    private ResourceIndex m_resourceIndex;
+
+    public ContainerResponse filter(ContainerRequest request,
+                                    ContainerResponse response) {
+        String method = request.getMethod();
+        if (method.equals("GET") || method.equals("HEAD")) {
+            return response;
+        }
+        ResourceIndex ri = getResourceIndex();
+        if (ri != null) {
+            long sequence = ri.getUpdateSequence();
+            if (sequence > 0) {
+                response.getHttpHeaders().putSingle(SEQUENCE_HEADER,
+                                                    Long.toString(sequence));
+            }
+        }
+        return response;
+    }
+
+    private synchronized ResourceIndex getResourceIndex() {
+        if (m_resourceIndex == null) {
+            try {
+                Server server =
+                        Server.getInstance(new File(Constants.FEDORA_HOME),
+                                           false);
+                m_resourceIndex =
+                        (ResourceIndex) server
+                                .getModule("org.fcrepo.server.resourceIndex.ResourceIndex");
+            } catch (Exception e) {
+                logger.warn("Unable to get ResourceIndex module", e);
+            }
+        }
+        return m_resourceIndex;
+    }
+
+}
@@ -4,6 +4,8 @@
  */
 package org.fcrepo.server.search;
 
+import java.util.Map;
+
 import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.storage.DOReader;
 
@@ -26,6 +28,14 @@ import org.fcrepo.server.storage.DOReader;
  */
 public interface FieldSearch {
 
+    /**
+     * The fields by which objects may be counted: the object state, the owner
+     * id, the content model, and the month of the creation date (as
+     * <i>yyyy-MM</i>, UTC).
+     */
+    public static final String[] COUNTABLE_FIELDS =
+            new String[] {"state", "ownerId", "cModel", "cMonth"};
+
     /**
      * Update the search indexes with information from the provided DOReader.
      * 
@@ -79,4 +89,21 @@ public interface FieldSearch {
     public FieldSearchResult resumeFindObjects(String sessionToken)
             throws ServerException;
 
+    /**
+     * Count the objects matching a query, grouped by the values of a field.
+     * 
+     * @param field
+     *        the field to group by; one of COUNTABLE_FIELDS
+     * @param query
+     *        the query, in the same form as for findObjects
+     * @return the number of matching objects for each value of the field, in
+     *         order of value. Objects with no value for the field are counted
+     *         under the empty string, and objects with several content models
+     *         are counted once for each.
+     * @throws ServerException
+     *         if anything went wrong
+     */
+    public Map<String, Long> countObjects(String field, FieldSearchQuery query)
+            throws ServerException;
+
 }
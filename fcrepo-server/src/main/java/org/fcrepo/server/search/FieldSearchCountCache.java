@@ -0,0 +1,140 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An in-memory cache of repository-wide object counts, by field value.
+ *
+ * <p>Counts for a field are loaded from the database the first time they
+ * are requested, then kept current by applying the old and new values of
+ * each object as it is updated or deleted. Counts computed while an update
+ * is in progress are not cached, since they may or may not include it.
+ *
+ * @see FieldSearchSQLImpl#countObjects(String, FieldSearchQuery)
+ */
+class FieldSearchCountCache {
+
+    /** Counts by value, keyed by field; only fields that have been loaded. */
+    private final Map<String, Map<String, Long>> m_counts =
+            new HashMap<String, Map<String, Long>>();
+
+    /** Incremented each time an update begins. */
+    private long m_generation;
+
+    /** The number of updates that have begun, but not ended. */
+    private int m_inProgress;
+
+    /**
+     * Get a copy of the cached counts for the given field.
+     *
+     * @return the counts, or null if they have not been loaded.
+     */
+    public synchronized Map<String, Long> getCounts(String field) {
+        Map<String, Long> counts = m_counts.get(field);
+        if (counts == null) {
+            return null;
+        }
+        return new TreeMap<String, Long>(counts);
+    }
+
+    /**
+     * Get the generation to pass to <code>putCounts</code> when counts are
+     * about to be loaded from the database.
+     *
+     * @return the current generation, or -1 if an update is in progress.
+     */
+    public synchronized long getGeneration() {
+        if (m_inProgress > 0) {
+            return -1;
+        }
+        return m_generation;
+    }
+
+    /**
+     * Cache counts loaded from the database, unless an update began since
+     * the given generation was obtained.
+     */
+    public synchronized void putCounts(String field,
+                                       Map<String, Long> counts,
+                                       long generation) {
+        if (generation != -1 && generation == m_generation
+                && m_inProgress == 0) {
+            m_counts.put(field, new TreeMap<String, Long>(counts));
+        }
+    }
+
+    /**
+     * Signal that an object is about to be updated or deleted in the
+     * database. Must be followed by a call to <code>endUpdate</code>.
+     */
+    public synchronized void beginUpdate() {
+        m_generation++;
+        m_inProgress++;
+    }
+
+    /**
+     * Signal that an update has ended, and adjust the counts accordingly.
+     *
+     * @param oldValues
+     *        the object's values before the update, or null if it did not
+     *        exist or the update failed.
+     * @param newValues
+     *        the object's values after the update, or null if it was deleted
+     *        or the update failed.
+     */
+    public synchronized void endUpdate(Map<String, List<String>> oldValues,
+                                       Map<String, List<String>> newValues) {
+        m_inProgress--;
+        for (Map.Entry<String, Map<String, Long>> entry : m_counts
+                .entrySet()) {
+            String field = entry.getKey();
+            Map<String, Long> counts = entry.getValue();
+            if (oldValues != null) {
+                adjust(counts, getValues(oldValues, field), -1);
+            }
+            if (newValues != null) {
+                adjust(counts, getValues(newValues, field), 1);
+            }
+        }
+    }
+
+    /**
+     * Forget all cached counts, for example after an update failed in a way
+     * that leaves the object's values unknown.
+     */
+    public synchronized void clear() {
+        m_counts.clear();
+    }
+
+    private static List<String> getValues(Map<String, List<String>> values,
+                                          String field) {
+        List<String> list = values.get(field);
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return list;
+    }
+
+    private static void adjust(Map<String, Long> counts,
+                               List<String> values,
+                               long delta) {
+        for (String value : values) {
+            Long count = counts.get(value);
+            long newCount = (count == null ? 0 : count.longValue()) + delta;
+            if (newCount > 0) {
+                counts.put(value, newCount);
+            } else {
+                counts.remove(value);
+            }
+        }
+    }
+
+}
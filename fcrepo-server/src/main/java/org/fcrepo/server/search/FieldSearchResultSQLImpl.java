@@ -185,7 +185,20 @@ public class FieldSearchResultSQLImpl
         return qt;
     }
 
-    private String getWhereClause(String terms) throws QueryParseException {
+    /**
+     * Get the WHERE clause (and any joins it requires) for the given query,
+     * for use against the doFields table.
+     */
+    static String getWhereClause(FieldSearchQuery query)
+            throws QueryParseException {
+        if (query.getType() == FieldSearchQuery.TERMS_TYPE) {
+            return getWhereClause(query.getTerms());
+        } else {
+            return getWhereClause(query.getConditions());
+        }
+    }
+
+    private static String getWhereClause(String terms) throws QueryParseException {
         if (terms.indexOf("'") != -1) {
             throw new QueryParseException("Query cannot contain the ' character.");
         }
@@ -207,7 +220,8 @@ public class FieldSearchResultSQLImpl
                     if (usedCount > 0) {
                         whereClause.append(" OR");
                     }
-                    String qPart = toSql(column, terms);
+                    // qualified, since the counts may join doModels
+                    String qPart = toSql("doFields." + column, terms);
                     if (qPart.charAt(0) == ' ') {
                         needsEscape = true;
                     } else {
@@ -224,7 +238,7 @@ public class FieldSearchResultSQLImpl
         return whereClause.toString();
     }
 
-    private String getWhereClause(List conditions) throws QueryParseException {
+    private static String getWhereClause(List conditions) throws QueryParseException {
         StringBuffer whereClause = new StringBuffer();
         boolean willJoin = false;
         if (conditions.size() > 0) {
@@ -8,18 +8,27 @@ import java.io.InputStream;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
+import java.text.SimpleDateFormat;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.fcrepo.server.ReadOnlyContext;
+import org.fcrepo.server.Server;
+import org.fcrepo.server.errors.GeneralException;
 import org.fcrepo.server.errors.ObjectIntegrityException;
 import org.fcrepo.server.errors.RepositoryConfigurationException;
 import org.fcrepo.server.errors.ServerException;
@@ -77,6 +86,18 @@ public class FieldSearchSQLImpl
     private static boolean[] s_dbColumnNumericNoDC =
             new boolean[] {false, false, false, false, true, true, true};
 
+    /** Repository-wide counts by field value, or null if not cached. */
+    private final FieldSearchCountCache m_countCache;
+
+    /**
+     * Set while some objects in doFields have no rows in doModels, as after
+     * an upgrade from a version without that table.
+     */
+    private volatile boolean m_missingModels;
+
+    /** Number of objects whose content models are indexed at once. */
+    private static final int MODEL_INDEX_BATCH_SIZE = 1000;
+
     // a hash of token-keyed FieldSearchResultSQLImpls
     private final HashMap<String, FieldSearchResultSQLImpl> m_currentResults =
             new HashMap<String, FieldSearchResultSQLImpl>();
@@ -127,12 +148,50 @@ public class FieldSearchSQLImpl
                               int maxResults,
                               int maxSecondsPerSession,
                               boolean indexDCFields) {
+        this(cPool,
+             repoReader,
+             maxResults,
+             maxSecondsPerSession,
+             indexDCFields,
+             false);
+    }
+
+    /**
+     * Construct a FieldSearchSQLImpl that indexes DC fields only if specified,
+     * and optionally caches repository-wide object counts.
+     *
+     * @param cPool
+     *        the ConnectionPool with connections to the db containing the
+     *        fields
+     * @param repoReader
+     *        the RepositoryReader to use when getting the original values of
+     *        the fields
+     * @param maxResults
+     *        the maximum number of results to return at a time, regardless of
+     *        what the user might request
+     * @param maxSecondsPerSession
+     *        maximum number of seconds per session.
+     * @param indexDCFields
+     *        whether DC field values should be examined and updated in the
+     *        database.
+     * @param cacheCounts
+     *        whether the results of countObjects for queries without
+     *        conditions should be kept in memory, and maintained as objects
+     *        are updated and deleted.
+     */
+    public FieldSearchSQLImpl(ConnectionPool cPool,
+                              RepositoryReader repoReader,
+                              int maxResults,
+                              int maxSecondsPerSession,
+                              boolean indexDCFields,
+                              boolean cacheCounts) {
         logger.debug("Entering constructor");
         m_cPool = cPool;
         m_repoReader = repoReader;
         m_maxResults = maxResults;
         m_maxSecondsPerSession = maxSecondsPerSession;
         m_indexDCFields = indexDCFields;
+        m_countCache = cacheCounts ? new FieldSearchCountCache() : null;
         logger.debug("Exiting constructor");
     }
 
@@ -141,8 +200,17 @@ public class FieldSearchSQLImpl
         String pid = reader.GetObjectPID();
         Connection conn = null;
         PreparedStatement st = null;
+        Map<String, List<String>> oldValues = null;
+        Map<String, List<String>> newValues = null;
+        boolean success = false;
+        if (m_countCache != null) {
+            m_countCache.beginUpdate();
+        }
         try {
             conn = m_cPool.getReadWriteConnection();
+            if (m_countCache != null) {
+                oldValues = getCountedValues(conn, pid);
+            }
             String[] dbRowValues;
             if (m_indexDCFields) {
                 dbRowValues = new String[DB_COLUMN_NAMES.length];
@@ -253,10 +321,41 @@ public class FieldSearchSQLImpl
                                        "pid",
                                        s_dbColumnNumericNoDC);
             }
+
+            // replace the object's content models
+            if (st != null) {
+                st.close();
+            }
+            st = conn.prepareStatement("DELETE FROM doModels WHERE pid=?");
+            st.setString(1, pid);
+            st.executeUpdate();
+            List<String> models = reader.getContentModels();
+            if (!models.isEmpty()) {
+                st.close();
+                st =
+                        conn.prepareStatement("INSERT INTO doModels (pid, cModel) values (?, ?)");
+                for (String model : models) {
+                    st.setString(1, pid);
+                    st.setString(2, model);
+                    st.addBatch();
+                }
+                st.executeBatch();
+            }
+            if (m_countCache != null) {
+                newValues =
+                        getCountedValues(dbRowValues[2],
+                                         dbRowValues[3],
+                                         Long.parseLong(dbRowValues[4]),
+                                         models);
+            }
+            success = true;
         } catch (SQLException sqle) {
             throw new StorageDeviceException("Error attempting FieldSearch "
                     + "update of " + pid, sqle);
         } finally {
+            if (m_countCache != null) {
+                endCountedUpdate(success, oldValues, newValues);
+            }
             try {
                 if (st != null) {
                     st.close();
@@ -279,19 +378,36 @@ public class FieldSearchSQLImpl
         logger.debug("Entering delete(String)");
         Connection conn = null;
         PreparedStatement st = null;
+        Map<String, List<String>> oldValues = null;
+        boolean success = false;
+        if (m_countCache != null) {
+            m_countCache.beginUpdate();
+        }
         try {
             conn = m_cPool.getReadWriteConnection();
+            if (m_countCache != null) {
+                oldValues = getCountedValues(conn, pid);
+            }
             st = conn.prepareStatement("DELETE FROM doFields WHERE pid=?");
             st.setString(1, pid);
             st.executeUpdate();
+            st.close();
             st = conn.prepareStatement("DELETE FROM dcDates WHERE pid=?");
             st.setString(1, pid);
             st.executeUpdate();
+            st.close();
+            st = conn.prepareStatement("DELETE FROM doModels WHERE pid=?");
+            st.setString(1, pid);
+            st.executeUpdate();
+            success = true;
             return true;
         } catch (SQLException sqle) {
             throw new StorageDeviceException("Error attempting delete of "
                     + "object with pid '" + pid + "': " + sqle.getMessage());
         } finally {
+            if (m_countCache != null) {
+                endCountedUpdate(success, oldValues, null);
+            }
             try {
                 if (st != null) {
                     st.close();
@@ -310,6 +426,167 @@ public class FieldSearchSQLImpl
         }
     }
 
+    /**
+     * Check whether any objects have no content models in the doModels
+     * table. Every object has at least the basic content model, so such
+     * objects were indexed before the table existed. Until
+     * {@link #indexContentModels()} has added them, objects are not counted
+     * by content model, since the counts would be short.
+     *
+     * @return true if there are objects whose models need indexing.
+     */
+    public boolean checkContentModels() throws StorageDeviceException {
+        Connection conn = null;
+        PreparedStatement st = null;
+        ResultSet results = null;
+        try {
+            conn = m_cPool.getReadOnlyConnection();
+            st = conn.prepareStatement(getMissingModelsQuery());
+            st.setMaxRows(1);
+            st.setString(1, "");
+            results = st.executeQuery();
+            m_missingModels = results.next();
+            return m_missingModels;
+        } catch (SQLException sqle) {
+            throw new StorageDeviceException("Error querying sql db: "
+                    + sqle.getMessage(), sqle);
+        } finally {
+            closeQuietly(conn, st, results);
+        }
+    }
+
+    /**
+     * Add the content models of every object that has none in the doModels
+     * table, reading each object from the repository. This may take a long
+     * time on a large repository, so it is meant to run in the background;
+     * objects updated meanwhile are indexed by {@link #update(DOReader)} as
+     * usual. Objects that can't be read are logged and skipped.
+     */
+    public void indexContentModels() throws StorageDeviceException {
+        logger.info("Indexing the content models of existing objects");
+        long indexed = 0;
+        long failed = 0;
+        String lastPid = "";
+        while (true) {
+            List<String> pids = getPidsWithoutModels(lastPid);
+            if (pids.isEmpty()) {
+                break;
+            }
+            lastPid = pids.get(pids.size() - 1);
+            for (String pid : pids) {
+                List<String> models;
+                try {
+                    models =
+                            m_repoReader.getReader(Server.USE_DEFINITIVE_STORE,
+                                                   ReadOnlyContext.EMPTY,
+                                                   pid).getContentModels();
+                } catch (ServerException e) {
+                    logger.warn("Unable to read " + pid + " to index its "
+                            + "content models: " + e.getMessage());
+                    failed++;
+                    continue;
+                }
+                addContentModels(pid, models);
+                indexed++;
+            }
+            logger.info("Indexed the content models of " + indexed
+                    + " objects so far");
+        }
+        m_missingModels = false;
+        logger.info("Finished indexing the content models of " + indexed
+                + " objects" + (failed > 0 ? "; " + failed
+                + " objects could not be read" : ""));
+    }
+
+    private static String getMissingModelsQuery() {
+        return "SELECT doFields.pid FROM doFields LEFT OUTER JOIN doModels"
+                + " ON doFields.pid=doModels.pid WHERE doModels.pid IS NULL"
+                + " AND doFields.pid > ? ORDER BY doFields.pid";
+    }
+
+    /**
+     * Get the next PIDs, in order, of objects without rows in doModels.
+     */
+    private List<String> getPidsWithoutModels(String afterPid)
+            throws StorageDeviceException {
+        List<String> pids = new ArrayList<String>();
+        Connection conn = null;
+        PreparedStatement st = null;
+        ResultSet results = null;
+        try {
+            conn = m_cPool.getReadOnlyConnection();
+            st = conn.prepareStatement(getMissingModelsQuery());
+            st.setMaxRows(MODEL_INDEX_BATCH_SIZE);
+            st.setString(1, afterPid);
+            results = st.executeQuery();
+            while (results.next()) {
+                pids.add(results.getString(1));
+            }
+            return pids;
+        } catch (SQLException sqle) {
+            throw new StorageDeviceException("Error querying sql db: "
+                    + sqle.getMessage(), sqle);
+        } finally {
+            closeQuietly(conn, st, results);
+        }
+    }
+
+    /**
+     * Add the object's content models, unless it was updated (and its
+     * models added) since it was found to have none.
+     */
+    private void addContentModels(String pid, List<String> models)
+            throws StorageDeviceException {
+        Connection conn = null;
+        PreparedStatement st = null;
+        ResultSet results = null;
+        try {
+            conn = m_cPool.getReadWriteConnection();
+            st = conn.prepareStatement("SELECT pid FROM doModels WHERE pid=?");
+            st.setString(1, pid);
+            results = st.executeQuery();
+            boolean indexed = results.next();
+            results.close();
+            results = null;
+            st.close();
+            st = null;
+            if (!indexed && !models.isEmpty()) {
+                st =
+                        conn.prepareStatement("INSERT INTO doModels (pid, cModel) values (?, ?)");
+                for (String model : models) {
+                    st.setString(1, pid);
+                    st.setString(2, model);
+                    st.addBatch();
+                }
+                st.executeBatch();
+            }
+        } catch (SQLException sqle) {
+            throw new StorageDeviceException("Error indexing content models "
+                    + "of " + pid + ": " + sqle.getMessage(), sqle);
+        } finally {
+            closeQuietly(conn, st, results);
+        }
+    }
+
+    private void closeQuietly(Connection conn,
+                              PreparedStatement st,
+                              ResultSet results) {
+        try {
+            if (results != null) {
+                results.close();
+            }
+            if (st != null) {
+                st.close();
+            }
+        } catch (SQLException sqle) {
+            logger.warn("Error closing statement or result set", sqle);
+        } finally {
+            if (conn != null) {
+                m_cPool.free(conn);
+            }
+        }
+    }
+
     public FieldSearchResult findObjects(String[] resultFields,
                                          int maxResults,
                                          FieldSearchQuery query)
@@ -349,6 +626,190 @@ public class FieldSearchSQLImpl
         return stepAndRemember(result);
     }
 
+    public Map<String, Long> countObjects(String field, FieldSearchQuery query)
+            throws ServerException {
+        String column = null;
+        if (field.equals("state") || field.equals("ownerId")) {
+            column = "doFields." + field;
+        } else if (field.equals("cModel")) {
+            if (m_missingModels) {
+                throw new GeneralException("Objects cannot be counted by "
+                        + "cModel until the content models of existing "
+                        + "objects have been indexed; this is done in the "
+                        + "background after an upgrade");
+            }
+            column = "doModels.cModel";
+        } else if (!field.equals("cMonth")) {
+            throw new UnrecognizedFieldException("Objects cannot be counted "
+                    + "by " + field + "; use one of state, ownerId, cModel, "
+                    + "or cMonth.");
+        }
+        boolean cacheable = m_countCache != null && isUnconditional(query);
+        long generation = -1;
+        if (cacheable) {
+            Map<String, Long> counts = m_countCache.getCounts(field);
+            if (counts != null) {
+                return counts;
+            }
+            generation = m_countCache.getGeneration();
+        }
+
+        String whereClause = FieldSearchResultSQLImpl.getWhereClause(query);
+        String queryText;
+        if (column == null) {
+            // creation months are counted here rather than in the database,
+            // since there's no portable SQL for extracting them
+            queryText =
+                    "SELECT DISTINCT doFields.pid, doFields.cDate FROM doFields"
+                            + whereClause;
+        } else if (field.equals("cModel")) {
+            queryText =
+                    "SELECT doModels.cModel, COUNT(DISTINCT doFields.pid)"
+                            + " FROM doFields INNER JOIN doModels"
+                            + " ON doFields.pid=doModels.pid" + whereClause
+                            + " GROUP BY doModels.cModel";
+        } else {
+            queryText =
+                    "SELECT " + column + ", COUNT(DISTINCT doFields.pid)"
+                            + " FROM doFields" + whereClause + " GROUP BY "
+                            + column;
+        }
+        logger.debug(queryText);
+
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        Connection conn = null;
+        PreparedStatement st = null;
+        ResultSet results = null;
+        try {
+            conn = m_cPool.getReadOnlyConnection();
+            st = conn.prepareStatement(queryText);
+            results = st.executeQuery();
+            if (column == null) {
+                SimpleDateFormat format = getMonthFormat();
+                while (results.next()) {
+                    String month = format.format(new Date(results.getLong(2)));
+                    Long count = counts.get(month);
+                    counts.put(month, count == null ? 1 : count + 1);
+                }
+            } else {
+                while (results.next()) {
+                    String value = results.getString(1);
+                    counts.put(value == null ? "" : value, results.getLong(2));
+                }
+            }
+        } catch (SQLException sqle) {
+            throw new StorageDeviceException("Error querying sql db: "
+                    + sqle.getMessage(), sqle);
+        } finally {
+            try {
+                if (results != null) {
+                    results.close();
+                }
+                if (st != null) {
+                    st.close();
+                }
+                if (conn != null) {
+                    m_cPool.free(conn);
+                }
+            } catch (SQLException sqle2) {
+                throw new StorageDeviceException("Error closing statement "
+                        + "or result set: " + sqle2.getMessage());
+            }
+        }
+        if (cacheable) {
+            m_countCache.putCounts(field, counts, generation);
+        }
+        return counts;
+    }
+
+    private static boolean isUnconditional(FieldSearchQuery query) {
+        if (query.getType() == FieldSearchQuery.TERMS_TYPE) {
+            String terms = query.getTerms();
+            return terms.equals("*") || terms.equals("");
+        }
+        return query.getConditions().isEmpty();
+    }
+
+    private static SimpleDateFormat getMonthFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    /**
+     * Get the values of the countable fields for an object, as they are
+     * currently stored in the database.
+     *
+     * @return the values, or null if the object is not in the database.
+     */
+    private static Map<String, List<String>> getCountedValues(Connection conn,
+                                                              String pid)
+            throws SQLException {
+        PreparedStatement st = null;
+        ResultSet results = null;
+        try {
+            st =
+                    conn.prepareStatement("SELECT state, ownerId, cDate FROM doFields WHERE pid=?");
+            st.setString(1, pid);
+            results = st.executeQuery();
+            if (!results.next()) {
+                return null;
+            }
+            String state = results.getString(1);
+            String ownerId = results.getString(2);
+            long cDate = results.getLong(3);
+            results.close();
+            st.close();
+
+            List<String> models = new ArrayList<String>();
+            st =
+                    conn.prepareStatement("SELECT cModel FROM doModels WHERE pid=?");
+            st.setString(1, pid);
+            results = st.executeQuery();
+            while (results.next()) {
+                models.add(results.getString(1));
+            }
+            return getCountedValues(state, ownerId, cDate, models);
+        } finally {
+            if (results != null) {
+                results.close();
+            }
+            if (st != null) {
+                st.close();
+            }
+        }
+    }
+
+    private static Map<String, List<String>> getCountedValues(String state,
+                                                              String ownerId,
+                                                              long cDate,
+                                                              List<String> models) {
+        Map<String, List<String>> values = new HashMap<String, List<String>>();
+        values.put("state", Collections.singletonList(state == null ? ""
+                : state));
+        values.put("ownerId", Collections.singletonList(ownerId == null ? ""
+                : ownerId));
+        values.put("cMonth", Collections.singletonList(getMonthFormat()
+                .format(new Date(cDate))));
+        values.put("cModel", models);
+        return values;
+    }
+
+    /**
+     * Apply the result of an update or delete to the count cache. If it
+     * failed, the object's values are unknown, so the cache is cleared.
+     */
+    private void endCountedUpdate(boolean success,
+                                  Map<String, List<String>> oldValues,
+                                  Map<String, List<String>> newValues) {
+        if (success) {
+            m_countCache.endUpdate(oldValues, newValues);
+        } else {
+            m_countCache.endUpdate(null, null);
+            m_countCache.clear();
+        }
+    }
+
     private FieldSearchResult stepAndRemember(FieldSearchResultSQLImpl result)
             throws UnrecognizedFieldException, ObjectIntegrityException,
             RepositoryConfigurationException, StreamIOException,
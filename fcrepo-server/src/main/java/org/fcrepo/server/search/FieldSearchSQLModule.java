@@ -92,6 +92,21 @@ public class FieldSearchSQLModule
             }
         }
 
+        //
+        // get cacheCounts parameter (default to false if unspecified)
+        //
+        boolean cacheCounts = false;
+        String cacheCountsValue = getParameter("cacheCounts");
+        if (cacheCountsValue != null) {
+            String val = cacheCountsValue.trim().toLowerCase();
+            if (val.equals("true") || val.equals("yes")) {
+                cacheCounts = true;
+            } else if (!val.equals("false") && !val.equals("no")) {
+                throw new ModuleInitializationException("cacheCounts param "
+                        + "was not a boolean", getRole());
+            }
+        }
+
         //
         // get connectionPool from ConnectionPoolManager
         //
@@ -137,7 +152,47 @@ public class FieldSearchSQLModule
                                        doManager,
                                        maxResults,
                                        maxSecondsPerSession,
-                                       indexDCFields);
+                                       indexDCFields,
+                                       cacheCounts);
+
+        //
+        // index the content models of objects indexed before doModels existed
+        //
+        try {
+            if (m_wrappedFieldSearch.checkContentModels()) {
+                startContentModelIndexer();
+            }
+        } catch (ServerException e) {
+            throw new ModuleInitializationException("Unable to check for "
+                    + "objects without indexed content models: "
+                    + e.getMessage(), getRole());
+        }
+    }
+
+    /**
+     * Index the content models of existing objects in the background, once
+     * the server has initialized and objects can be read.
+     */
+    private void startContentModelIndexer() {
+        Thread indexer = new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    while (!getServer().hasInitialized()) {
+                        Thread.sleep(1000);
+                    }
+                    m_wrappedFieldSearch.indexContentModels();
+                } catch (InterruptedException e) {
+                    logger.warn("Content model indexing interrupted; it will "
+                            + "resume when the server is next started");
+                } catch (ServerException e) {
+                    logger.error("Content model indexing failed; it will "
+                            + "resume when the server is next started", e);
+                }
+            }
+        }, "FieldSearchContentModelIndexer");
+        indexer.setDaemon(true);
+        indexer.start();
     }
 
     @Override
@@ -167,4 +222,9 @@ public class FieldSearchSQLModule
         return m_wrappedFieldSearch.resumeFindObjects(sessionToken);
     }
 
+    public Map<String, Long> countObjects(String field, FieldSearchQuery query)
+            throws ServerException {
+        return m_wrappedFieldSearch.countObjects(field, query);
+    }
+
 }
@@ -137,6 +137,11 @@ public class PolicyEnforcementPoint {
      */
     private PDP pdp = null;
 
+    /**
+     * the policy finder module of the pdp, which is told of changed objects
+     */
+    private PolicyFinderModule policyModule = null;
+
     /**
      * available during init(); keep as logging hook
      */
@@ -177,9 +182,17 @@ public class PolicyEnforcementPoint {
         logger.debug("o after setting policy finder hashset into policy finder");
 
         PDP pdp = new PDP(new PDPConfig(attrFinder, policyFinder, null));
+        // it keeps parsed object policies, so it must hear of changes to them
+        manager.addChangeListener(combinedPolicyModule);
+        PolicyFinderModule oldPolicyModule;
         synchronized (this) {
             this.pdp = pdp;
             //so enforce() will wait, if this pdp update is in progress
+            oldPolicyModule = policyModule;
+            policyModule = combinedPolicyModule;
+        }
+        if (oldPolicyModule != null) {
+            manager.removeChangeListener(oldPolicyModule);
         }
     }
 
@@ -238,7 +251,15 @@ public class PolicyEnforcementPoint {
     }
 
     public void destroy() {
-        pdp = null;
+        PolicyFinderModule oldPolicyModule;
+        synchronized (this) {
+            pdp = null;
+            oldPolicyModule = policyModule;
+            policyModule = null;
+        }
+        if (oldPolicyModule != null) {
+            manager.removeChangeListener(oldPolicyModule);
+        }
     }
 
     private final Set wrapSubjects(String subjectLoginId) {
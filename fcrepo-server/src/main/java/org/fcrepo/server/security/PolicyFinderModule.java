@@ -13,7 +13,14 @@ import java.net.URI;
 import java.net.URISyntaxException;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.sun.xacml.AbstractPolicy;
 import com.sun.xacml.EvaluationCtx;
@@ -35,6 +42,7 @@ import org.fcrepo.server.errors.GeneralException;
 import org.fcrepo.server.errors.ObjectNotInLowlevelStorageException;
 import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.errors.ValidationException;
+import org.fcrepo.server.storage.DOChangeListener;
 import org.fcrepo.server.storage.DOReader;
 import org.fcrepo.server.storage.RepositoryReader;
 import org.fcrepo.server.storage.types.Datastream;
@@ -48,7 +56,8 @@ import org.slf4j.LoggerFactory;
  * when available.
  */
 public class PolicyFinderModule
-        extends com.sun.xacml.finder.PolicyFinderModule {
+        extends com.sun.xacml.finder.PolicyFinderModule
+        implements DOChangeListener {
 
     private static final Logger logger =
             LoggerFactory.getLogger(PolicyFinderModule.class);
@@ -59,7 +68,22 @@ public class PolicyFinderModule
         ERROR_CODE_LIST.add(Status.STATUS_PROCESSING_ERROR);
     }
 
-    private final String m_combiningAlgorithm;
+    // the most object policies to keep parsed
+    private static final int MAX_CACHED_OBJECT_POLICIES = 1000;
+
+    // parsed object policies by pid, most recently used last
+    private final Map<String, ObjectPolicy> m_objectPolicies =
+            Collections.synchronizedMap(new LinkedHashMap<String, ObjectPolicy>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ObjectPolicy> eldest) {
+                    return size() > MAX_CACHED_OBJECT_POLICIES;
+                }
+            });
+
+    private final PolicyCombiningAlgorithm m_policyCombiningAlgorithm;
 
     private final RepositoryReader m_repoReader;
 
@@ -69,6 +93,10 @@ public class PolicyFinderModule
 
     private final PolicyParser m_policyParser;
 
+    // copies of m_policyParser that aren't in use; each copy() parses the schema
+    private final Queue<PolicyParser> m_policyParsers =
+            new ConcurrentLinkedQueue<PolicyParser>();
+
     private final List<AbstractPolicy> m_repositoryPolicies;
 
     public PolicyFinderModule(String combiningAlgorithm,
@@ -81,7 +109,14 @@ public class PolicyFinderModule
                               PolicyParser policyParser)
             throws GeneralException {
 
-        m_combiningAlgorithm = combiningAlgorithm;
+        try {
+            m_policyCombiningAlgorithm =
+                    (PolicyCombiningAlgorithm) Class
+                            .forName(combiningAlgorithm).newInstance();
+        } catch (Exception e) {
+            throw new GeneralException("Error creating policy combining "
+                    + "algorithm: " + combiningAlgorithm, e);
+        }
         m_repoReader = repoReader;
         m_validateRepositoryPolicies = validateRepositoryPolicies;
         m_validateObjectPoliciesFromDatastream = validateObjectPoliciesFromDatastream;
@@ -101,6 +136,22 @@ public class PolicyFinderModule
         } catch (Exception e) {
             throw new GeneralException("Error loading repository policies", e);
         }
+
+        int parsers = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < parsers; i++) {
+            m_policyParsers.add(m_policyParser.copy());
+        }
+    }
+
+    /**
+     * Forgets the parsed POLICY datastream of an object when a change to the
+     * object is committed. The module must be registered with the DOManager
+     * for this.
+     *
+     * @param pid the pid of the object
+     */
+    public void objectChanged(String pid) {
+        m_objectPolicies.remove(pid);
     }
 
     /**
@@ -135,12 +186,9 @@ public class PolicyFinderModule
                     policies.add(objectPolicyFromObject);
                 }
             }
-            PolicyCombiningAlgorithm policyCombiningAlgorithm =
-                    (PolicyCombiningAlgorithm) Class
-                            .forName(m_combiningAlgorithm).newInstance();
             PolicySet policySet =
                     new PolicySet(new URI(""),
-                                  policyCombiningAlgorithm,
+                                  m_policyCombiningAlgorithm,
                                   null /*
                                    * no general target beyond those of
                                    * multiplexed individual policies
@@ -164,18 +212,40 @@ public class PolicyFinderModule
                                                      pid);
             Datastream ds = reader.GetDatastream("POLICY", null);
             if (ds != null) {
+                ObjectPolicy cached = m_objectPolicies.get(pid);
+                if (cached != null && cached.isVersion(ds)) {
+                    logger.debug("Using cached POLICY for " + pid);
+                    return cached.policy;
+                }
                 logger.debug("Using POLICY for " + pid);
-                return m_policyParser //TODO performance hole. Each copy() performs schema parsing, which is expensive
-                        .copy().parse(ds.getContentStream(),
-                                      m_validateObjectPoliciesFromDatastream);
+                AbstractPolicy policy = parseObjectPolicy(ds);
+                m_objectPolicies.put(pid, new ObjectPolicy(ds, policy));
+                return policy;
             } else {
+                m_objectPolicies.remove(pid);
                 return null;
             }
         } catch (ObjectNotInLowlevelStorageException e) {
+            m_objectPolicies.remove(pid);
             return null;
         }
     }
 
+    // parse with a parser from the pool, since parsers aren't thread-safe
+    private AbstractPolicy parseObjectPolicy(Datastream ds)
+            throws ServerException {
+        PolicyParser parser = m_policyParsers.poll();
+        if (parser == null) {
+            parser = m_policyParser.copy();
+        }
+        try {
+            return parser.parse(ds.getContentStream(),
+                                m_validateObjectPoliciesFromDatastream);
+        } finally {
+            m_policyParsers.offer(parser);
+        }
+    }
+
     // get the pid from the context, or null if unable
     public static String getPid(EvaluationCtx context) {
         URI resourceIdType = null;
@@ -251,4 +321,29 @@ public class PolicyFinderModule
         return policies;
     }
 
+    /**
+     * A parsed POLICY datastream, and the version it was parsed from.
+     */
+    private static class ObjectPolicy {
+
+        private final String versionId;
+
+        private final Date createDate;
+
+        private final AbstractPolicy policy;
+
+        ObjectPolicy(Datastream ds, AbstractPolicy policy) {
+            versionId = ds.DSVersionID;
+            createDate = ds.DSCreateDT;
+            this.policy = policy;
+        }
+
+        /**
+         * @return true if this was parsed from this version of the datastream
+         */
+        boolean isVersion(Datastream ds) {
+            return versionId != null && versionId.equals(ds.DSVersionID)
+                    && createDate != null && createDate.equals(ds.DSCreateDT);
+        }
+    }
 }
@@ -0,0 +1,20 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage;
+
+/**
+ * Told by the DOManager about each digital object that has changed.
+ */
+public interface DOChangeListener {
+
+    /**
+     * Called when a change to the object has been committed to the permanent
+     * store, or the object has been purged from it.
+     *
+     * @param pid the pid of the object
+     */
+    public void objectChanged(String pid);
+
+}
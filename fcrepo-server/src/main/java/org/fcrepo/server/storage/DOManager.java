@@ -6,6 +6,8 @@ package org.fcrepo.server.storage;
 
 import java.io.InputStream;
 
+import java.util.Map;
+
 import org.fcrepo.server.Context;
 import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.errors.StorageDeviceException;
@@ -93,6 +95,11 @@ public interface DOManager
                                                String sessionToken)
             throws ServerException;
 
+    public Map<String, Long> countObjects(Context context,
+                                         String field,
+                                         FieldSearchQuery query)
+            throws ServerException;
+
     public String[] getNextPID(int numPIDs, String namespace)
             throws ServerException;
 
@@ -113,4 +120,15 @@ public interface DOManager
      */
     public String getRepositoryHash() throws ServerException;
 
+    /**
+     * Registers a listener to be told about each object that is changed or
+     * purged, once the change has been committed.
+     */
+    public void addChangeListener(DOChangeListener listener);
+
+    /**
+     * Stops telling a listener about changed objects.
+     */
+    public void removeChangeListener(DOChangeListener listener);
+
 }
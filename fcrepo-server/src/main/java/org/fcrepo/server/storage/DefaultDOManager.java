@@ -24,10 +24,12 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
@@ -127,6 +129,9 @@ public class DefaultDOManager
 
     private DOReaderCache m_readerCache;
 
+    private final List<DOChangeListener> m_changeListeners =
+            new CopyOnWriteArrayList<DOChangeListener>();
+
     private final Set<String> m_lockedPIDs;
 
     protected ConnectionPool m_connectionPool;
@@ -1049,6 +1054,25 @@ public class DefaultDOManager
                          DigitalObject obj,
                          String logMessage,
                          boolean remove) throws ServerException {
+        doCommit(cachedObjectRequired, context, obj, logMessage, remove, null);
+    }
+
+    /**
+     * Commits the object as above, given the IDs of the datastreams that
+     * were added, modified or removed since it was read. For a modified
+     * object, only the triples of these datastreams and of the object
+     * properties are regenerated for the ResourceIndex.
+     *
+     * @param modifiedDatastreams
+     *        the IDs of the modified datastreams, or null if not known.
+     */
+    public void doCommit(boolean cachedObjectRequired,
+                         Context context,
+                         DigitalObject obj,
+                         String logMessage,
+                         boolean remove,
+                         Set<String> modifiedDatastreams)
+            throws ServerException {
         // OBJECT REMOVAL...
         if (remove) {
 
@@ -1115,6 +1139,7 @@ public class DefaultDOManager
             if (m_readerCache != null) {
                 m_readerCache.remove(obj.getPid());
             }
+            fireObjectChanged(obj.getPid());
 
             // REGISTRY:
             // Remove digital object from the registry
@@ -1313,7 +1338,8 @@ public class DefaultDOManager
                                                                null,
                                                                null,
                                                                null,
-                                                               obj));
+                                                               obj),
+                                                     modifiedDatastreams);
 
                     }
                     logger.debug("Finished adding to ResourceIndex.");
@@ -1338,6 +1364,7 @@ public class DefaultDOManager
                 if (m_readerCache != null) {
                     m_readerCache.remove(obj.getPid());
                 }
+                fireObjectChanged(obj.getPid());
 
                 // REGISTRY:
                 /*
@@ -1797,6 +1824,13 @@ public class DefaultDOManager
         return m_fieldSearch.resumeFindObjects(sessionToken);
     }
 
+    public Map<String, Long> countObjects(Context context,
+                                         String field,
+                                         FieldSearchQuery query)
+            throws ServerException {
+        return m_fieldSearch.countObjects(field, query);
+    }
+
     /**
      * <p>
      * Gets a list of the requested next available PIDs. the number of PIDs.
@@ -1875,6 +1909,25 @@ public class DefaultDOManager
         }
     }
 
+    public void addChangeListener(DOChangeListener listener) {
+        m_changeListeners.add(listener);
+    }
+
+    public void removeChangeListener(DOChangeListener listener) {
+        m_changeListeners.remove(listener);
+    }
+
+    // tell the listeners, once the change is in the permanent store
+    private void fireObjectChanged(String pid) {
+        for (DOChangeListener listener : m_changeListeners) {
+            try {
+                listener.objectChanged(pid);
+            } catch (RuntimeException e) {
+                logger.warn("Change listener failed for " + pid, e);
+            }
+        }
+    }
+
     /**
      * Get the number of objects in the registry whose system version is equal
      * to the given value. If n is less than one, return the total number of
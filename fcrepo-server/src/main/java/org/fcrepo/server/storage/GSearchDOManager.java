@@ -13,6 +13,7 @@ import java.net.URL;
 import java.net.URLEncoder;
 
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 
@@ -152,9 +153,16 @@ public class GSearchDOManager
                          Context context,
                          DigitalObject obj,
                          String logMessage,
-                         boolean remove) throws ServerException {
-
-        super.doCommit(cachedObjectRequired, context, obj, logMessage, remove);
+                         boolean remove,
+                         Set<String> modifiedDatastreams)
+            throws ServerException {
+
+        super.doCommit(cachedObjectRequired,
+                       context,
+                       obj,
+                       logMessage,
+                       remove,
+                       modifiedDatastreams);
 
         // determine the url we need to invoke
         StringBuffer url = new StringBuffer();
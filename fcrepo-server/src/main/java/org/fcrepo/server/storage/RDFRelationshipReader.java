@@ -4,12 +4,20 @@
  */
 package org.fcrepo.server.storage;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 import java.net.URI;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.jrdf.graph.Literal;
 import org.jrdf.graph.ObjectNode;
@@ -19,14 +27,41 @@ import org.trippi.RDFFormat;
 import org.trippi.TripleIterator;
 import org.trippi.TrippiException;
 
+import org.fcrepo.common.Constants;
 import org.fcrepo.server.errors.GeneralException;
 import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
 import org.fcrepo.server.storage.types.RelationshipTuple;
+import org.fcrepo.server.utilities.StreamUtility;
 
 
+/**
+ * Reads the relationships in RELS-EXT and RELS-INT datastreams.
+ * <p>
+ * RDF/XML in the form RelsValidator requires (rdf:Description elements
+ * with an absolute rdf:about, holding property elements with either an
+ * absolute rdf:resource or a literal value) is read directly with StAX.
+ * Anything else is read with Trippi's general RDF/XML parser.
+ */
 public abstract class RDFRelationshipReader {
 
+    private static final String RDF_NS = Constants.RDF.uri;
+
+    /** Matches URIs that start with a scheme, so are not relative. */
+    private static final Pattern ABSOLUTE_URI =
+            Pattern.compile("^[a-zA-Z][a-zA-Z0-9+.\\-]*:.*", Pattern.DOTALL);
+
+    private static final XMLInputFactory XML_INPUT_FACTORY =
+            XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING,
+                                      Boolean.TRUE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD,
+                                      Boolean.FALSE);
+    }
+
     public static Set<RelationshipTuple> readRelationships(Datastream ds)
             throws ServerException {
 
@@ -35,6 +70,11 @@ public abstract class RDFRelationshipReader {
         }
 
         try {
+            if (ds instanceof DatastreamXMLMetadata
+                    && ((DatastreamXMLMetadata) ds).xmlContent != null) {
+                // no need to copy inline XML through a stream
+                return readRelationships(((DatastreamXMLMetadata) ds).xmlContent);
+            }
             return readRelationships(ds.getContentStream());
         } catch (TrippiException e) {
             throw new GeneralException(e.getMessage(), e);
@@ -43,6 +83,150 @@ public abstract class RDFRelationshipReader {
 
     public static Set<RelationshipTuple> readRelationships(InputStream dsContent)
             throws TrippiException {
+        byte[] content;
+        try {
+            content = StreamUtility.getBytes(dsContent);
+        } catch (IOException e) {
+            throw new TrippiException("Error reading relationships", e);
+        }
+        return readRelationships(content);
+    }
+
+    private static Set<RelationshipTuple> readRelationships(byte[] content)
+            throws TrippiException {
+        Set<RelationshipTuple> tuples = readSimpleRelationships(content);
+        if (tuples == null) {
+            tuples = readAnyRelationships(new ByteArrayInputStream(content));
+        }
+        return tuples;
+    }
+
+    /**
+     * Reads relationships given in the RDF/XML form used in RELS-EXT and
+     * RELS-INT datastreams.
+     *
+     * @return the relationships, or null if the content isn't in that form
+     *         (including if it isn't well-formed).
+     */
+    static Set<RelationshipTuple> readSimpleRelationships(byte[] content) {
+        Set<RelationshipTuple> tuples = new HashSet<RelationshipTuple>();
+        XMLStreamReader reader = null;
+        try {
+            reader =
+                    XML_INPUT_FACTORY
+                            .createXMLStreamReader(new ByteArrayInputStream(content));
+            int depth = 0;
+            String subject = null;
+            String predicate = null;
+            String resource = null;
+            String datatype = null;
+            StringBuilder value = new StringBuilder();
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        if (depth == 1) {
+                            if (!isRDF(reader, "RDF")
+                                    || reader.getAttributeCount() > 0) {
+                                return null;
+                            }
+                        } else if (depth == 2) {
+                            if (!isRDF(reader, "Description")
+                                    || reader.getAttributeCount() != 1
+                                    || !isRDFAttribute(reader, 0, "about")) {
+                                return null;
+                            }
+                            subject = reader.getAttributeValue(0);
+                            if (!isAbsolute(subject)) {
+                                return null;
+                            }
+                        } else if (depth == 3) {
+                            String ns = reader.getNamespaceURI();
+                            if (ns == null || ns.length() == 0
+                                    || ns.equals(RDF_NS)
+                                    && !reader.getLocalName().equals("type")) {
+                                return null;
+                            }
+                            predicate = ns + reader.getLocalName();
+                            resource = null;
+                            datatype = null;
+                            value.setLength(0);
+                            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                                if (isRDFAttribute(reader, i, "resource")
+                                        && resource == null) {
+                                    resource = reader.getAttributeValue(i);
+                                } else if (isRDFAttribute(reader, i, "datatype")
+                                        && datatype == null) {
+                                    datatype = reader.getAttributeValue(i);
+                                } else {
+                                    return null;
+                                }
+                            }
+                            if (resource != null
+                                    && (datatype != null || !isAbsolute(resource))
+                                    || datatype != null && !isAbsolute(datatype)) {
+                                return null;
+                            }
+                        } else {
+                            return null;
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (depth == 3) {
+                            value.append(reader.getText());
+                        } else if (!reader.isWhiteSpace()) {
+                            return null;
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (depth == 3) {
+                            if (resource == null) {
+                                tuples.add(new RelationshipTuple(subject,
+                                                                 predicate,
+                                                                 value.toString(),
+                                                                 true,
+                                                                 datatype));
+                            } else if (value.toString().trim().length() == 0) {
+                                tuples.add(new RelationshipTuple(subject,
+                                                                 predicate,
+                                                                 resource,
+                                                                 false,
+                                                                 null));
+                            } else {
+                                return null;
+                            }
+                        }
+                        depth--;
+                        break;
+                    case XMLStreamConstants.DTD:
+                    case XMLStreamConstants.ENTITY_REFERENCE:
+                        return null;
+                    default:
+                        // comments, processing instructions, document
+                        break;
+                }
+            }
+            return tuples;
+        } catch (XMLStreamException e) {
+            // let the general parser report what's wrong
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads relationships from any RDF/XML, using Trippi.
+     */
+    static Set<RelationshipTuple> readAnyRelationships(InputStream dsContent)
+            throws TrippiException {
         Set<RelationshipTuple> tuples = new HashSet<RelationshipTuple>();
 
         TripleIterator iter = null;
@@ -83,4 +267,20 @@ public abstract class RDFRelationshipReader {
         }
         return tuples;
     }
+
+    private static boolean isRDF(XMLStreamReader reader, String localName) {
+        return RDF_NS.equals(reader.getNamespaceURI())
+                && localName.equals(reader.getLocalName());
+    }
+
+    private static boolean isRDFAttribute(XMLStreamReader reader,
+                                          int index,
+                                          String localName) {
+        return RDF_NS.equals(reader.getAttributeNamespace(index))
+                && localName.equals(reader.getAttributeLocalName(index));
+    }
+
+    private static boolean isAbsolute(String uri) {
+        return ABSOLUTE_URI.matcher(uri).matches();
+    }
 }
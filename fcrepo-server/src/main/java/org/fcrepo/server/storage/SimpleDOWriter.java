@@ -13,7 +13,9 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.jrdf.graph.ObjectNode;
 import org.jrdf.graph.Triple;
@@ -86,6 +88,9 @@ public class SimpleDOWriter
 
     private boolean m_committed = false;
 
+    /** IDs of the datastreams added, modified or removed through this writer. */
+    private final Set<String> m_modifiedDatastreams = new HashSet<String>();
+
     public SimpleDOWriter(Context context,
                           DefaultDOManager mgr,
                           DOTranslator translator,
@@ -116,6 +121,7 @@ public class SimpleDOWriter
         assertNotPendingRemoval();
 
         // Set all versions of this datastreamID to the specified state
+        m_modifiedDatastreams.add(datastreamID);
         for (Datastream ds : m_obj.datastreams(datastreamID)) {
             ds.DSState = dsState;
         }
@@ -129,6 +135,7 @@ public class SimpleDOWriter
 
         // Set all versions of this datastreamID to the specified versionable
         // status
+        m_modifiedDatastreams.add(datastreamID);
         for (Datastream ds : m_obj.datastreams(datastreamID)) {
             ds.DSVersionable = versionable;
         }
@@ -168,6 +175,7 @@ public class SimpleDOWriter
         assertNotInvalidated();
         assertNotPendingRemoval();
         // use this call to handle versionable
+        m_modifiedDatastreams.add(datastream.DatastreamID);
         m_obj.addDatastreamVersion(datastream, addNewVersion);
     }
 
@@ -223,6 +231,9 @@ public class SimpleDOWriter
         }
 
         /* Now that we've identified all ds versions to remove, remove 'em */
+        if (!removeList.isEmpty()) {
+            m_modifiedDatastreams.add(id);
+        }
         for (Datastream toRemove : removeList) {
             m_obj.removeDatastreamVersion(toRemove);
         }
@@ -509,7 +520,8 @@ public class SimpleDOWriter
                        m_context,
                        m_obj,
                        logMessage,
-                       m_pendingRemoval);
+                       m_pendingRemoval,
+                       m_modifiedDatastreams);
         m_committed = true;
         invalidate();
     }
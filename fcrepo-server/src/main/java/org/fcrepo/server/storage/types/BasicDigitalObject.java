@@ -4,9 +4,6 @@
  */
 package org.fcrepo.server.storage.types;
 
-import java.net.URI;
-import java.net.URISyntaxException;
-
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -22,12 +19,12 @@ import java.util.Set;
 import org.jrdf.graph.ObjectNode;
 import org.jrdf.graph.PredicateNode;
 import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.URIReference;
 
 import org.fcrepo.common.Constants;
 import org.fcrepo.common.Models;
 import org.fcrepo.common.PID;
 import org.fcrepo.common.rdf.JRDF;
-import org.fcrepo.common.rdf.SimpleURIReference;
 import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.storage.RDFRelationshipReader;
 
@@ -53,7 +50,8 @@ public class BasicDigitalObject
 
     private String m_label;
 
-    private Set<RelationshipTuple> m_rels;
+    /** The relationships in RELS-EXT and RELS-INT, or null if not read. */
+    private Relationships m_rels;
 
     private Date m_createDate;
 
@@ -97,6 +95,8 @@ public class BasicDigitalObject
     }
 
     public void setPid(String pid) {
+        // the implicit basic content model relationship depends on the pid
+        m_rels = null;
         m_pid = pid;
     }
 
@@ -310,8 +310,16 @@ public class BasicDigitalObject
     }
 
     public boolean hasRelationship(SubjectNode subject, PredicateNode predicate, ObjectNode object) {
-        /* Brute force */
-        return getRelationships(subject, predicate, object).size() > 0;
+        Set<RelationshipTuple> candidates = getRels().find(subject, predicate);
+        if (object == null) {
+            return !candidates.isEmpty();
+        }
+        for (RelationshipTuple t : candidates) {
+            if (sameObject(object, t)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     // assume m_pid as subject; ie RELS-EXT only
@@ -324,74 +332,32 @@ public class BasicDigitalObject
         return getRelationships(null, null, null);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Unless an object is given, the returned set is an unmodifiable view of
+     * the object's indexed relationships.
+     */
     public Set<RelationshipTuple> getRelationships(SubjectNode subject,
                                                    PredicateNode predicate,
                                                    ObjectNode object) {
-        Set<RelationshipTuple> foundRels = new HashSet<RelationshipTuple>();
-
-        if (m_rels == null) {
-            readRels();
-        }
-
-        boolean basicExplicit = false;
-
-        // Iterate explicit relationships, finding matches and
-        // determining whether the object has an explicit basic cmodel.
-        for (RelationshipTuple t : m_rels) {
-
-            // Do any hasModel rels point to a basic cmodel?
-            if (Constants.MODEL.HAS_MODEL.uri.equals(t.predicate)
-                    && Models.isBasicModel(t.object)) {
-                basicExplicit = true;
-            }
-
-            // Find matching relationships from those that are explicit
-            if (subject != null) {
-                if (!JRDF.sameSubject(subject, t.subject)) {
-                    continue;
-                }
-            }
-            if (predicate != null) {
-                if (!JRDF.samePredicate(predicate, t.predicate)) {
-                    continue;
-                }
-            }
-            if (object != null) {
-                if (!JRDF.sameObject(object,
-                                     t.object,
-                                     t.isLiteral,
-                                     t.datatype,
-                                     null)) {
-                    continue;
-                }
-
-            }
-            foundRels.add(t);
+        Set<RelationshipTuple> candidates = getRels().find(subject, predicate);
+        if (object == null || candidates.isEmpty()) {
+            return candidates;
         }
-
-        // If necessary, add the current basic cmodel to the set of matches
-        try {
-            if (!basicExplicit
-                    && (subject == null ||
-                            JRDF.sameSubject(subject, new SimpleURIReference(new URI(PID.toURI(m_pid)))))
-                    && (predicate == null ||
-                        JRDF.samePredicate(predicate, Constants.MODEL.HAS_MODEL))
-                    && (object == null ||
-                        JRDF.sameObject(object, Models.FEDORA_OBJECT_CURRENT))) {
-                foundRels.add(
-                        new RelationshipTuple(Constants.FEDORA.uri + m_pid,
-                                              Constants.MODEL.HAS_MODEL.uri,
-                                              Models.FEDORA_OBJECT_CURRENT.uri,
-                                              false,
-                                              null));
+        Set<RelationshipTuple> foundRels = new HashSet<RelationshipTuple>();
+        for (RelationshipTuple t : candidates) {
+            if (sameObject(object, t)) {
+                foundRels.add(t);
             }
-        } catch (URISyntaxException e) {
-            // assume that m_pid is a valid pid
         }
-
         return foundRels;
     }
 
+    private static boolean sameObject(ObjectNode object, RelationshipTuple t) {
+        return JRDF.sameObject(object, t.object, t.isLiteral, t.datatype, null);
+    }
+
     public List<String> getContentModels() {
         Set<RelationshipTuple> cmTubles = getRelationships(Constants.MODEL.HAS_MODEL,
                                                            null);
@@ -430,11 +396,18 @@ public class BasicDigitalObject
         return start + newNum;
     }
     /**
-     * read relationships from RELS-EXT and RELS-INT datastreams
+     * Get the relationships from the RELS-EXT and RELS-INT datastreams,
+     * reading them if they haven't been read since they last changed.
      */
-    private void readRels() {
-        m_rels = getRels("RELS-EXT");
-        m_rels.addAll(getRels("RELS-INT"));
+    private Relationships getRels() {
+        Relationships rels = m_rels;
+        if (rels == null) {
+            Set<RelationshipTuple> tuples = getRels("RELS-EXT");
+            tuples.addAll(getRels("RELS-INT"));
+            rels = new Relationships(tuples, m_pid);
+            m_rels = rels;
+        }
+        return rels;
     }
 
     /**
@@ -463,6 +436,101 @@ public class BasicDigitalObject
         }
     }
 
+    /**
+     * The relationships of an object, indexed by subject and predicate so
+     * that lookups don't have to go through all of them. Unless a basic
+     * content model is given explicitly, the relationship to the current one
+     * is included.
+     */
+    private static class Relationships {
+
+        private final Set<RelationshipTuple> m_all;
+
+        private final Map<String, Set<RelationshipTuple>> m_bySubject =
+                new HashMap<String, Set<RelationshipTuple>>();
+
+        private final Map<String, Set<RelationshipTuple>> m_byPredicate =
+                new HashMap<String, Set<RelationshipTuple>>();
+
+        /** Keyed by subject and predicate, separated by a space. */
+        private final Map<String, Set<RelationshipTuple>> m_bySubjectPredicate =
+                new HashMap<String, Set<RelationshipTuple>>();
+
+        Relationships(Set<RelationshipTuple> tuples, String pid) {
+            boolean basicExplicit = false;
+            for (RelationshipTuple t : tuples) {
+                if (Constants.MODEL.HAS_MODEL.uri.equals(t.predicate)
+                        && Models.isBasicModel(t.object)) {
+                    basicExplicit = true;
+                }
+            }
+            if (!basicExplicit) {
+                tuples.add(new RelationshipTuple(Constants.FEDORA.uri + pid,
+                                                 Constants.MODEL.HAS_MODEL.uri,
+                                                 Models.FEDORA_OBJECT_CURRENT.uri,
+                                                 false,
+                                                 null));
+            }
+            for (RelationshipTuple t : tuples) {
+                add(m_bySubject, t.subject, t);
+                add(m_byPredicate, t.predicate, t);
+                add(m_bySubjectPredicate, t.subject + " " + t.predicate, t);
+            }
+            m_all = Collections.unmodifiableSet(tuples);
+            wrap(m_bySubject);
+            wrap(m_byPredicate);
+            wrap(m_bySubjectPredicate);
+        }
+
+        /**
+         * Get the relationships with the given subject and predicate, either
+         * of which may be null to match any.
+         */
+        Set<RelationshipTuple> find(SubjectNode subject,
+                                    PredicateNode predicate) {
+            if (subject != null && !(subject instanceof URIReference)) {
+                return Collections.emptySet();
+            }
+            Set<RelationshipTuple> found;
+            if (subject == null && predicate == null) {
+                return m_all;
+            } else if (subject == null) {
+                found = m_byPredicate.get(uri(predicate));
+            } else if (predicate == null) {
+                found = m_bySubject.get(uri(subject));
+            } else {
+                found = m_bySubjectPredicate.get(uri(subject) + " "
+                        + uri(predicate));
+            }
+            if (found == null) {
+                return Collections.emptySet();
+            }
+            return found;
+        }
+
+        private static String uri(Object node) {
+            return ((URIReference) node).getURI().toString();
+        }
+
+        private static void add(Map<String, Set<RelationshipTuple>> index,
+                                String key,
+                                RelationshipTuple t) {
+            Set<RelationshipTuple> tuples = index.get(key);
+            if (tuples == null) {
+                tuples = new LinkedHashSet<RelationshipTuple>();
+                index.put(key, tuples);
+            }
+            tuples.add(t);
+        }
+
+        private static void wrap(Map<String, Set<RelationshipTuple>> index) {
+            for (Map.Entry<String, Set<RelationshipTuple>> entry : index
+                    .entrySet()) {
+                entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+            }
+        }
+    }
+
     private abstract class DatastreamProcessor {
 
         abstract void processAdd(Datastream d);
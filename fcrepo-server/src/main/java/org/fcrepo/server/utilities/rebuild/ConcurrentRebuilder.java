@@ -0,0 +1,47 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities.rebuild;
+
+import java.util.Map;
+
+/**
+ * A Rebuilder that can be driven by several worker threads at once.
+ *
+ * <p>Implementations must allow <code>addObject</code> to be called
+ * concurrently, and may buffer the data of added objects until
+ * <code>flush</code> is called. A rebuild that was interrupted may be
+ * continued with <code>resume</code> instead of <code>start</code>; in that
+ * case, objects that were added (but possibly not flushed) before the
+ * interruption may be added again.
+ *
+ * @see Rebuild
+ */
+public interface ConcurrentRebuilder
+        extends Rebuilder {
+
+    /**
+     * Perform the startup tasks needed to continue an interrupted rebuild,
+     * without discarding anything that was already rebuilt.
+     */
+    public void resume(Map<String, String> options) throws Exception;
+
+    /**
+     * Make the data of all objects added so far durable. When this method
+     * returns, an interrupted rebuild may be resumed after those objects.
+     */
+    public void flush() throws Exception;
+
+    /**
+     * Free up any system resources associated with rebuilding. Called
+     * instead of <code>finish()</code>.
+     *
+     * @param completed
+     *        whether every object was added and flushed. If false, the
+     *        rebuild may be resumed later, so anything needed to resume it
+     *        must be kept.
+     */
+    public void finish(boolean completed) throws Exception;
+
+}
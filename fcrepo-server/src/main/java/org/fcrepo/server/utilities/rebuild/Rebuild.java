@@ -12,10 +12,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.bridge.SLF4JBridgeHandler;
 
@@ -63,6 +68,52 @@ public class Rebuild
 
     private final Map<String, String> m_options;
 
+    /**
+     * System property giving the number of worker threads; defaults to 1.
+     * Only rebuilders implementing ConcurrentRebuilder use more than one.
+     */
+    public static final String THREADS_PROPERTY = "rebuild.threads";
+
+    /**
+     * System property giving the number of objects in each batch handed to
+     * a worker, and flushed together; defaults to 100.
+     */
+    public static final String BATCH_SIZE_PROPERTY = "rebuild.batchSize";
+
+    /**
+     * System property giving the path of a file in which progress is
+     * recorded, so that an interrupted rebuild can be resumed.
+     */
+    public static final String CHECKPOINT_PROPERTY = "rebuild.checkpoint";
+
+    /** Minimum time between progress reports, in milliseconds. */
+    private static final long REPORT_INTERVAL = 10000;
+
+    private final int m_threads;
+
+    private final int m_batchSize;
+
+    private final File m_checkpointFile;
+
+    private final AtomicInteger m_total = new AtomicInteger();
+
+    private final AtomicInteger m_errors = new AtomicInteger();
+
+    private volatile Exception m_failure;
+
+    private long m_startTime;
+
+    private long m_lastReport;
+
+    private final ThreadLocal<DODeserializer> m_deserializer =
+            new ThreadLocal<DODeserializer>() {
+
+                @Override
+                protected DODeserializer initialValue() {
+                    return new FOXML1_1DODeserializer();
+                }
+            };
+
     public Rebuild(Rebuilder rebuilder,
                    Map<String, String> options,
                    Server server)
@@ -82,6 +133,23 @@ public class Rebuild
         }
         m_options = options;
         m_rebuilder = rebuilder;
+        m_batchSize = Math.max(Integer.getInteger(BATCH_SIZE_PROPERTY, 100), 1);
+        String checkpoint = System.getProperty(CHECKPOINT_PROPERTY);
+        if (rebuilder instanceof ConcurrentRebuilder) {
+            m_threads = Math.max(Integer.getInteger(THREADS_PROPERTY, 1), 1);
+            m_checkpointFile = checkpoint == null ? null : new File(checkpoint);
+        } else {
+            if (rebuilder != null
+                    && (Integer.getInteger(THREADS_PROPERTY, 1) > 1
+                            || checkpoint != null)) {
+                logger.warn(rebuilder.getClass().getName()
+                        + " does not support concurrent or resumable"
+                        + " rebuilds; ignoring " + THREADS_PROPERTY + " and "
+                        + CHECKPOINT_PROPERTY);
+            }
+            m_threads = 1;
+            m_checkpointFile = null;
+        }
         if (options != null) {
             try {
                 // ensure rebuilds are possible before trying anything,
@@ -115,9 +183,20 @@ public class Rebuild
             if (m_options != null) {
                 System.err.println();
                 System.err.println("Rebuilding...");
+                RebuildCheckpoint checkpoint =
+                        new RebuildCheckpoint(m_checkpointFile);
+                long skip = checkpoint.getResumePosition();
+                boolean completed = false;
                 try {
                     // looks good, so init the rebuilder
-                    m_rebuilder.start(m_options);
+                    if (skip > 0) {
+                        System.err.println("Resuming after " + skip
+                                + " objects, as recorded in "
+                                + m_checkpointFile.getPath());
+                        ((ConcurrentRebuilder) m_rebuilder).resume(m_options);
+                    } else {
+                        m_rebuilder.start(m_options);
+                    }
 
                     // add each object in llstore
                     ILowlevelStorage llstore =
@@ -131,19 +210,12 @@ public class Rebuild
                                 + " with impl " + llstore.getClass().getName());
                     }
                     Iterator<String> pids = ((IListable) llstore).listObjects();
-                    int total = 0;
-                    int errors = 0;
-                    DODeserializer deser = new FOXML1_1DODeserializer();
-
-                    while (pids.hasNext()) {
-                        total++;
-                        String pid = pids.next();
-                        System.out.println("Adding object #" + total + ": "
-                                + pid);
-                        if (!addObject(m_rebuilder, llstore, deser, pid)) {
-                            errors++;
-                        }
+                    for (long i = 0; i < skip && pids.hasNext(); i++) {
+                        pids.next();
                     }
+                    completed = addObjects(llstore, pids, checkpoint);
+                    int total = m_total.get();
+                    int errors = m_errors.get();
                     if (errors == 0) {
                         System.out.println("SUCCESS: " + total
                                 + " objects rebuilt.");
@@ -153,7 +225,14 @@ public class Rebuild
                                 + " objects failed to rebuild due to errors.");
                     }
                 } finally {
-                    m_rebuilder.finish();
+                    if (m_rebuilder instanceof ConcurrentRebuilder) {
+                        ((ConcurrentRebuilder) m_rebuilder).finish(completed);
+                    } else {
+                        m_rebuilder.finish();
+                    }
+                    if (completed) {
+                        checkpoint.clear();
+                    }
                     if (server != null) {
                         server.shutdown(null);
                         server = null;
@@ -170,6 +249,135 @@ public class Rebuild
         }
     }
 
+    /**
+     * Add the listed objects to the rebuilder, in batches, using the
+     * configured number of worker threads.
+     *
+     * @return true if every listed object was handed to the rebuilder and
+     *         the rebuilder's data was flushed, false if the rebuild was
+     *         aborted.
+     */
+    private boolean addObjects(final ILowlevelStorage llstore,
+                               Iterator<String> pids,
+                               final RebuildCheckpoint checkpoint)
+            throws Exception {
+        ThreadPoolExecutor workers =
+                new ThreadPoolExecutor(m_threads,
+                                       m_threads,
+                                       0L,
+                                       TimeUnit.MILLISECONDS,
+                                       new ArrayBlockingQueue<Runnable>(m_threads * 2),
+                                       new ThreadPoolExecutor.CallerRunsPolicy());
+        m_startTime = System.currentTimeMillis();
+        m_lastReport = m_startTime;
+        long batch = 0;
+        try {
+            while (pids.hasNext() && m_failure == null) {
+                List<String> batchPids = new ArrayList<String>(m_batchSize);
+                while (batchPids.size() < m_batchSize && pids.hasNext()) {
+                    batchPids.add(pids.next());
+                }
+                workers.execute(new RebuildBatch(llstore,
+                                                 batch++,
+                                                 batchPids,
+                                                 checkpoint));
+            }
+        } finally {
+            workers.shutdown();
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.info("Waiting for rebuild workers to finish");
+            }
+        }
+        if (m_failure != null) {
+            throw m_failure;
+        }
+        if (m_rebuilder instanceof ConcurrentRebuilder) {
+            ((ConcurrentRebuilder) m_rebuilder).flush();
+            checkpoint.save();
+        }
+        reportProgress(true);
+        return true;
+    }
+
+    /**
+     * Called by the workers after each batch. Once a contiguous run of
+     * batches has completed, the rebuilder is flushed and the checkpoint
+     * advanced, so an interrupted rebuild can continue from there.
+     */
+    private void batchCompleted(RebuildCheckpoint checkpoint,
+                                long batch,
+                                int size) throws Exception {
+        synchronized (checkpoint) {
+            if (checkpoint.batchCompleted(batch, size)
+                    && m_rebuilder instanceof ConcurrentRebuilder) {
+                ((ConcurrentRebuilder) m_rebuilder).flush();
+                checkpoint.save();
+            }
+        }
+        reportProgress(false);
+    }
+
+    private void reportProgress(boolean force) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (!force && now - m_lastReport < REPORT_INTERVAL) {
+                return;
+            }
+            m_lastReport = now;
+        }
+        long elapsed = Math.max(now - m_startTime, 1);
+        int total = m_total.get();
+        System.out.println("Rebuilt " + total + " objects in "
+                + (elapsed / 1000) + " seconds ("
+                + (total * 1000L / elapsed) + " objects/second, "
+                + m_errors.get() + " errors)");
+    }
+
+    /**
+     * Deserializes and adds one batch of objects to the rebuilder.
+     */
+    private class RebuildBatch
+            implements Runnable {
+
+        private final ILowlevelStorage m_llstore;
+
+        private final long m_batch;
+
+        private final List<String> m_pids;
+
+        private final RebuildCheckpoint m_checkpoint;
+
+        RebuildBatch(ILowlevelStorage llstore,
+                     long batch,
+                     List<String> pids,
+                     RebuildCheckpoint checkpoint) {
+            m_llstore = llstore;
+            m_batch = batch;
+            m_pids = pids;
+            m_checkpoint = checkpoint;
+        }
+
+        public void run() {
+            if (m_failure != null) {
+                return;
+            }
+            DODeserializer deser = m_deserializer.get();
+            for (String pid : m_pids) {
+                int total = m_total.incrementAndGet();
+                logger.debug("Adding object #" + total + ": " + pid);
+                if (!addObject(m_rebuilder, m_llstore, deser, pid)) {
+                    m_errors.incrementAndGet();
+                }
+            }
+            try {
+                batchCompleted(m_checkpoint, m_batch, m_pids.size());
+            } catch (Exception e) {
+                logger.error("Error flushing rebuilt objects; aborting", e);
+                m_failure = e;
+            }
+        }
+    }
+
     private boolean addObject(Rebuilder rebuilder,
                               ILowlevelStorage llstore,
                               DODeserializer deser,
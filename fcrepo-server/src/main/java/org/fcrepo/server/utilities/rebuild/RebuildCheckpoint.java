@@ -0,0 +1,141 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities.rebuild;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records how far a rebuild has progressed, so that it can be resumed.
+ *
+ * <p>Objects are handed to workers in numbered batches, in the order they
+ * are listed by the low-level store. Batches may complete out of order; the
+ * checkpoint only advances past a batch once it and every batch before it
+ * have completed, so the recorded count is always a prefix of the listing.
+ * The count is written to a small text file, replacing the previous value
+ * atomically.
+ *
+ * @see Rebuild
+ */
+public class RebuildCheckpoint {
+
+    private final File m_file;
+
+    /** Number of objects completed by a previous run. */
+    private final long m_resumePosition;
+
+    /** Number of objects known to be complete, including skipped ones. */
+    private long m_completed;
+
+    /** Sequence number of the next batch the checkpoint is waiting for. */
+    private long m_nextBatch;
+
+    /** Completed batches with sequence numbers beyond m_nextBatch. */
+    private final Map<Long, Integer> m_pending =
+            new HashMap<Long, Integer>();
+
+    /**
+     * @param file the checkpoint file, or null if progress is not recorded.
+     */
+    public RebuildCheckpoint(File file) throws IOException {
+        m_file = file;
+        m_resumePosition = read(file);
+        m_completed = m_resumePosition;
+    }
+
+    /**
+     * Get the number of objects completed by a previous run, which should be
+     * skipped by this one.
+     */
+    public long getResumePosition() {
+        return m_resumePosition;
+    }
+
+    /**
+     * Get the number of leading objects in the listing known to be complete.
+     */
+    public synchronized long getCompleted() {
+        return m_completed;
+    }
+
+    /**
+     * Record the completion of a batch.
+     *
+     * @param batch the sequence number of the batch, starting at zero.
+     * @param size the number of objects in the batch.
+     * @return true if the checkpoint advanced as a result.
+     */
+    public synchronized boolean batchCompleted(long batch, int size) {
+        m_pending.put(batch, size);
+        boolean advanced = false;
+        Integer next;
+        while ((next = m_pending.remove(m_nextBatch)) != null) {
+            m_completed += next;
+            m_nextBatch++;
+            advanced = true;
+        }
+        return advanced;
+    }
+
+    /**
+     * Write the current position to the checkpoint file, if any.
+     */
+    public synchronized void save() throws IOException {
+        if (m_file == null) {
+            return;
+        }
+        File temp = new File(m_file.getPath() + ".tmp");
+        PrintWriter out = new PrintWriter(new FileWriter(temp));
+        try {
+            out.println(m_completed);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(m_file)) {
+            // some platforms will not rename over an existing file
+            m_file.delete();
+            if (!temp.renameTo(m_file)) {
+                throw new IOException("Unable to replace checkpoint file "
+                        + m_file.getPath());
+            }
+        }
+    }
+
+    /**
+     * Remove the checkpoint file, after a rebuild has run to completion.
+     */
+    public void clear() {
+        if (m_file != null && m_file.exists()) {
+            m_file.delete();
+        }
+    }
+
+    private static long read(File file) throws IOException {
+        if (file == null || !file.exists()) {
+            return 0;
+        }
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line = in.readLine();
+            if (line == null || line.trim().length() == 0) {
+                return 0;
+            }
+            return Long.parseLong(line.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid checkpoint file " + file.getPath()
+                    + ": " + e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+}
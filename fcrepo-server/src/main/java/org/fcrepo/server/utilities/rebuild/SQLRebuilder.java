@@ -17,6 +17,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -40,15 +41,14 @@ import org.fcrepo.server.config.ServerConfiguration;
 import org.fcrepo.server.errors.InitializationException;
 import org.fcrepo.server.errors.LowlevelStorageException;
 import org.fcrepo.server.errors.ModuleInitializationException;
-import org.fcrepo.server.errors.ObjectNotFoundException;
 import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.errors.StorageDeviceException;
 import org.fcrepo.server.management.PIDGenerator;
 import org.fcrepo.server.search.FieldSearch;
 import org.fcrepo.server.storage.ConnectionPool;
 import org.fcrepo.server.storage.ConnectionPoolManager;
-import org.fcrepo.server.storage.DOManager;
 import org.fcrepo.server.storage.DOReader;
+import org.fcrepo.server.storage.SimpleDOReader;
 import org.fcrepo.server.storage.lowlevel.ILowlevelStorage;
 import org.fcrepo.server.storage.types.Datastream;
 import org.fcrepo.server.storage.types.DigitalObject;
@@ -57,9 +57,12 @@ import org.fcrepo.server.utilities.TableSpec;
 
 /**
  * A Rebuilder for the SQL database.
+ *
+ * <p>Registry rows are buffered as objects are added, and written in one
+ * transaction per call to <code>flush</code>, using JDBC batches.
  */
 public class SQLRebuilder
-        implements Rebuilder {
+        implements ConcurrentRebuilder {
 
     private static final Logger logger =
             LoggerFactory.getLogger(Rebuilder.class);
@@ -72,6 +75,21 @@ public class SQLRebuilder
 
     private Context m_context;
 
+    /** PIDs of added objects not yet written to doRegistry. */
+    private List<String> m_pendingPids = new ArrayList<String>();
+
+    /** cModel, sDef, sDep rows not yet written to modelDeploymentMap. */
+    private List<String[]> m_pendingDeployments = new ArrayList<String[]>();
+
+    /** Serializes writes of pending rows. */
+    private final Object m_flushLock = new Object();
+
+    /**
+     * Whether rows for added objects may already exist, because this is a
+     * resumed rebuild.
+     */
+    private volatile boolean m_resuming;
+
     /**
      * Get a short phrase describing what the user can do with this rebuilder.
      */
@@ -127,6 +145,20 @@ public class SQLRebuilder
         // don't get out of sync with the database.
         blankExistingTables();
 
+        initServer(true);
+    }
+
+    /**
+     * Continue an interrupted rebuild. Existing tables are left alone, and
+     * registry rows for objects that are added again are replaced.
+     */
+    @Override
+    public void resume(Map<String, String> options) throws Exception {
+        m_resuming = true;
+        initServer(false);
+    }
+
+    private void initServer(boolean rebuildLowlevelStore) throws Exception {
         try {
             m_server = Rebuild.getServer();
             // now get the connectionpool
@@ -141,7 +173,9 @@ public class SQLRebuilder
             m_context =
                     ReadOnlyContext.getContext("utility", "fedoraAdmin", "", /* null, */
                     ReadOnlyContext.DO_OP);
-            String registryClassTemp = m_server.getParameter("registry");
+            if (!rebuildLowlevelStore) {
+                return;
+            }
             ILowlevelStorage llstore =
                     (ILowlevelStorage) m_server
                             .getModule("org.fcrepo.server.storage.lowlevel.ILowlevelStorage");
@@ -268,9 +302,6 @@ public class SQLRebuilder
 
         // DOReplicator replicator=(DOReplicator)
         // m_server.getModule("org.fcrepo.server.storage.replication.DOReplicator");
-        DOManager manager =
-                (DOManager) m_server
-                        .getModule("org.fcrepo.server.storage.DOManager");
         FieldSearch fieldSearch =
                 (FieldSearch) m_server
                         .getModule("org.fcrepo.server.search.FieldSearch");
@@ -344,18 +375,15 @@ public class SQLRebuilder
 
         // REGISTRY:
         // at this point the object is valid, so make a record
-        // of it in the digital object registry
-        try {
-            registerObject(obj);
-        } catch (StorageDeviceException e) {
-        }
+        // of it in the digital object registry (written on flush)
+        registerObject(obj);
 
         try {
             logger.info("COMMIT: Attempting replication: " + obj.getPid());
+            // the object has already been deserialized, so there's no need
+            // to have the DOManager read it from the store again
             DOReader reader =
-                    manager.getReader(Server.USE_DEFINITIVE_STORE,
-                                      m_context,
-                                      obj.getPid());
+                    new SimpleDOReader(null, null, null, null, null, obj);
             logger.info("COMMIT: Updating FieldSearch indexes...");
             fieldSearch.update(reader);
 
@@ -371,99 +399,195 @@ public class SQLRebuilder
     }
 
     /**
-     * Adds a new object.
+     * Adds a new object to the rows pending for the registry.
      */
-    private void registerObject(DigitalObject obj)
-            throws StorageDeviceException {
-        String pid = obj.getPid();
-        String userId = "the userID field is no longer used";
-        String label = "the label field is no longer used";
+    private void registerObject(DigitalObject obj) {
+        List<String[]> deployments = null;
+        if (obj.hasContentModel(Models.SERVICE_DEPLOYMENT_3_0)) {
+            deployments = getDeployments(obj);
+        }
+        synchronized (this) {
+            m_pendingPids.add(obj.getPid());
+            if (deployments != null) {
+                m_pendingDeployments.addAll(deployments);
+            }
+        }
+    }
 
+    /**
+     * Write the registry rows of all objects added so far, in a single
+     * transaction.
+     */
+    @Override
+    public void flush() throws StorageDeviceException {
+        synchronized (m_flushLock) {
+            List<String> pids;
+            List<String[]> deployments;
+            synchronized (this) {
+                pids = m_pendingPids;
+                deployments = m_pendingDeployments;
+                m_pendingPids = new ArrayList<String>();
+                m_pendingDeployments = new ArrayList<String[]>();
+            }
+            if (!pids.isEmpty()) {
+                writeRegistryRows(pids, deployments);
+            }
+        }
+    }
+
+    private void writeRegistryRows(List<String> pids,
+                                   List<String[]> deployments)
+            throws StorageDeviceException {
         Connection conn = null;
-        PreparedStatement s1 = null;
         try {
-            String query =
-                    "INSERT INTO doRegistry (doPID, ownerId, label) VALUES (?, ?, ?)";
             conn = m_connectionPool.getReadWriteConnection();
-            s1 = conn.prepareStatement(query);
-            s1.setString(1,pid);
-            s1.setString(2,userId);
-            s1.setString(3, label);
-            s1.executeUpdate();
-
-            if (obj.hasContentModel(Models.SERVICE_DEPLOYMENT_3_0)){
-                updateDeploymentMap(obj, conn);
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                try {
+                    insertRegistryRows(conn, pids, deployments);
+                    conn.commit();
+                } catch (SQLException sqle) {
+                    conn.rollback();
+                    logger.warn("Unable to register " + pids.size()
+                            + " objects in one batch, registering them"
+                            + " one at a time: " + sqle.getMessage());
+                    for (String pid : pids) {
+                        registerOne(conn, pid, deployments);
+                    }
+                }
+            } finally {
+                conn.setAutoCommit(autoCommit);
             }
         } catch (SQLException sqle) {
-            throw new StorageDeviceException("Unexpected error from SQL database while registering object: "
+            throw new StorageDeviceException("Unexpected error from SQL database while registering objects: "
                     + sqle.getMessage());
         } finally {
-            try {
-                if (s1 != null) {
-                    s1.close();
-                }
-            } catch (Exception sqle) {
-                throw new StorageDeviceException("Unexpected error from SQL database while registering object: "
-                        + sqle.getMessage());
-            } finally {
-                s1 = null;
+            if (conn != null) {
+                m_connectionPool.free(conn);
             }
         }
+    }
 
-        PreparedStatement s2 = null;
-        ResultSet results = null;
-        try {
-            // REGISTRY:
-            // update systemVersion in doRegistry (add one)
-            logger.debug("COMMIT: Updating registry...");
-            String query =
-                    "SELECT systemVersion FROM doRegistry WHERE doPID=?";
-            s2 = conn.prepareStatement(query);
-            s2.setString(1, pid);
-            results = s2.executeQuery();
-            if (!results.next()) {
-                throw new ObjectNotFoundException("Error creating replication job: The requested object doesn't exist in the registry.");
+    /**
+     * Write the registry rows of a single object in their own transaction.
+     * If they can't be written (e.g. the object is already registered), the
+     * object is logged and skipped, as when objects were registered one at a
+     * time.
+     */
+    private void registerOne(Connection conn,
+                             String pid,
+                             List<String[]> deployments) throws SQLException {
+        List<String[]> ownDeployments = new ArrayList<String[]>();
+        for (String[] deployment : deployments) {
+            if (deployment[2].equals(pid)) {
+                ownDeployments.add(deployment);
             }
-            int systemVersion = results.getInt("systemVersion");
-            systemVersion++;
-            query = "UPDATE doRegistry SET systemVersion=? WHERE doPID=?";
-            s2 = conn.prepareStatement(query);
-            s2.setInt(1, systemVersion);
-            s2.setString(2,pid);
-            s2.executeUpdate();
+        }
+        try {
+            insertRegistryRows(conn,
+                               Collections.singletonList(pid),
+                               ownDeployments);
+            conn.commit();
         } catch (SQLException sqle) {
-            throw new StorageDeviceException("Error creating replication job: "
+            conn.rollback();
+            logger.error("Unable to register " + pid + "; skipping it: "
                     + sqle.getMessage());
-        } catch (ObjectNotFoundException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+        }
+    }
+
+    private void insertRegistryRows(Connection conn,
+                                    List<String> pids,
+                                    List<String[]> deployments)
+            throws SQLException {
+        String userId = "the userID field is no longer used";
+        String label = "the label field is no longer used";
+
+        if (m_resuming) {
+            executeBatch(conn,
+                         "DELETE FROM modelDeploymentMap WHERE sDep=?",
+                         pids);
+            executeBatch(conn, "DELETE FROM doRegistry WHERE doPID=?", pids);
+        }
+        // systemVersion is one, as though the object had been
+        // registered and then committed once
+        PreparedStatement s =
+                conn.prepareStatement("INSERT INTO doRegistry (doPID, systemVersion, ownerId, label) VALUES (?, ?, ?, ?)");
+        try {
+            for (String pid : pids) {
+                s.setString(1, pid);
+                s.setInt(2, 1);
+                s.setString(3, userId);
+                s.setString(4, label);
+                s.addBatch();
+            }
+            s.executeBatch();
         } finally {
+            s.close();
+        }
+        if (!deployments.isEmpty()) {
+            s = conn.prepareStatement("INSERT INTO modelDeploymentMap (cModel, sDef, sDep) VALUES (?, ?, ?)");
             try {
-                if (results != null) {
-                    results.close();
-                }
-                if (s2 != null) {
-                    s2.close();
+                for (String[] deployment : deployments) {
+                    s.setString(1, deployment[0]);
+                    s.setString(2, deployment[1]);
+                    s.setString(3, deployment[2]);
+                    s.addBatch();
                 }
-                if (conn != null) {
-                    m_connectionPool.free(conn);
-                }
-            } catch (SQLException sqle) {
-                throw new StorageDeviceException("Unexpected error from SQL database: "
-                        + sqle.getMessage());
+                s.executeBatch();
             } finally {
-                results = null;
-                s2 = null;
+                s.close();
             }
         }
     }
 
+    private static void executeBatch(Connection conn,
+                                     String query,
+                                     List<String> pids) throws SQLException {
+        PreparedStatement s = conn.prepareStatement(query);
+        try {
+            for (String pid : pids) {
+                s.setString(1, pid);
+                s.addBatch();
+            }
+            s.executeBatch();
+        } finally {
+            s.close();
+        }
+    }
+
     /**
      * Free up any system resources associated with rebuilding.
      */
     @Override
-    public void finish() {
-        // nothing to do
+    public void finish() throws StorageDeviceException {
+        flush();
+    }
+
+    /**
+     * Free up any system resources associated with rebuilding.
+     *
+     * <p>If the rebuild did not complete, the registry rows of objects added
+     * since the last flush are discarded rather than written: the checkpoint
+     * was saved before they were added, so a resumed rebuild adds them again.
+     */
+    @Override
+    public void finish(boolean completed) throws StorageDeviceException {
+        if (completed) {
+            finish();
+        } else {
+            synchronized (m_flushLock) {
+                synchronized (this) {
+                    if (!m_pendingPids.isEmpty()) {
+                        logger.warn("Rebuild did not complete; not registering "
+                                + m_pendingPids.size() + " objects added"
+                                + " since the last checkpoint");
+                    }
+                    m_pendingPids = new ArrayList<String>();
+                    m_pendingDeployments = new ArrayList<String[]>();
+                }
+            }
+        }
     }
 
     /**
@@ -499,48 +623,27 @@ public class SQLRebuilder
     }
 
     /**
-     * Update the registry and deployment cache to reflect the latest state of
-     * reality.
+     * Get the deployment map rows for a service deployment object.
      *
      * @param obj
-     *        DOReader of a service deployment object
+     *        a service deployment object
+     * @return cModel, sDef, sDep triples to be added to the deployment map.
      */
-    private synchronized void updateDeploymentMap(DigitalObject obj,
-                                                  Connection c)
-            throws SQLException {
+    private static List<String[]> getDeployments(DigitalObject obj) {
 
         Set<RelationshipTuple> sDefs =
                 obj.getRelationships(Constants.MODEL.IS_DEPLOYMENT_OF, null);
         Set<RelationshipTuple> models =
                 obj.getRelationships(Constants.MODEL.IS_CONTRACTOR_OF, null);
 
+        List<String[]> deployments = new ArrayList<String[]>();
         for (RelationshipTuple sDefTuple : sDefs) {
             String sDef = sDefTuple.getObjectPID();
             for (RelationshipTuple cModelTuple : models) {
                 String cModel = cModelTuple.getObjectPID();
-                addDeployment(cModel, sDef, obj, c);
-            }
-        }
-    }
-
-    private void addDeployment(String cModel,
-                               String sDef,
-                               DigitalObject sDep,
-                               Connection c) throws SQLException {
-
-        String query =
-        	"INSERT INTO modelDeploymentMap (cModel, sDef, sDep) VALUES (?, ?, ?)";
-        PreparedStatement s = c.prepareStatement(query);
-
-        try {
-            s.setString(1, cModel);
-            s.setString(2, sDef);
-            s.setString(3, sDep.getPid());
-            s.executeUpdate();
-        } finally {
-            if (s != null) {
-                s.close();
+                deployments.add(new String[] {cModel, sDef, obj.getPid()});
             }
         }
+        return deployments;
     }
 }
@@ -29,8 +29,10 @@ import java.sql.SQLWarning;
 import java.sql.Time;
 import java.sql.Timestamp;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
 
 import java.math.BigDecimal;
 
@@ -52,6 +54,9 @@ public class MockPreparedStatement
     /** Don't forget, first parameter is 1, not 0, so indexes are off by 1. */
     private final Object[] parameters;
 
+    /** The parameters of each batched command, in the order added. */
+    private final List<Object[]> batches = new ArrayList<Object[]>();
+
     private boolean closed;
 
     private boolean executed;
@@ -70,6 +75,7 @@ public class MockPreparedStatement
 
     public void reset() {
         Arrays.fill(parameters, null);
+        batches.clear();
         closed = false;
         executed = false;
     }
@@ -82,6 +88,10 @@ public class MockPreparedStatement
         return parameters.clone();
     }
 
+    public List<Object[]> getBatches() {
+        return new ArrayList<Object[]>(batches);
+    }
+
     /** Insure that a closed statement doesn't do anything else. */
     private void checkClosed() {
         if (closed) {
@@ -124,6 +134,19 @@ public class MockPreparedStatement
         return 0;
     }
 
+    public void addBatch() throws SQLException {
+        checkClosed();
+        checkExecuted();
+        batches.add(parameters.clone());
+    }
+
+    public int[] executeBatch() throws SQLException {
+        checkClosed();
+        checkExecuted();
+        executed = true;
+        return new int[batches.size()];
+    }
+
     public void setLong(int parameterIndex, long x) throws SQLException {
         checkClosed();
         checkExecuted();
@@ -140,10 +163,6 @@ public class MockPreparedStatement
     // Un-implemented methods
     // ----------------------------------------------------------------------
 
-    public void addBatch() throws SQLException {
-        throw new RuntimeException("MockPreparedStatement.addBatch not implemented");
-    }
-
     public void clearParameters() throws SQLException {
         throw new RuntimeException("MockPreparedStatement.clearParameters not implemented");
     }
@@ -314,10 +333,6 @@ public class MockPreparedStatement
         throw new RuntimeException("MockPreparedStatement.execute not implemented");
     }
 
-    public int[] executeBatch() throws SQLException {
-        throw new RuntimeException("MockPreparedStatement.executeBatch not implemented");
-    }
-
     public ResultSet executeQuery(String arg0) throws SQLException {
         throw new RuntimeException("MockPreparedStatement.executeQuery not implemented");
     }
@@ -0,0 +1,187 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.access;
+
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+public class TestRISearchCursors {
+
+    private RISearchCursors m_cursors;
+
+    @After
+    public void tearDown() {
+        if (m_cursors != null) {
+            m_cursors.closeAll();
+        }
+    }
+
+    @Test
+    public void testPushDownOnlyOrderedQueries() {
+        assertEquals("select $s from <#ri> where $s $p $o order by $s"
+                + " limit 10 offset 20",
+                     RISearchCursors.pushDown("itql",
+                                              "select $s from <#ri>"
+                                                      + " where $s $p $o"
+                                                      + " order by $s;",
+                                              10,
+                                              20));
+        assertEquals("SELECT ?s WHERE { ?s ?p ?o } ORDER BY ?s offset 5",
+                     RISearchCursors.pushDown("SPARQL",
+                                              " SELECT ?s WHERE { ?s ?p ?o }"
+                                                      + " ORDER BY ?s",
+                                              0,
+                                              5));
+        // unordered, so the triplestore may skip any rows
+        assertNull(RISearchCursors.pushDown("itql",
+                                            "select $s from <#ri>"
+                                                    + " where $s $p $o;",
+                                            10,
+                                            20));
+        assertNull(RISearchCursors.pushDown("sparql",
+                                            "SELECT ?order WHERE { ?order ?p ?o }",
+                                            0,
+                                            5));
+        // already paged
+        assertNull(RISearchCursors.pushDown("sparql",
+                                            "SELECT ?s WHERE { ?s ?p ?o }"
+                                                    + " ORDER BY ?s LIMIT 3",
+                                            0,
+                                            5));
+        assertNull(RISearchCursors.pushDown("spo", "* * * order by x", 0, 5));
+        assertNull(RISearchCursors.pushDown(null, "order by x", 0, 5));
+    }
+
+    @Test
+    public void testPagesStopAtLimit() throws Exception {
+        ListCursor cursor = new ListCursor(10, 7);
+        cursor.skip(2);
+        assertEquals(Arrays.<Object> asList(2, 3, 4), cursor.nextPage(3));
+        assertTrue(cursor.hasMore());
+        assertEquals(Arrays.<Object> asList(5, 6, 7), cursor.nextPage(3));
+        assertEquals(Arrays.<Object> asList(8), cursor.nextPage(3));
+        assertFalse(cursor.hasMore());
+
+        cursor = new ListCursor(4, 0);
+        assertEquals(Arrays.<Object> asList(0, 1, 2, 3), cursor.nextPage(10));
+        assertFalse(cursor.hasMore());
+    }
+
+    @Test
+    public void testCursorIsContinuedOnlyByItsOwner() {
+        m_cursors = new RISearchCursors(10, 60000);
+        ListCursor cursor = new ListCursor(10, 0);
+        String token = m_cursors.put(cursor, "alice");
+        assertNotNull(token);
+
+        assertNull(m_cursors.take(token, "bob"));
+        assertNull(m_cursors.take(token, null));
+        assertSame(cursor, m_cursors.take(token, "alice"));
+        // taken, so no longer available
+        assertNull(m_cursors.take(token, "alice"));
+
+        m_cursors.putBack(token, cursor);
+        assertSame(cursor, m_cursors.take(token, "alice"));
+
+        ListCursor anonymous = new ListCursor(10, 0);
+        token = m_cursors.put(anonymous, null);
+        assertNull(m_cursors.take(token, "alice"));
+        assertSame(anonymous, m_cursors.take(token, null));
+        assertFalse(cursor.closed || anonymous.closed);
+    }
+
+    @Test
+    public void testMaxCursors() {
+        m_cursors = new RISearchCursors(2, 60000);
+        assertNotNull(m_cursors.put(new ListCursor(1, 0), null));
+        assertNotNull(m_cursors.put(new ListCursor(1, 0), null));
+        assertNull(m_cursors.put(new ListCursor(1, 0), null));
+    }
+
+    @Test
+    public void testIdleCursorsAreClosedByTimer() throws Exception {
+        m_cursors = new RISearchCursors(10, 100);
+        ListCursor cursor = new ListCursor(10, 0);
+        String token = m_cursors.put(cursor, "alice");
+
+        // nothing else touches the cursors, so only the timer closes it
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!cursor.closed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(cursor.closed);
+        assertNull(m_cursors.take(token, "alice"));
+    }
+
+    @Test
+    public void testCloseAll() {
+        m_cursors = new RISearchCursors(10, 60000);
+        ListCursor cursor = new ListCursor(10, 0);
+        String token = m_cursors.put(cursor, "alice");
+        m_cursors.closeAll();
+        assertTrue(cursor.closed);
+        assertNull(m_cursors.take(token, "alice"));
+    }
+
+    /**
+     * A result of the numbers from 0.
+     */
+    private static class ListCursor
+            extends RISearchCursors.Cursor {
+
+        private final Iterator<Object> m_rows;
+
+        private volatile boolean closed;
+
+        ListCursor(int size, int limit) {
+            super(null, limit);
+            List<Object> rows = new ArrayList<Object>();
+            for (int i = 0; i < size; i++) {
+                rows.add(i);
+            }
+            m_rows = rows.iterator();
+        }
+
+        @Override
+        boolean hasNextRow() {
+            return m_rows.hasNext();
+        }
+
+        @Override
+        Object nextRow() {
+            return m_rows.next();
+        }
+
+        @Override
+        void write(Iterator<Object> rows, OutputStream out) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        void closeResult() {
+            closed = true;
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestRISearchCursors.class);
+    }
+}
@@ -8,10 +8,11 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {org.fcrepo.server.journal.helpers.AllUnitTests.class,
+@Suite.SuiteClasses( {org.fcrepo.server.journal.binaryhelpers.AllUnitTests.class,
+        org.fcrepo.server.journal.helpers.AllUnitTests.class,
         org.fcrepo.server.journal.readerwriter.AllUnitTests.class,
         org.fcrepo.server.journal.xmlhelpers.AllUnitTests.class,
-        TestJournalRoundTrip.class})
+        TestJournalRoundTrip.class, TestJournalEntryDispatcher.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -19,10 +20,12 @@ public class AllUnitTests {
 
         junit.framework.TestSuite suite =
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
+        suite.addTest(org.fcrepo.server.journal.binaryhelpers.AllUnitTests.suite());
         suite.addTest(org.fcrepo.server.journal.helpers.AllUnitTests.suite());
         suite.addTest(org.fcrepo.server.journal.readerwriter.AllUnitTests.suite());
         suite.addTest(org.fcrepo.server.journal.xmlhelpers.AllUnitTests.suite());
         suite.addTest(TestJournalRoundTrip.suite());
+        suite.addTestSuite(TestJournalEntryDispatcher.class);
 
         return suite;
     }
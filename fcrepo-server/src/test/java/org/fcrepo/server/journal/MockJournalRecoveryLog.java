@@ -38,7 +38,7 @@ public class MockJournalRecoveryLog
 
     private static List<String> messages = new ArrayList<String>();
 
-    public static List<String> getMessages() {
+    public static synchronized List<String> getMessages() {
         return new ArrayList<String>(messages);
     }
 
@@ -56,7 +56,9 @@ public class MockJournalRecoveryLog
 
     @Override
     public void log(String message) {
-        messages.add(message);
+        synchronized (MockJournalRecoveryLog.class) {
+            messages.add(message);
+        }
     }
 
     @Override
@@ -0,0 +1,299 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal;
+
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.fcrepo.server.Context;
+import org.fcrepo.server.errors.GeneralException;
+import org.fcrepo.server.errors.ServerException;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntryContext;
+import org.fcrepo.server.management.MockManagementDelegate;
+
+import junit.framework.TestCase;
+
+public class TestJournalEntryDispatcher
+        extends TestCase
+        implements JournalConstants {
+
+    private static final int THREADS = 4;
+
+    private OrderRecordingDelegate delegate;
+
+    private MockJournalRecoveryLog recoveryLog;
+
+    private JournalEntryDispatcher dispatcher;
+
+    public TestJournalEntryDispatcher(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        delegate = new OrderRecordingDelegate();
+        recoveryLog =
+                new MockJournalRecoveryLog(new HashMap<String, String>(),
+                                           "role",
+                                           null);
+        dispatcher = new JournalEntryDispatcher(THREADS, delegate, recoveryLog);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        dispatcher.stop();
+        super.tearDown();
+    }
+
+    /**
+     * The entries for each object are applied in order, but more than one
+     * thread does the work.
+     */
+    public void testEntriesForEachObjectStayInOrder() throws Exception {
+        for (int i = 0; i < 60; i++) {
+            dispatcher.dispatch(modifyObject("demo:" + i % 6, i));
+        }
+        dispatcher.shutdown();
+
+        assertEquals(60, delegate.getModifyCount());
+        for (int object = 0; object < 6; object++) {
+            List<Integer> labels = delegate.getLabels("demo:" + object);
+            assertEquals(10, labels.size());
+            for (int i = 0; i < labels.size(); i++) {
+                assertEquals(Integer.valueOf(object + 6 * i), labels.get(i));
+            }
+        }
+        assertTrue("Expected more than one thread", delegate.getThreadCount() > 1);
+    }
+
+    /**
+     * The relationship subject may be a URI, but it's still the same object.
+     */
+    public void testSubjectUriIsTheSameObject() throws Exception {
+        ConsumerJournalEntry entry =
+                new ConsumerJournalEntry(METHOD_ADD_RELATIONSHIP,
+                                         new JournalEntryContext());
+        entry.addArgument(ARGUMENT_NAME_PID, "info:fedora/demo:1/DS1");
+        assertEquals("demo:1", entry.getMethod().getPid());
+    }
+
+    /**
+     * getNextPID may affect any object, so it waits for everything before it.
+     */
+    public void testCrossObjectMethodIsABarrier() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            dispatcher.dispatch(modifyObject("demo:" + i, i));
+        }
+        ConsumerJournalEntry getNextPid =
+                new ConsumerJournalEntry(METHOD_GET_NEXT_PID,
+                                         new JournalEntryContext());
+        getNextPid.addArgument(ARGUMENT_NAME_NUM_PIDS, 1);
+        getNextPid.addArgument(ARGUMENT_NAME_NAMESPACE, "demo");
+        assertNull(getNextPid.getMethod().getPid());
+        dispatcher.dispatch(getNextPid);
+
+        assertEquals(20, delegate.getModifyCountAtBarrier());
+        dispatcher.shutdown();
+    }
+
+    /**
+     * An object is not ingested until the content model it names has been,
+     * even though the two are different objects.
+     */
+    public void testIngestWaitsForTheObjectsBeforeIt() throws Exception {
+        dispatcher.dispatch(ingest(OrderRecordingDelegate.SLOW_PID));
+        dispatcher.dispatch(ingest("demo:object"));
+        dispatcher.shutdown();
+
+        assertEquals(Arrays.asList(OrderRecordingDelegate.SLOW_PID,
+                                   "demo:object"), delegate.getIngested());
+    }
+
+    /**
+     * A RELS-EXT change may name another object, so it waits for the
+     * entries of other objects before it.
+     */
+    public void testRelsExtChangeIsABarrier() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            dispatcher.dispatch(modifyObject("demo:" + i, i));
+        }
+        ConsumerJournalEntry relsExt =
+                new ConsumerJournalEntry(METHOD_MODIFY_DATASTREAM_BY_VALUE,
+                                         new JournalEntryContext());
+        relsExt.addArgument(ARGUMENT_NAME_PID, "demo:object");
+        relsExt.addArgument(ARGUMENT_NAME_DS_ID, "RELS-EXT");
+        assertTrue(relsExt.getMethod().involvesOtherObjects());
+        dispatcher.dispatch(relsExt);
+
+        assertEquals(20, delegate.getModifyCountAtBarrier());
+        dispatcher.shutdown();
+    }
+
+    /**
+     * A failure is reported, and the entries that are still waiting are not
+     * applied.
+     */
+    public void testFailureIsReported() throws Exception {
+        dispatcher.dispatch(modifyObject(OrderRecordingDelegate.BAD_PID, 0));
+        try {
+            for (int i = 1; i < 1000; i++) {
+                dispatcher.dispatch(modifyObject("demo:" + i, i));
+            }
+            dispatcher.shutdown();
+            fail("Expected a JournalException");
+        } catch (JournalException e) {
+            // expected
+        }
+        assertTrue(delegate.getModifyCount() < 999);
+    }
+
+    private ConsumerJournalEntry ingest(String pid) {
+        ConsumerJournalEntry entry =
+                new ConsumerJournalEntry(METHOD_INGEST,
+                                         new JournalEntryContext());
+        entry.addArgument(ARGUMENT_NAME_NEW_PID, pid);
+        entry.setIdentifier("ingest " + pid);
+        return entry;
+    }
+
+    private ConsumerJournalEntry modifyObject(String pid, int label) {
+        ConsumerJournalEntry entry =
+                new ConsumerJournalEntry(METHOD_MODIFY_OBJECT,
+                                         new JournalEntryContext());
+        entry.addArgument(ARGUMENT_NAME_PID, pid);
+        entry.addArgument(ARGUMENT_NAME_LABEL, String.valueOf(label));
+        entry.setIdentifier("entry " + label);
+        return entry;
+    }
+
+    /**
+     * Records the order in which the objects are modified, taking a little
+     * time over each one.
+     */
+    private static class OrderRecordingDelegate
+            extends MockManagementDelegate {
+
+        static final String BAD_PID = "demo:bad";
+
+        /** An object whose ingest takes a while, like a content model. */
+        static final String SLOW_PID = "demo:cmodel";
+
+        private final List<String> ingested = new ArrayList<String>();
+
+        private final Map<String, List<Integer>> labels =
+                new HashMap<String, List<Integer>>();
+
+        private final Set<String> threads = new HashSet<String>();
+
+        private int modifyCount;
+
+        private int modifyCountAtBarrier = -1;
+
+        @Override
+        public Date modifyObject(Context context,
+                                 String pid,
+                                 String state,
+                                 String label,
+                                 String ownerId,
+                                 String logMessage,
+                                 Date lastModifiedDate)
+                throws ServerException {
+            if (BAD_PID.equals(pid)) {
+                throw new GeneralException("Failed on purpose");
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                // no special action on interrupt.
+            }
+            synchronized (this) {
+                List<Integer> list = labels.get(pid);
+                if (list == null) {
+                    list = new ArrayList<Integer>();
+                    labels.put(pid, list);
+                }
+                list.add(Integer.valueOf(label));
+                threads.add(Thread.currentThread().getName());
+                modifyCount++;
+            }
+            return new Date();
+        }
+
+        @Override
+        public String ingest(Context context,
+                             InputStream serialization,
+                             String logMessage,
+                             String format,
+                             String encoding,
+                             String pid) {
+            if (SLOW_PID.equals(pid)) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // no special action on interrupt.
+                }
+            }
+            synchronized (this) {
+                ingested.add(pid);
+            }
+            return pid;
+        }
+
+        @Override
+        public synchronized Date modifyDatastreamByValue(Context context,
+                                                         String pid,
+                                                         String datastreamID,
+                                                         String[] altIDs,
+                                                         String dsLabel,
+                                                         String mimeType,
+                                                         String formatURI,
+                                                         InputStream dsContent,
+                                                         String checksumType,
+                                                         String checksum,
+                                                         String logMessage,
+                                                         Date lastModifiedDate) {
+            modifyCountAtBarrier = modifyCount;
+            return new Date();
+        }
+
+        @Override
+        public synchronized String[] getNextPID(Context context,
+                                                int numPIDs,
+                                                String namespace) {
+            modifyCountAtBarrier = modifyCount;
+            return new String[] {namespace + ":1"};
+        }
+
+        synchronized List<String> getIngested() {
+            return new ArrayList<String>(ingested);
+        }
+
+        synchronized List<Integer> getLabels(String pid) {
+            return labels.get(pid);
+        }
+
+        synchronized int getModifyCount() {
+            return modifyCount;
+        }
+
+        synchronized int getModifyCountAtBarrier() {
+            return modifyCountAtBarrier;
+        }
+
+        synchronized int getThreadCount() {
+            return threads.size();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses( {TestBinaryJournalOutputAndInput.class,
+        TestJournalConverter.class, TestJournalIndex.class})
+public class AllUnitTests {
+
+    // Supports legacy tests runners
+    public static junit.framework.Test suite() throws Exception {
+
+        junit.framework.TestSuite suite =
+                new junit.framework.TestSuite(AllUnitTests.class.getName());
+
+        suite.addTestSuite(TestBinaryJournalOutputAndInput.class);
+        suite.addTestSuite(TestJournalConverter.class);
+        suite.addTestSuite(TestJournalIndex.class);
+
+        return suite;
+    }
+}
@@ -0,0 +1,322 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.fcrepo.server.MultiValueMap;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.entry.CreatorJournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntryContext;
+import org.fcrepo.server.journal.helpers.JournalFileSection;
+import org.fcrepo.server.journal.helpers.TeeInputStream;
+import org.fcrepo.server.journal.readerwriter.multicast.SampleJournalEntries;
+import org.fcrepo.server.utilities.StreamUtility;
+
+import junit.framework.TestCase;
+
+public class TestBinaryJournalOutputAndInput
+        extends TestCase {
+
+    private static final String HASH = "repositoryHash";
+
+    private static final Date DATE = new Date(1234567890123L);
+
+    private final List<File> files = new ArrayList<File>();
+
+    public TestBinaryJournalOutputAndInput(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : files) {
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testWriteAndReadEntries() throws Exception {
+        List<JournalEntry> entries = createEntries();
+        byte[] journal = writeJournal(entries);
+
+        BinaryJournalInput input =
+                new BinaryJournalInput(new ByteArrayInputStream(journal));
+        input.readHeader();
+        assertEquals(HASH, input.getRepositoryHash());
+        assertEquals(DATE, input.getDate());
+        assertEntriesAreRead(entries, input);
+    }
+
+    public void testRecognizeFormat() throws Exception {
+        File binary = writeJournalFile(createEntries());
+        InputStream in = BinaryJournalInput.openJournalFile(binary);
+        assertTrue(BinaryJournalInput.isBinaryJournal(in));
+        assertTrue(BinaryJournalInput.isBinaryJournal(in));
+        in.close();
+
+        File xml = createTempFile();
+        JournalConverter.convert(binary, xml, false);
+        in = BinaryJournalInput.openJournalFile(xml);
+        assertFalse(BinaryJournalInput.isBinaryJournal(in));
+        in.close();
+    }
+
+    /**
+     * Convert to XML, compressed, and back again. Nothing should be lost.
+     */
+    public void testConvertBothWays() throws Exception {
+        List<JournalEntry> entries = createEntries();
+        File binary = writeJournalFile(entries);
+        File xml = createTempFile();
+        File binaryAgain = createTempFile();
+
+        assertTrue(JournalConverter.convert(binary, xml, true));
+        String xmlText =
+                new String(StreamUtility.getBytes(BinaryJournalInput
+                        .openJournalFile(xml)), "UTF-8");
+        assertTrue(xmlText.contains("repositoryHash=\"" + HASH + "\""));
+
+        assertFalse(JournalConverter.convert(xml, binaryAgain, false));
+        BinaryJournalInput input =
+                new BinaryJournalInput(BinaryJournalInput
+                        .openJournalFile(binaryAgain));
+        input.readHeader();
+        assertEquals(HASH, input.getRepositoryHash());
+        assertEquals(DATE, input.getDate());
+        assertEntriesAreRead(entries, input);
+        input.close();
+    }
+
+    /**
+     * In an uncompressed file, a stream argument is read where it lies.
+     */
+    public void testStreamArgumentsAreReadInPlace() throws Exception {
+        File binary = writeJournalFile(createEntries());
+        assertFalse(BinaryJournalInput.isCompressedFile(binary));
+
+        BinaryJournalInput input =
+                new BinaryJournalInput(BinaryJournalInput
+                        .openJournalFile(binary), binary);
+        input.readHeader();
+        ConsumerJournalEntry entry = input.readEntry();
+        Object stream = entry.getArgumentsMap().get("stream");
+        assertTrue(stream instanceof JournalFileSection);
+        assertEquals(20000, ((File) stream).length());
+        assertTrue(Arrays.equals(createContent(), StreamUtility
+                .getBytes(entry.getStreamArgument("stream"))));
+
+        // Closing the entry must not delete the journal file.
+        entry.close();
+        assertTrue(binary.exists());
+        while ((entry = input.readEntry()) != null) {
+            entry.close();
+        }
+        input.close();
+    }
+
+    /**
+     * A stream argument that is only partly read is still written in full.
+     */
+    public void testPartlyReadStreamIsWrittenInFull() throws Exception {
+        CreatorJournalEntry entry =
+                new CreatorJournalEntry("testing", new JournalEntryContext());
+        entry.addArgument("stream", new ByteArrayInputStream(createContent()));
+        InputStream in = entry.getStreamArgument("stream");
+        assertEquals(0, in.read());
+        assertEquals(1, in.read());
+        entry.completeStreamArguments();
+
+        List<JournalEntry> entries = new ArrayList<JournalEntry>();
+        entries.add(entry);
+        BinaryJournalInput input =
+                new BinaryJournalInput(new ByteArrayInputStream(writeJournal(entries)));
+        input.readHeader();
+        ConsumerJournalEntry read = input.readEntry();
+        assertTrue(Arrays.equals(createContent(), StreamUtility.getBytes(read
+                .getStreamArgument("stream"))));
+        read.close();
+        entry.close();
+    }
+
+    /**
+     * A stream that isn't from a local file is copied before the journal is
+     * locked; a stream from a local file is left to be read.
+     */
+    public void testRemoteStreamsAreCopiedFirst() throws Exception {
+        File local = createTempFile();
+        FileOutputStream out = new FileOutputStream(local);
+        out.write(createContent());
+        out.close();
+
+        CreatorJournalEntry entry =
+                new CreatorJournalEntry("testing", new JournalEntryContext());
+        entry.addArgument("remote", new ByteArrayInputStream(createContent()));
+        entry.addArgument("local", new FileInputStream(local));
+        entry.copyRemoteStreamArguments();
+
+        InputStream remote = entry.getStreamArgument("remote");
+        assertFalse(remote instanceof TeeInputStream);
+        assertTrue(Arrays.equals(createContent(), StreamUtility
+                .getBytes(remote)));
+        InputStream tee = entry.getStreamArgument("local");
+        assertTrue(tee instanceof TeeInputStream);
+        assertTrue(Arrays.equals(createContent(), StreamUtility.getBytes(tee)));
+        assertEquals(20000, ((File) entry.getArgumentsMap().get("local"))
+                .length());
+        entry.close();
+    }
+
+    public void testIncompleteJournal() throws Exception {
+        byte[] journal = writeJournal(createEntries());
+        byte[] truncated = new byte[journal.length - 10];
+        System.arraycopy(journal, 0, truncated, 0, truncated.length);
+
+        BinaryJournalInput input =
+                new BinaryJournalInput(new ByteArrayInputStream(truncated));
+        input.readHeader();
+        try {
+            while (input.readEntry() != null) {
+                // keep reading until it fails.
+            }
+            fail("Expected a JournalException");
+        } catch (JournalException e) {
+            // expected
+        }
+    }
+
+    public void testNotABinaryJournal() throws Exception {
+        BinaryJournalInput input =
+                new BinaryJournalInput(new ByteArrayInputStream("<?xml version"
+                        .getBytes("UTF-8")));
+        try {
+            input.readHeader();
+            fail("Expected a JournalException");
+        } catch (JournalException e) {
+            // expected
+        }
+    }
+
+    private List<JournalEntry> createEntries() throws Exception {
+        JournalEntryContext context = new JournalEntryContext();
+        context.setPassword("SuperSecret");
+        context.setNoOp(true);
+        MultiValueMap recovery = new MultiValueMap();
+        recovery.set("recoveryAttribute", new String[] {"value1", "value2"});
+        context.setRecoveryAttributes(recovery);
+
+        CreatorJournalEntry entry = new CreatorJournalEntry("testing", context);
+        entry.addArgument("string", "special characters (&<>'\") \u00e9");
+        entry.addArgument("emptyString", "");
+        entry.addArgument("stringArray", new String[] {"one", "two"});
+        entry.addArgument("integer", 42);
+        entry.addArgument("boolean", false);
+        entry.addArgument("date", DATE);
+        entry.addArgument("nothing", (Object) null);
+        entry.addArgument("stream", new ByteArrayInputStream(createContent()));
+
+        List<JournalEntry> entries = new ArrayList<JournalEntry>();
+        entries.add(entry);
+        entries.addAll(SampleJournalEntries.ALL_ENTRIES);
+        return entries;
+    }
+
+    private byte[] createContent() {
+        byte[] content = new byte[20000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    private byte[] writeJournal(List<JournalEntry> entries) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryJournalOutput output = new BinaryJournalOutput(bytes);
+        output.writeHeader(HASH, DATE);
+        for (JournalEntry entry : entries) {
+            output.writeEntry(entry);
+        }
+        output.writeTrailer();
+        output.close();
+        return bytes.toByteArray();
+    }
+
+    private File writeJournalFile(List<JournalEntry> entries) throws Exception {
+        File file = createTempFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(writeJournal(entries));
+        out.close();
+        return file;
+    }
+
+    private File createTempFile() throws Exception {
+        File file = File.createTempFile("fedoraTestingBinaryJournal", null);
+        files.add(file);
+        return file;
+    }
+
+    private void assertEntriesAreRead(List<JournalEntry> expected,
+                                      BinaryJournalInput input)
+            throws Exception {
+        for (JournalEntry entry : expected) {
+            ConsumerJournalEntry read = input.readEntry();
+            assertNotNull(read);
+            assertEntriesAreEqual(entry, read);
+            read.close();
+        }
+        assertNull(input.readEntry());
+    }
+
+    /**
+     * Null arguments are not read back, just as with the XML format.
+     */
+    private void assertEntriesAreEqual(JournalEntry expected,
+                                       JournalEntry actual) throws Exception {
+        assertEquals(expected.getMethodName(), actual.getMethodName());
+        assertEquals(expected.getContext(), actual.getContext());
+
+        Map<String, Object> actualArguments = actual.getArgumentsMap();
+        int nonNullArguments = 0;
+        for (Map.Entry<String, Object> argument : expected.getArgumentsMap()
+                .entrySet()) {
+            String name = argument.getKey();
+            Object value = argument.getValue();
+            Object actualValue = actualArguments.get(name);
+            if (value == null) {
+                assertFalse(name, actualArguments.containsKey(name));
+                continue;
+            }
+            nonNullArguments++;
+            if (value instanceof String[]) {
+                assertTrue(name, Arrays.equals((String[]) value,
+                                               (String[]) actualValue));
+            } else if (value instanceof File) {
+                assertTrue(name, Arrays.equals(readFile((File) value),
+                                               readFile((File) actualValue)));
+            } else {
+                assertEquals(name, value, actualValue);
+            }
+        }
+        assertEquals(nonNullArguments, actualArguments.size());
+    }
+
+    private byte[] readFile(File file) throws Exception {
+        return StreamUtility.getBytes(new FileInputStream(file));
+    }
+
+}
@@ -0,0 +1,180 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+
+import javanet.staxutils.IndentingXMLEventWriter;
+
+import org.fcrepo.server.journal.JournalConstants;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.entry.CreatorJournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntryContext;
+import org.fcrepo.server.journal.readerwriter.multicast.SampleJournalEntries;
+import org.fcrepo.server.journal.xmlhelpers.JournalEntryXmlReader;
+import org.fcrepo.server.journal.xmlhelpers.JournalEntryXmlWriter;
+import org.fcrepo.server.utilities.StreamUtility;
+
+import junit.framework.TestCase;
+
+public class TestJournalConverter
+        extends TestCase
+        implements JournalConstants {
+
+    private static final String HASH = "repositoryHash";
+
+    private static final Date DATE = new Date(1234567890123L);
+
+    private final List<File> files = new ArrayList<File>();
+
+    public TestJournalConverter(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : files) {
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Convert an XML journal to binary, compressed, and back again. The
+     * result should be the same document, except that null arguments are not
+     * read back (just as when the XML journal is read).
+     */
+    public void testConvertXmlToBinaryAndBack() throws Exception {
+        List<JournalEntry> entries = createEntries();
+        File xml = writeXmlJournal(entries);
+        File binary = createTempFile();
+        File xmlAgain = createTempFile();
+
+        assertFalse(JournalConverter.convert(xml, binary, true));
+        assertTrue(BinaryJournalInput.isCompressedFile(binary));
+        BinaryJournalInput input =
+                new BinaryJournalInput(BinaryJournalInput
+                        .openJournalFile(binary));
+        input.readHeader();
+        assertEquals(HASH, input.getRepositoryHash());
+        assertEquals(DATE, input.getDate());
+        for (JournalEntry entry : entries) {
+            ConsumerJournalEntry read = input.readEntry();
+            assertNotNull(read);
+            assertEquals(entry.getMethodName(), read.getMethodName());
+            assertEquals(entry.getContext(), read.getContext());
+            read.close();
+        }
+        assertNull(input.readEntry());
+        input.close();
+
+        assertTrue(JournalConverter.convert(binary, xmlAgain, false));
+        String expected =
+                readText(xml).replaceAll("<argument name=\"[^\"]*\" type=\""
+                        + ARGUMENT_TYPE_NULL + "\"></argument>", "");
+        assertEquals(expected, readText(xmlAgain));
+        assertEntriesAreRead(entries, xmlAgain);
+    }
+
+    private List<JournalEntry> createEntries() throws Exception {
+        JournalEntryContext context = new JournalEntryContext();
+        context.setPassword("SuperSecret");
+        context.setNow(DATE);
+
+        CreatorJournalEntry entry = new CreatorJournalEntry("testing", context);
+        entry.addArgument("string", "special characters (&<>'\") \u00e9");
+        entry.addArgument("stringArray", new String[] {"one", "two"});
+        entry.addArgument("integer", 42);
+        entry.addArgument("boolean", true);
+        entry.addArgument("date", DATE);
+        entry.addArgument("stream", new ByteArrayInputStream(createContent()));
+
+        List<JournalEntry> entries = new ArrayList<JournalEntry>();
+        entries.add(entry);
+        entries.addAll(SampleJournalEntries.ALL_ENTRIES);
+        return entries;
+    }
+
+    private byte[] createContent() {
+        byte[] content = new byte[5000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    /**
+     * Write the journal as the JournalConverter writes XML.
+     */
+    private File writeXmlJournal(List<JournalEntry> entries) throws Exception {
+        File file = createTempFile();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file));
+        XMLEventWriter xmlWriter =
+                new IndentingXMLEventWriter(XMLOutputFactory.newInstance()
+                        .createXMLEventWriter(writer));
+        JournalEntryXmlWriter output = new JournalEntryXmlWriter();
+        output.writeDocumentHeader(xmlWriter, HASH, DATE);
+        for (JournalEntry entry : entries) {
+            output.writeJournalEntry(entry, xmlWriter);
+        }
+        output.writeDocumentTrailer(xmlWriter);
+        xmlWriter.close();
+        writer.close();
+        return file;
+    }
+
+    private void assertEntriesAreRead(List<JournalEntry> expected, File xml)
+            throws Exception {
+        XMLEventReader xmlReader =
+                XMLInputFactory.newInstance()
+                        .createXMLEventReader(new InputStreamReader(new FileInputStream(xml)));
+        xmlReader.nextEvent();
+        xmlReader.nextTag();
+        JournalEntryXmlReader entryReader = new JournalEntryXmlReader();
+        for (JournalEntry entry : expected) {
+            ConsumerJournalEntry read = entryReader.readJournalEntry(xmlReader);
+            assertEquals(entry.getMethodName(), read.getMethodName());
+            assertEquals(entry.getContext(), read.getContext());
+            for (Map.Entry<String, Object> argument : entry.getArgumentsMap()
+                    .entrySet()) {
+                assertEquals(argument.getKey(),
+                             argument.getValue() != null,
+                             read.getArgumentsMap()
+                                     .containsKey(argument.getKey()));
+            }
+            read.close();
+        }
+        xmlReader.close();
+    }
+
+    private String readText(File file) throws Exception {
+        return new String(StreamUtility.getBytes(new FileInputStream(file)),
+                          "UTF-8");
+    }
+
+    private File createTempFile() throws Exception {
+        File file = File.createTempFile("fedoraTestingJournalConverter", null);
+        files.add(file);
+        return file;
+    }
+
+}
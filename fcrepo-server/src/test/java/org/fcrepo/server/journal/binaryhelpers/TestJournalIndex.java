@@ -0,0 +1,267 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.binaryhelpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.fcrepo.server.journal.JournalConstants;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.entry.ConsumerJournalEntry;
+import org.fcrepo.server.journal.entry.CreatorJournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntry;
+import org.fcrepo.server.journal.entry.JournalEntryContext;
+import org.fcrepo.server.journal.helpers.JournalEntryFilter;
+import org.fcrepo.server.journal.helpers.JournalHelper;
+
+import junit.framework.TestCase;
+
+public class TestJournalIndex
+        extends TestCase
+        implements JournalConstants {
+
+    private static final long START = 1234567890123L;
+
+    private final List<File> files = new ArrayList<File>();
+
+    public TestJournalIndex(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : files) {
+            JournalIndex.getIndexFile(file).delete();
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testIndexFileNames() throws Exception {
+        File journal = new File("fedoraJournal20090213T233130.123Z");
+        File index = JournalIndex.getIndexFile(journal);
+        assertEquals("fedoraJournal20090213T233130.123Z.index", index
+                .getName());
+        assertTrue(JournalIndex.isIndexFile(index));
+        assertFalse(JournalIndex.isIndexFile(journal));
+    }
+
+    /**
+     * The offsets in the index lead to the entries in the journal.
+     */
+    public void testWriteIndexAndSkipToEntries() throws Exception {
+        List<JournalEntry> entries = createEntries();
+        File journal = createTempFile();
+        writeJournal(journal, entries, true);
+
+        JournalIndex index = JournalIndex.readIndex(journal);
+        assertNotNull(index);
+        assertIndexMatches(entries, index);
+
+        BinaryJournalInput input =
+                new BinaryJournalInput(BinaryJournalInput
+                        .openJournalFile(journal), journal);
+        input.readHeader();
+        JournalIndex.Entry last = index.getEntries().get(entries.size() - 1);
+        input.skipTo(last.getOffset());
+        assertEquals(last.getOffset(), input.getPosition());
+        ConsumerJournalEntry read = input.readEntry();
+        assertEquals(METHOD_PURGE_OBJECT, read.getMethodName());
+        assertEquals("demo:1", read.getMethod().getPid());
+        read.close();
+        assertNull(input.readEntry());
+
+        try {
+            input.skipTo(0);
+            fail("Expected a JournalException");
+        } catch (JournalException e) {
+            // expected
+        }
+        input.close();
+    }
+
+    public void testCreateIndex() throws Exception {
+        List<JournalEntry> entries = createEntries();
+        File journal = createTempFile();
+        writeJournal(journal, entries, false);
+        assertNull(JournalIndex.readIndex(journal));
+
+        JournalIndex created = JournalIndex.createIndex(journal);
+        assertIndexMatches(entries, created);
+        JournalIndex index = JournalIndex.readIndex(journal);
+        assertNotNull(index);
+        assertIndexMatches(entries, index);
+    }
+
+    /**
+     * An index without its trailer is not used.
+     */
+    public void testIncompleteIndex() throws Exception {
+        File journal = createTempFile();
+        JournalIndexOutput output =
+                new JournalIndexOutput(new FileOutputStream(JournalIndex
+                        .getIndexFile(journal)));
+        output.writeEntry(100L, createEntries().get(0));
+        output.close();
+        assertNull(JournalIndex.readIndex(journal));
+    }
+
+    public void testFilter() throws Exception {
+        List<JournalEntry> entries = createEntries();
+        File journal = createTempFile();
+        writeJournal(journal, entries, true);
+        JournalIndex index = JournalIndex.readIndex(journal);
+
+        Set<String> pids = new HashSet<String>();
+        pids.add("demo:1");
+        assertChosen(index, new JournalEntryFilter(null, null, pids), 0, 2, 3);
+        assertChosen(index, new JournalEntryFilter(new Date(START + 1000),
+                                                   new Date(START + 3000),
+                                                   null), 1, 2);
+        assertChosen(index, new JournalEntryFilter(new Date(START + 1000),
+                                                   null,
+                                                   pids), 2, 3);
+        assertChosen(index, JournalEntryFilter.ALL_ENTRIES, 0, 1, 2, 3);
+    }
+
+    public void testFilterParameters() throws Exception {
+        Map<String, String> parameters = new HashMap<String, String>();
+        assertTrue(JournalEntryFilter.parseParameters(parameters,
+                                                      "from",
+                                                      "until",
+                                                      "pids").isAllEntries());
+
+        parameters.put("from", JournalHelper.formatDate(new Date(START)));
+        parameters.put("pids", "demo:1, demo:2");
+        JournalEntryFilter filter =
+                JournalEntryFilter.parseParameters(parameters,
+                                                   "from",
+                                                   "until",
+                                                   "pids");
+        assertFalse(filter.isAllEntries());
+        assertTrue(filter.accepts(new Date(START), "demo:2"));
+        assertFalse(filter.accepts(new Date(START), "demo:3"));
+        assertFalse(filter.accepts(new Date(START - 1), "demo:1"));
+
+        parameters.put("until", "yesterday");
+        try {
+            JournalEntryFilter.parseParameters(parameters,
+                                               "from",
+                                               "until",
+                                               "pids");
+            fail("Expected a JournalException");
+        } catch (JournalException e) {
+            // expected
+        }
+    }
+
+    /**
+     * demo:1, demo:2, getNextPID, and demo:1 again, a second apart.
+     */
+    private List<JournalEntry> createEntries() {
+        List<JournalEntry> entries = new ArrayList<JournalEntry>();
+        entries.add(createPurgeEntry("demo:1", 0));
+        entries.add(createPurgeEntry("demo:2", 1000));
+        CreatorJournalEntry nextPid =
+                new CreatorJournalEntry(METHOD_GET_NEXT_PID,
+                                        createContext(2000));
+        nextPid.addArgument(ARGUMENT_NAME_NUM_PIDS, 1);
+        nextPid.addArgument(ARGUMENT_NAME_NAMESPACE, "demo");
+        entries.add(nextPid);
+        entries.add(createPurgeEntry("demo:1", 3000));
+        return entries;
+    }
+
+    private CreatorJournalEntry createPurgeEntry(String pid, long delay) {
+        CreatorJournalEntry entry =
+                new CreatorJournalEntry(METHOD_PURGE_OBJECT,
+                                        createContext(delay));
+        entry.addArgument(ARGUMENT_NAME_PID, pid);
+        entry.addArgument(ARGUMENT_NAME_LOG_MESSAGE, "purging " + pid);
+        return entry;
+    }
+
+    private JournalEntryContext createContext(long delay) {
+        JournalEntryContext context = new JournalEntryContext();
+        context.setNow(new Date(START + delay));
+        return context;
+    }
+
+    /**
+     * Write the journal, as the MultiFileJournalWriter does, and perhaps the
+     * index too.
+     */
+    private void writeJournal(File journal,
+                              List<JournalEntry> entries,
+                              boolean writeIndex) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryJournalOutput output = new BinaryJournalOutput(bytes);
+        JournalIndexOutput indexOutput =
+                writeIndex ? new JournalIndexOutput(new FileOutputStream(JournalIndex
+                        .getIndexFile(journal)))
+                        : null;
+        output.writeHeader("repositoryHash", new Date(START));
+        for (JournalEntry entry : entries) {
+            long offset = output.getPosition();
+            output.writeEntry(entry);
+            if (indexOutput != null) {
+                indexOutput.writeEntry(offset, entry);
+            }
+        }
+        output.writeTrailer();
+        output.close();
+        if (indexOutput != null) {
+            indexOutput.writeTrailer();
+            indexOutput.close();
+        }
+
+        FileOutputStream out = new FileOutputStream(journal);
+        out.write(bytes.toByteArray());
+        out.close();
+    }
+
+    private File createTempFile() throws Exception {
+        File file = File.createTempFile("fedoraTestingJournalIndex", null);
+        files.add(file);
+        return file;
+    }
+
+    private void assertIndexMatches(List<JournalEntry> expected,
+                                    JournalIndex index) {
+        List<JournalIndex.Entry> actual = index.getEntries();
+        assertEquals(expected.size(), actual.size());
+        long lastOffset = -1;
+        for (int i = 0; i < expected.size(); i++) {
+            JournalEntry entry = expected.get(i);
+            JournalIndex.Entry indexEntry = actual.get(i);
+            assertTrue(indexEntry.getOffset() > lastOffset);
+            lastOffset = indexEntry.getOffset();
+            assertEquals(entry.getContext().now(), indexEntry.getTime());
+            assertEquals(entry.getMethodName(), indexEntry.getMethodName());
+            assertEquals(entry.getMethod().getPid(), indexEntry.getPid());
+        }
+    }
+
+    private void assertChosen(JournalIndex index,
+                              JournalEntryFilter filter,
+                              int... expected) {
+        List<JournalIndex.Entry> all = index.getEntries();
+        List<JournalIndex.Entry> chosen = index.getEntries(filter);
+        assertEquals(filter.toString(), expected.length, chosen.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertSame(all.get(expected[i]), chosen.get(i));
+        }
+    }
+}
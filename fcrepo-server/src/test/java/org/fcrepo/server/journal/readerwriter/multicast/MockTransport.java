@@ -45,6 +45,8 @@ public class MockTransport
 
     private boolean throwExceptionOnGetWriter;
 
+    private long delayOnGetWriter;
+
     // -------------------------------------------------------------------------
     // Mocking infrastructure.
     // -------------------------------------------------------------------------
@@ -92,6 +94,10 @@ public class MockTransport
         this.throwExceptionOnGetWriter = throwExceptionOnGetWriter;
     }
 
+    public void setDelayOnGetWriter(long delayOnGetWriter) {
+        this.delayOnGetWriter = delayOnGetWriter;
+    }
+
     // -------------------------------------------------------------------------
     // Mocked methods.
     // -------------------------------------------------------------------------
@@ -119,6 +125,13 @@ public class MockTransport
     @Override
     public XMLEventWriter getWriter() throws JournalException {
         howManyGetWriterRequests++;
+        if (delayOnGetWriter > 0) {
+            try {
+                Thread.sleep(delayOnGetWriter);
+            } catch (InterruptedException e) {
+                // no special action on interrupt.
+            }
+        }
         if (throwExceptionOnGetWriter) {
             throw new JournalException("forced Exception on getWriter()");
         }
@@ -121,6 +121,19 @@ public class TestMulticastJournalWriterInitializations {
         }
     }
 
+    @Test
+    public void testQueueSizeOnCrucialTransport() {
+        addTransportParameter("one", "classname", "classOne");
+        addTransportParameter("one", "crucial", "true");
+        addTransportParameter("one", "queueSize", "10");
+        try {
+            JournalWriter.getInstance(parameters, DUMMY_ROLE, server);
+            fail("Expected a JournalException");
+        } catch (JournalException e) {
+            // expected the exception.
+        }
+    }
+
     @Test
     public void testBadTransportClassname() {
         addTransportParameter("one", "classname", "classOne");
@@ -27,6 +27,7 @@ import org.fcrepo.server.management.MockManagementDelegate;
 
 import static org.fcrepo.server.journal.readerwriter.multicast.MulticastJournalWriter.TRANSPORT_PARAMETER_PREFIX;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 
 public class TestMulticastJournalWriterOperation {
@@ -330,6 +331,75 @@ public class TestMulticastJournalWriterOperation {
                 + "crucial Journal Transport: 'two'");
     }
 
+    @Test
+    public void testQueuedTransportDoesNotHoldUpTheWriter()
+            throws JournalException {
+        addParameter("one.queueSize", "5");
+        createJournalWriterAndTransports();
+        transport1.setDelayOnGetWriter(500);
+
+        journalWriter.prepareToWriteJournalEntry();
+        long start = System.currentTimeMillis();
+        journalWriter.writeJournalEntry(SampleJournalEntries.ENTRY_1);
+        assertTrue("should not wait for the queued transport", System
+                .currentTimeMillis()
+                - start < 500);
+        assertEquals("transport2 journal file contents",
+                     SampleJournalFile1.FILE_CONTENTS,
+                     transport2.getFileContents());
+
+        // Shutdown waits for the queued transport to catch up.
+        journalWriter.shutdown();
+        assertEquals("transport1 journal file contents",
+                     SampleJournalFile1.FILE_CONTENTS,
+                     transport1.getFileContents());
+
+        TransportStatistics statistics =
+                journalWriter.getTransportStatistics().get("one");
+        assertEquals("open, write, close and shutdown", 4, statistics
+                .getDelivered());
+        assertEquals(0, statistics.getFailed());
+        assertEquals(0, statistics.getPending());
+        assertTrue(statistics.getMaxLag() >= 500);
+    }
+
+    @Test
+    public void testSlowCrucialTransportTimesOut() throws JournalException {
+        parameters.put(MulticastJournalWriter.PARAMETER_CRUCIAL_TRANSPORT_TIMEOUT,
+                       "100");
+        createJournalWriterAndTransports();
+        transport2.setDelayOnGetWriter(1000);
+
+        journalWriter.prepareToWriteJournalEntry();
+        long start = System.currentTimeMillis();
+        journalWriter.writeJournalEntry(SampleJournalEntries.ENTRY_1);
+        assertTrue("should not wait for the slow transport", System
+                .currentTimeMillis()
+                - start < 1000);
+        assertEquals("should be a mode change.",
+                     JournalOperatingMode.READ_ONLY,
+                     JournalOperatingMode.getMode());
+    }
+
+    @Test
+    public void testSlowCrucialTransportFinishesFromSavedEntry()
+            throws JournalException, InterruptedException {
+        parameters.put(MulticastJournalWriter.PARAMETER_CRUCIAL_TRANSPORT_TIMEOUT,
+                       "100");
+        createJournalWriterAndTransports();
+        transport2.setDelayOnGetWriter(300);
+
+        journalWriter.prepareToWriteJournalEntry();
+        journalWriter.writeJournalEntry(SampleJournalEntries.ENTRY_1);
+
+        // The late transport still writes the whole entry.
+        Thread.sleep(600);
+        journalWriter.shutdown();
+        assertEquals("transport2 journal file contents",
+                     SampleJournalFile1.FILE_CONTENTS,
+                     transport2.getFileContents());
+    }
+
     private void addParameter(String suffix, String value) {
         parameters.put(TRANSPORT_PARAMETER_PREFIX + suffix, value);
     }
@@ -8,7 +8,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {TestLockingFollowingJournalReader.class})
+@Suite.SuiteClasses( {TestLockingFollowingJournalReader.class,
+        TestMultiFileJournalWriter.class, TestJournalDirectoryWatcher.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -18,6 +19,8 @@ public class AllUnitTests {
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
 
         suite.addTestSuite(TestLockingFollowingJournalReader.class);
+        suite.addTestSuite(TestMultiFileJournalWriter.class);
+        suite.addTestSuite(TestJournalDirectoryWatcher.class);
 
         return suite;
     }
@@ -0,0 +1,122 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.readerwriter.multifile;
+
+import java.io.File;
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+public class TestJournalDirectoryWatcher
+        extends TestCase {
+
+    private static final long LONG_AGO = 60000;
+
+    private File journalDirectory;
+
+    public TestJournalDirectoryWatcher(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        journalDirectory =
+                new File(System.getProperty("java.io.tmpdir"),
+                         "fedoraTestingDirectoryWatcher");
+        journalDirectory.mkdir();
+        for (File file : journalDirectory.listFiles()) {
+            file.delete();
+        }
+        journalDirectory.deleteOnExit();
+        setModified(System.currentTimeMillis() - 2 * LONG_AGO);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : journalDirectory.listFiles()) {
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testListOnlyWhenChanged() throws Exception {
+        JournalDirectoryWatcher watcher =
+                new JournalDirectoryWatcher(journalDirectory, 10, 600000);
+        assertTrue("First check should list", watcher.shouldListDirectory());
+        assertFalse("Unchanged", watcher.shouldListDirectory());
+
+        new File(journalDirectory, "unit0001").createNewFile();
+        setModified(System.currentTimeMillis() - LONG_AGO);
+        assertTrue("Changed", watcher.shouldListDirectory());
+        assertFalse("Unchanged again", watcher.shouldListDirectory());
+    }
+
+    /**
+     * If the time stamp is recent, a later change might not alter it.
+     */
+    public void testListWhileTimestampIsRecent() throws Exception {
+        JournalDirectoryWatcher watcher =
+                new JournalDirectoryWatcher(journalDirectory, 10, 600000);
+        setModified(System.currentTimeMillis());
+        assertTrue(watcher.shouldListDirectory());
+        assertTrue(watcher.shouldListDirectory());
+    }
+
+    public void testListAtNextCheck() throws Exception {
+        JournalDirectoryWatcher watcher =
+                new JournalDirectoryWatcher(journalDirectory, 10, 600000);
+        assertTrue(watcher.shouldListDirectory());
+        assertFalse(watcher.shouldListDirectory());
+        watcher.listAtNextCheck();
+        assertTrue(watcher.shouldListDirectory());
+    }
+
+    /**
+     * With no checking, the directory is listed at every polling interval,
+     * whether it has changed or not.
+     */
+    public void testPollingOnly() throws Exception {
+        JournalDirectoryWatcher watcher =
+                new JournalDirectoryWatcher(journalDirectory, 0, 50);
+        assertEquals(50, watcher.getWaitInterval());
+        assertTrue(watcher.shouldListDirectory());
+        assertFalse(watcher.shouldListDirectory());
+        Thread.sleep(100);
+        assertTrue(watcher.shouldListDirectory());
+    }
+
+    public void testWaitInterval() throws Exception {
+        assertEquals(250, new JournalDirectoryWatcher(journalDirectory,
+                                                      250,
+                                                      3000)
+                .getWaitInterval());
+        assertEquals(3000, new JournalDirectoryWatcher(journalDirectory,
+                                                       5000,
+                                                       3000)
+                .getWaitInterval());
+    }
+
+    public void testReplicationMonitor() throws Exception {
+        ReplicationMonitor monitor = new ReplicationMonitor();
+        assertNull(monitor.getLastEntryTimestamp());
+
+        monitor.entryRead(new Date(System.currentTimeMillis()
+                - LONG_AGO));
+        assertTrue(monitor.getReplicationLag() >= LONG_AGO);
+        assertEquals(1, monitor.getEntriesRead());
+
+        monitor.directoryListed(false);
+        assertTrue(monitor.getReplicationLag() >= LONG_AGO);
+        monitor.directoryListed(true);
+        assertEquals(0, monitor.getReplicationLag());
+        assertEquals(2, monitor.getDirectoryListings());
+    }
+
+    private void setModified(long time) {
+        journalDirectory.setLastModified(time);
+    }
+}
@@ -0,0 +1,223 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.journal.readerwriter.multifile;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fcrepo.server.journal.JournalConstants;
+import org.fcrepo.server.journal.JournalException;
+import org.fcrepo.server.journal.JournalWriter;
+import org.fcrepo.server.journal.MockServerForJournalTesting;
+import org.fcrepo.server.journal.readerwriter.multicast.SampleJournalEntries;
+import org.fcrepo.server.utilities.StreamUtility;
+
+import junit.framework.TestCase;
+
+public class TestMultiFileJournalWriter
+        extends TestCase
+        implements JournalConstants, MultiFileJournalConstants {
+
+    private static final String JOURNAL_FILENAME_PREFIX = "unit";
+
+    private File journalDirectory;
+
+    private Map<String, String> parameters;
+
+    private MultiFileJournalWriter writer;
+
+    public TestMultiFileJournalWriter(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        journalDirectory =
+                new File(System.getProperty("java.io.tmpdir"),
+                         "fedoraTestingJournalWriter");
+        journalDirectory.mkdir();
+        for (File file : journalDirectory.listFiles()) {
+            file.delete();
+        }
+        journalDirectory.deleteOnExit();
+
+        parameters = new HashMap<String, String>();
+        parameters.put(PARAMETER_JOURNAL_DIRECTORY, journalDirectory.getPath());
+        parameters.put(PARAMETER_JOURNAL_FILENAME_PREFIX,
+                       JOURNAL_FILENAME_PREFIX);
+        parameters.put(PARAMETER_GROUP_COMMIT, "true");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (writer != null) {
+            writer.shutdown();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Entries written from several threads are all committed, and all end up
+     * in the journal file.
+     */
+    public void testConcurrentEntriesAreCommitted() throws Exception {
+        parameters.put(PARAMETER_GROUP_COMMIT_DELAY, "20");
+        writer = createWriter();
+
+        final int threads = 8;
+        final int entriesPerThread = 10;
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> running = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < entriesPerThread; j++) {
+                            writeAndCommitEntry();
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            };
+            thread.start();
+            running.add(thread);
+        }
+        for (Thread thread : running) {
+            thread.join(30000);
+        }
+        assertEquals("Failures: " + failures, 0, failures.size());
+
+        writer.shutdown();
+        writer = null;
+        File[] files =
+                MultiFileJournalHelper
+                        .getSortedArrayOfJournalFiles(journalDirectory,
+                                                      JOURNAL_FILENAME_PREFIX);
+        assertEquals(1, files.length);
+        assertEquals(threads * entriesPerThread, countEntries(files[0]));
+    }
+
+    /**
+     * An entry isn't committed until the group fills (or the delay passes).
+     */
+    public void testEntriesAreCommittedTogether() throws Exception {
+        parameters.put(PARAMETER_GROUP_COMMIT_SIZE, "2");
+        parameters.put(PARAMETER_GROUP_COMMIT_DELAY, "60000");
+        writer = createWriter();
+
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        Thread first = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    writeAndCommitEntry();
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }
+        };
+        first.start();
+        first.join(500);
+        assertTrue("First entry should wait for the group", first.isAlive());
+
+        long start = System.currentTimeMillis();
+        writeAndCommitEntry();
+        first.join(10000);
+        assertFalse(first.isAlive());
+        assertTrue(failures.isEmpty());
+        assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    /**
+     * Closing the file commits the entries that are waiting.
+     */
+    public void testShutdownCommitsWaitingEntries() throws Exception {
+        parameters.put(PARAMETER_GROUP_COMMIT_SIZE, "100");
+        parameters.put(PARAMETER_GROUP_COMMIT_DELAY, "60000");
+        writer = createWriter();
+
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        Thread first = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    writeAndCommitEntry();
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }
+        };
+        first.start();
+        first.join(500);
+        assertTrue(first.isAlive());
+
+        writer.shutdown();
+        first.join(10000);
+        assertFalse(first.isAlive());
+        assertTrue(failures.isEmpty());
+    }
+
+    public void testWithoutGroupCommit() throws Exception {
+        parameters.put(PARAMETER_GROUP_COMMIT, "false");
+        parameters.put(PARAMETER_GROUP_COMMIT_DELAY, "60000");
+        writer = createWriter();
+        writeAndCommitEntry();
+        writeAndCommitEntry();
+    }
+
+    public void testInvalidGroupCommitSize() throws Exception {
+        parameters.put(PARAMETER_GROUP_COMMIT_SIZE, "0");
+        try {
+            createWriter();
+            fail("Expected a JournalException");
+        } catch (JournalException e) {
+            // expected
+        }
+    }
+
+    private MultiFileJournalWriter createWriter() throws JournalException {
+        return new MultiFileJournalWriter(parameters,
+                                          "role",
+                                          new MockServerForJournalTesting(null,
+                                                                          "hash"));
+    }
+
+    /**
+     * Do what CreatorJournalEntry does, without invoking a method.
+     */
+    private void writeAndCommitEntry() throws JournalException {
+        synchronized (JournalWriter.SYNCHRONIZER) {
+            writer.prepareToWriteJournalEntry();
+            writer.writeJournalEntry(SampleJournalEntries.ENTRY_2);
+        }
+        writer.waitForCommit();
+    }
+
+    private int countEntries(File file) throws Exception {
+        String journal =
+                new String(StreamUtility.getBytes(new FileInputStream(file)));
+        int count = 0;
+        int index = 0;
+        String tag = "<" + QNAME_TAG_JOURNAL_ENTRY.getLocalPart() + " ";
+        while ((index = journal.indexOf(tag, index)) >= 0) {
+            count++;
+            index += tag.length();
+        }
+        return count;
+    }
+}
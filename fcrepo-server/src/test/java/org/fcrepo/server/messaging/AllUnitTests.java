@@ -13,7 +13,11 @@ import org.fcrepo.server.messaging.AllUnitTests;
 import junit.framework.JUnit4TestAdapter;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {org.fcrepo.server.messaging.JMSManagerTest.class})
+@Suite.SuiteClasses( {org.fcrepo.server.messaging.JMSManagerTest.class,
+        org.fcrepo.server.messaging.TestAtomEntry.class,
+        org.fcrepo.server.messaging.TestMessageOutbox.class,
+        org.fcrepo.server.messaging.TestNotificationCoalescer.class,
+        org.fcrepo.server.messaging.TestNotificationDispatcher.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -0,0 +1,119 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import java.util.Date;
+
+import org.apache.abdera.Abdera;
+import org.apache.abdera.model.Document;
+import org.apache.abdera.model.Entry;
+
+import org.fcrepo.common.Constants;
+import org.fcrepo.utilities.DateUtility;
+
+/**
+ * Compares writing and reading a typical API-M message entry with
+ * AtomEntry against doing the same with the Abdera object model.
+ * <p>
+ * Usage: AtomEntryBenchmark [messages]
+ */
+public class AtomEntryBenchmark {
+
+    private static final String FORMAT_SCHEME =
+            "http://www.fedora.info/definitions/1/0/types/formatURI";
+
+    private static final Abdera abdera = new Abdera();
+
+    private static int sink;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Date date = new Date();
+        String text = writeAtomEntry(date);
+
+        System.out.println("Writing and reading " + messages + " messages");
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                sink += writeAbdera(date).length();
+            }
+            long abderaWrite = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                sink += writeAtomEntry(date).length();
+            }
+            long entryWrite = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                Document<Entry> doc =
+                        abdera.getParser().parse(new StringReader(text));
+                Entry entry = doc.getRoot();
+                sink += entry.getTitle().length()
+                        + entry.getSummary().length()
+                        + entry.getCategories(FORMAT_SCHEME).size();
+            }
+            long abderaRead = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                AtomEntry entry = AtomEntry.parse(text);
+                sink += entry.getTitle().length()
+                        + entry.getSummary().length()
+                        + entry.getCategoryTerm(FORMAT_SCHEME).length();
+            }
+            long entryRead = System.nanoTime() - start;
+
+            System.out.println("Round " + (round + 1) + ": write abdera "
+                    + abderaWrite / messages + " ns, atom entry "
+                    + entryWrite / messages + " ns; read abdera "
+                    + abderaRead / messages + " ns, atom entry "
+                    + entryRead / messages + " ns (per message)");
+        }
+        System.out.println(sink == 0 ? "" : "Done");
+    }
+
+    private static String writeAbdera(Date date) throws Exception {
+        Entry entry = abdera.getFactory().newEntry();
+        entry.declareNS(Constants.XML_XSD.uri, "xsd");
+        entry.declareNS(Constants.TYPES.uri, "fedora-types");
+        entry.setId("urn:uuid:0c5fa6c4-1fbb-4d4b-a3a5-5c1e3f1f7e1a");
+        entry.setUpdated(date);
+        entry.addAuthor("fedoraAdmin", null, "http://localhost:8080/fedora");
+        entry.setTitle("modifyDatastreamByReference");
+        entry.addCategory("fedora-types:pid", "demo:1", "xsd:string");
+        entry.addCategory("fedora-types:dsID", "DS1", "xsd:string");
+        entry.addCategory("fedora-types:logMessage", "a log message", "xsd:string");
+        entry.addCategory("fedora-types:force", "false", "xsd:boolean");
+        entry.setSummary("demo:1");
+        entry.setContent(DateUtility.convertDateToXSDString(date));
+        entry.addCategory(Constants.VIEW.VERSION.uri, "3.5", null);
+        entry.addCategory(FORMAT_SCHEME, Constants.ATOM_APIM1_0.uri, null);
+        StringWriter out = new StringWriter();
+        entry.writeTo(abdera.getWriterFactory().getWriter("prettyxml"), out);
+        return out.toString();
+    }
+
+    private static String writeAtomEntry(Date date) {
+        AtomEntry entry = new AtomEntry();
+        entry.setId("urn:uuid:0c5fa6c4-1fbb-4d4b-a3a5-5c1e3f1f7e1a");
+        entry.setUpdated(DateUtility.convertDateToString(date));
+        entry.setAuthor("fedoraAdmin", "http://localhost:8080/fedora");
+        entry.setTitle("modifyDatastreamByReference");
+        entry.addCategory("fedora-types:pid", "demo:1", "xsd:string");
+        entry.addCategory("fedora-types:dsID", "DS1", "xsd:string");
+        entry.addCategory("fedora-types:logMessage", "a log message", "xsd:string");
+        entry.addCategory("fedora-types:force", "false", "xsd:boolean");
+        entry.setSummary("demo:1");
+        entry.setContent(DateUtility.convertDateToXSDString(date));
+        entry.addCategory(Constants.VIEW.VERSION.uri, "3.5", null);
+        entry.addCategory(FORMAT_SCHEME, Constants.ATOM_APIM1_0.uri, null);
+        return entry.toXML();
+    }
+}
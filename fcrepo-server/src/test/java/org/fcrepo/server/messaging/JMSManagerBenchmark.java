@@ -0,0 +1,101 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+import java.util.Properties;
+
+import javax.naming.Context;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.fcrepo.server.messaging.JMSManager.DestinationType;
+
+/**
+ * Compares sending messages from several threads on sessions borrowed from
+ * JMSManager's pool with creating a session and producer for each message,
+ * using an embedded, non-persistent in-VM ActiveMQ broker.
+ * <p>
+ * Usage: JMSManagerBenchmark [threads] [messagesPerThread]
+ */
+public class JMSManagerBenchmark {
+
+    private static final String QUEUE = "jmsmanager.benchmark";
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        final int messages = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        Properties props = new Properties();
+        props.setProperty(Context.INITIAL_CONTEXT_FACTORY,
+                          "org.apache.activemq.jndi.ActiveMQInitialContextFactory");
+        props.setProperty(Context.PROVIDER_URL,
+                          "vm://benchmark?broker.persistent=false");
+        props.setProperty(JMSManager.CONNECTION_FACTORY_NAME,
+                          "ConnectionFactory");
+        final JMSManager jmsMgr = new JMSManager(props);
+        final Destination dest =
+                jmsMgr.createDestination(QUEUE, DestinationType.Queue);
+
+        System.out.println("Sending " + messages + " messages from each of "
+                + threads + " threads");
+        for (int round = 0; round < 3; round++) {
+            long pooled = time(threads, new Runnable() {
+
+                public void run() {
+                    try {
+                        for (int i = 0; i < messages; i++) {
+                            jmsMgr.send(QUEUE, "message " + i);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            long perMessage = time(threads, new Runnable() {
+
+                public void run() {
+                    try {
+                        Connection connection = jmsMgr.connection;
+                        for (int i = 0; i < messages; i++) {
+                            Session session =
+                                    connection.createSession(false,
+                                                             Session.AUTO_ACKNOWLEDGE);
+                            MessageProducer producer =
+                                    session.createProducer(dest);
+                            producer.send(session.createTextMessage("message "
+                                    + i));
+                            session.close();
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            long total = (long) threads * messages;
+            System.out.println("Round " + (round + 1) + ": pooled "
+                    + total * 1000 / Math.max(pooled, 1)
+                    + " msg/s, session per message "
+                    + total * 1000 / Math.max(perMessage, 1) + " msg/s");
+        }
+        jmsMgr.close();
+    }
+
+    private static long time(int threads, Runnable task) throws Exception {
+        Thread[] workers = new Thread[threads];
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(task);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+}
@@ -4,6 +4,9 @@
  */
 package org.fcrepo.server.messaging;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 
 import javax.naming.Context;
@@ -15,6 +18,7 @@ import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.ObjectMessage;
 import javax.jms.Queue;
+import javax.jms.Session;
 import javax.jms.TextMessage;
 import javax.jms.Topic;
 
@@ -27,6 +31,7 @@ import org.junit.Test;
 import org.fcrepo.server.errors.MessagingException;
 import org.fcrepo.server.messaging.JMSManager;
 import org.fcrepo.server.messaging.JMSManager.DestinationType;
+import org.fcrepo.server.messaging.JMSManager.PooledSession;
 
 import junit.framework.JUnit4TestAdapter;
 import junit.framework.TestCase;
@@ -44,7 +49,7 @@ public class JMSManagerTest extends TestCase implements MessageListener {
     private Properties properties;
     private final String messageText = "Message Text";
     private Message currentMessage = null;
-    private int messageCount = 0;
+    private volatile int messageCount = 0;
     private final int timeout = 5000; // Maximum number of milliseconds to wait for a message
 
     @Override
@@ -246,6 +251,74 @@ public class JMSManagerTest extends TestCase implements MessageListener {
         jmsMgr.close();
     }
 
+    @Test
+    public void testConcurrentSends() throws Exception {
+        String queue = "jmsmanager.concurrent";
+        final JMSManager jmsMgr = new JMSManager(properties);
+        jmsMgr.createDestination(queue, DestinationType.Queue);
+        jmsMgr.listen(queue, this);
+
+        final int threads = 4;
+        final int messagesPerThread = 250;
+        final List<Exception> errors =
+                Collections.synchronizedList(new ArrayList<Exception>());
+        Thread[] senders = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            senders[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < messagesPerThread; j++) {
+                            jmsMgr.send("jmsmanager.concurrent", messageText);
+                        }
+                    } catch (Exception e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            senders[i].start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        long startTime = System.currentTimeMillis();
+        while (messageCount < threads * messagesPerThread) {
+            if (System.currentTimeMillis() > startTime + timeout) {
+                fail("Sent " + threads * messagesPerThread
+                        + " messages but only received " + messageCount);
+            }
+            Thread.sleep(10);
+        }
+
+        jmsMgr.close();
+    }
+
+    @Test
+    public void testTransactedSend() throws Exception {
+        String queue = "jmsmanager.transacted";
+        JMSManager jmsMgr = new JMSManager(properties);
+        Destination destination =
+                jmsMgr.createDestination(queue,
+                                         DestinationType.Queue,
+                                         true,
+                                         Session.SESSION_TRANSACTED);
+        jmsMgr.listen(destination, this);
+
+        // a message sent but not committed is rolled back
+        PooledSession pooled = jmsMgr.borrowSession(queue);
+        pooled.send(destination, pooled.getSession().createTextMessage("rolled back"));
+        jmsMgr.returnSession(pooled);
+        checkNoMessage();
+
+        // single sends are committed at once
+        jmsMgr.send(queue, messageText);
+        checkMessage(queue, DestinationType.Queue, messageText);
+        jmsMgr.close();
+    }
+
     @Test
     public void testInvalidProperties() throws Exception {
         // Null properties
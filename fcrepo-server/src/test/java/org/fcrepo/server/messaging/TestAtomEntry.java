@@ -0,0 +1,277 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+import java.io.StringWriter;
+
+import java.lang.reflect.Method;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.abdera.Abdera;
+import org.apache.abdera.model.Entry;
+
+import org.junit.Test;
+
+import org.fcrepo.common.Constants;
+import org.fcrepo.common.PID;
+import org.fcrepo.server.Context;
+import org.fcrepo.server.management.Management;
+import org.fcrepo.utilities.DateUtility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+public class TestAtomEntry {
+
+    private static final String FORMAT_SCHEME =
+            "http://www.fedora.info/definitions/1/0/types/formatURI";
+
+    private static final Abdera abdera = new Abdera();
+
+    private static final Date DATE = new Date(1205579520005L);
+
+    @Test
+    public void testWriteAndRead() {
+        AtomEntry entry = new AtomEntry();
+        entry.setId("urn:uuid:1");
+        entry.setUpdated("2008-03-15T11:12:00.000Z");
+        entry.setAuthor("fedoraAdmin", "http://localhost:8080/fedora");
+        entry.setTitle("modifyObject");
+        entry.addCategory("fedora-types:pid", "demo:1", "xsd:string");
+        entry.addCategory("fedora-types:logMessage",
+                          "special characters (&<>'\") included",
+                          "xsd:string");
+        entry.setSummary("demo:1");
+        entry.setContent("a < b & c");
+        entry.addCategory(Constants.VIEW.VERSION.uri, "3.5", null);
+        String xml = entry.toXML();
+
+        assertTrue(xml.contains("  <title type=\"text\">modifyObject</title>\n"));
+        assertTrue(xml.contains("term=\"special characters (&amp;&lt;&gt;'&quot;) included\""));
+        assertTrue(xml.contains("<content type=\"text\">a &lt; b &amp; c</content>"));
+        // categories set after the content stay after it
+        assertTrue(xml.indexOf("</content>") < xml.indexOf(Constants.VIEW.VERSION.uri));
+
+        AtomEntry read = AtomEntry.parse(xml);
+        assertEquals("urn:uuid:1", read.getId());
+        assertEquals("2008-03-15T11:12:00.000Z", read.getUpdated());
+        assertEquals("fedoraAdmin", read.getAuthorName());
+        assertEquals("http://localhost:8080/fedora", read.getAuthorUri());
+        assertEquals("modifyObject", read.getTitle());
+        assertEquals("demo:1", read.getSummary());
+        assertEquals("a < b & c", read.getContent());
+        assertEquals("special characters (&<>'\") included",
+                     read.getCategoryTerm("fedora-types:logMessage"));
+        assertEquals("3.5", read.getCategoryTerm(Constants.VIEW.VERSION.uri));
+        assertNull(read.getCategoryTerm(FORMAT_SCHEME));
+        assertEquals(xml, read.toXML());
+    }
+
+    @Test
+    public void testSameAsAbdera() throws Exception {
+        Entry expected = newAbderaEntry();
+        expected.setId("urn:uuid:0c5fa6c4-1fbb-4d4b-a3a5-5c1e3f1f7e1a");
+        expected.setUpdated(DATE);
+        expected.addAuthor("fedoraAdmin", null, "http://localhost:8080/fedora");
+        expected.setTitle("modifyDatastreamByReference");
+        expected.addCategory("fedora-types:pid", "demo:1", "xsd:string");
+        expected.addCategory("fedora-types:force", "false", "xsd:boolean");
+        expected.setSummary("demo:1");
+        expected.setContent(DateUtility.convertDateToXSDString(DATE));
+        expected.addCategory(Constants.VIEW.VERSION.uri, "3.5", null);
+        expected.addCategory(FORMAT_SCHEME, Constants.ATOM_APIM1_0.uri, null);
+
+        AtomEntry entry = new AtomEntry();
+        entry.setId("urn:uuid:0c5fa6c4-1fbb-4d4b-a3a5-5c1e3f1f7e1a");
+        entry.setUpdated(DateUtility.convertDateToString(DATE));
+        entry.setAuthor("fedoraAdmin", "http://localhost:8080/fedora");
+        entry.setTitle("modifyDatastreamByReference");
+        entry.addCategory("fedora-types:pid", "demo:1", "xsd:string");
+        entry.addCategory("fedora-types:force", "false", "xsd:boolean");
+        entry.setSummary("demo:1");
+        entry.setContent(DateUtility.convertDateToXSDString(DATE));
+        entry.addCategory(Constants.VIEW.VERSION.uri, "3.5", null);
+        entry.addCategory(FORMAT_SCHEME, Constants.ATOM_APIM1_0.uri, null);
+
+        assertSameAsAbdera(expected, entry);
+    }
+
+    @Test
+    public void testSameAsAbderaEscaping() throws Exception {
+        String text = "a < b & c > d \"quoted\" 'single' &amp; ]]>";
+        Entry expected = newAbderaEntry();
+        expected.setTitle(text);
+        expected.addCategory("fedora-types:logMessage", text, "xsd:string");
+        expected.addCategory("fedora-types:dsLabel", "term", "label <&>\"'");
+        expected.setSummary(text);
+        expected.setContent(text);
+
+        AtomEntry entry = new AtomEntry();
+        entry.setTitle(text);
+        entry.addCategory("fedora-types:logMessage", text, "xsd:string");
+        entry.addCategory("fedora-types:dsLabel", "term", "label <&>\"'");
+        entry.setSummary(text);
+        entry.setContent(text);
+
+        assertSameAsAbdera(expected, entry);
+    }
+
+    @Test
+    public void testSameAsAbderaEmptyFields() throws Exception {
+        Entry expected = newAbderaEntry();
+        expected.addAuthor(null, null, "http://localhost:8080/fedora");
+        expected.setTitle("");
+        expected.addCategory("fedora-types:pid", "", "");
+        expected.addCategory("fedora-types:dsID", "DS1", null);
+        expected.setSummary("");
+        expected.setContent("");
+
+        AtomEntry entry = new AtomEntry();
+        entry.setAuthor(null, "http://localhost:8080/fedora");
+        entry.setTitle("");
+        entry.addCategory("fedora-types:pid", "", "");
+        entry.addCategory("fedora-types:dsID", "DS1", null);
+        entry.setSummary("");
+        entry.setContent("");
+
+        assertSameAsAbdera(expected, entry);
+
+        expected = newAbderaEntry();
+        expected.addAuthor(null, null, null);
+        entry = new AtomEntry();
+        entry.setAuthor(null, null);
+
+        assertSameAsAbdera(expected, entry);
+        assertSameAsAbdera(newAbderaEntry(), new AtomEntry());
+    }
+
+    @Test
+    public void testSameAsAbderaElementOrder() throws Exception {
+        Entry expected = newAbderaEntry();
+        expected.setTitle("purgeObject");
+        expected.setSummary("demo:1");
+        expected.addCategory("fedora-types:pid", "demo:1", "xsd:string");
+        expected.setContent("2008-03-15T11:12:00.005Z");
+        expected.setId("urn:uuid:1");
+
+        AtomEntry entry = new AtomEntry();
+        entry.setTitle("purgeObject");
+        entry.setSummary("demo:1");
+        entry.addCategory("fedora-types:pid", "demo:1", "xsd:string");
+        entry.setContent("2008-03-15T11:12:00.005Z");
+        entry.setId("urn:uuid:1");
+
+        assertSameAsAbdera(expected, entry);
+    }
+
+    @Test
+    public void testReadSkipsOtherElements() {
+        String xml =
+                "<?xml version='1.0' encoding='UTF-8'?>"
+                        + "<a:entry xmlns:a=\"http://www.w3.org/2005/Atom\""
+                        + " xmlns:x=\"urn:x\">"
+                        + "<a:id>ingestdemo:atomTest</a:id>"
+                        + "<x:extra><a:title>not this</a:title></x:extra>"
+                        + "<a:title type=\"text\">ingest</a:title>"
+                        + "<a:updated>2008-03-15T11:12:00Z</a:updated>"
+                        + "<!-- a comment -->"
+                        + "<a:author><a:name>fedoraAdmin</a:name>"
+                        + "<a:email>a@b.c</a:email>"
+                        + "<a:uri>http://localhost:8080/fedora</a:uri></a:author>"
+                        + "<a:link href=\"http://localhost\"/>"
+                        + "<a:summary>demo:atomTest</a:summary>"
+                        + "<a:content type=\"text\"><![CDATA[demo:]]>atomTest</a:content>"
+                        + "</a:entry>";
+        AtomAPIMMessage message = new AtomAPIMMessage(xml);
+        assertEquals("ingest", message.getMethodName());
+        assertEquals("demo:atomTest", message.getPID());
+        assertEquals("fedoraAdmin", message.getAuthor());
+        assertEquals("http://localhost:8080/fedora", message.getBaseUrl());
+        assertNotNull(message.getDate());
+        assertNull(message.getServerVersion());
+        assertEquals("demo:atomTest", AtomEntry.parse(xml).getContent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadOtherDocument() {
+        AtomEntry.parse("<feed xmlns=\"http://www.w3.org/2005/Atom\"/>");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadMalformed() {
+        AtomEntry.parse("<entry xmlns=\"http://www.w3.org/2005/Atom\"><id>");
+    }
+
+    @Test
+    public void testObjectChangedMessage() throws Exception {
+        List<FedoraMethod> methods = new ArrayList<FedoraMethod>();
+        methods.add(setState("demo:1", "A"));
+        methods.add(setState("demo:1", "I"));
+        CoalescedMethod method = new CoalescedMethod(new PID("demo:1"), methods);
+        AtomObjectChangedMessage message =
+                new AtomObjectChangedMessage(method,
+                                             "http://localhost:8080/fedora",
+                                             "3.5",
+                                             Constants.ATOM_APIM1_0.uri);
+        String xml = message.toString();
+
+        AtomAPIMMessage read = new AtomAPIMMessage(xml);
+        assertEquals(CoalescedMethod.NAME, read.getMethodName());
+        assertEquals("demo:1", read.getPID());
+        assertEquals("3.5", read.getServerVersion());
+        assertEquals(Constants.ATOM_APIM1_0.uri, read.getFormat());
+        assertEquals(message.getDate(), read.getDate());
+        assertEquals(xml, read.toString());
+    }
+
+    /**
+     * Get an Abdera entry declaring the namespaces API-M messages declared
+     * when they were written with Abdera.
+     */
+    private static Entry newAbderaEntry() {
+        Entry entry = abdera.getFactory().newEntry();
+        entry.declareNS(Constants.XML_XSD.uri, "xsd");
+        entry.declareNS(Constants.TYPES.uri, "fedora-types");
+        return entry;
+    }
+
+    /**
+     * Check that the entry is written exactly as Abdera's prettyxml writer
+     * writes the expected entry, and that it reads back the same.
+     */
+    private static void assertSameAsAbdera(Entry expected, AtomEntry entry)
+            throws Exception {
+        StringWriter out = new StringWriter();
+        expected.writeTo(abdera.getWriterFactory().getWriter("prettyxml"), out);
+        String xml = out.toString();
+        assertEquals(xml, entry.toXML());
+        assertEquals(xml, AtomEntry.parse(xml).toXML());
+    }
+
+    private static FedoraMethod setState(String pid, String state)
+            throws Exception {
+        Method method =
+                Management.class.getMethod("setDatastreamState",
+                                           Context.class,
+                                           String.class,
+                                           String.class,
+                                           String.class,
+                                           String.class);
+        return new FedoraMethod(method,
+                                new Object[] {null, pid, "DS", state, null},
+                                null);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestAtomEntry.class);
+    }
+}
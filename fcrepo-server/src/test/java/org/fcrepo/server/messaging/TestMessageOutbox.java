@@ -0,0 +1,312 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.errors.MessagingException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+public class TestMessageOutbox {
+
+    private File m_dir;
+
+    private FakeMessaging m_messaging;
+
+    private MessageOutbox m_outbox;
+
+    @Before
+    public void setUp() throws Exception {
+        m_dir = File.createTempFile("outbox", "");
+        m_dir.delete();
+        m_messaging = new FakeMessaging();
+    }
+
+    @After
+    public void tearDown() {
+        if (m_outbox != null) {
+            m_outbox.close(0);
+        }
+        File[] files = m_dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        m_dir.delete();
+    }
+
+    @Test
+    public void testMessagesAreDeliveredInOrder() throws Exception {
+        open(1024 * 1024);
+        for (int i = 0; i < 25; i++) {
+            append("demo:" + i);
+        }
+        awaitDelivery(25);
+        assertEquals(25, m_messaging.getDelivered().size());
+        for (int i = 0; i < 25; i++) {
+            assertEquals("demo:" + i, m_messaging.getDelivered().get(i).pid);
+        }
+        m_outbox.close(1000);
+        assertEquals(0, m_outbox.getPendingMessages());
+        assertEquals(25, m_outbox.getDeliveredMessages());
+    }
+
+    @Test
+    public void testUndeliveredMessagesSurviveRestart() throws Exception {
+        m_messaging.setAvailable(false);
+        open(1024 * 1024);
+        append("demo:1");
+        append("demo:2");
+        m_outbox.close(100);
+        assertTrue(m_messaging.getDelivered().isEmpty());
+        assertTrue(m_outbox.getFailedAttempts() > 0);
+
+        open(1024 * 1024);
+        assertEquals(2, m_outbox.getPendingMessages());
+        m_messaging.setAvailable(true);
+        awaitDelivery(2);
+        assertEquals("demo:1", m_messaging.getDelivered().get(0).pid);
+        assertEquals("demo:2", m_messaging.getDelivered().get(1).pid);
+
+        // delivered messages are not delivered again
+        m_outbox.close(1000);
+        open(1024 * 1024);
+        assertEquals(0, m_outbox.getPendingMessages());
+    }
+
+    @Test
+    public void testIncompleteMessageIsDiscarded() throws Exception {
+        m_messaging.setAvailable(false);
+        open(1024 * 1024);
+        append("demo:1");
+        m_outbox.close(100);
+
+        // as if the server stopped while writing a second message
+        File segment = null;
+        for (File file : m_dir.listFiles()) {
+            if (file.getName().endsWith(".log")) {
+                segment = file;
+            }
+        }
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.seek(raf.length());
+        raf.writeInt(1000);
+        raf.writeInt(0);
+        raf.write(new byte[10]);
+        raf.close();
+
+        open(1024 * 1024);
+        assertEquals(1, m_outbox.getPendingMessages());
+        m_messaging.setAvailable(true);
+        append("demo:3");
+        awaitDelivery(2);
+        assertEquals("demo:1", m_messaging.getDelivered().get(0).pid);
+        assertEquals("demo:3", m_messaging.getDelivered().get(1).pid);
+    }
+
+    @Test
+    public void testDeliveredFilesAreDeleted() throws Exception {
+        open(100);
+        for (int i = 0; i < 20; i++) {
+            append("demo:" + i);
+        }
+        awaitDelivery(20);
+        m_outbox.close(1000);
+        m_outbox = null;
+        int segments = 0;
+        for (String name : m_dir.list()) {
+            if (name.endsWith(".log")) {
+                segments++;
+            }
+        }
+        assertEquals(1, segments);
+    }
+
+    @Test
+    public void testUndeliverableMessageIsDeadLettered() throws Exception {
+        m_messaging.reject("demo:bad");
+        open(1024 * 1024);
+        append("demo:1");
+        append("demo:bad");
+        append("demo:2");
+        append("demo:3");
+        awaitDelivery(3);
+        assertEquals("demo:1", m_messaging.getDelivered().get(0).pid);
+        assertEquals("demo:2", m_messaging.getDelivered().get(1).pid);
+        assertEquals("demo:3", m_messaging.getDelivered().get(2).pid);
+        m_outbox.close(1000);
+        assertEquals(1, m_outbox.getDeadLetteredMessages());
+        assertEquals(0, m_outbox.getPendingMessages());
+        assertTrue(new File(m_dir, "outbox.dead").length() > 0);
+    }
+
+    @Test
+    public void testLastMessageIsDeadLetteredOnceOthersFollow() throws Exception {
+        m_messaging.reject("demo:bad");
+        open(1024 * 1024);
+        append("demo:bad");
+        while (m_outbox.getFailedAttempts() < 4) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, m_outbox.getDeadLetteredMessages());
+        append("demo:1");
+        awaitDelivery(1);
+        assertEquals("demo:1", m_messaging.getDelivered().get(0).pid);
+        m_outbox.close(1000);
+        assertEquals(1, m_outbox.getDeadLetteredMessages());
+    }
+
+    @Test
+    public void testNothingIsDeadLetteredWhileBrokerIsDown() throws Exception {
+        m_messaging.setAvailable(false);
+        open(1024 * 1024);
+        append("demo:1");
+        append("demo:2");
+        append("demo:3");
+        while (m_outbox.getFailedAttempts() < 8) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, m_outbox.getDeadLetteredMessages());
+        m_messaging.setAvailable(true);
+        awaitDelivery(3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("demo:" + (i + 1),
+                         m_messaging.getDelivered().get(i).pid);
+        }
+        assertEquals(0, m_outbox.getDeadLetteredMessages());
+    }
+
+    @Test
+    public void testCorruptMessageIsSkipped() throws Exception {
+        // two messages to a file
+        m_messaging.setAvailable(false);
+        open(100);
+        for (int i = 1; i <= 4; i++) {
+            append("demo:" + i);
+        }
+        m_outbox.close(100);
+
+        RandomAccessFile raf =
+                new RandomAccessFile(new File(m_dir, "outbox-1.log"), "rw");
+        raf.seek(12);
+        raf.write(raf.read() ^ 0xff);
+        raf.close();
+
+        open(100);
+        assertEquals(3, m_outbox.getPendingMessages());
+        m_messaging.setAvailable(true);
+        awaitDelivery(3);
+        assertEquals("demo:2", m_messaging.getDelivered().get(0).pid);
+        assertEquals("demo:3", m_messaging.getDelivered().get(1).pid);
+        assertEquals("demo:4", m_messaging.getDelivered().get(2).pid);
+        assertEquals(1, m_outbox.getUnreadableRecords());
+
+        // the relay goes on with new messages
+        append("demo:5");
+        awaitDelivery(4);
+        assertEquals("demo:5", m_messaging.getDelivered().get(3).pid);
+    }
+
+    private void open(long segmentSize) throws MessagingException {
+        m_outbox = new MessageOutbox(m_dir, m_messaging, segmentSize, false, 5, 2, 200);
+        m_outbox.open();
+    }
+
+    private void append(String pid) throws MessagingException {
+        m_messaging.setNext(new PendingMessage("dest", "purgeObject", pid,
+                                               "<entry>" + pid + "</entry>"));
+        m_outbox.append(null);
+    }
+
+    private void awaitDelivery(int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (m_messaging.getDelivered().size() < count) {
+            assertFalse("Timed out waiting for delivery",
+                        System.currentTimeMillis() > deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Renders whatever message it is given next, and records what it
+     * delivers while available.
+     */
+    private static class FakeMessaging
+            extends MessagingImpl {
+
+        private PendingMessage m_next;
+
+        private volatile boolean m_available = true;
+
+        private final Set<String> m_rejected = new CopyOnWriteArraySet<String>();
+
+        private final List<PendingMessage> m_delivered =
+                new ArrayList<PendingMessage>();
+
+        FakeMessaging() {
+            super("http://localhost:8080/fedora",
+                  new HashMap<String, List<String>>(),
+                  (JMSManager) null);
+        }
+
+        void setNext(PendingMessage next) {
+            m_next = next;
+        }
+
+        void setAvailable(boolean available) {
+            m_available = available;
+        }
+
+        void reject(String pid) {
+            m_rejected.add(pid);
+        }
+
+        synchronized List<PendingMessage> getDelivered() {
+            return new ArrayList<PendingMessage>(m_delivered);
+        }
+
+        @Override
+        List<PendingMessage> toMessages(FedoraMethod method) {
+            return Collections.singletonList(m_next);
+        }
+
+        @Override
+        synchronized void send(Collection<PendingMessage> messages)
+                throws MessagingException {
+            if (!m_available) {
+                throw new MessagingException("Broker unavailable");
+            }
+            for (PendingMessage message : messages) {
+                if (m_rejected.contains(message.pid)) {
+                    throw new MessagingException("Rejected " + message.pid);
+                }
+            }
+            m_delivered.addAll(messages);
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestMessageOutbox.class);
+    }
+}
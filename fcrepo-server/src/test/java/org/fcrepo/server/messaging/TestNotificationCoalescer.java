@@ -0,0 +1,210 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+import java.lang.reflect.Method;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.fcrepo.server.Context;
+import org.fcrepo.server.management.Management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+public class TestNotificationCoalescer {
+
+    private final Recorder m_recorder = new Recorder();
+
+    @Test
+    public void testChangesWithinWindowAreMerged() throws Exception {
+        NotificationCoalescer coalescer =
+                new NotificationCoalescer(m_recorder, 200, 50);
+        coalescer.add(setState("demo:1", "A"));
+        coalescer.add(setState("demo:2", "A"));
+        coalescer.add(purgeRelationship("info:fedora/demo:1"));
+        coalescer.add(setState("demo:1", "I"));
+        assertTrue(m_recorder.get().isEmpty());
+
+        m_recorder.await(2);
+        List<FedoraMethod> delivered = m_recorder.get();
+        CoalescedMethod merged = (CoalescedMethod) delivered.get(0);
+        assertEquals("demo:1", merged.getPID().toString());
+        assertEquals(CoalescedMethod.NAME, merged.getName());
+        assertEquals(3, merged.getMethods().size());
+        assertEquals("purgeRelationship", merged.getMethods().get(1).getName());
+        // a single change is passed on as it was
+        assertFalse(delivered.get(1) instanceof CoalescedMethod);
+        assertEquals("demo:2", delivered.get(1).getPID().toString());
+        coalescer.close();
+    }
+
+    @Test
+    public void testPurgePassesHeldChangesFirst() throws Exception {
+        NotificationCoalescer coalescer =
+                new NotificationCoalescer(m_recorder, 60000, 50);
+        coalescer.add(setState("demo:1", "A"));
+        coalescer.add(setState("demo:1", "I"));
+        coalescer.add(setState("demo:2", "A"));
+        coalescer.add(purgeObject("demo:1"));
+
+        List<FedoraMethod> delivered = m_recorder.get();
+        assertEquals(2, delivered.size());
+        assertTrue(delivered.get(0) instanceof CoalescedMethod);
+        assertEquals("purgeObject", delivered.get(1).getName());
+
+        // held changes are passed on when closed
+        coalescer.close();
+        assertEquals(3, m_recorder.get().size());
+        assertEquals("demo:2", m_recorder.get().get(2).getPID().toString());
+    }
+
+    @Test
+    public void testMaxMethods() throws Exception {
+        NotificationCoalescer coalescer =
+                new NotificationCoalescer(m_recorder, 60000, 3);
+        for (int i = 0; i < 7; i++) {
+            coalescer.add(setState("demo:1", "A"));
+        }
+        assertEquals(2, m_recorder.get().size());
+        coalescer.close();
+        assertEquals(3, m_recorder.get().size());
+        assertFalse(m_recorder.get().get(2) instanceof CoalescedMethod);
+    }
+
+    @Test
+    public void testSlowDeliveryDoesNotBlockHolding() throws Exception {
+        final Object gate = new Object();
+        final boolean[] open = new boolean[1];
+        final NotificationCoalescer coalescer =
+                new NotificationCoalescer(new NotificationCoalescer.Target() {
+
+                    public void deliver(FedoraMethod method) {
+                        synchronized (gate) {
+                            while (!open[0]) {
+                                try {
+                                    gate.wait();
+                                } catch (InterruptedException e) {
+                                    return;
+                                }
+                            }
+                        }
+                        m_recorder.deliver(method);
+                    }
+                }, 60000, 50);
+        Thread purger = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    coalescer.add(purgeObject("demo:1"));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        purger.start();
+        Thread.sleep(100);
+
+        // the purge is still being passed on, but changes can be held
+        coalescer.add(setState("demo:2", "A"));
+        coalescer.add(setState("demo:2", "I"));
+        assertTrue(coalescer.toString().contains("1 objects held"));
+
+        synchronized (gate) {
+            open[0] = true;
+            gate.notifyAll();
+        }
+        purger.join();
+        coalescer.close();
+        List<FedoraMethod> delivered = m_recorder.get();
+        assertEquals(2, delivered.size());
+        assertEquals("purgeObject", delivered.get(0).getName());
+        assertTrue(delivered.get(1) instanceof CoalescedMethod);
+    }
+
+    @Test
+    public void testIsCoalescible() {
+        assertTrue(NotificationCoalescer.isCoalescible("modifyDatastreamByValue"));
+        assertTrue(NotificationCoalescer.isCoalescible("addRelationship"));
+        assertTrue(NotificationCoalescer.isCoalescible("purgeDatastream"));
+        assertFalse(NotificationCoalescer.isCoalescible("ingest"));
+        assertFalse(NotificationCoalescer.isCoalescible("purgeObject"));
+        assertFalse(NotificationCoalescer.isCoalescible("getDatastream"));
+    }
+
+    private static FedoraMethod setState(String pid, String state)
+            throws Exception {
+        Method method =
+                Management.class.getMethod("setDatastreamState",
+                                           Context.class,
+                                           String.class,
+                                           String.class,
+                                           String.class,
+                                           String.class);
+        return new FedoraMethod(method,
+                                new Object[] {null, pid, "DS", state, null},
+                                null);
+    }
+
+    private static FedoraMethod purgeRelationship(String subject)
+            throws Exception {
+        Method method =
+                Management.class.getMethod("purgeRelationship",
+                                           Context.class,
+                                           String.class,
+                                           String.class,
+                                           String.class,
+                                           boolean.class,
+                                           String.class);
+        return new FedoraMethod(method,
+                                new Object[] {null, subject, "info:x#y",
+                                        "info:fedora/demo:2", false, null},
+                                Boolean.TRUE);
+    }
+
+    private static FedoraMethod purgeObject(String pid) throws Exception {
+        Method method =
+                Management.class.getMethod("purgeObject",
+                                           Context.class,
+                                           String.class,
+                                           String.class);
+        return new FedoraMethod(method, new Object[] {null, pid, null}, null);
+    }
+
+    private static class Recorder
+            implements NotificationCoalescer.Target {
+
+        private final List<FedoraMethod> m_delivered =
+                new ArrayList<FedoraMethod>();
+
+        public synchronized void deliver(FedoraMethod method) {
+            m_delivered.add(method);
+            notifyAll();
+        }
+
+        synchronized List<FedoraMethod> get() {
+            return new ArrayList<FedoraMethod>(m_delivered);
+        }
+
+        synchronized void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (m_delivered.size() < count
+                    && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestNotificationCoalescer.class);
+    }
+}
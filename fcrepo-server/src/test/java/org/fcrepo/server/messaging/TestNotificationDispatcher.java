@@ -0,0 +1,178 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.messaging;
+
+import java.lang.reflect.Method;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import org.fcrepo.server.Context;
+import org.fcrepo.server.errors.MessagingException;
+import org.fcrepo.server.management.Management;
+import org.fcrepo.server.messaging.NotificationDispatcher.OverflowPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+public class TestNotificationDispatcher {
+
+    @Test
+    public void testOrderIsKeptPerObject() throws Exception {
+        RecordingMessaging messaging = new RecordingMessaging(null);
+        NotificationDispatcher dispatcher =
+                new NotificationDispatcher(messaging, 4, 400, 5,
+                                           OverflowPolicy.BLOCK);
+        for (int i = 0; i < 50; i++) {
+            for (int pid = 0; pid < 8; pid++) {
+                assertTrue(dispatcher.dispatch(purge("demo:" + pid, "" + i)));
+            }
+        }
+        dispatcher.shutdown(10000);
+
+        assertEquals(400, dispatcher.getSent());
+        Map<String, Integer> last = new HashMap<String, Integer>();
+        for (FedoraMethod method : messaging.getSent()) {
+            String pid = method.getPID().toString();
+            int seq = Integer.parseInt((String) method.getParameters()[2]);
+            Integer previous = last.get(pid);
+            assertEquals(previous == null ? 0 : previous + 1, seq);
+            last.put(pid, seq);
+        }
+        assertEquals(8, last.size());
+    }
+
+    @Test
+    public void testQueuedNotificationsAreBatched() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingMessaging messaging = new RecordingMessaging(release);
+        NotificationDispatcher dispatcher =
+                new NotificationDispatcher(messaging, 1, 100, 10,
+                                           OverflowPolicy.BLOCK);
+        // the first is sent alone, and the rest queue up behind it
+        for (int i = 0; i < 31; i++) {
+            dispatcher.dispatch(purge("demo:1", "" + i));
+        }
+        release.countDown();
+        dispatcher.shutdown(10000);
+
+        assertEquals(31, dispatcher.getSent());
+        assertEquals(4, dispatcher.getBatches());
+        for (List<FedoraMethod> batch : messaging.getBatches()) {
+            assertTrue(batch.size() <= 10);
+        }
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void testDiscardWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingMessaging messaging = new RecordingMessaging(release);
+        NotificationDispatcher dispatcher =
+                new NotificationDispatcher(messaging, 1, 2, 1,
+                                           OverflowPolicy.DISCARD);
+        dispatcher.dispatch(purge("demo:1", "0"));
+        // wait for the worker to take the first, leaving the queue empty
+        assertTrue(messaging.awaitSending());
+        assertTrue(dispatcher.dispatch(purge("demo:1", "1")));
+        assertTrue(dispatcher.dispatch(purge("demo:1", "2")));
+        assertFalse(dispatcher.dispatch(purge("demo:1", "3")));
+        assertEquals(1, dispatcher.getDiscarded());
+        assertEquals(2, dispatcher.getQueueDepth());
+        release.countDown();
+        dispatcher.shutdown(10000);
+
+        assertEquals(3, dispatcher.getSent());
+        assertFalse(dispatcher.dispatch(purge("demo:1", "4")));
+    }
+
+    private static FedoraMethod purge(String pid, String logMessage)
+            throws Exception {
+        Method method =
+                Management.class.getMethod("purgeObject",
+                                           Context.class,
+                                           String.class,
+                                           String.class);
+        return new FedoraMethod(method,
+                                new Object[] {null, pid, logMessage},
+                                null);
+    }
+
+    /**
+     * Records what is sent, optionally waiting for a latch before
+     * sending anything.
+     */
+    private static class RecordingMessaging
+            implements Messaging {
+
+        private final CountDownLatch m_release;
+
+        private final CountDownLatch m_sending = new CountDownLatch(1);
+
+        private final List<List<FedoraMethod>> m_batches =
+                new ArrayList<List<FedoraMethod>>();
+
+        RecordingMessaging(CountDownLatch release) {
+            m_release = release;
+        }
+
+        public void send(String destName, FedoraMessage message) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void send(FedoraMethod method) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void send(List<FedoraMethod> methods)
+                throws MessagingException {
+            m_sending.countDown();
+            if (m_release != null) {
+                try {
+                    m_release.await();
+                } catch (InterruptedException e) {
+                    throw new MessagingException("Interrupted", e);
+                }
+            }
+            synchronized (m_batches) {
+                m_batches.add(new ArrayList<FedoraMethod>(methods));
+            }
+        }
+
+        public void close() {
+        }
+
+        boolean awaitSending() throws InterruptedException {
+            return m_sending.await(10, TimeUnit.SECONDS);
+        }
+
+        List<List<FedoraMethod>> getBatches() {
+            synchronized (m_batches) {
+                return new ArrayList<List<FedoraMethod>>(m_batches);
+            }
+        }
+
+        List<FedoraMethod> getSent() {
+            List<FedoraMethod> sent = new ArrayList<FedoraMethod>();
+            for (List<FedoraMethod> batch : getBatches()) {
+                sent.addAll(batch);
+            }
+            return sent;
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestNotificationDispatcher.class);
+    }
+}
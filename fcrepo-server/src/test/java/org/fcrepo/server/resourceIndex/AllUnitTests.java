@@ -0,0 +1,17 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses( {TestModelBasedTripleGenerator.class,
+        TestQueryResultCache.class, TestRelationshipIndex.class,
+        TestResourceIndexUpdateQueue.class,
+        TestTripleSorter.class})
+public class AllUnitTests {
+
+}
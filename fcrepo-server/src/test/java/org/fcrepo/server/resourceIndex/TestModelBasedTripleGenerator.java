@@ -0,0 +1,135 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jrdf.graph.Triple;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.storage.DOReader;
+import org.fcrepo.server.storage.SimpleDOReader;
+import org.fcrepo.server.storage.types.Datastream;
+import org.fcrepo.server.storage.types.DigitalObject;
+import org.fcrepo.server.storage.types.ObjectBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TestModelBasedTripleGenerator {
+
+    private static final String PID = "test:1";
+
+    private ModelBasedTripleGenerator m_generator;
+
+    private DigitalObject m_obj;
+
+    @Before
+    public void setUp() throws Exception {
+        m_generator = new ModelBasedTripleGenerator();
+        m_obj = ObjectBuilder.getTestObject(PID, "test1");
+        ObjectBuilder.addXDatastream(m_obj, "DC", ObjectBuilder
+                .getDC("<dc:title>test title</dc:title>"));
+        ObjectBuilder.addXDatastream(m_obj, "RELS-INT", ObjectBuilder
+                .getRELSINT(PID,
+                            "<foo:bar rdf:resource=\"http://example.org/baz\"/>",
+                            "<foo:qux>quux</foo:qux>"));
+        ObjectBuilder.addEDatastream(m_obj, "DS1");
+        ObjectBuilder.addMDatastream(m_obj, "DS2");
+    }
+
+    @Test
+    public void testComponentsPartitionObjectTriples() throws Exception {
+        DOReader reader = getReader(m_obj);
+        Set<Triple> all = m_generator.getTriplesForObject(reader);
+
+        Set<Triple> union = new HashSet<Triple>();
+        int total = 0;
+        Set<Triple> props = m_generator.getTriplesForObjectProperties(reader);
+        assertFalse(props.isEmpty());
+        union.addAll(props);
+        total += props.size();
+        for (String dsID : reader.ListDatastreamIDs(null)) {
+            Set<Triple> dsTriples =
+                    m_generator.getTriplesForDatastream(reader, dsID);
+            assertFalse(dsID, dsTriples.isEmpty());
+            union.addAll(dsTriples);
+            total += dsTriples.size();
+        }
+
+        assertEquals(all, union);
+        assertEquals("components should not overlap", all.size(), total);
+    }
+
+    @Test
+    public void testComponentDiffMatchesFullDiff() throws Exception {
+        DigitalObject modified = ObjectBuilder.deepCopy(m_obj);
+        for (Datastream ds : modified.datastreams("DS1")) {
+            ds.DSState = "I";
+        }
+        modified.setLabel("new label");
+        ObjectBuilder.addXDatastream(modified, "RELS-INT", ObjectBuilder
+                .getRELSINT(PID,
+                            "<foo:bar rdf:resource=\"http://example.org/quux\"/>",
+                            "<foo:qux>quux</foo:qux>"));
+
+        DOReader oldReader = getReader(m_obj);
+        DOReader newReader = getReader(modified);
+        Set<String> modifiedIDs = new HashSet<String>();
+        modifiedIDs.add("DS1");
+        modifiedIDs.add("RELS-INT");
+
+        assertEquals(diff(m_generator.getTriplesForObject(oldReader),
+                          m_generator.getTriplesForObject(newReader)),
+                     diff(getComponentTriples(oldReader, modifiedIDs),
+                          getComponentTriples(newReader, modifiedIDs)));
+    }
+
+    @Test
+    public void testImplicitModelBelongsToRelsExt() throws Exception {
+        DigitalObject obj = ObjectBuilder.getTestObject(PID, "test1");
+        obj.removeDatastreamVersion(obj.datastreams("RELS-EXT").iterator()
+                .next());
+        DOReader reader = getReader(obj);
+
+        Set<Triple> relsExt =
+                m_generator.getTriplesForDatastream(reader, "RELS-EXT");
+        assertEquals(1, relsExt.size());
+        Set<Triple> union =
+                m_generator.getTriplesForObjectProperties(reader);
+        union.addAll(relsExt);
+        assertEquals(m_generator.getTriplesForObject(reader), union);
+    }
+
+    private Set<Triple> getComponentTriples(DOReader reader,
+                                            Set<String> dsIDs)
+            throws Exception {
+        Set<Triple> triples =
+                m_generator.getTriplesForObjectProperties(reader);
+        for (String dsID : dsIDs) {
+            triples.addAll(m_generator.getTriplesForDatastream(reader, dsID));
+        }
+        return triples;
+    }
+
+    private static List<Set<Triple>> diff(Set<Triple> existing,
+                                          Set<Triple> desired) {
+        Set<Triple> deletes = new HashSet<Triple>(existing);
+        deletes.removeAll(desired);
+        Set<Triple> adds = new HashSet<Triple>(desired);
+        adds.removeAll(existing);
+        return Arrays.asList(deletes, adds);
+    }
+
+    private static DOReader getReader(DigitalObject obj) {
+        return new SimpleDOReader(null, null, null, null, null, obj);
+    }
+
+}
@@ -0,0 +1,194 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.net.URI;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jrdf.graph.Triple;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.trippi.TripleIterator;
+
+import org.fcrepo.common.rdf.SimpleTriple;
+import org.fcrepo.common.rdf.SimpleURIReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TestQueryResultCache {
+
+    private static final String MODEL =
+            "info:fedora/fedora-system:def/model#";
+
+    private static final String MEMBER_QUERY =
+            "select $s from <#ri>\n  where $s <fedora-rels-ext:isMemberOf> <info:fedora/demo:c1>";
+
+    private Map<String, String> m_aliases;
+
+    private QueryResultCache m_cache;
+
+    @Before
+    public void setUp() {
+        m_aliases = new HashMap<String, String>();
+        m_aliases.put("fedora-model", MODEL);
+        m_aliases.put("fedora-rels-ext",
+                      "info:fedora/fedora-system:def/relations-external#");
+        m_cache = new QueryResultCache(2, 3, 0);
+        m_cache.setAliasMap(m_aliases);
+    }
+
+    @Test
+    public void testNormalizeKeepsQuotedWhitespace() {
+        assertEquals("select $s where $s <p> 'a  b'",
+                     QueryResultCache.normalize("  select $s\n where\t$s <p>  'a  b' "));
+    }
+
+    @Test
+    public void testDependencies() {
+        assertEquals(set("fedora-rels-ext:isMemberOf",
+                         "info:fedora/fedora-system:def/relations-external#isMemberOf",
+                         "info:fedora/demo:c1"),
+                     QueryResultCache.getDependencies(MEMBER_QUERY, m_aliases));
+        assertEquals(set(MODEL + "hasModel", "info:fedora/demo:m", "x"),
+                     QueryResultCache
+                             .getDependencies("PREFIX m: <" + MODEL + ">\n"
+                                     + "SELECT ?s FROM <#ri> WHERE { ?s m:hasModel "
+                                     + "<info:fedora/demo:m> ; ?p \"x\" }",
+                                              m_aliases));
+        // anything may change the result of an unconstrained query
+        assertNull(QueryResultCache
+                .getDependencies("select $s $p $o from <#ri> where $s $p $o",
+                                 m_aliases));
+        assertNull(QueryResultCache
+                .getDependencies("SELECT ?s WHERE { ?s unknown:p ?o }",
+                                 m_aliases));
+    }
+
+    @Test
+    public void testInvalidatesDependentResults() throws Exception {
+        String member = getKey(MEMBER_QUERY);
+        String all = getKey("select $s $p $o from <#ri> where $s $p $o");
+        cache(member, MEMBER_QUERY, triple("demo:1", "urn:p", "urn:o"));
+        cache(all, "select $s $p $o from <#ri> where $s $p $o");
+        assertNotNull(m_cache.getTriples(member));
+
+        m_cache.invalidate(Collections.singleton(triple("demo:2",
+                                                        MODEL + "hasModel",
+                                                        "info:fedora/demo:m")));
+        assertNotNull(m_cache.getTriples(member));
+        assertNull(m_cache.getTriples(all));
+
+        m_cache.invalidate(Collections.singleton(triple("demo:2",
+                                                        "info:fedora/fedora-system:def/relations-external#isMemberOf",
+                                                        "info:fedora/demo:c2")));
+        assertNull(m_cache.getTriples(member));
+        assertEquals(2, m_cache.getInvalidations());
+        assertEquals(0, m_cache.getSize());
+    }
+
+    @Test
+    public void testSkipsResultsOfStaleOrLargeQueries() throws Exception {
+        String key = getKey(MEMBER_QUERY);
+        long generation = m_cache.getGeneration();
+        m_cache.invalidate(Collections.singleton(triple("demo:1", "urn:p", "urn:o")));
+        drain(m_cache.cacheTriples(key, MEMBER_QUERY, generation, iterator()));
+        assertNull(m_cache.getTriples(key));
+
+        Triple[] many = new Triple[4];
+        for (int i = 0; i < many.length; i++) {
+            many[i] = triple("demo:" + i, "urn:p", "urn:o");
+        }
+        TripleIterator result =
+                m_cache.cacheTriples(key,
+                                     MEMBER_QUERY,
+                                     m_cache.getGeneration(),
+                                     iterator(many));
+        assertEquals(4, drain(result));
+        assertNull(m_cache.getTriples(key));
+    }
+
+    @Test
+    public void testCountsHitsAndEvictions() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            String query = MEMBER_QUERY + " and $s <urn:p" + i + "> $o";
+            String key = getKey(query);
+            assertNull(m_cache.getTriples(key));
+            cache(key, query);
+            assertNotNull(m_cache.getTriples(key));
+        }
+        assertEquals(3, m_cache.getHits());
+        assertEquals(3, m_cache.getMisses());
+        assertEquals(0.5, m_cache.getHitRate(), 0.001);
+        assertEquals(1, m_cache.getEvictions());
+        assertEquals(2, m_cache.getSize());
+    }
+
+    private void cache(String key, String query, Triple... triples)
+            throws Exception {
+        drain(m_cache.cacheTriples(key,
+                                   query,
+                                   m_cache.getGeneration(),
+                                   iterator(triples)));
+    }
+
+    private static String getKey(String query) {
+        return QueryResultCache.getKey("triples", "itql", query, 0, false);
+    }
+
+    private static int drain(TripleIterator iter) throws Exception {
+        int count = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            count++;
+        }
+        iter.close();
+        return count;
+    }
+
+    private static TripleIterator iterator(Triple... triples) {
+        final Iterator<Triple> iter = Arrays.asList(triples).iterator();
+        return new TripleIterator() {
+
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            @Override
+            public Triple next() {
+                return iter.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+
+    private static Triple triple(String pid, String predicate, String object)
+            throws Exception {
+        return new SimpleTriple(new SimpleURIReference(new URI("info:fedora/"
+                                        + pid)),
+                                new SimpleURIReference(new URI(predicate)),
+                                new SimpleURIReference(new URI(object)));
+    }
+
+}
@@ -0,0 +1,189 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.net.URI;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.jrdf.graph.Triple;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.trippi.TripleIterator;
+
+import org.fcrepo.common.rdf.SimpleLiteral;
+import org.fcrepo.common.rdf.SimpleTriple;
+import org.fcrepo.common.rdf.SimpleURIReference;
+import org.fcrepo.server.storage.types.RelationshipTuple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestRelationshipIndex {
+
+    private static final String MEMBER_OF =
+            "info:fedora/fedora-system:def/relations-external#isMemberOf";
+
+    private static final String HAS_MEMBER =
+            "info:fedora/fedora-system:def/relations-external#hasMember";
+
+    private static final String HAS_MODEL =
+            "info:fedora/fedora-system:def/model#hasModel";
+
+    private RelationshipIndex m_index;
+
+    @Before
+    public void setUp() {
+        m_index = new RelationshipIndex();
+    }
+
+    @Test
+    public void testLoadSkipsNonRelationships() throws Exception {
+        m_index.load(iterator(triple("demo:1", MEMBER_OF, "info:fedora/demo:c"),
+                              triple("demo:1", HAS_MODEL, "info:fedora/demo:m"),
+                              triple("demo:1",
+                                     "info:fedora/fedora-system:def/model#state",
+                                     "info:fedora/fedora-system:def/model#Active"),
+                              triple("demo:1",
+                                     "info:fedora/fedora-system:def/view#disseminates",
+                                     "info:fedora/demo:1/DC"),
+                              new SimpleTriple(uri("info:fedora/demo:1"),
+                                               uri(MEMBER_OF),
+                                               new SimpleLiteral("c"))));
+        assertTrue(m_index.isReady());
+        assertEquals(2, m_index.getEdgeCount());
+        assertEquals(set("info:fedora/demo:c"),
+                     m_index.getObjects("info:fedora/demo:1", MEMBER_OF));
+        assertEquals(set("info:fedora/demo:c", "info:fedora/demo:m"),
+                     m_index.getObjects("info:fedora/demo:1", null));
+        assertEquals(set("info:fedora/demo:1"),
+                     m_index.getSubjects("info:fedora/demo:m", HAS_MODEL));
+    }
+
+    @Test
+    public void testUpdateReplacesRelationships() throws Exception {
+        m_index.update("demo:1", Arrays.asList(tuple("demo:1", MEMBER_OF, "demo:a"),
+                                               tuple("demo:1/DS", MEMBER_OF, "demo:b")));
+        m_index.update("demo:2", Arrays.asList(tuple("demo:2", MEMBER_OF, "demo:a")));
+        assertEquals(set("info:fedora/demo:1", "info:fedora/demo:2"),
+                     m_index.getInbound("info:fedora/demo:a").get(MEMBER_OF));
+        assertEquals(set("info:fedora/demo:1/DS"),
+                     m_index.getSubjects("info:fedora/demo:b", MEMBER_OF));
+
+        m_index.update("demo:1", Arrays.asList(tuple("demo:1", MEMBER_OF, "demo:c")));
+        assertEquals(set("info:fedora/demo:2"),
+                     m_index.getSubjects("info:fedora/demo:a", MEMBER_OF));
+        assertTrue(m_index.getSubjects("info:fedora/demo:b", null).isEmpty());
+        assertEquals(2, m_index.getEdgeCount());
+
+        m_index.remove("demo:2");
+        assertTrue(m_index.getInbound("info:fedora/demo:a").isEmpty());
+        assertEquals(1, m_index.getEdgeCount());
+    }
+
+    @Test
+    public void testUpdatesMadeWhileLoadingWin() throws Exception {
+        final Triple stale = triple("demo:1", MEMBER_OF, "info:fedora/demo:old");
+        TripleIterator triples = new TripleIterator() {
+
+            private boolean m_next = true;
+
+            @Override
+            public boolean hasNext() {
+                return m_next;
+            }
+
+            @Override
+            public Triple next() {
+                // the object is updated after the load began
+                m_index.update("demo:1",
+                               Collections.singleton(tuple("demo:1",
+                                                           MEMBER_OF,
+                                                           "demo:new")));
+                m_next = false;
+                return stale;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        assertFalse(m_index.isReady());
+        m_index.load(triples);
+        assertEquals(set("info:fedora/demo:new"),
+                     m_index.getObjects("info:fedora/demo:1", MEMBER_OF));
+    }
+
+    @Test
+    public void testReachableHandlesCycles() throws Exception {
+        m_index.update("demo:1", Arrays.asList(tuple("demo:1", MEMBER_OF, "demo:2")));
+        m_index.update("demo:2", Arrays.asList(tuple("demo:2", MEMBER_OF, "demo:3")));
+        m_index.update("demo:3", Arrays.asList(tuple("demo:3", MEMBER_OF, "demo:1")));
+        m_index.update("demo:4", Arrays.asList(tuple("demo:4", HAS_MEMBER, "demo:1")));
+        assertEquals(set("info:fedora/demo:1",
+                         "info:fedora/demo:2",
+                         "info:fedora/demo:3"),
+                     m_index.getReachable("info:fedora/demo:1",
+                                          Collections.singleton(MEMBER_OF),
+                                          null));
+        assertEquals(set("info:fedora/demo:4"),
+                     m_index.getReachable("info:fedora/demo:1",
+                                          null,
+                                          Collections.singleton(HAS_MEMBER)));
+    }
+
+    private static RelationshipTuple tuple(String subject,
+                                           String predicate,
+                                           String object) {
+        return new RelationshipTuple("info:fedora/" + subject,
+                                     predicate,
+                                     "info:fedora/" + object,
+                                     false,
+                                     null);
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+
+    private static TripleIterator iterator(Triple... triples) {
+        final Iterator<Triple> iter = Arrays.asList(triples).iterator();
+        return new TripleIterator() {
+
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            @Override
+            public Triple next() {
+                return iter.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static Triple triple(String pid, String predicate, String object)
+            throws Exception {
+        return new SimpleTriple(uri("info:fedora/" + pid),
+                                uri(predicate),
+                                uri(object));
+    }
+
+    private static SimpleURIReference uri(String uri) throws Exception {
+        return new SimpleURIReference(new URI(uri));
+    }
+
+}
@@ -0,0 +1,258 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.io.File;
+
+import java.net.URI;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jrdf.graph.Triple;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.common.rdf.SimpleLiteral;
+import org.fcrepo.common.rdf.SimpleTriple;
+import org.fcrepo.common.rdf.SimpleURIReference;
+import org.fcrepo.server.errors.ResourceIndexException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestResourceIndexUpdateQueue {
+
+    private static final Set<Triple> NONE = Collections.emptySet();
+
+    private File m_log;
+
+    private RecordingHandler m_handler;
+
+    @Before
+    public void setUp() throws Exception {
+        m_log = File.createTempFile("ri-updates", ".log");
+        m_log.delete();
+        m_handler = new RecordingHandler();
+    }
+
+    @After
+    public void tearDown() {
+        m_log.delete();
+    }
+
+    @Test
+    public void testCoalescesUpdatesPerObject() throws Exception {
+        ResourceIndexUpdateQueue queue =
+                new ResourceIndexUpdateQueue(m_handler, null, 10, 10, 0);
+        long first = queue.enqueue("demo:1", NONE, set(triple("demo:1", "a"),
+                                                       triple("demo:1", "b")),
+                                   0);
+        long second = queue.enqueue("demo:1",
+                                    set(triple("demo:1", "a")),
+                                    set(triple("demo:1", "c")),
+                                    0);
+        long third = queue.enqueue("demo:2", NONE, set(triple("demo:2", "a")),
+                                   0);
+        assertTrue(first < second && second < third);
+        assertEquals(2, queue.size());
+        assertEquals(first - 1, queue.getAppliedSequence());
+
+        queue.start();
+        queue.flush();
+        assertEquals(third, queue.getAppliedSequence());
+        assertEquals(0, queue.size());
+
+        assertEquals(2, m_handler.updates.size());
+        ResourceIndexUpdateQueue.Update update = m_handler.updates.get(0);
+        assertEquals("demo:1", update.getPid());
+        assertEquals(set(triple("demo:1", "a")), update.getDeletes());
+        assertEquals(set(triple("demo:1", "b"), triple("demo:1", "c")),
+                     update.getAdds());
+        assertEquals("demo:2", m_handler.updates.get(1).getPid());
+        queue.close();
+    }
+
+    @Test
+    public void testWaitForTimesOutWhileUpdatesFail() throws Exception {
+        m_handler.fail = true;
+        ResourceIndexUpdateQueue queue =
+                new ResourceIndexUpdateQueue(m_handler, null, 10, 10, 0);
+        queue.start();
+        long sequence =
+                queue.enqueue("demo:1", NONE, set(triple("demo:1", "a")), 0);
+        assertFalse(queue.waitFor(sequence, 200));
+        try {
+            queue.flush();
+            fail("flush should fail while updates can't be applied");
+        } catch (ResourceIndexException e) {
+        }
+        queue.close();
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testFullQueueRejectsNewObjects() throws Exception {
+        ResourceIndexUpdateQueue queue =
+                new ResourceIndexUpdateQueue(m_handler, null, 1, 10, 0);
+        queue.enqueue("demo:1", NONE, set(triple("demo:1", "a")), 0);
+        // further updates to an object already queued are accepted
+        queue.enqueue("demo:1", NONE, set(triple("demo:1", "b")), 0);
+        try {
+            queue.enqueue("demo:2", NONE, set(triple("demo:2", "a")), 50);
+            fail("a full queue should not accept another object");
+        } catch (ResourceIndexException e) {
+        }
+        queue.close();
+    }
+
+    @Test
+    public void testRequeuesLoggedUpdates() throws Exception {
+        Set<Triple> adds =
+                set(triple("demo:1", "a"),
+                    new SimpleTriple(uri("info:fedora/demo:1"),
+                                     uri("urn:p:label"),
+                                     new SimpleLiteral("hello", "en")),
+                    new SimpleTriple(uri("info:fedora/demo:1"),
+                                     uri("urn:p:size"),
+                                     new SimpleLiteral("42",
+                                                       new URI("http://www.w3.org/2001/XMLSchema#int"))));
+        ResourceIndexUpdateQueue queue =
+                new ResourceIndexUpdateQueue(m_handler, m_log, 10, 10, 0);
+        long sequence = queue.enqueue("demo:1", NONE, adds, 0);
+        queue.close(); // never started, so nothing was applied
+        assertTrue(m_handler.updates.isEmpty());
+
+        queue = new ResourceIndexUpdateQueue(m_handler, m_log, 10, 10, 0);
+        assertEquals(1, queue.size());
+        assertTrue(queue.getQueuedSequence() >= sequence);
+        queue.start();
+        queue.flush();
+        assertEquals(1, m_handler.updates.size());
+        assertEquals(adds, m_handler.updates.get(0).getAdds());
+        queue.close();
+        // only the last sequence number is left
+        assertEquals(8, m_log.length());
+    }
+
+    @Test
+    public void testConcurrentUpdatesAreLogged() throws Exception {
+        final ResourceIndexUpdateQueue queue =
+                new ResourceIndexUpdateQueue(m_handler, m_log, 100, 100, 0);
+        final List<Throwable> errors =
+                Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final String pid = "demo:" + i;
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 10; j++) {
+                            queue.enqueue(pid,
+                                          NONE,
+                                          set(triple(pid, "v" + j)),
+                                          1000);
+                        }
+                    } catch (Throwable th) {
+                        errors.add(th);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        long sequence = queue.getQueuedSequence();
+        queue.close(); // never started, so nothing was applied
+
+        ResourceIndexUpdateQueue requeued =
+                new ResourceIndexUpdateQueue(m_handler, m_log, 100, 100, 0);
+        assertEquals(threads.length, requeued.size());
+        assertEquals(sequence, requeued.getQueuedSequence());
+        requeued.start();
+        requeued.flush();
+        assertEquals(threads.length, m_handler.updates.size());
+        for (ResourceIndexUpdateQueue.Update update : m_handler.updates) {
+            assertEquals(10, update.getAdds().size());
+        }
+        requeued.close();
+    }
+
+    @Test
+    public void testSequenceContinuesFromLog() throws Exception {
+        ResourceIndexUpdateQueue queue =
+                new ResourceIndexUpdateQueue(m_handler, m_log, 10, 10, 0);
+        queue.start();
+        queue.enqueue("demo:1", NONE, set(triple("demo:1", "a")), 0);
+        long sequence =
+                queue.enqueue("demo:2", NONE, set(triple("demo:2", "a")), 0);
+        queue.flush();
+        queue.close();
+
+        queue = new ResourceIndexUpdateQueue(m_handler, m_log, 10, 10, 0);
+        assertEquals(0, queue.size());
+        assertEquals(sequence, queue.getQueuedSequence());
+        assertEquals(sequence, queue.getAppliedSequence());
+        assertEquals(sequence + 1,
+                     queue.enqueue("demo:1", NONE, set(triple("demo:1", "b")),
+                                   0));
+        queue.close();
+    }
+
+    @Test
+    public void testSequenceFromEarlierRunIsSatisfied() throws Exception {
+        ResourceIndexUpdateQueue queue =
+                new ResourceIndexUpdateQueue(m_handler, null, 10, 10, 0);
+        assertTrue(queue.waitFor(queue.getQueuedSequence() + 1000, 0));
+        queue.close();
+    }
+
+    private static Set<Triple> set(Triple... triples) {
+        Set<Triple> set = new HashSet<Triple>();
+        for (Triple triple : triples) {
+            set.add(triple);
+        }
+        return set;
+    }
+
+    private static Triple triple(String pid, String value) throws Exception {
+        return new SimpleTriple(uri("info:fedora/" + pid),
+                                uri("urn:p:rel"),
+                                uri("urn:o:" + value));
+    }
+
+    private static SimpleURIReference uri(String uri) throws Exception {
+        return new SimpleURIReference(new URI(uri));
+    }
+
+    private static class RecordingHandler
+            implements ResourceIndexUpdateQueue.UpdateHandler {
+
+        private final List<ResourceIndexUpdateQueue.Update> updates =
+                new ArrayList<ResourceIndexUpdateQueue.Update>();
+
+        private volatile boolean fail;
+
+        public void applyUpdates(List<ResourceIndexUpdateQueue.Update> batch)
+                throws Exception {
+            if (fail) {
+                throw new Exception("triplestore unavailable");
+            }
+            updates.addAll(batch);
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.resourceIndex;
+
+import java.io.File;
+
+import java.net.URI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jrdf.graph.Triple;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.common.rdf.SimpleLiteral;
+import org.fcrepo.common.rdf.SimpleTriple;
+import org.fcrepo.common.rdf.SimpleURIReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestTripleSorter {
+
+    private File m_dir;
+
+    @Before
+    public void setUp() throws Exception {
+        m_dir = File.createTempFile("triple-sorter", "");
+        m_dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = m_dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        m_dir.delete();
+    }
+
+    @Test
+    public void testSortsAndRemovesDuplicates() throws Exception {
+        List<Triple> expected = new ArrayList<Triple>();
+        TripleSorter sorter = new TripleSorter(m_dir, 3, 2, false);
+        for (int i = 9; i >= 0; i--) {
+            Triple triple = triple("demo:" + i, "o" + i);
+            expected.add(triple);
+            sorter.add(Arrays.asList(triple, triple));
+            sorter.add(Collections.singletonList(triple("demo:" + i, "o" + i)));
+        }
+        sorter.add(Arrays.<Triple> asList(new SimpleTriple(uri("info:fedora/demo:5"),
+                                                           uri("urn:p:label"),
+                                                           new SimpleLiteral("five",
+                                                                             "en"))));
+        expected.add(new SimpleTriple(uri("info:fedora/demo:5"),
+                                      uri("urn:p:label"),
+                                      new SimpleLiteral("five", "en")));
+        Collections.sort(expected, TripleSorter.TRIPLE_ORDER);
+
+        // runs were merged as they accumulated
+        assertTrue(sorter.getRunCount() < 5);
+        assertEquals(expected, readAll(sorter));
+        sorter.clear();
+        assertTrue(!m_dir.exists());
+    }
+
+    @Test
+    public void testResumeKeepsFlushedRuns() throws Exception {
+        TripleSorter sorter = new TripleSorter(m_dir, 100, 4, false);
+        sorter.add(Arrays.asList(triple("demo:2", "a"), triple("demo:1", "a")));
+        sorter.flush();
+        sorter.add(Collections.singletonList(triple("demo:3", "a")));
+        // never flushed, so lost when the rebuild is interrupted
+
+        sorter = new TripleSorter(m_dir, 100, 4, true);
+        assertEquals(1, sorter.getRunCount());
+        sorter.add(Collections.singletonList(triple("demo:1", "a")));
+        assertEquals(Arrays.asList(triple("demo:1", "a"), triple("demo:2", "a")),
+                     readAll(sorter));
+
+        sorter = new TripleSorter(m_dir, 100, 4, false);
+        assertEquals(0, sorter.getRunCount());
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        final TripleSorter sorter = new TripleSorter(m_dir, 7, 3, false);
+        final List<Exception> failures =
+                Collections.synchronizedList(new ArrayList<Exception>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int i = offset; i < 400; i += 4) {
+                            sorter.add(Collections.singletonList(triple("demo:" + i,
+                                                                        "a")));
+                        }
+                        // and one every thread adds
+                        sorter.add(Collections.singletonList(triple("demo:0",
+                                                                    "a")));
+                    } catch (Exception e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+
+        List<Triple> expected = new ArrayList<Triple>();
+        for (int i = 0; i < 400; i++) {
+            expected.add(triple("demo:" + i, "a"));
+        }
+        Collections.sort(expected, TripleSorter.TRIPLE_ORDER);
+        assertEquals(expected, readAll(sorter));
+    }
+
+    private static List<Triple> readAll(TripleSorter sorter) throws Exception {
+        List<Triple> triples = new ArrayList<Triple>();
+        TripleSorter.Reader reader = sorter.open();
+        try {
+            while (reader.hasNext()) {
+                triples.add(reader.next());
+            }
+        } finally {
+            reader.close();
+        }
+        return triples;
+    }
+
+    private static Triple triple(String pid, String value) throws Exception {
+        return new SimpleTriple(uri("info:fedora/" + pid),
+                                uri("urn:p:rel"),
+                                uri("urn:o:" + value));
+    }
+
+    private static SimpleURIReference uri(String uri) throws Exception {
+        return new SimpleURIReference(new URI(uri));
+    }
+
+}
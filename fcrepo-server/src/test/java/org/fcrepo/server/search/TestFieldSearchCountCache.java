@@ -0,0 +1,86 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.search;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+public class TestFieldSearchCountCache {
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TestFieldSearchCountCache.class);
+    }
+
+    @Test
+    public void testUpdatesAdjustLoadedCounts() {
+        FieldSearchCountCache cache = new FieldSearchCountCache();
+        assertNull(cache.getCounts("state"));
+
+        long generation = cache.getGeneration();
+        cache.putCounts("state", counts("a", 2L, "i", 1L), generation);
+        assertEquals(counts("a", 2L, "i", 1L), cache.getCounts("state"));
+
+        // a -> d
+        cache.beginUpdate();
+        cache.endUpdate(values("a", "info:fedora/test:model"),
+                        values("d", "info:fedora/test:model"));
+        assertEquals(counts("a", 1L, "d", 1L, "i", 1L),
+                     cache.getCounts("state"));
+
+        // delete of the only inactive object
+        cache.beginUpdate();
+        cache.endUpdate(values("i"), null);
+        assertEquals(counts("a", 1L, "d", 1L), cache.getCounts("state"));
+
+        // fields that were never loaded stay unloaded
+        assertNull(cache.getCounts("cModel"));
+    }
+
+    @Test
+    public void testCountsRacingAnUpdateAreNotCached() {
+        FieldSearchCountCache cache = new FieldSearchCountCache();
+
+        // update began before the counts were loaded
+        cache.beginUpdate();
+        long generation = cache.getGeneration();
+        cache.putCounts("state", counts("a", 1L), generation);
+        cache.endUpdate(null, values("a"));
+        assertNull(cache.getCounts("state"));
+
+        // update began while the counts were being loaded
+        generation = cache.getGeneration();
+        cache.beginUpdate();
+        cache.endUpdate(null, values("a"));
+        cache.putCounts("state", counts("a", 1L), generation);
+        assertNull(cache.getCounts("state"));
+    }
+
+    private static Map<String, Long> counts(Object... pairs) {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            counts.put((String) pairs[i], (Long) pairs[i + 1]);
+        }
+        return counts;
+    }
+
+    private static Map<String, List<String>> values(String state,
+                                                    String... models) {
+        Map<String, List<String>> values = new HashMap<String, List<String>>();
+        values.put("state", Collections.singletonList(state));
+        values.put("cModel", Arrays.asList(models));
+        return values;
+    }
+}
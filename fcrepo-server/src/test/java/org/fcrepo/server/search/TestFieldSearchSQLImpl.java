@@ -9,6 +9,9 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -32,12 +35,14 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import org.fcrepo.common.Models;
 import org.fcrepo.mock.sql.MockConnection;
 import org.fcrepo.mock.sql.MockDriver;
 import org.fcrepo.mock.sql.MockPreparedStatement;
 import org.fcrepo.mock.sql.MockStatement;
 import org.fcrepo.server.Context;
 import org.fcrepo.server.config.DatastoreConfiguration;
+import org.fcrepo.server.errors.GeneralException;
 import org.fcrepo.server.errors.InconsistentTableSpecException;
 import org.fcrepo.server.errors.ServerException;
 import org.fcrepo.server.search.FieldSearchSQLImpl;
@@ -57,6 +62,8 @@ import junit.framework.JUnit4TestAdapter;
 
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
 public class TestFieldSearchSQLImpl {
@@ -218,6 +225,67 @@ public class TestFieldSearchSQLImpl {
         checkExpectations();
     }
 
+    @Test
+    public void countByModelWithPidCondition() throws Exception {
+        QueryingMockConnection connection = new QueryingMockConnection();
+        this.mockConnection = connection;
+        this.mockRepositoryReader = new UnusedMockRepositoryReader();
+        FieldSearchSQLImpl fssi = new FieldSearchSQLImpl(this.connectionPool,
+                this.mockRepositoryReader, 50, 50, true);
+
+        fssi.countObjects("cModel", new FieldSearchQuery(Condition
+                .getConditions("pid~demo:*")));
+        assertEquals("SELECT doModels.cModel, COUNT(DISTINCT doFields.pid)"
+                + " FROM doFields INNER JOIN doModels"
+                + " ON doFields.pid=doModels.pid"
+                + " WHERE doFields.pid LIKE 'demo:%'"
+                + " GROUP BY doModels.cModel", connection.getQuery());
+    }
+
+    @Test
+    public void countByModelWithTerms() throws Exception {
+        QueryingMockConnection connection = new QueryingMockConnection();
+        this.mockConnection = connection;
+        this.mockRepositoryReader = new UnusedMockRepositoryReader();
+        FieldSearchSQLImpl fssi = new FieldSearchSQLImpl(this.connectionPool,
+                this.mockRepositoryReader, 50, 50, true);
+
+        fssi.countObjects("cModel", new FieldSearchQuery("demo*"));
+        String where = connection.getQuery().split(" WHERE ")[1];
+        // every column in the join must be qualified
+        assertFalse(where, Pattern.compile("(^|[^.\\w])(pid|label|state)\\b")
+                .matcher(where).find());
+        assertTrue(where, where.startsWith("doFields.pid LIKE 'demo%'"));
+    }
+
+    @Test
+    public void indexContentModelsOfExistingObjects() throws Exception {
+        MissingModelsMockConnection connection =
+                new MissingModelsMockConnection("demo:1", "demo:2");
+        this.mockConnection = connection;
+        this.mockRepositoryReader = new MockRepositoryReader();
+        BasicDigitalObject theObject = new BasicDigitalObject();
+        theObject.setPid("demo:1");
+        this.mockRepositoryReader.putObject(theObject);
+        FieldSearchSQLImpl fssi = new FieldSearchSQLImpl(this.connectionPool,
+                this.mockRepositoryReader, 50, 50, true);
+
+        assertTrue(fssi.checkContentModels());
+        try {
+            fssi.countObjects("cModel", new FieldSearchQuery("*"));
+            fail("objects were counted by cModel with models missing");
+        } catch (GeneralException e) {
+        }
+
+        // demo:2 can't be read, so it is skipped
+        fssi.indexContentModels();
+        List<Object[]> modelRows = connection.getModelRows();
+        assertEquals("doModels rows", 1, modelRows.size());
+        assertEqualArrays("doModels row", new Object[] {"demo:1",
+                Models.FEDORA_OBJECT_3_0.uri}, modelRows.get(0));
+        fssi.countObjects("cModel", new FieldSearchQuery("*"));
+    }
+
     private void updateRecord(ObjectData objectData, boolean longFields)
             throws ServerException {
         // Create a DC datastream if appropriate.
@@ -258,6 +326,17 @@ public class TestFieldSearchSQLImpl {
                     expectedDateDeletes, expectedDateInserts);
         }
 
+        // every object has at least the implicit basic content model
+        List<Object[]> modelRows = new ArrayList<Object[]>();
+        for (MockPreparedStatement stmt : mockConnection.getPreparedStatements()) {
+            if (stmt.getSql().startsWith("INSERT INTO doModels")) {
+                modelRows.addAll(stmt.getBatches());
+            }
+        }
+        assertEquals("doModels rows", 1, modelRows.size());
+        assertEqualArrays("doModels row", new Object[] {"somePid",
+                Models.FEDORA_OBJECT_3_0.uri}, modelRows.get(0));
+
         if (mockRepositoryReader instanceof SDepMockRepositoryReader) {
             ((SDepMockRepositoryReader) mockRepositoryReader)
                     .checkExpectations();
@@ -498,18 +577,26 @@ public class TestFieldSearchSQLImpl {
         
         @Override
         public PreparedStatement prepareStatement(String sql) throws SQLException {
-        	return new MockPreparedStatement(sql) {
+            MockPreparedStatement stmt = new MockPreparedStatement(sql) {
                 @Override
                 public int executeUpdate() throws SQLException {
-                    if (getSql().trim().toLowerCase().startsWith("insert")) {
+                    // only count changes to dcDates; doModels is also
+                    // rewritten on every update
+                    String sql = getSql().trim().toLowerCase();
+                    if (sql.indexOf("dcdates") == -1) {
+                        return 1;
+                    }
+                    if (sql.startsWith("insert")) {
                         insertCalls++;
                     }
-                    if (getSql().trim().toLowerCase().startsWith("delete")) {
+                    if (sql.startsWith("delete")) {
                         deleteCalls++;
                     }
                     return 1;
                 }
-        	};
+            };
+            preparedStatements.add(stmt);
+            return stmt;
         }
 
         public void checkExpectations(int expectedDeletes, int expectedInserts) {
@@ -518,6 +605,115 @@ public class TestFieldSearchSQLImpl {
         }
     }
 
+    /**
+     * Remembers the text of the last query, and answers it with no rows.
+     */
+    private static class QueryingMockConnection extends MockConnection {
+        private String query;
+
+        public String getQuery() {
+            return query;
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            query = sql;
+            return new MockPreparedStatement(sql) {
+                @Override
+                public ResultSet executeQuery() throws SQLException {
+                    return (ResultSet) Proxy.newProxyInstance(
+                            ResultSet.class.getClassLoader(),
+                            new Class[] {ResultSet.class},
+                            new InvocationHandler() {
+                                public Object invoke(Object proxy,
+                                        Method method, Object[] args) {
+                                    if (method.getName().equals("next")) {
+                                        return Boolean.FALSE;
+                                    }
+                                    return null;
+                                }
+                            });
+                }
+            };
+        }
+    }
+
+    /**
+     * A connection to a database in which the given objects are in doFields,
+     * but have no rows in doModels until they are inserted.
+     */
+    private static class MissingModelsMockConnection extends MockConnection {
+        private final List<String> pids;
+
+        public MissingModelsMockConnection(String... pids) {
+            this.pids = Arrays.asList(pids);
+        }
+
+        public List<Object[]> getModelRows() {
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (MockPreparedStatement stmt : getPreparedStatements()) {
+                if (stmt.getSql().startsWith("INSERT INTO doModels")) {
+                    rows.addAll(stmt.getBatches());
+                }
+            }
+            return rows;
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            MockPreparedStatement stmt = new MockPreparedStatement(sql) {
+                @Override
+                public void setMaxRows(int max) {
+                }
+
+                @Override
+                public ResultSet executeQuery() throws SQLException {
+                    List<String> rows = new ArrayList<String>();
+                    if (getSql().indexOf("doModels.pid IS NULL") != -1) {
+                        String after = (String) getParameters()[0];
+                        for (String pid : pids) {
+                            if (pid.compareTo(after) > 0 && !hasModels(pid)) {
+                                rows.add(pid);
+                            }
+                        }
+                    }
+                    return resultSet(rows);
+                }
+            };
+            preparedStatements.add(stmt);
+            return stmt;
+        }
+
+        private boolean hasModels(String pid) {
+            for (Object[] row : getModelRows()) {
+                if (pid.equals(row[0])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static ResultSet resultSet(final List<String> rows) {
+            return (ResultSet) Proxy.newProxyInstance(
+                    ResultSet.class.getClassLoader(),
+                    new Class[] {ResultSet.class},
+                    new InvocationHandler() {
+                        private int row = -1;
+
+                        public Object invoke(Object proxy,
+                                Method method, Object[] args) {
+                            if (method.getName().equals("next")) {
+                                return Boolean.valueOf(++row < rows.size());
+                            }
+                            if (method.getName().equals("getString")) {
+                                return rows.get(row);
+                            }
+                            return null;
+                        }
+                    });
+        }
+    }
+
     private static class UnusedMockRepositoryReader extends
             MockRepositoryReader {
         @Override
@@ -8,7 +8,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( { TestPolicyParser.class })
+@Suite.SuiteClasses( { TestPolicyParser.class, TestPolicyFinderModule.class })
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -17,6 +17,7 @@ public class AllUnitTests {
         junit.framework.TestSuite suite =
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
         suite.addTest(TestPolicyParser.suite());
+        suite.addTest(TestPolicyFinderModule.suite());
 
         return suite;
     }
@@ -0,0 +1,185 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.security;
+
+import java.io.File;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.net.URI;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import com.sun.xacml.AbstractPolicy;
+import com.sun.xacml.EvaluationCtx;
+import com.sun.xacml.attr.BagAttribute;
+import com.sun.xacml.attr.StringAttribute;
+import com.sun.xacml.cond.EvaluationResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.server.storage.MockRepositoryReader;
+import org.fcrepo.server.storage.types.DatastreamXMLMetadata;
+import org.fcrepo.server.storage.types.DigitalObject;
+import org.fcrepo.server.storage.types.ObjectBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for the parsed object policies kept by PolicyFinderModule.
+ */
+public class TestPolicyFinderModule {
+
+    private static final String PID = "demo:1";
+
+    private File policyDir;
+
+    private MockRepositoryReader repoReader;
+
+    private PolicyFinderModule module;
+
+    @Before
+    public void setUp() throws Exception {
+        policyDir = File.createTempFile("fedoraTestingPolicies", null);
+        policyDir.delete();
+        policyDir.mkdir();
+        repoReader = new MockRepositoryReader();
+        module =
+                new PolicyFinderModule("com.sun.xacml.combine.OrderedDenyOverridesPolicyAlg",
+                                       policyDir.getPath(),
+                                       policyDir.getPath(),
+                                       policyDir.getPath(),
+                                       repoReader,
+                                       false,
+                                       false,
+                                       new MockPolicyParser());
+    }
+
+    @After
+    public void tearDown() {
+        policyDir.delete();
+    }
+
+    @Test
+    public void testObjectWithoutPolicy() throws Exception {
+        repoReader.putObject(ObjectBuilder.getTestObject(PID, "label"));
+        assertNull(findObjectPolicy());
+    }
+
+    @Test
+    public void testPolicyIsReusedUntilModified() throws Exception {
+        DigitalObject obj = ObjectBuilder.getTestObject(PID, "label");
+        addPolicyVersion(obj, "POLICY.0", new Date(1000), "foo");
+        repoReader.putObject(obj);
+
+        AbstractPolicy first = findObjectPolicy();
+        assertEquals("foo", first.getId().toString());
+        assertSame(first, findObjectPolicy());
+
+        addPolicyVersion(obj, "POLICY.1", new Date(2000), "bar");
+        AbstractPolicy modified = findObjectPolicy();
+        assertNotSame(first, modified);
+        assertEquals("bar", modified.getId().toString());
+        assertSame(modified, findObjectPolicy());
+    }
+
+    @Test
+    public void testObjectChangedForgetsPolicy() throws Exception {
+        DigitalObject obj = ObjectBuilder.getTestObject(PID, "label");
+        DatastreamXMLMetadata ds =
+                addPolicyVersion(obj, "POLICY.0", new Date(1000), "foo");
+        repoReader.putObject(obj);
+        AbstractPolicy first = findObjectPolicy();
+
+        // the same version, e.g. after a purge and ingest
+        ds.xmlContent = policy("bar").getBytes("UTF-8");
+        assertSame(first, findObjectPolicy());
+
+        module.objectChanged(PID);
+        assertEquals("bar", findObjectPolicy().getId().toString());
+    }
+
+    @Test
+    public void testPolicyIsForgottenWhenRemoved() throws Exception {
+        DigitalObject obj = ObjectBuilder.getTestObject(PID, "label");
+        addPolicyVersion(obj, "POLICY.0", new Date(1000), "foo");
+        repoReader.putObject(obj);
+        AbstractPolicy first = findObjectPolicy();
+
+        repoReader.putObject(ObjectBuilder.getTestObject(PID, "label"));
+        assertNull(findObjectPolicy());
+
+        // the same version again must be parsed again
+        repoReader.putObject(obj);
+        assertNotSame(first, findObjectPolicy());
+    }
+
+    // the object policy is the last of those found, after the repository-wide
+    // policies (of which there are none here)
+    private AbstractPolicy findObjectPolicy() {
+        List<?> policies =
+                module.findPolicy(request(PID)).getPolicy().getChildren();
+        if (policies.isEmpty()) {
+            return null;
+        }
+        return (AbstractPolicy) policies.get(policies.size() - 1);
+    }
+
+    private static DatastreamXMLMetadata addPolicyVersion(DigitalObject obj,
+                                                          String versionId,
+                                                          Date createDate,
+                                                          String policyId)
+            throws Exception {
+        DatastreamXMLMetadata ds = new DatastreamXMLMetadata();
+        ds.DatastreamID = "POLICY";
+        ds.DSVersionID = versionId;
+        ds.DSCreateDT = createDate;
+        ds.DSControlGrp = "X";
+        ds.DSMIME = "text/xml";
+        ds.DSState = "A";
+        ds.DSVersionable = true;
+        ds.xmlContent = policy(policyId).getBytes("UTF-8");
+        ds.DSSize = ds.xmlContent.length;
+        obj.addDatastreamVersion(ds, true);
+        return ds;
+    }
+
+    private static String policy(String policyId) {
+        return TestPolicyParser.POLICY_GOODENOUGH.replace("'foo'", "'"
+                + policyId + "'");
+    }
+
+    // a request for the object, which only has its pid
+    private static EvaluationCtx request(String pid) {
+        final EvaluationResult pidResult =
+                new EvaluationResult(new BagAttribute(URI.create(StringAttribute.identifier),
+                                                      Collections.singleton(new StringAttribute(pid))));
+        InvocationHandler handler = new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getResourceAttribute")) {
+                    return pidResult;
+                }
+                return null;
+            }
+        };
+        return (EvaluationCtx) Proxy.newProxyInstance(EvaluationCtx.class
+                .getClassLoader(), new Class[] {EvaluationCtx.class}, handler);
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestPolicyFinderModule.class);
+    }
+}
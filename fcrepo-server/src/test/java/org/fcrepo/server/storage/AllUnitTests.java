@@ -9,8 +9,10 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {org.fcrepo.server.storage.translation.AllUnitTests.class,
-                      org.fcrepo.server.storage.lowlevel.akubra.AllUnitTests.class})
+@Suite.SuiteClasses( {TestRDFRelationshipReader.class,
+                      org.fcrepo.server.storage.translation.AllUnitTests.class,
+                      org.fcrepo.server.storage.lowlevel.akubra.AllUnitTests.class,
+                      org.fcrepo.server.storage.types.AllUnitTests.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -19,8 +21,10 @@ public class AllUnitTests {
         junit.framework.TestSuite suite =
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
 
+        suite.addTest(new junit.framework.JUnit4TestAdapter(TestRDFRelationshipReader.class));
         suite.addTest(org.fcrepo.server.storage.translation.AllUnitTests.suite());
         suite.addTest(org.fcrepo.server.storage.lowlevel.akubra.AllUnitTests.suite());
+        suite.addTest(org.fcrepo.server.storage.types.AllUnitTests.suite());
 
         return suite;
     }
@@ -0,0 +1,55 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Compares the time taken to read relationships with the StAX reader and
+ * with Trippi's general RDF/XML parser.
+ * <p>
+ * Usage: RDFRelationshipReaderBenchmark [relationships] [iterations]
+ */
+public class RDFRelationshipReaderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int relationships = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        StringBuilder rels = new StringBuilder();
+        rels.append("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"");
+        rels.append(" xmlns:rel=\"info:fedora/fedora-system:def/relations-external#\"");
+        rels.append(" xmlns:model=\"info:fedora/fedora-system:def/model#\">\n");
+        rels.append("<rdf:Description rdf:about=\"info:fedora/demo:1\">\n");
+        rels.append("<model:hasModel rdf:resource=\"info:fedora/demo:model\"/>\n");
+        for (int i = 1; i < relationships; i++) {
+            rels.append("<rel:isMemberOf rdf:resource=\"info:fedora/demo:c" + i
+                    + "\"/>\n");
+        }
+        rels.append("</rdf:Description>\n</rdf:RDF>");
+        byte[] content = rels.toString().getBytes("UTF-8");
+
+        System.out.println("Reading " + relationships + " relationships "
+                + iterations + " times");
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                RDFRelationshipReader
+                        .readAnyRelationships(new ByteArrayInputStream(content));
+            }
+            long general = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                RDFRelationshipReader.readSimpleRelationships(content);
+            }
+            long stax = System.nanoTime() - start;
+            System.out.println("Round " + (round + 1) + ": general "
+                    + general / iterations / 1000 + "us, StAX " + stax
+                    / iterations / 1000 + "us per datastream ("
+                    + (general * 10 / Math.max(stax, 1)) / 10.0
+                    + "x)");
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage;
+
+import java.io.ByteArrayInputStream;
+
+import java.util.Set;
+
+import org.junit.Test;
+
+import org.fcrepo.server.storage.types.RelationshipTuple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TestRDFRelationshipReader {
+
+    private static final String RDF =
+            "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+                    + " xmlns:rel=\"info:fedora/fedora-system:def/relations-external#\""
+                    + " xmlns:foo=\"http://example.org/foo#\">\n";
+
+    @Test
+    public void testSimpleFormMatchesGeneralParser() throws Exception {
+        String rels = RDF
+                + "<rdf:Description rdf:about=\"info:fedora/demo:1\">\n"
+                + "  <rel:isMemberOf rdf:resource=\"info:fedora/demo:c\"/>\n"
+                + "  <rdf:type rdf:resource=\"http://example.org/foo#Thing\"></rdf:type>\n"
+                + "  <!-- a comment -->\n"
+                + "  <foo:title>A &amp; B</foo:title>\n"
+                + "  <foo:size rdf:datatype=\"http://www.w3.org/2001/XMLSchema#int\">5</foo:size>\n"
+                + "  <foo:note><![CDATA[x < y]]></foo:note>\n"
+                + "  <foo:empty/>\n"
+                + "</rdf:Description>\n"
+                + "<rdf:Description rdf:about=\"info:fedora/demo:1/DS1\">\n"
+                + "  <foo:p rdf:resource=\"info:fedora/demo:2\"/>\n"
+                + "</rdf:Description>\n"
+                + "</rdf:RDF>";
+        Set<RelationshipTuple> simple =
+                RDFRelationshipReader.readSimpleRelationships(bytes(rels));
+        assertNotNull(simple);
+        assertEquals(7, simple.size());
+        assertEquals(RDFRelationshipReader
+                .readAnyRelationships(new ByteArrayInputStream(bytes(rels))),
+                     simple);
+    }
+
+    @Test
+    public void testOtherFormsUseGeneralParser() throws Exception {
+        String[] others = {
+                // language tag
+                RDF + "<rdf:Description rdf:about=\"info:fedora/demo:1\">"
+                        + "<foo:title xml:lang=\"en\">A</foo:title>"
+                        + "</rdf:Description></rdf:RDF>",
+                // property attribute
+                RDF + "<rdf:Description rdf:about=\"info:fedora/demo:1\""
+                        + " foo:title=\"A\"/></rdf:RDF>",
+                // nested description
+                RDF + "<rdf:Description rdf:about=\"info:fedora/demo:1\">"
+                        + "<foo:p><rdf:Description rdf:about=\"urn:x\"/></foo:p>"
+                        + "</rdf:Description></rdf:RDF>",
+                // typed node element
+                RDF + "<foo:Thing rdf:about=\"info:fedora/demo:1\"/></rdf:RDF>",
+                // relative URI
+                RDF + "<rdf:Description rdf:about=\"demo1\">"
+                        + "<foo:p rdf:resource=\"info:fedora/demo:2\"/>"
+                        + "</rdf:Description></rdf:RDF>"};
+        for (String other : others) {
+            assertNull(other, RDFRelationshipReader
+                    .readSimpleRelationships(bytes(other)));
+        }
+        Set<RelationshipTuple> tuples =
+                RDFRelationshipReader
+                        .readRelationships(new ByteArrayInputStream(bytes(others[1])));
+        assertEquals(1, tuples.size());
+        assertEquals("A", tuples.iterator().next().object);
+    }
+
+    private static byte[] bytes(String s) throws Exception {
+        return s.getBytes("UTF-8");
+    }
+
+}
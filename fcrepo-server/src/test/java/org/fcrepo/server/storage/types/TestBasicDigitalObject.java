@@ -0,0 +1,94 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.storage.types;
+
+import java.net.URI;
+
+import org.jrdf.graph.URIReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.fcrepo.common.Models;
+import org.fcrepo.common.PID;
+import org.fcrepo.common.rdf.SimpleURIReference;
+
+import static org.fcrepo.common.Constants.MODEL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestBasicDigitalObject {
+
+    private static final String PID_STRING = "demo:1";
+
+    private DigitalObject m_obj;
+
+    @Before
+    public void setUp() {
+        m_obj = ObjectBuilder.getTestObject(PID_STRING,
+                                            new URIReference[] {Models.CONTENT_MODEL_3_0},
+                                            "A",
+                                            "owner",
+                                            "label",
+                                            null,
+                                            null);
+    }
+
+    @Test
+    public void testImplicitBasicModel() throws Exception {
+        assertEquals(2, m_obj.getRelationships(MODEL.HAS_MODEL, null).size());
+        assertTrue(m_obj.hasContentModel(Models.FEDORA_OBJECT_CURRENT));
+        assertTrue(m_obj.hasContentModel(Models.CONTENT_MODEL_3_0));
+        assertFalse(m_obj.hasContentModel(Models.SERVICE_DEFINITION_3_0));
+        assertEquals(2, m_obj.getRelationships().size());
+
+        m_obj = ObjectBuilder.getTestObject(PID_STRING, "label");
+        assertEquals(1, m_obj.getRelationships(MODEL.HAS_MODEL, null).size());
+        assertTrue(m_obj.hasContentModel(Models.FEDORA_OBJECT_3_0));
+    }
+
+    @Test
+    public void testLookupsBySubjectAndPredicate() throws Exception {
+        ObjectBuilder.addXDatastream(m_obj,
+                                     "RELS-INT",
+                                     ObjectBuilder
+                                             .getRELSINT(PID_STRING,
+                                                         "<foo:p rdf:resource=\"urn:a\"/>",
+                                                         "<foo:p rdf:resource=\"urn:b\"/>"
+                                                                 + "<foo:q>x</foo:q>"));
+        URIReference p = uri("http://example.org/foo#p");
+        URIReference ds2 = uri(PID.getInstance(PID_STRING).toURI() + "/DS2");
+        assertEquals(2, m_obj.getRelationships(null, p, null).size());
+        assertEquals(2, m_obj.getRelationships(ds2, null, null).size());
+        assertEquals(1, m_obj.getRelationships(ds2, p, null).size());
+        assertTrue(m_obj.hasRelationship(ds2, p, uri("urn:b")));
+        assertFalse(m_obj.hasRelationship(ds2, p, uri("urn:a")));
+        assertTrue(m_obj.getRelationships(p, null).isEmpty());
+        assertEquals(5, m_obj.getRelationships().size());
+    }
+
+    @Test
+    public void testChangedRelsAreReread() throws Exception {
+        assertEquals(2, m_obj.getRelationships().size());
+        ObjectBuilder.addXDatastream(m_obj,
+                                     "RELS-INT",
+                                     ObjectBuilder
+                                             .getRELSINT(PID_STRING,
+                                                         "<foo:p rdf:resource=\"urn:a\"/>",
+                                                         "<foo:p rdf:resource=\"urn:b\"/>"));
+        assertEquals(4, m_obj.getRelationships().size());
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestBasicDigitalObject.class);
+    }
+
+    private static URIReference uri(String uri) throws Exception {
+        return new SimpleURIReference(new URI(uri));
+    }
+
+}
@@ -0,0 +1,65 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package org.fcrepo.server.utilities.rebuild;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestRebuildCheckpoint {
+
+    private File m_file;
+
+    @Before
+    public void setUp() throws Exception {
+        m_file = File.createTempFile("rebuild", ".checkpoint");
+        m_file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        m_file.delete();
+    }
+
+    @Test
+    public void testAdvancesOnlyOverContiguousBatches() throws Exception {
+        RebuildCheckpoint checkpoint = new RebuildCheckpoint(m_file);
+        assertEquals(0, checkpoint.getResumePosition());
+
+        assertFalse(checkpoint.batchCompleted(1, 10));
+        assertFalse(checkpoint.batchCompleted(2, 10));
+        assertEquals(0, checkpoint.getCompleted());
+
+        assertTrue(checkpoint.batchCompleted(0, 10));
+        assertEquals(30, checkpoint.getCompleted());
+
+        assertTrue(checkpoint.batchCompleted(3, 4));
+        assertEquals(34, checkpoint.getCompleted());
+    }
+
+    @Test
+    public void testResumeFromSavedPosition() throws Exception {
+        RebuildCheckpoint checkpoint = new RebuildCheckpoint(m_file);
+        checkpoint.batchCompleted(0, 10);
+        checkpoint.batchCompleted(1, 10);
+        checkpoint.save();
+
+        RebuildCheckpoint resumed = new RebuildCheckpoint(m_file);
+        assertEquals(20, resumed.getResumePosition());
+        resumed.batchCompleted(0, 10);
+        assertEquals(30, resumed.getCompleted());
+
+        resumed.clear();
+        assertFalse(m_file.exists());
+        assertEquals(0, new RebuildCheckpoint(m_file).getResumePosition());
+    }
+
+}